@@ -26,6 +26,7 @@ import android.os.Handler;
 import com.google.firebase.iid.FirebaseInstanceId;
 import com.google.gson.Gson;
 import com.qiscus.sdk.data.local.QiscusCacheManager;
+import com.qiscus.sdk.data.local.QiscusCachedDataStore;
 import com.qiscus.sdk.data.local.QiscusDataBaseHelper;
 import com.qiscus.sdk.data.local.QiscusDataStore;
 import com.qiscus.sdk.data.model.QiscusAccount;
@@ -120,7 +121,9 @@ public class Qiscus {
         appHandler = new Handler(appInstance.getApplicationContext().getMainLooper());
         taskExecutor = new ScheduledThreadPoolExecutor(5);
         localDataManager = new LocalDataManager();
-        dataStore = new QiscusDataBaseHelper();
+        QiscusCachedDataStore cachedDataStore = new QiscusCachedDataStore(new QiscusDataBaseHelper());
+        appInstance.registerComponentCallbacks(cachedDataStore);
+        dataStore = cachedDataStore;
         chatConfig = new QiscusChatConfig();
         heartBeat = 60000;
         appInstance.registerActivityLifecycleCallbacks(QiscusActivityCallback.INSTANCE);
@@ -0,0 +1,753 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.support.v4.util.LruCache;
+
+import com.qiscus.sdk.data.model.QiscusChatRoom;
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.data.model.QiscusRoomMember;
+import com.schinizer.rxunfurl.model.PreviewData;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Emitter;
+import rx.Observable;
+
+/**
+ * Data store that keep the latest comments of recently opened topics and rooms in memory in front of another data
+ * store, so reopening a room does not need to read it again from the database. Members are already cached by
+ * {@link QiscusDataBaseHelper}. Entries are dropped by the writes made through this store, and every read return a
+ * copy so the cached objects are never shared with the UI. Register it with {@link android.content.Context#registerComponentCallbacks} to let it shrink when
+ * the system is low on memory.
+ */
+public class QiscusCachedDataStore implements QiscusDataStore, ComponentCallbacks2 {
+    private static final int COMMENT_OVERHEAD_BYTES = 160;
+    private static final int ROOM_OVERHEAD_BYTES = 200;
+    private static final int MEMBER_OVERHEAD_BYTES = 64;
+
+    private final QiscusDataStore dataStore;
+    private final LruCache<Integer, CommentWindow> commentWindows;
+    private final LruCache<Integer, QiscusChatRoom> rooms;
+    //Changed with the lock held by every invalidation, a read older than it does not fill the cache
+    private final AtomicLong generation;
+    private final Object lock;
+    private final AtomicLong commentHits;
+    private final AtomicLong commentMisses;
+    private final AtomicLong roomHits;
+    private final AtomicLong roomMisses;
+
+    public QiscusCachedDataStore(QiscusDataStore dataStore) {
+        this(dataStore, (int) Math.min(Runtime.getRuntime().maxMemory() / 32, Integer.MAX_VALUE));
+    }
+
+    /**
+     * @param dataStore the store to read from and write to
+     * @param maxBytes  rough memory budget of the whole cache, 7/8 of it is used for comments
+     */
+    public QiscusCachedDataStore(QiscusDataStore dataStore, int maxBytes) {
+        this.dataStore = dataStore;
+        commentWindows = new LruCache<Integer, CommentWindow>(Math.max(1, maxBytes / 8 * 7)) {
+            @Override
+            protected int sizeOf(Integer key, CommentWindow value) {
+                return value.sizeInBytes;
+            }
+        };
+        rooms = new LruCache<Integer, QiscusChatRoom>(Math.max(1, maxBytes / 8)) {
+            @Override
+            protected int sizeOf(Integer key, QiscusChatRoom value) {
+                return sizeOf(value);
+            }
+        };
+        generation = new AtomicLong();
+        lock = new Object();
+        commentHits = new AtomicLong();
+        commentMisses = new AtomicLong();
+        roomHits = new AtomicLong();
+        roomMisses = new AtomicLong();
+    }
+
+    public QiscusDataStore getDataStore() {
+        return dataStore;
+    }
+
+    public Stats getStats() {
+        return new Stats(commentHits.get(), commentMisses.get(), roomHits.get(), roomMisses.get(),
+                commentWindows.size() + rooms.size());
+    }
+
+    public void evictAll() {
+        synchronized (lock) {
+            generation.incrementAndGet();
+            commentWindows.evictAll();
+            rooms.evictAll();
+        }
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        if (level >= TRIM_MEMORY_MODERATE || level == TRIM_MEMORY_RUNNING_CRITICAL) {
+            evictAll();
+        } else if (level >= TRIM_MEMORY_BACKGROUND || level == TRIM_MEMORY_RUNNING_LOW) {
+            commentWindows.trimToSize(commentWindows.maxSize() / 2);
+            rooms.trimToSize(rooms.maxSize() / 2);
+        }
+    }
+
+    @Override
+    public void onLowMemory() {
+        evictAll();
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+
+    }
+
+    //Must be called after the write, reads that started before it will not put their result into the cache
+    private void onTopicChanged(int topicId) {
+        synchronized (lock) {
+            generation.incrementAndGet();
+            commentWindows.remove(topicId);
+        }
+    }
+
+    private void onRoomChanged(int roomId) {
+        synchronized (lock) {
+            generation.incrementAndGet();
+            rooms.remove(roomId);
+        }
+    }
+
+    private void onCommentChanged(QiscusComment qiscusComment) {
+        onTopicChanged(qiscusComment.getTopicId());
+        onRoomChanged(qiscusComment.getRoomId());
+    }
+
+    private void onMemberChanged(QiscusRoomMember qiscusRoomMember) {
+        onMembersChanged(qiscusRoomMember != null ? Collections.singletonList(qiscusRoomMember) : null);
+    }
+
+    //Comments and rooms carry the sender name and avatar, only the entries showing another name or avatar are dropped
+    private void onMembersChanged(List<QiscusRoomMember> qiscusRoomMembers) {
+        if (qiscusRoomMembers == null || qiscusRoomMembers.isEmpty()) {
+            return;
+        }
+
+        Map<String, QiscusRoomMember> memberMap = new HashMap<>(qiscusRoomMembers.size());
+        for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+            memberMap.put(qiscusRoomMember.getEmail(), qiscusRoomMember);
+        }
+
+        synchronized (lock) {
+            generation.incrementAndGet();
+            for (Map.Entry<Integer, CommentWindow> entry : commentWindows.snapshot().entrySet()) {
+                if (isStale(entry.getValue(), memberMap)) {
+                    commentWindows.remove(entry.getKey());
+                }
+            }
+            for (Map.Entry<Integer, QiscusChatRoom> entry : rooms.snapshot().entrySet()) {
+                if (isStale(entry.getValue(), memberMap)) {
+                    rooms.remove(entry.getKey());
+                }
+            }
+        }
+    }
+
+    private static boolean isStale(CommentWindow commentWindow, Map<String, QiscusRoomMember> memberMap) {
+        for (QiscusComment qiscusComment : commentWindow.comments) {
+            QiscusRoomMember qiscusRoomMember = memberMap.get(qiscusComment.getSenderEmail());
+            if (qiscusRoomMember != null && (!isSame(qiscusComment.getSender(), qiscusRoomMember.getUsername())
+                    || !isSame(qiscusComment.getSenderAvatar(), qiscusRoomMember.getAvatar()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isStale(QiscusChatRoom qiscusChatRoom, Map<String, QiscusRoomMember> memberMap) {
+        QiscusRoomMember lastSender = memberMap.get(qiscusChatRoom.getLastCommentSenderEmail());
+        if (lastSender != null && !isSame(qiscusChatRoom.getLastCommentSender(), lastSender.getUsername())) {
+            return true;
+        }
+        if (qiscusChatRoom.getMember() != null) {
+            for (QiscusRoomMember cachedMember : qiscusChatRoom.getMember()) {
+                QiscusRoomMember qiscusRoomMember = memberMap.get(cachedMember.getEmail());
+                if (qiscusRoomMember != null && (!isSame(cachedMember.getUsername(), qiscusRoomMember.getUsername())
+                        || !isSame(cachedMember.getAvatar(), qiscusRoomMember.getAvatar()))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void add(QiscusChatRoom qiscusChatRoom) {
+        dataStore.add(qiscusChatRoom);
+        onChatRoomWritten(qiscusChatRoom);
+    }
+
+    @Override
+    public boolean isContains(QiscusChatRoom qiscusChatRoom) {
+        return rooms.get(qiscusChatRoom.getId()) != null || dataStore.isContains(qiscusChatRoom);
+    }
+
+    @Override
+    public void update(QiscusChatRoom qiscusChatRoom) {
+        dataStore.update(qiscusChatRoom);
+        onChatRoomWritten(qiscusChatRoom);
+    }
+
+    @Override
+    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
+        dataStore.addOrUpdate(qiscusChatRoom);
+        onChatRoomWritten(qiscusChatRoom);
+    }
+
+    @Override
+    public void addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms) {
+        dataStore.addOrUpdateChatRooms(qiscusChatRooms);
+        List<QiscusRoomMember> qiscusRoomMembers = new ArrayList<>();
+        for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+            onRoomChanged(qiscusChatRoom.getId());
+            if (qiscusChatRoom.getMember() != null) {
+                qiscusRoomMembers.addAll(qiscusChatRoom.getMember());
+            }
+        }
+        onMembersChanged(qiscusRoomMembers);
+    }
+
+    //The store also save the room members
+    private void onChatRoomWritten(QiscusChatRoom qiscusChatRoom) {
+        onRoomChanged(qiscusChatRoom.getId());
+        onMembersChanged(qiscusChatRoom.getMember());
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(int id) {
+        QiscusChatRoom qiscusChatRoom = rooms.get(id);
+        if (qiscusChatRoom != null) {
+            roomHits.incrementAndGet();
+            return copyOf(qiscusChatRoom);
+        }
+
+        roomMisses.incrementAndGet();
+        long readGeneration = generation.get();
+        qiscusChatRoom = dataStore.getChatRoom(id);
+        if (qiscusChatRoom != null) {
+            QiscusChatRoom cachedRoom = copyOf(qiscusChatRoom);
+            synchronized (lock) {
+                if (readGeneration == generation.get()) {
+                    rooms.put(id, cachedRoom);
+                }
+            }
+        }
+        return qiscusChatRoom;
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email) {
+        return dataStore.getChatRoom(email);
+    }
+
+    @Override
+    public QiscusChatRoom getChatRoom(String email, String distinctId) {
+        return dataStore.getChatRoom(email, distinctId);
+    }
+
+    @Override
+    public List<QiscusChatRoom> getChatRooms(int count) {
+        return dataStore.getChatRooms(count);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> getObservableChatRooms(int count) {
+        return dataStore.getObservableChatRooms(count);
+    }
+
+    @Override
+    public Observable<List<QiscusChatRoom>> observeChatRooms(int count) {
+        return dataStore.observeChatRooms(count);
+    }
+
+    @Override
+    public void deleteChatRoom(int roomId) {
+        dataStore.deleteChatRoom(roomId);
+        onRoomChanged(roomId);
+    }
+
+    @Override
+    public void addRoomMember(int roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
+        //The member row itself is upserted too
+        dataStore.addRoomMember(roomId, qiscusRoomMember, distinctId);
+        onRoomChanged(roomId);
+        onMemberChanged(qiscusRoomMember);
+    }
+
+    @Override
+    public boolean isContainsRoomMember(int roomId, String email) {
+        return dataStore.isContainsRoomMember(roomId, email);
+    }
+
+    @Override
+    public List<QiscusRoomMember> getRoomMembers(int roomId) {
+        return dataStore.getRoomMembers(roomId);
+    }
+
+    @Override
+    public void deleteRoomMember(int roomId, String email) {
+        dataStore.deleteRoomMember(roomId, email);
+        onRoomChanged(roomId);
+    }
+
+    @Override
+    public void deleteRoomMembers(int roomId) {
+        dataStore.deleteRoomMembers(roomId);
+        onRoomChanged(roomId);
+    }
+
+    @Override
+    public void add(QiscusRoomMember qiscusRoomMember) {
+        dataStore.add(qiscusRoomMember);
+        onMemberChanged(qiscusRoomMember);
+    }
+
+    @Override
+    public boolean isContains(QiscusRoomMember qiscusRoomMember) {
+        return dataStore.isContains(qiscusRoomMember);
+    }
+
+    @Override
+    public void update(QiscusRoomMember qiscusRoomMember) {
+        dataStore.update(qiscusRoomMember);
+        onMemberChanged(qiscusRoomMember);
+    }
+
+    @Override
+    public void addOrUpdate(QiscusRoomMember qiscusRoomMember) {
+        dataStore.addOrUpdate(qiscusRoomMember);
+        onMemberChanged(qiscusRoomMember);
+    }
+
+    @Override
+    public void addOrUpdateMembers(List<QiscusRoomMember> qiscusRoomMembers) {
+        dataStore.addOrUpdateMembers(qiscusRoomMembers);
+        onMembersChanged(qiscusRoomMembers);
+    }
+
+    @Override
+    public QiscusRoomMember getMember(String email) {
+        return dataStore.getMember(email);
+    }
+
+    @Override
+    public void add(QiscusComment qiscusComment) {
+        dataStore.add(qiscusComment);
+        onCommentChanged(qiscusComment);
+    }
+
+    @Override
+    public boolean isContains(QiscusComment qiscusComment) {
+        return dataStore.isContains(qiscusComment);
+    }
+
+    @Override
+    public void update(QiscusComment qiscusComment) {
+        dataStore.update(qiscusComment);
+        onCommentChanged(qiscusComment);
+    }
+
+    @Override
+    public void addOrUpdate(QiscusComment qiscusComment) {
+        dataStore.addOrUpdate(qiscusComment);
+        onCommentChanged(qiscusComment);
+    }
+
+    @Override
+    public void addOrUpdateComments(List<QiscusComment> qiscusComments) {
+        dataStore.addOrUpdateComments(qiscusComments);
+        for (QiscusComment qiscusComment : qiscusComments) {
+            onCommentChanged(qiscusComment);
+        }
+    }
+
+    @Override
+    public void delete(QiscusComment qiscusComment) {
+        dataStore.delete(qiscusComment);
+        onCommentChanged(qiscusComment);
+    }
+
+    @Override
+    public QiscusComment getComment(int id, String uniqueId) {
+        return dataStore.getComment(id, uniqueId);
+    }
+
+    @Override
+    public Map<Integer, Integer> getCommentStates(Collection<Integer> ids) {
+        return dataStore.getCommentStates(ids);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(int topicId) {
+        return getComments(topicId, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public List<QiscusComment> getComments(int topicId, int count) {
+        CommentWindow commentWindow = commentWindows.get(topicId);
+        if (commentWindow != null && commentWindow.contains(count)) {
+            commentHits.incrementAndGet();
+            int size = Math.min(count, commentWindow.comments.size());
+            List<QiscusComment> qiscusComments = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                qiscusComments.add(copyOf(commentWindow.comments.get(i)));
+            }
+            return qiscusComments;
+        }
+
+        commentMisses.incrementAndGet();
+        long readGeneration = generation.get();
+        List<QiscusComment> qiscusComments = count == Integer.MAX_VALUE
+                ? dataStore.getComments(topicId) : dataStore.getComments(topicId, count);
+        CommentWindow cachedWindow = new CommentWindow(qiscusComments, count);
+        synchronized (lock) {
+            if (readGeneration == generation.get()) {
+                commentWindows.put(topicId, cachedWindow);
+            }
+        }
+        return qiscusComments;
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(int topicId) {
+        return getObservableComments(topicId, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableComments(int topicId, int count) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getComments(topicId, count));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> observeComments(int topicId, int count) {
+        return dataStore.observeComments(topicId, count);
+    }
+
+    @Override
+    public List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, int topicId, int count) {
+        return dataStore.getOlderCommentsThan(qiscusComment, topicId, count);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableOlderCommentsThan(QiscusComment qiscusComment, int topicId, int count) {
+        return dataStore.getObservableOlderCommentsThan(qiscusComment, topicId, count);
+    }
+
+    @Override
+    public QiscusCommentPage getCommentPage(int topicId, String pageToken, int count) {
+        return dataStore.getCommentPage(topicId, pageToken, count);
+    }
+
+    @Override
+    public Observable<QiscusCommentPage> getObservableCommentPage(int topicId, String pageToken, int count) {
+        return dataStore.getObservableCommentPage(topicId, pageToken, count);
+    }
+
+    @Override
+    public QiscusCommentSearchPage searchComments(String query, int limit, String pageToken) {
+        return dataStore.searchComments(query, limit, pageToken);
+    }
+
+    @Override
+    public QiscusCommentSearchPage searchComments(String query, int roomId, int limit, String pageToken) {
+        return dataStore.searchComments(query, roomId, limit, pageToken);
+    }
+
+    @Override
+    public Observable<QiscusCommentSearchPage> getObservableSearchComments(String query, int limit, String pageToken) {
+        return dataStore.getObservableSearchComments(query, limit, pageToken);
+    }
+
+    @Override
+    public Observable<QiscusCommentSearchPage> getObservableSearchComments(String query, int roomId, int limit,
+                                                                          String pageToken) {
+        return dataStore.getObservableSearchComments(query, roomId, limit, pageToken);
+    }
+
+    @Override
+    public List<QiscusComment> getCommentsAfter(QiscusComment qiscusComment, int topicId) {
+        return dataStore.getCommentsAfter(qiscusComment, topicId);
+    }
+
+    @Override
+    public Observable<List<QiscusComment>> getObservableCommentsAfter(QiscusComment qiscusComment, int topicId) {
+        return dataStore.getObservableCommentsAfter(qiscusComment, topicId);
+    }
+
+    @Override
+    public QiscusComment getLatestComment() {
+        return dataStore.getLatestComment();
+    }
+
+    @Override
+    public QiscusComment getLatestComment(int roomId) {
+        return dataStore.getLatestComment(roomId);
+    }
+
+    @Override
+    public QiscusComment getLatestDeliveredComment(int topicId) {
+        return dataStore.getLatestDeliveredComment(topicId);
+    }
+
+    @Override
+    public QiscusComment getLatestReadComment(int topicId) {
+        return dataStore.getLatestReadComment(topicId);
+    }
+
+    @Override
+    public void saveLocalPath(int topicId, int commentId, String localPath) {
+        dataStore.saveLocalPath(topicId, commentId, localPath);
+    }
+
+    @Override
+    public boolean isContainsFileOfComment(int commentId) {
+        return dataStore.isContainsFileOfComment(commentId);
+    }
+
+    @Override
+    public void updateLocalPath(int topicId, int commentId, String localPath) {
+        dataStore.updateLocalPath(topicId, commentId, localPath);
+    }
+
+    @Override
+    public void addOrUpdateLocalPath(int topicId, int commentId, String localPath) {
+        dataStore.addOrUpdateLocalPath(topicId, commentId, localPath);
+    }
+
+    @Override
+    public File getLocalPath(int commentId) {
+        return dataStore.getLocalPath(commentId);
+    }
+
+    @Override
+    public void addOutboxEntry(QiscusOutboxEntry entry) {
+        dataStore.addOutboxEntry(entry);
+    }
+
+    @Override
+    public void updateOutboxEntry(QiscusOutboxEntry entry) {
+        dataStore.updateOutboxEntry(entry);
+    }
+
+    @Override
+    public void deleteOutboxEntry(String uniqueId) {
+        dataStore.deleteOutboxEntry(uniqueId);
+    }
+
+    @Override
+    public List<QiscusOutboxEntry> getOutboxEntries() {
+        return dataStore.getOutboxEntries();
+    }
+
+    @Override
+    public void addOrUpdateLinkPreview(String url, PreviewData previewData, long fetchTime) {
+        dataStore.addOrUpdateLinkPreview(url, previewData, fetchTime);
+    }
+
+    @Override
+    public PreviewData getLinkPreview(String url, long minFetchTime) {
+        return dataStore.getLinkPreview(url, minFetchTime);
+    }
+
+    @Override
+    public void trimLinkPreviews(long minFetchTime, int maxCount) {
+        dataStore.trimLinkPreviews(minFetchTime, maxCount);
+    }
+
+    @Override
+    public void clear() {
+        dataStore.clear();
+        evictAll();
+    }
+
+    private static boolean isSame(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    private static int sizeOf(String value) {
+        return value == null ? 0 : value.length() * 2;
+    }
+
+    private static int sizeOf(QiscusComment qiscusComment) {
+        return COMMENT_OVERHEAD_BYTES + sizeOf(qiscusComment.getUniqueId()) + sizeOf(qiscusComment.getMessage())
+                + sizeOf(qiscusComment.getSender()) + sizeOf(qiscusComment.getSenderEmail())
+                + sizeOf(qiscusComment.getSenderAvatar()) + sizeOf(qiscusComment.getRawType())
+                + sizeOf(qiscusComment.getExtraPayload());
+    }
+
+    private static int sizeOf(QiscusChatRoom qiscusChatRoom) {
+        int size = ROOM_OVERHEAD_BYTES + sizeOf(qiscusChatRoom.getDistinctId()) + sizeOf(qiscusChatRoom.getName())
+                + sizeOf(qiscusChatRoom.getSubtitle()) + sizeOf(qiscusChatRoom.getLastCommentMessage())
+                + sizeOf(qiscusChatRoom.getLastCommentSender()) + sizeOf(qiscusChatRoom.getLastCommentSenderEmail())
+                + sizeOf(qiscusChatRoom.getOptions()) + sizeOf(qiscusChatRoom.getAvatarUrl());
+        if (qiscusChatRoom.getMember() != null) {
+            for (QiscusRoomMember qiscusRoomMember : qiscusChatRoom.getMember()) {
+                size += sizeOf(qiscusRoomMember);
+            }
+        }
+        return size;
+    }
+
+    private static int sizeOf(QiscusRoomMember qiscusRoomMember) {
+        return MEMBER_OVERHEAD_BYTES + sizeOf(qiscusRoomMember.getEmail()) + sizeOf(qiscusRoomMember.getUsername())
+                + sizeOf(qiscusRoomMember.getAvatar());
+    }
+
+    //Only copy what the database store, the rest is UI state of the comment
+    private static QiscusComment copyOf(QiscusComment qiscusComment) {
+        QiscusComment copy = new QiscusComment();
+        copy.setId(qiscusComment.getId());
+        copy.setRoomId(qiscusComment.getRoomId());
+        copy.setTopicId(qiscusComment.getTopicId());
+        copy.setUniqueId(qiscusComment.getUniqueId());
+        copy.setCommentBeforeId(qiscusComment.getCommentBeforeId());
+        copy.setMessage(qiscusComment.getMessage());
+        copy.setSender(qiscusComment.getSender());
+        copy.setSenderEmail(qiscusComment.getSenderEmail());
+        copy.setSenderAvatar(qiscusComment.getSenderAvatar());
+        copy.setTimeMillis(qiscusComment.getTimeMillis());
+        copy.setState(qiscusComment.getState());
+        copy.setRawType(qiscusComment.getRawType());
+        copy.setExtraPayload(qiscusComment.getExtraPayload());
+        return copy;
+    }
+
+    private static QiscusChatRoom copyOf(QiscusChatRoom qiscusChatRoom) {
+        QiscusChatRoom copy = new QiscusChatRoom();
+        copy.setId(qiscusChatRoom.getId());
+        copy.setDistinctId(qiscusChatRoom.getDistinctId());
+        copy.setName(qiscusChatRoom.getName());
+        copy.setSubtitle(qiscusChatRoom.getSubtitle());
+        copy.setLastCommentId(qiscusChatRoom.getLastCommentId());
+        copy.setLastCommentMessage(qiscusChatRoom.getLastCommentMessage());
+        copy.setLastCommentSender(qiscusChatRoom.getLastCommentSender());
+        copy.setLastCommentSenderEmail(qiscusChatRoom.getLastCommentSenderEmail());
+        copy.setLastCommentTime(qiscusChatRoom.getLastCommentTime());
+        copy.setLastTopicId(qiscusChatRoom.getLastTopicId());
+        copy.setOptions(qiscusChatRoom.getOptions());
+        copy.setGroup(qiscusChatRoom.isGroup());
+        copy.setAvatarUrl(qiscusChatRoom.getAvatarUrl());
+        if (qiscusChatRoom.getMember() != null) {
+            List<QiscusRoomMember> members = new ArrayList<>(qiscusChatRoom.getMember().size());
+            for (QiscusRoomMember qiscusRoomMember : qiscusChatRoom.getMember()) {
+                members.add(copyOf(qiscusRoomMember));
+            }
+            copy.setMember(members);
+        }
+        return copy;
+    }
+
+    private static QiscusRoomMember copyOf(QiscusRoomMember qiscusRoomMember) {
+        QiscusRoomMember copy = new QiscusRoomMember();
+        copy.setEmail(qiscusRoomMember.getEmail());
+        copy.setUsername(qiscusRoomMember.getUsername());
+        copy.setAvatar(qiscusRoomMember.getAvatar());
+        return copy;
+    }
+
+    private static class CommentWindow {
+        private final List<QiscusComment> comments;
+        private final int count;
+        private final int sizeInBytes;
+
+        private CommentWindow(List<QiscusComment> comments, int count) {
+            this.comments = new ArrayList<>(comments.size());
+            int size = 0;
+            for (QiscusComment qiscusComment : comments) {
+                this.comments.add(copyOf(qiscusComment));
+                size += sizeOf(qiscusComment);
+            }
+            this.count = count;
+            sizeInBytes = Math.max(1, size);
+        }
+
+        //Fewer comments than asked means the window already hold the whole topic
+        private boolean contains(int count) {
+            return count <= this.count || comments.size() < this.count;
+        }
+    }
+
+    public static class Stats {
+        private final long commentHits;
+        private final long commentMisses;
+        private final long roomHits;
+        private final long roomMisses;
+        private final int sizeInBytes;
+
+        private Stats(long commentHits, long commentMisses, long roomHits, long roomMisses, int sizeInBytes) {
+            this.commentHits = commentHits;
+            this.commentMisses = commentMisses;
+            this.roomHits = roomHits;
+            this.roomMisses = roomMisses;
+            this.sizeInBytes = sizeInBytes;
+        }
+
+        public long getCommentHits() {
+            return commentHits;
+        }
+
+        public long getCommentMisses() {
+            return commentMisses;
+        }
+
+        public long getRoomHits() {
+            return roomHits;
+        }
+
+        public long getRoomMisses() {
+            return roomMisses;
+        }
+
+        public int getSizeInBytes() {
+            return sizeInBytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "commentHits=" + commentHits +
+                    ", commentMisses=" + commentMisses +
+                    ", roomHits=" + roomHits +
+                    ", roomMisses=" + roomMisses +
+                    ", sizeInBytes=" + sizeInBytes +
+                    '}';
+        }
+    }
+}
@@ -38,6 +38,8 @@ public interface QiscusChatRoomStore {
 
     void addOrUpdate(QiscusChatRoom qiscusChatRoom);
 
+    void addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms);
+
     QiscusChatRoom getChatRoom(int id);
 
     QiscusChatRoom getChatRoom(String email);
@@ -48,6 +50,15 @@ public interface QiscusChatRoomStore {
 
     Observable<List<QiscusChatRoom>> getObservableChatRooms(int count);
 
+    /**
+     * Unlike getObservableChatRooms, this observable never completes. It emits the rooms once subscribed and again
+     * every time a room or a comment of a room is written to the store.
+     *
+     * @param count max rooms of every emission
+     * @return live rooms
+     */
+    Observable<List<QiscusChatRoom>> observeChatRooms(int count);
+
     void deleteChatRoom(int roomId);
 
     void addRoomMember(int roomId, QiscusRoomMember qiscusRoomMember, String distinctId);
@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+
+import java.util.List;
+
+/**
+ * One page of comments ordered from the newest, read by {@link QiscusCommentStore#getCommentPage(int, String, int)}.
+ * Pass {@link #getNextPageToken()} to get the next older page.
+ */
+public class QiscusCommentPage {
+    private final List<QiscusComment> comments;
+    private final String nextPageToken;
+    private final boolean hasMore;
+
+    public QiscusCommentPage(List<QiscusComment> comments, String nextPageToken, boolean hasMore) {
+        this.comments = comments;
+        this.nextPageToken = nextPageToken;
+        this.hasMore = hasMore;
+    }
+
+    public List<QiscusComment> getComments() {
+        return comments;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    @Override
+    public String toString() {
+        return "QiscusCommentPage{" +
+                "comments=" + comments.size() +
+                ", nextPageToken='" + nextPageToken + '\'' +
+                ", hasMore=" + hasMore +
+                '}';
+    }
+}
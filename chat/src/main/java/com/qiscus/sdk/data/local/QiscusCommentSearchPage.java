@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import java.util.List;
+
+/**
+ * One page of search results, pass {@link #getNextPageToken()} to get the next page of the same query.
+ */
+public class QiscusCommentSearchPage {
+    private final List<QiscusCommentSearchResult> results;
+    private final String nextPageToken;
+    private final boolean hasMore;
+
+    public QiscusCommentSearchPage(List<QiscusCommentSearchResult> results, String nextPageToken, boolean hasMore) {
+        this.results = results;
+        this.nextPageToken = nextPageToken;
+        this.hasMore = hasMore;
+    }
+
+    public List<QiscusCommentSearchResult> getResults() {
+        return results;
+    }
+
+    public String getNextPageToken() {
+        return nextPageToken;
+    }
+
+    public boolean hasMore() {
+        return hasMore;
+    }
+
+    @Override
+    public String toString() {
+        return "QiscusCommentSearchPage{" +
+                "results=" + results.size() +
+                ", nextPageToken='" + nextPageToken + '\'' +
+                ", hasMore=" + hasMore +
+                '}';
+    }
+}
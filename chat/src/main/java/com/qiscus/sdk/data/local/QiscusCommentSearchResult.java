@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+
+/**
+ * A comment matching {@link QiscusCommentStore#searchComments(String, int, String)}, with the part of the message
+ * around the matching terms.
+ */
+public class QiscusCommentSearchResult {
+    private final QiscusComment comment;
+    private final String snippet;
+    private final int hits;
+
+    public QiscusCommentSearchResult(QiscusComment comment, String snippet, int hits) {
+        this.comment = comment;
+        this.snippet = snippet;
+        this.hits = hits;
+    }
+
+    public QiscusComment getComment() {
+        return comment;
+    }
+
+    /**
+     * @return part of the message with every matching term wrapped by the highlight markers
+     */
+    public String getSnippet() {
+        return snippet;
+    }
+
+    /**
+     * @return how many times the searched terms appear in the message, results are ranked by this first
+     */
+    public int getHits() {
+        return hits;
+    }
+
+    @Override
+    public String toString() {
+        return "QiscusCommentSearchResult{" +
+                "comment=" + comment +
+                ", snippet='" + snippet + '\'' +
+                ", hits=" + hits +
+                '}';
+    }
+}
@@ -18,7 +18,9 @@ package com.qiscus.sdk.data.local;
 
 import com.qiscus.sdk.data.model.QiscusComment;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import rx.Observable;
 
@@ -37,10 +39,21 @@ public interface QiscusCommentStore {
 
     void addOrUpdate(QiscusComment qiscusComment);
 
+    void addOrUpdateComments(List<QiscusComment> qiscusComments);
+
     void delete(QiscusComment qiscusComment);
 
     QiscusComment getComment(int id, String uniqueId);
 
+    /**
+     * Read the saved state of many comments at once, useful to not move a comment state backward when saving a
+     * page of comments from the server.
+     *
+     * @param ids server ids of the comments
+     * @return state of every saved comment, by its id
+     */
+    Map<Integer, Integer> getCommentStates(Collection<Integer> ids);
+
     List<QiscusComment> getComments(int topicId);
 
     List<QiscusComment> getComments(int topicId, int count);
@@ -49,10 +62,53 @@ public interface QiscusCommentStore {
 
     Observable<List<QiscusComment>> getObservableComments(int topicId, int count);
 
+    /**
+     * Unlike getObservableComments, this observable never completes. It emits the latest comments once subscribed
+     * and again every time comments of the topic are written to the store.
+     *
+     * @param topicId the topic to observe
+     * @param count   max comments of every emission
+     * @return live comments of the topic
+     */
+    Observable<List<QiscusComment>> observeComments(int topicId, int count);
+
     List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, int topicId, int count);
 
     Observable<List<QiscusComment>> getObservableOlderCommentsThan(QiscusComment qiscusComment, int topicId, int count);
 
+    /**
+     * Read comments from the newest to the oldest by (time, id, unique id), so comments that share the same time
+     * are never duplicated or skipped between pages.
+     *
+     * @param topicId   the topic
+     * @param pageToken token from the previous page, or null to start from the newest comment
+     * @param count     max comments of the page
+     * @return the page
+     */
+    QiscusCommentPage getCommentPage(int topicId, String pageToken, int count);
+
+    Observable<QiscusCommentPage> getObservableCommentPage(int topicId, String pageToken, int count);
+
+    /**
+     * Full text search of comment messages in every room, ranked by how many times the terms appear and then by
+     * time. The last word is matched as a prefix.
+     *
+     * @param query     free text typed by the user
+     * @param limit     max results of the page
+     * @param pageToken token from the previous page, or null for the first page
+     * @return the page
+     */
+    QiscusCommentSearchPage searchComments(String query, int limit, String pageToken);
+
+    /**
+     * Same as {@link #searchComments(String, int, String)} but only for comments of the room.
+     */
+    QiscusCommentSearchPage searchComments(String query, int roomId, int limit, String pageToken);
+
+    Observable<QiscusCommentSearchPage> getObservableSearchComments(String query, int limit, String pageToken);
+
+    Observable<QiscusCommentSearchPage> getObservableSearchComments(String query, int roomId, int limit, String pageToken);
+
     List<QiscusComment> getCommentsAfter(QiscusComment qiscusComment, int topicId);
 
     Observable<List<QiscusComment>> getObservableCommentsAfter(QiscusComment qiscusComment, int topicId);
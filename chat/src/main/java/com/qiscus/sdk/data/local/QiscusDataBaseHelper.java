@@ -16,95 +16,369 @@
 
 package com.qiscus.sdk.data.local;
 
+import android.content.Context;
 import android.database.Cursor;
 import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.support.v4.util.LruCache;
+import android.util.Base64;
 
 import com.qiscus.sdk.Qiscus;
 import com.qiscus.sdk.data.model.QiscusChatRoom;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.data.model.QiscusRoomMember;
+import com.schinizer.rxunfurl.model.PreviewData;
 
 import java.io.File;
+import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import rx.Emitter;
 import rx.Observable;
+import rx.schedulers.Schedulers;
+import rx.subjects.PublishSubject;
+import rx.subjects.Subject;
 
 public class QiscusDataBaseHelper implements QiscusDataStore {
 
+    private static final int MEMBER_CACHE_SIZE = 500;
+    private static final int MAX_QUERY_ARGS = 500;
+    private static final long CHANGE_DEBOUNCE_MS = 100;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NO_ROOM = -1;
+    private static final int SEARCH_BACKFILL_SIZE = 200;
+    private static final String SEARCH_START_MATCH = "<b>";
+    private static final String SEARCH_END_MATCH = "</b>";
+    private static final String SEARCH_ELLIPSIS = "\u2026";
+
+    private static final String COUNT_ROOM = "SELECT COUNT(*) FROM "
+            + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
+            + QiscusDb.RoomTable.COLUMN_ID + " = ?";
+    private static final String SELECT_ROOM = "SELECT * FROM "
+            + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
+            + QiscusDb.RoomTable.COLUMN_ID + " = ?";
+    private static final String SELECT_ROOM_MEMBER_BY_DISTINCT_ID = "SELECT * FROM "
+            + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
+            + QiscusDb.RoomMemberTable.COLUMN_DISTINCT_ID + " = ? AND "
+            + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ?";
+    private static final String COUNT_ROOM_MEMBER = "SELECT COUNT(*) FROM "
+            + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
+            + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = ? AND "
+            + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = ?";
+    private static final String COUNT_MEMBER = "SELECT COUNT(*) FROM "
+            + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
+            + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = ?";
+    private static final String SELECT_MEMBER = "SELECT * FROM "
+            + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
+            + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = ?";
+    private static final String WHERE_COMMENT_UNIQUE_ID = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?";
+    private static final String WHERE_COMMENT_ID_OR_UNIQUE_ID = QiscusDb.CommentTable.COLUMN_ID + " = ? OR "
+            + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?";
+    private static final String COUNT_COMMENT_BY_UNIQUE_ID = "SELECT COUNT(*) FROM "
+            + QiscusDb.CommentTable.TABLE_NAME + " WHERE " + WHERE_COMMENT_UNIQUE_ID;
+    private static final String COUNT_COMMENT = "SELECT COUNT(*) FROM "
+            + QiscusDb.CommentTable.TABLE_NAME + " WHERE " + WHERE_COMMENT_ID_OR_UNIQUE_ID;
+    private static final String SELECT_COMMENT_BY_UNIQUE_ID = "SELECT * FROM "
+            + QiscusDb.CommentTable.TABLE_NAME + " WHERE " + WHERE_COMMENT_UNIQUE_ID;
+    private static final String SELECT_COMMENT = "SELECT * FROM "
+            + QiscusDb.CommentTable.TABLE_NAME + " WHERE " + WHERE_COMMENT_ID_OR_UNIQUE_ID;
+    private static final String COUNT_FILE = "SELECT COUNT(*) FROM "
+            + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
+            + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = ?";
+    private static final String SELECT_LOCAL_PATH = "SELECT " + QiscusDb.FilesTable.COLUMN_LOCAL_PATH + " FROM "
+            + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
+            + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = ?";
+
     protected final SQLiteDatabase sqLiteDatabase;
+    private final QiscusDbWriter writer;
+    private final LruCache<String, QiscusRoomMember> memberCache;
+    //Changed with memberCache locked by every invalidation, a read older than it does not fill the cache
+    private final AtomicLong memberGeneration;
+    private final Map<String, SQLiteStatement> statements;
+    private volatile StatementTimingListener statementTimingListener;
+    private final Subject<Integer, Integer> topicChanges;
+    private final Subject<Integer, Integer> roomChanges;
 
     public QiscusDataBaseHelper() {
-        QiscusDbOpenHelper qiscusDbOpenHelper = new QiscusDbOpenHelper(Qiscus.getApps());
-        sqLiteDatabase = qiscusDbOpenHelper.getReadableDatabase();
+        this(Qiscus.getApps());
+    }
+
+    QiscusDataBaseHelper(Context context) {
+        QiscusDbOpenHelper qiscusDbOpenHelper = new QiscusDbOpenHelper(context);
+        sqLiteDatabase = qiscusDbOpenHelper.getWritableDatabase();
+        writer = new QiscusDbWriter(sqLiteDatabase);
+        memberCache = new LruCache<>(MEMBER_CACHE_SIZE);
+        memberGeneration = new AtomicLong();
+        statements = new HashMap<>();
+        topicChanges = PublishSubject.<Integer>create().toSerialized();
+        roomChanges = PublishSubject.<Integer>create().toSerialized();
+        writer.enqueue(this::backfillSearchIndex);
+    }
+
+    /**
+     * Set listener to be notified how long every hot query of this store takes, useful to profile the slowest
+     * store calls. The listener is called from the thread that run the query, so keep it cheap.
+     *
+     * @param statementTimingListener the listener, or null to remove it
+     */
+    public void setStatementTimingListener(StatementTimingListener statementTimingListener) {
+        this.statementTimingListener = statementTimingListener;
+    }
+
+    private SQLiteStatement getStatement(String sql) {
+        synchronized (statements) {
+            SQLiteStatement statement = statements.get(sql);
+            if (statement == null) {
+                statement = sqLiteDatabase.compileStatement(sql);
+                statements.put(sql, statement);
+            }
+            return statement;
+        }
+    }
+
+    private long queryForLong(String sql, Object... args) {
+        SQLiteStatement statement = getStatement(sql);
+        long startTime = System.nanoTime();
+        try {
+            synchronized (statement) {
+                bindArgs(statement, args);
+                return statement.simpleQueryForLong();
+            }
+        } finally {
+            onStatementExecuted(sql, startTime);
+        }
+    }
+
+    private String queryForString(String sql, Object... args) {
+        SQLiteStatement statement = getStatement(sql);
+        long startTime = System.nanoTime();
+        try {
+            synchronized (statement) {
+                bindArgs(statement, args);
+                return statement.simpleQueryForString();
+            }
+        } catch (SQLiteDoneException e) {
+            return null;
+        } finally {
+            onStatementExecuted(sql, startTime);
+        }
+    }
+
+    private Cursor query(String sql, String... args) {
+        long startTime = System.nanoTime();
+        Cursor cursor = sqLiteDatabase.rawQuery(sql, args);
+        //Force the query to run now so it is included in the timing
+        cursor.getCount();
+        onStatementExecuted(sql, startTime);
+        return cursor;
+    }
+
+    private void bindArgs(SQLiteStatement statement, Object... args) {
+        statement.clearBindings();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i] == null) {
+                statement.bindNull(i + 1);
+            } else if (args[i] instanceof Number) {
+                statement.bindLong(i + 1, ((Number) args[i]).longValue());
+            } else {
+                statement.bindString(i + 1, args[i].toString());
+            }
+        }
+    }
+
+    private void notifyRoomChanged(int roomId) {
+        writer.afterCommit(() -> roomChanges.onNext(roomId));
+    }
+
+    private void notifyCommentChanged(QiscusComment qiscusComment) {
+        int topicId = qiscusComment.getTopicId();
+        int roomId = qiscusComment.getRoomId();
+        writer.afterCommit(() -> {
+            topicChanges.onNext(topicId);
+            roomChanges.onNext(roomId);
+        });
+    }
+
+    private void notifyCommentsChanged(List<QiscusComment> qiscusComments) {
+        Set<Integer> topicIds = new LinkedHashSet<>();
+        Set<Integer> roomIds = new LinkedHashSet<>();
+        for (QiscusComment qiscusComment : qiscusComments) {
+            topicIds.add(qiscusComment.getTopicId());
+            roomIds.add(qiscusComment.getRoomId());
+        }
+        writer.afterCommit(() -> {
+            for (Integer topicId : topicIds) {
+                topicChanges.onNext(topicId);
+            }
+            for (Integer roomId : roomIds) {
+                roomChanges.onNext(roomId);
+            }
+        });
+    }
+
+    /**
+     * Index one batch of the comments stored before the search index existed, then queue the next batch behind
+     * the pending writes so the backfill never hold the writer for long.
+     */
+    private void backfillSearchIndex() {
+        try {
+            if (queryForLong(QiscusDb.CommentSearchTable.HAS_BACKFILL) == 0) {
+                return;
+            }
+
+            long lastRowId = queryForLong(QiscusDb.CommentSearchTable.SELECT_BACKFILL);
+            long lowerRowId = lastRowId <= 0 ? 0 : queryForLong(QiscusDb.CommentSearchTable.SELECT_BACKFILL_LOWER_BOUND,
+                    lastRowId, SEARCH_BACKFILL_SIZE);
+            if (lowerRowId <= 0) {
+                sqLiteDatabase.execSQL(QiscusDb.CommentSearchTable.DROP_BACKFILL);
+                return;
+            }
+
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.execSQL(QiscusDb.CommentSearchTable.BACKFILL, new Object[]{lowerRowId, lastRowId});
+                sqLiteDatabase.execSQL(QiscusDb.CommentSearchTable.UPDATE_BACKFILL, new Object[]{lowerRowId - 1});
+                sqLiteDatabase.setTransactionSuccessful();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+            writer.afterCommit(() -> writer.enqueue(this::backfillSearchIndex));
+        } catch (SQLiteException e) {
+            writer.onWriteFailed();
+            e.printStackTrace();
+        }
+    }
+
+    private void onStatementExecuted(String sql, long startTime) {
+        StatementTimingListener listener = statementTimingListener;
+        if (listener != null) {
+            listener.onStatementExecuted(sql, System.nanoTime() - startTime);
+        }
     }
 
     @Override
     public void add(QiscusChatRoom qiscusChatRoom) {
-        if (!isContains(qiscusChatRoom)) {
+        writer.execute(() -> {
+            if (!isContains(qiscusChatRoom)) {
+                sqLiteDatabase.beginTransaction();
+                try {
+                    sqLiteDatabase.insert(QiscusDb.RoomTable.TABLE_NAME, null, QiscusDb.RoomTable.toContentValues(qiscusChatRoom));
+                    sqLiteDatabase.setTransactionSuccessful();
+                } catch (Exception e) {
+                    writer.onWriteFailed();
+                    e.printStackTrace();
+                } finally {
+                    sqLiteDatabase.endTransaction();
+                }
+                for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
+                    addRoomMember(qiscusChatRoom.getId(), member, qiscusChatRoom.getDistinctId());
+                }
+                notifyRoomChanged(qiscusChatRoom.getId());
+            }
+        });
+    }
+
+    @Override
+    public boolean isContains(QiscusChatRoom qiscusChatRoom) {
+        return queryForLong(COUNT_ROOM, qiscusChatRoom.getId()) > 0;
+    }
+
+    @Override
+    public void update(QiscusChatRoom qiscusChatRoom) {
+        writer.execute(() -> {
+            String where = QiscusDb.RoomTable.COLUMN_ID + " = " + qiscusChatRoom.getId();
             sqLiteDatabase.beginTransaction();
             try {
-                sqLiteDatabase.insert(QiscusDb.RoomTable.TABLE_NAME, null, QiscusDb.RoomTable.toContentValues(qiscusChatRoom));
+                sqLiteDatabase.update(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomTable.toContentValues(qiscusChatRoom), where, null);
                 sqLiteDatabase.setTransactionSuccessful();
             } catch (Exception e) {
+                writer.onWriteFailed();
                 e.printStackTrace();
             } finally {
                 sqLiteDatabase.endTransaction();
             }
+
+            deleteRoomMembers(qiscusChatRoom.getId());
             for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
                 addRoomMember(qiscusChatRoom.getId(), member, qiscusChatRoom.getDistinctId());
             }
-        }
+            notifyRoomChanged(qiscusChatRoom.getId());
+        });
     }
 
     @Override
-    public boolean isContains(QiscusChatRoom qiscusChatRoom) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomTable.COLUMN_ID + " = " + qiscusChatRoom.getId();
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        boolean contains = cursor.getCount() > 0;
-        cursor.close();
-        return contains;
+    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
+        writer.execute(() -> {
+            if (!isContains(qiscusChatRoom)) {
+                add(qiscusChatRoom);
+            } else {
+                update(qiscusChatRoom);
+            }
+        });
     }
 
     @Override
-    public void update(QiscusChatRoom qiscusChatRoom) {
-        String where = QiscusDb.RoomTable.COLUMN_ID + " = " + qiscusChatRoom.getId();
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.update(QiscusDb.RoomTable.TABLE_NAME, QiscusDb.RoomTable.toContentValues(qiscusChatRoom), where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+    public void addOrUpdateChatRooms(List<QiscusChatRoom> qiscusChatRooms) {
+        writer.execute(() -> {
+            if (qiscusChatRooms.isEmpty()) {
+                return;
+            }
 
-        deleteRoomMembers(qiscusChatRoom.getId());
-        for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
-            addRoomMember(qiscusChatRoom.getId(), member, qiscusChatRoom.getDistinctId());
-        }
-    }
+            List<QiscusRoomMember> members = new ArrayList<>();
+            SQLiteStatement roomStatement = sqLiteDatabase.compileStatement(QiscusDb.RoomTable.INSERT_OR_REPLACE);
+            SQLiteStatement deleteRoomMemberStatement = sqLiteDatabase.compileStatement(QiscusDb.RoomMemberTable.DELETE_BY_ROOM);
+            SQLiteStatement roomMemberStatement = sqLiteDatabase.compileStatement(QiscusDb.RoomMemberTable.INSERT);
+            sqLiteDatabase.beginTransaction();
+            try {
+                for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                    QiscusDb.RoomTable.bindStatement(roomStatement, qiscusChatRoom);
+                    roomStatement.executeInsert();
+
+                    deleteRoomMemberStatement.bindLong(1, qiscusChatRoom.getId());
+                    deleteRoomMemberStatement.executeUpdateDelete();
+
+                    String distinctId = qiscusChatRoom.getDistinctId() == null ? "default" : qiscusChatRoom.getDistinctId();
+                    for (QiscusRoomMember member : qiscusChatRoom.getMember()) {
+                        roomMemberStatement.clearBindings();
+                        roomMemberStatement.bindLong(1, qiscusChatRoom.getId());
+                        QiscusDb.bindString(roomMemberStatement, 2, member.getEmail());
+                        roomMemberStatement.bindString(3, distinctId);
+                        roomMemberStatement.executeInsert();
+                        members.add(member);
+                    }
+                }
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+                roomStatement.close();
+                deleteRoomMemberStatement.close();
+                roomMemberStatement.close();
+            }
 
-    @Override
-    public void addOrUpdate(QiscusChatRoom qiscusChatRoom) {
-        if (!isContains(qiscusChatRoom)) {
-            add(qiscusChatRoom);
-        } else {
-            update(qiscusChatRoom);
-        }
+            addOrUpdateMembers(members);
+            for (QiscusChatRoom qiscusChatRoom : qiscusChatRooms) {
+                notifyRoomChanged(qiscusChatRoom.getId());
+            }
+        });
     }
 
     @Override
     public QiscusChatRoom getChatRoom(int id) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomTable.COLUMN_ID + " = " + id;
-
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = query(SELECT_ROOM, String.valueOf(id));
 
         if (cursor.moveToNext()) {
             QiscusChatRoom qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
@@ -132,13 +406,7 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
 
     @Override
     public QiscusChatRoom getChatRoom(String email, String distinctId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomMemberTable.COLUMN_DISTINCT_ID + " = " + DatabaseUtils.sqlEscapeString(distinctId) + " "
-                + "AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
-                + " = " + DatabaseUtils.sqlEscapeString(email);
-
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        Cursor cursor = query(SELECT_ROOM_MEMBER_BY_DISTINCT_ID, distinctId, email);
 
         while (cursor.moveToNext()) {
             QiscusChatRoom qiscusChatRoom = getChatRoom(QiscusDb.RoomMemberTable.getRoomId(cursor));
@@ -163,8 +431,9 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
                 + "LIMIT " + count;
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
         List<QiscusChatRoom> qiscusChatRooms = new ArrayList<>();
+        QiscusDb.RowMapper<QiscusChatRoom> rowMapper = QiscusDb.RoomTable.rowMapper(cursor);
         while (cursor.moveToNext()) {
-            QiscusChatRoom qiscusChatRoom = QiscusDb.RoomTable.parseCursor(cursor);
+            QiscusChatRoom qiscusChatRoom = rowMapper.map(cursor);
             qiscusChatRoom.setMember(getRoomMembers(qiscusChatRoom.getId()));
             qiscusChatRooms.add(qiscusChatRoom);
         }
@@ -181,48 +450,56 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
     }
 
     @Override
-    public void deleteChatRoom(int roomId) {
-        String where = QiscusDb.RoomTable.COLUMN_ID + " = " + roomId;
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+    public Observable<List<QiscusChatRoom>> observeChatRooms(int count) {
+        return roomChanges.debounce(CHANGE_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                .startWith(0)
+                .onBackpressureLatest()
+                .observeOn(Schedulers.io())
+                .map(roomId -> getChatRooms(count));
     }
 
     @Override
-    public void addRoomMember(int roomId, QiscusRoomMember qiscusRoomMember, String distinctId) {
-        distinctId = distinctId == null ? "default" : distinctId;
-        if (!isContainsRoomMember(roomId, qiscusRoomMember.getEmail())) {
+    public void deleteChatRoom(int roomId) {
+        writer.execute(() -> {
+            String where = QiscusDb.RoomTable.COLUMN_ID + " = " + roomId;
             sqLiteDatabase.beginTransaction();
             try {
-                sqLiteDatabase.insert(QiscusDb.RoomMemberTable.TABLE_NAME, null,
-                        QiscusDb.RoomMemberTable.toContentValues(roomId, qiscusRoomMember.getEmail(), distinctId));
+                sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, where, null);
                 sqLiteDatabase.setTransactionSuccessful();
             } catch (Exception e) {
+                writer.onWriteFailed();
                 e.printStackTrace();
             } finally {
                 sqLiteDatabase.endTransaction();
             }
-        }
-        addOrUpdate(qiscusRoomMember);
+            notifyRoomChanged(roomId);
+        });
+    }
+
+    @Override
+    public void addRoomMember(int roomId, QiscusRoomMember qiscusRoomMember, String roomDistinctId) {
+        writer.execute(() -> {
+            String distinctId = roomDistinctId == null ? "default" : roomDistinctId;
+            if (!isContainsRoomMember(roomId, qiscusRoomMember.getEmail())) {
+                sqLiteDatabase.beginTransaction();
+                try {
+                    sqLiteDatabase.insert(QiscusDb.RoomMemberTable.TABLE_NAME, null,
+                            QiscusDb.RoomMemberTable.toContentValues(roomId, qiscusRoomMember.getEmail(), distinctId));
+                    sqLiteDatabase.setTransactionSuccessful();
+                } catch (Exception e) {
+                    writer.onWriteFailed();
+                    e.printStackTrace();
+                } finally {
+                    sqLiteDatabase.endTransaction();
+                }
+            }
+            addOrUpdate(qiscusRoomMember);
+        });
     }
 
     @Override
     public boolean isContainsRoomMember(int roomId, String email) {
-        String query = "SELECT * FROM "
-                + QiscusDb.RoomMemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId + " "
-                + "AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL
-                + " = " + DatabaseUtils.sqlEscapeString(email);
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        boolean contains = cursor.getCount() > 0;
-        cursor.close();
-        return contains;
+        return queryForLong(COUNT_ROOM_MEMBER, roomId, email) > 0;
     }
 
     @Override
@@ -231,282 +508,463 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
                 + QiscusDb.RoomMemberTable.TABLE_NAME + " "
                 + "WHERE " + QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId;
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        List<QiscusRoomMember> members = new ArrayList<>();
+        List<String> emails = new ArrayList<>();
         while (cursor.moveToNext()) {
-            members.add(getMember(QiscusDb.RoomMemberTable.getMember(cursor)));
+            emails.add(QiscusDb.RoomMemberTable.getMember(cursor));
         }
         cursor.close();
+
+        Map<String, QiscusRoomMember> memberMap = getMembers(emails);
+        List<QiscusRoomMember> members = new ArrayList<>(emails.size());
+        for (String email : emails) {
+            //Copied like getMember(), the cached member is shared by every read
+            QiscusRoomMember qiscusRoomMember = memberMap.get(email);
+            if (qiscusRoomMember != null) {
+                members.add(copyOf(qiscusRoomMember));
+            }
+        }
         return members;
     }
 
     @Override
     public void deleteRoomMember(int roomId, String email) {
-        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId + " "
-                + "AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(email);
+        writer.execute(() -> {
+            String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId + " "
+                    + "AND " + QiscusDb.RoomMemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(email);
 
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, null);
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
     }
 
     @Override
     public void deleteRoomMembers(int roomId) {
-        String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId;
+        writer.execute(() -> {
+            String where = QiscusDb.RoomMemberTable.COLUMN_ROOM_ID + " = " + roomId;
 
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
-    }
-
-    @Override
-    public void add(QiscusRoomMember qiscusRoomMember) {
-        if (!isContains(qiscusRoomMember)) {
             sqLiteDatabase.beginTransaction();
             try {
-                sqLiteDatabase.insert(QiscusDb.MemberTable.TABLE_NAME, null, QiscusDb.MemberTable.toContentValues(qiscusRoomMember));
+                sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, where, null);
                 sqLiteDatabase.setTransactionSuccessful();
             } catch (Exception e) {
+                writer.onWriteFailed();
                 e.printStackTrace();
             } finally {
                 sqLiteDatabase.endTransaction();
             }
-        }
+        });
+    }
+
+    @Override
+    public void add(QiscusRoomMember qiscusRoomMember) {
+        writer.execute(() -> {
+            invalidateMember(qiscusRoomMember.getEmail());
+            if (!isContains(qiscusRoomMember)) {
+                sqLiteDatabase.beginTransaction();
+                try {
+                    sqLiteDatabase.insert(QiscusDb.MemberTable.TABLE_NAME, null, QiscusDb.MemberTable.toContentValues(qiscusRoomMember));
+                    sqLiteDatabase.setTransactionSuccessful();
+                } catch (Exception e) {
+                    writer.onWriteFailed();
+                    e.printStackTrace();
+                } finally {
+                    sqLiteDatabase.endTransaction();
+                }
+            }
+        });
     }
 
     @Override
     public boolean isContains(QiscusRoomMember qiscusRoomMember) {
-        String query = "SELECT * FROM "
-                + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(qiscusRoomMember.getEmail());
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        boolean contains = cursor.getCount() > 0;
-        cursor.close();
-        return contains;
+        return queryForLong(COUNT_MEMBER, qiscusRoomMember.getEmail()) > 0;
     }
 
     @Override
     public void update(QiscusRoomMember qiscusRoomMember) {
-        String where = QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(qiscusRoomMember.getEmail());
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.update(QiscusDb.MemberTable.TABLE_NAME, QiscusDb.MemberTable.toContentValues(qiscusRoomMember), where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+        writer.execute(() -> {
+            invalidateMember(qiscusRoomMember.getEmail());
+            String where = QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(qiscusRoomMember.getEmail());
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.update(QiscusDb.MemberTable.TABLE_NAME, QiscusDb.MemberTable.toContentValues(qiscusRoomMember), where, null);
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
     }
 
     @Override
     public void addOrUpdate(QiscusRoomMember qiscusRoomMember) {
-        if (!isContains(qiscusRoomMember)) {
-            add(qiscusRoomMember);
-        } else {
-            update(qiscusRoomMember);
-        }
+        writer.execute(() -> {
+            if (!isContains(qiscusRoomMember)) {
+                add(qiscusRoomMember);
+            } else {
+                update(qiscusRoomMember);
+            }
+        });
+    }
+
+    @Override
+    public void addOrUpdateMembers(List<QiscusRoomMember> qiscusRoomMembers) {
+        writer.execute(() -> {
+            if (qiscusRoomMembers.isEmpty()) {
+                return;
+            }
+
+            SQLiteStatement statement = sqLiteDatabase.compileStatement(QiscusDb.MemberTable.INSERT_OR_REPLACE);
+            sqLiteDatabase.beginTransaction();
+            try {
+                for (QiscusRoomMember qiscusRoomMember : qiscusRoomMembers) {
+                    invalidateMember(qiscusRoomMember.getEmail());
+                    QiscusDb.MemberTable.bindStatement(statement, qiscusRoomMember);
+                    statement.executeInsert();
+                }
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+                statement.close();
+            }
+        });
     }
 
     @Override
     public QiscusRoomMember getMember(String email) {
-        String query = "SELECT * FROM "
-                + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
-                + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " = " + DatabaseUtils.sqlEscapeString(email);
+        if (email == null) {
+            return null;
+        }
 
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        //Copied, the cached member is shared by every read
+        QiscusRoomMember cachedMember = memberCache.get(email);
+        if (cachedMember != null) {
+            return copyOf(cachedMember);
+        }
+
+        long generation = memberGeneration.get();
+        Cursor cursor = query(SELECT_MEMBER, email);
 
         if (cursor.moveToNext()) {
             QiscusRoomMember qiscusRoomMember = QiscusDb.MemberTable.getMember(cursor);
             cursor.close();
-            return qiscusRoomMember;
+            cacheMember(qiscusRoomMember, generation);
+            return copyOf(qiscusRoomMember);
         } else {
             cursor.close();
             return null;
         }
     }
 
+    //The members are the cached instances, copy them before they leave this class
+    private Map<String, QiscusRoomMember> getMembers(Collection<String> emails) {
+        Map<String, QiscusRoomMember> members = new HashMap<>();
+        List<String> missingEmails = new ArrayList<>();
+        for (String email : emails) {
+            if (email == null || members.containsKey(email) || missingEmails.contains(email)) {
+                continue;
+            }
+            QiscusRoomMember cachedMember = memberCache.get(email);
+            if (cachedMember != null) {
+                members.put(email, cachedMember);
+            } else {
+                missingEmails.add(email);
+            }
+        }
+
+        long generation = memberGeneration.get();
+        for (int start = 0; start < missingEmails.size(); start += MAX_QUERY_ARGS) {
+            List<String> batch = missingEmails.subList(start, Math.min(start + MAX_QUERY_ARGS, missingEmails.size()));
+            StringBuilder placeholders = new StringBuilder();
+            for (int i = 0; i < batch.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+            }
+            String query = "SELECT * FROM "
+                    + QiscusDb.MemberTable.TABLE_NAME + " WHERE "
+                    + QiscusDb.MemberTable.COLUMN_USER_EMAIL + " IN (" + placeholders + ")";
+
+            Cursor cursor = query(query, batch.toArray(new String[batch.size()]));
+            QiscusDb.RowMapper<QiscusRoomMember> rowMapper = QiscusDb.MemberTable.rowMapper(cursor);
+            while (cursor.moveToNext()) {
+                QiscusRoomMember qiscusRoomMember = rowMapper.map(cursor);
+                members.put(qiscusRoomMember.getEmail(), qiscusRoomMember);
+                cacheMember(qiscusRoomMember, generation);
+            }
+            cursor.close();
+        }
+
+        return members;
+    }
+
+    private void fillSenders(List<QiscusComment> qiscusComments) {
+        Set<String> emails = new LinkedHashSet<>();
+        for (QiscusComment qiscusComment : qiscusComments) {
+            emails.add(qiscusComment.getSenderEmail());
+        }
+
+        Map<String, QiscusRoomMember> members = getMembers(emails);
+        for (QiscusComment qiscusComment : qiscusComments) {
+            QiscusRoomMember qiscusRoomMember = members.get(qiscusComment.getSenderEmail());
+            if (qiscusRoomMember != null) {
+                qiscusComment.setSender(qiscusRoomMember.getUsername());
+                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
+            }
+        }
+    }
+
+    private void cacheMember(QiscusRoomMember qiscusRoomMember, long generation) {
+        synchronized (memberCache) {
+            if (memberGeneration.get() == generation) {
+                memberCache.put(qiscusRoomMember.getEmail(), qiscusRoomMember);
+            }
+        }
+    }
+
+    //After the commit, a reader could put the old row back into the cache before it
+    private void invalidateMember(String email) {
+        if (email != null) {
+            writer.afterCommit(() -> {
+                synchronized (memberCache) {
+                    memberGeneration.incrementAndGet();
+                    memberCache.remove(email);
+                }
+            });
+        }
+    }
+
+    private static QiscusRoomMember copyOf(QiscusRoomMember qiscusRoomMember) {
+        QiscusRoomMember copy = new QiscusRoomMember();
+        copy.setEmail(qiscusRoomMember.getEmail());
+        copy.setUsername(qiscusRoomMember.getUsername());
+        copy.setAvatar(qiscusRoomMember.getAvatar());
+        return copy;
+    }
+
     @Override
     public void add(QiscusComment qiscusComment) {
-        if (!isContains(qiscusComment)) {
-            sqLiteDatabase.beginTransaction();
-            try {
-                sqLiteDatabase.insert(QiscusDb.CommentTable.TABLE_NAME, null, QiscusDb.CommentTable.toContentValues(qiscusComment));
-                sqLiteDatabase.setTransactionSuccessful();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                sqLiteDatabase.endTransaction();
+        writer.execute(() -> {
+            if (!isContains(qiscusComment)) {
+                sqLiteDatabase.beginTransaction();
+                try {
+                    sqLiteDatabase.insert(QiscusDb.CommentTable.TABLE_NAME, null, QiscusDb.CommentTable.toContentValues(qiscusComment));
+                    sqLiteDatabase.setTransactionSuccessful();
+                } catch (Exception e) {
+                    writer.onWriteFailed();
+                    e.printStackTrace();
+                } finally {
+                    sqLiteDatabase.endTransaction();
+                }
+                notifyCommentChanged(qiscusComment);
             }
-        }
+        });
     }
 
     @Override
     public void saveLocalPath(int topicId, int commentId, String localPath) {
-        if (!isContainsFileOfComment(commentId)) {
-            sqLiteDatabase.beginTransaction();
-            try {
-                sqLiteDatabase.insert(QiscusDb.FilesTable.TABLE_NAME, null,
-                        QiscusDb.FilesTable.toContentValues(topicId, commentId, localPath));
-                sqLiteDatabase.setTransactionSuccessful();
-            } catch (Exception e) {
-                e.printStackTrace();
-            } finally {
-                sqLiteDatabase.endTransaction();
+        writer.execute(() -> {
+            if (!isContainsFileOfComment(commentId)) {
+                sqLiteDatabase.beginTransaction();
+                try {
+                    sqLiteDatabase.insert(QiscusDb.FilesTable.TABLE_NAME, null,
+                            QiscusDb.FilesTable.toContentValues(topicId, commentId, localPath));
+                    sqLiteDatabase.setTransactionSuccessful();
+                } catch (Exception e) {
+                    writer.onWriteFailed();
+                    e.printStackTrace();
+                } finally {
+                    sqLiteDatabase.endTransaction();
+                }
             }
-        }
+        });
     }
 
     @Override
     public boolean isContains(QiscusComment qiscusComment) {
-        String query;
         if (qiscusComment.getId() == -1) {
-            query = "SELECT * FROM "
-                    + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + qiscusComment.getUniqueId() + "'";
-        } else {
-            query = "SELECT * FROM "
-                    + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                    + QiscusDb.CommentTable.COLUMN_ID + " = " + qiscusComment.getId() + " OR "
-                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + qiscusComment.getUniqueId() + "'";
+            return queryForLong(COUNT_COMMENT_BY_UNIQUE_ID, qiscusComment.getUniqueId()) > 0;
         }
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        boolean contains = cursor.getCount() > 0;
-        cursor.close();
-        return contains;
+        return queryForLong(COUNT_COMMENT, qiscusComment.getId(), qiscusComment.getUniqueId()) > 0;
     }
 
     @Override
     public boolean isContainsFileOfComment(int commentId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
-                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId + "";
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-        boolean contains = cursor.getCount() > 0;
-        cursor.close();
-        return contains;
+        return queryForLong(COUNT_FILE, commentId) > 0;
     }
 
-    @Override
-    public void update(QiscusComment qiscusComment) {
-        String where;
+    private String whereComment(QiscusComment qiscusComment) {
+        return qiscusComment.getId() == -1 ? WHERE_COMMENT_UNIQUE_ID : WHERE_COMMENT_ID_OR_UNIQUE_ID;
+    }
+
+    private String[] whereCommentArgs(QiscusComment qiscusComment) {
+        String uniqueId = qiscusComment.getUniqueId() == null ? "" : qiscusComment.getUniqueId();
         if (qiscusComment.getId() == -1) {
-            where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + qiscusComment.getUniqueId() + "'";
-        } else {
-            where = QiscusDb.CommentTable.COLUMN_ID + " = " + qiscusComment.getId() + " OR "
-                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + qiscusComment.getUniqueId() + "'";
+            return new String[]{uniqueId};
         }
+        return new String[]{String.valueOf(qiscusComment.getId()), uniqueId};
+    }
 
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.update(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.CommentTable.toContentValues(qiscusComment), where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+    @Override
+    public void update(QiscusComment qiscusComment) {
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.update(QiscusDb.CommentTable.TABLE_NAME, QiscusDb.CommentTable.toContentValues(qiscusComment),
+                        whereComment(qiscusComment), whereCommentArgs(qiscusComment));
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+            notifyCommentChanged(qiscusComment);
+        });
     }
 
     @Override
     public void updateLocalPath(int topicId, int commentId, String localPath) {
-        String where = QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId + "";
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.update(QiscusDb.FilesTable.TABLE_NAME,
-                    QiscusDb.FilesTable.toContentValues(topicId, commentId, localPath), where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+        writer.execute(() -> {
+            String where = QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId + "";
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.update(QiscusDb.FilesTable.TABLE_NAME,
+                        QiscusDb.FilesTable.toContentValues(topicId, commentId, localPath), where, null);
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
     }
 
     @Override
     public void addOrUpdate(QiscusComment qiscusComment) {
-        if (!isContains(qiscusComment)) {
-            add(qiscusComment);
+        writer.execute(() -> {
+            if (!isContains(qiscusComment)) {
+                add(qiscusComment);
+            } else {
+                update(qiscusComment);
+            }
+        });
+    }
+
+    @Override
+    public void addOrUpdateComments(List<QiscusComment> qiscusComments) {
+        writer.execute(() -> {
+            if (qiscusComments.isEmpty()) {
+                return;
+            }
+
+            SQLiteStatement updateStatement = sqLiteDatabase.compileStatement(
+                    QiscusDb.CommentTable.UPDATE_BY_ID_OR_UNIQUE_ID);
+            SQLiteStatement insertStatement = sqLiteDatabase.compileStatement(QiscusDb.CommentTable.INSERT);
+            sqLiteDatabase.beginTransaction();
+            try {
+                for (QiscusComment qiscusComment : qiscusComments) {
+                    if (qiscusComment.getUniqueId() == null) {
+                        if (qiscusComment.getId() == -1) {
+                            //Nothing could find it again
+                            continue;
+                        }
+                        qiscusComment.setUniqueId(String.valueOf(qiscusComment.getId()));
+                    }
+                    try {
+                        QiscusDb.CommentTable.bindStatement(updateStatement, qiscusComment);
+                        bindCommentKey(updateStatement, qiscusComment);
+                        if (updateStatement.executeUpdateDelete() == 0) {
+                            QiscusDb.CommentTable.bindStatement(insertStatement, qiscusComment);
+                            insertStatement.executeInsert();
+                        }
+                    } catch (SQLiteException e) {
+                        //Skip invalid comment without rolling back the whole batch
+                        e.printStackTrace();
+                    }
+                }
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+                updateStatement.close();
+                insertStatement.close();
+            }
+            notifyCommentsChanged(qiscusComments);
+        });
+    }
+
+    //The where arguments of UPDATE_BY_ID_OR_UNIQUE_ID, a pending comment must not match the other pending ones
+    private static void bindCommentKey(SQLiteStatement statement, QiscusComment qiscusComment) {
+        int index = QiscusDb.CommentTable.COLUMN_COUNT;
+        if (qiscusComment.getId() == -1) {
+            statement.bindNull(index + 1);
         } else {
-            update(qiscusComment);
+            statement.bindLong(index + 1, qiscusComment.getId());
         }
+        statement.bindString(index + 2, qiscusComment.getUniqueId());
     }
 
     @Override
     public void addOrUpdateLocalPath(int topicId, int commentId, String localPath) {
-        if (!isContainsFileOfComment(commentId)) {
-            saveLocalPath(topicId, commentId, localPath);
-        } else {
-            updateLocalPath(topicId, commentId, localPath);
-        }
+        writer.execute(() -> {
+            if (!isContainsFileOfComment(commentId)) {
+                saveLocalPath(topicId, commentId, localPath);
+            } else {
+                updateLocalPath(topicId, commentId, localPath);
+            }
+        });
     }
 
     @Override
     public void delete(QiscusComment qiscusComment) {
-        String where;
-        if (qiscusComment.getId() == -1) {
-            where = QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + qiscusComment.getUniqueId() + "'";
-        } else {
-            where = QiscusDb.CommentTable.COLUMN_ID + " = " + qiscusComment.getId() + " OR "
-                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + qiscusComment.getUniqueId() + "'";
-        }
-
-        sqLiteDatabase.beginTransaction();
-        try {
-            sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, where, null);
-            sqLiteDatabase.setTransactionSuccessful();
-        } catch (Exception e) {
-            e.printStackTrace();
-        } finally {
-            sqLiteDatabase.endTransaction();
-        }
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, whereComment(qiscusComment), whereCommentArgs(qiscusComment));
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+            notifyCommentChanged(qiscusComment);
+        });
     }
 
     @Override
     public File getLocalPath(int commentId) {
-        String query = "SELECT * FROM "
-                + QiscusDb.FilesTable.TABLE_NAME + " WHERE "
-                + QiscusDb.FilesTable.COLUMN_COMMENT_ID + " = " + commentId + "";
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
-
-        if (cursor.moveToNext()) {
-            File file = new File(QiscusDb.FilesTable.parseCursor(cursor));
-            cursor.close();
-            if (file.exists()) {
-                return file;
-            }
-            return null;
-        } else {
-            cursor.close();
+        String localPath = queryForString(SELECT_LOCAL_PATH, commentId);
+        if (localPath == null) {
             return null;
         }
+
+        File file = new File(localPath);
+        if (file.exists()) {
+            return file;
+        }
+        return null;
     }
 
     @Override
     public QiscusComment getComment(int id, String uniqueId) {
-        String query;
-        if (id == -1) {
-            query = "SELECT * FROM "
-                    + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + id + "'";
-        } else {
-            query = "SELECT * FROM "
-                    + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
-                    + QiscusDb.CommentTable.COLUMN_ID + " = " + id + " OR "
-                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = '" + uniqueId + "'";
-        }
-        Cursor cursor = sqLiteDatabase.rawQuery(query, null);
+        uniqueId = uniqueId == null ? "" : uniqueId;
+        Cursor cursor = id == -1 ? query(SELECT_COMMENT_BY_UNIQUE_ID, uniqueId)
+                : query(SELECT_COMMENT, String.valueOf(id), uniqueId);
 
         if (cursor.moveToNext()) {
             QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
@@ -523,6 +981,31 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
         }
     }
 
+    @Override
+    public Map<Integer, Integer> getCommentStates(Collection<Integer> ids) {
+        Map<Integer, Integer> states = new HashMap<>();
+        List<Integer> idList = new ArrayList<>(ids);
+        for (int start = 0; start < idList.size(); start += MAX_QUERY_ARGS) {
+            List<Integer> batch = idList.subList(start, Math.min(start + MAX_QUERY_ARGS, idList.size()));
+            StringBuilder placeholders = new StringBuilder();
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < batch.size(); i++) {
+                placeholders.append(i == 0 ? "?" : ",?");
+                args[i] = String.valueOf(batch.get(i));
+            }
+            String query = "SELECT " + QiscusDb.CommentTable.COLUMN_ID + ", " + QiscusDb.CommentTable.COLUMN_STATE
+                    + " FROM " + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+                    + QiscusDb.CommentTable.COLUMN_ID + " IN (" + placeholders + ")";
+
+            Cursor cursor = sqLiteDatabase.rawQuery(query, args);
+            while (cursor.moveToNext()) {
+                states.put(cursor.getInt(0), cursor.getInt(1));
+            }
+            cursor.close();
+        }
+        return states;
+    }
+
     @Override
     public List<QiscusComment> getComments(int topicId) {
         String query = "SELECT * FROM "
@@ -531,16 +1014,12 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
                 + "ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC";
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
         List<QiscusComment> qiscusComments = new ArrayList<>();
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
         while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
+            qiscusComments.add(rowMapper.map(cursor));
         }
         cursor.close();
+        fillSenders(qiscusComments);
         return qiscusComments;
     }
 
@@ -553,16 +1032,12 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
                 + "LIMIT " + count;
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
         List<QiscusComment> qiscusComments = new ArrayList<>();
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
         while (cursor.moveToNext()) {
-            QiscusComment qiscusComment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(qiscusComment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                qiscusComment.setSender(qiscusRoomMember.getUsername());
-                qiscusComment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(qiscusComment);
+            qiscusComments.add(rowMapper.map(cursor));
         }
         cursor.close();
+        fillSenders(qiscusComments);
         return qiscusComments;
     }
 
@@ -582,26 +1057,32 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
         }, Emitter.BackpressureMode.BUFFER);
     }
 
+    @Override
+    public Observable<List<QiscusComment>> observeComments(int topicId, int count) {
+        return topicChanges.filter(changedTopicId -> changedTopicId == topicId)
+                .debounce(CHANGE_DEBOUNCE_MS, TimeUnit.MILLISECONDS)
+                .startWith(topicId)
+                .onBackpressureLatest()
+                .observeOn(Schedulers.io())
+                .map(changedTopicId -> getComments(topicId, count));
+    }
+
     @Override
     public List<QiscusComment> getOlderCommentsThan(QiscusComment qiscusComment, int topicId, int count) {
         String query = "SELECT * FROM "
                 + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
                 + QiscusDb.CommentTable.COLUMN_TOPIC_ID + " = " + topicId + " AND "
-                + QiscusDb.CommentTable.COLUMN_TIME + " <= " + qiscusComment.getTime().getTime() + " "
+                + QiscusDb.CommentTable.COLUMN_TIME + " <= " + qiscusComment.getTimeMillis() + " "
                 + "ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC "
                 + "LIMIT " + count;
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
         List<QiscusComment> qiscusComments = new ArrayList<>();
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
         while (cursor.moveToNext()) {
-            QiscusComment comment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(comment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                comment.setSender(qiscusRoomMember.getUsername());
-                comment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(comment);
+            qiscusComments.add(rowMapper.map(cursor));
         }
         cursor.close();
+        fillSenders(qiscusComments);
         return qiscusComments;
     }
 
@@ -613,6 +1094,141 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
         }, Emitter.BackpressureMode.BUFFER);
     }
 
+    @Override
+    public QiscusCommentPage getCommentPage(int topicId, String pageToken, int count) {
+        String query = "SELECT * FROM "
+                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_TOPIC_ID + " = ? ";
+        String[] args;
+        if (pageToken == null) {
+            args = new String[]{String.valueOf(topicId)};
+        } else {
+            String[] keys = decodePageToken(pageToken);
+            //The plain upper bound let SQLite seek in the keyset index, it can not seek on the OR alone
+            query += "AND " + QiscusDb.CommentTable.COLUMN_TIME + " <= ? AND ("
+                    + QiscusDb.CommentTable.COLUMN_TIME + " < ? OR ("
+                    + QiscusDb.CommentTable.COLUMN_TIME + " = ? AND " + QiscusDb.CommentTable.COLUMN_ID + " < ?) OR ("
+                    + QiscusDb.CommentTable.COLUMN_TIME + " = ? AND " + QiscusDb.CommentTable.COLUMN_ID + " = ? AND "
+                    + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " < ?)) ";
+            args = new String[]{String.valueOf(topicId), keys[0], keys[0], keys[0], keys[1], keys[0], keys[1], keys[2]};
+        }
+        query += "ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC, "
+                + QiscusDb.CommentTable.COLUMN_ID + " DESC, "
+                + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " DESC "
+                + "LIMIT " + (count + 1);
+
+        Cursor cursor = query(query, args);
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
+        while (cursor.moveToNext()) {
+            qiscusComments.add(rowMapper.map(cursor));
+        }
+        cursor.close();
+
+        boolean hasMore = qiscusComments.size() > count;
+        if (hasMore) {
+            qiscusComments.remove(count);
+        }
+        fillSenders(qiscusComments);
+
+        String nextPageToken = qiscusComments.isEmpty() ? pageToken
+                : encodePageToken(qiscusComments.get(qiscusComments.size() - 1));
+        return new QiscusCommentPage(qiscusComments, nextPageToken, hasMore);
+    }
+
+    @Override
+    public Observable<QiscusCommentPage> getObservableCommentPage(int topicId, String pageToken, int count) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(getCommentPage(topicId, pageToken, count));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    @Override
+    public QiscusCommentSearchPage searchComments(String query, int limit, String pageToken) {
+        return searchComments(query, NO_ROOM, limit, pageToken);
+    }
+
+    @Override
+    public QiscusCommentSearchPage searchComments(String query, int roomId, int limit, String pageToken) {
+        String matchQuery = query == null ? "" : QiscusDb.CommentSearchTable.toMatchQuery(query);
+        List<QiscusCommentSearchResult> results = new ArrayList<>();
+        if (matchQuery.isEmpty()) {
+            return new QiscusCommentSearchPage(results, null, false);
+        }
+
+        int offset = pageToken == null ? 0 : decodeSearchPageToken(pageToken);
+        String sql = QiscusDb.CommentSearchTable.search(SEARCH_START_MATCH, SEARCH_END_MATCH, SEARCH_ELLIPSIS,
+                roomId != NO_ROOM) + " LIMIT " + (limit + 1) + " OFFSET " + offset;
+        String[] args = roomId != NO_ROOM ? new String[]{matchQuery, String.valueOf(roomId)} : new String[]{matchQuery};
+
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        Cursor cursor = query(sql, args);
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
+        int snippetIndex = cursor.getColumnIndexOrThrow(QiscusDb.CommentSearchTable.COLUMN_SNIPPET);
+        int hitsIndex = cursor.getColumnIndexOrThrow(QiscusDb.CommentSearchTable.COLUMN_HITS);
+        while (cursor.moveToNext() && results.size() < limit) {
+            QiscusComment qiscusComment = rowMapper.map(cursor);
+            qiscusComments.add(qiscusComment);
+            results.add(new QiscusCommentSearchResult(qiscusComment, cursor.getString(snippetIndex),
+                    cursor.getInt(hitsIndex)));
+        }
+        boolean hasMore = cursor.getCount() > limit;
+        cursor.close();
+        fillSenders(qiscusComments);
+
+        String nextPageToken = hasMore ? encodeSearchPageToken(offset + results.size()) : null;
+        return new QiscusCommentSearchPage(results, nextPageToken, hasMore);
+    }
+
+    @Override
+    public Observable<QiscusCommentSearchPage> getObservableSearchComments(String query, int limit, String pageToken) {
+        return getObservableSearchComments(query, NO_ROOM, limit, pageToken);
+    }
+
+    @Override
+    public Observable<QiscusCommentSearchPage> getObservableSearchComments(String query, int roomId, int limit,
+                                                                          String pageToken) {
+        return Observable.create(subscriber -> {
+            subscriber.onNext(searchComments(query, roomId, limit, pageToken));
+            subscriber.onCompleted();
+        }, Emitter.BackpressureMode.BUFFER);
+    }
+
+    private String encodeSearchPageToken(int offset) {
+        return Base64.encodeToString(String.valueOf(offset).getBytes(UTF_8),
+                Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
+    private int decodeSearchPageToken(String pageToken) {
+        try {
+            int offset = Integer.parseInt(new String(Base64.decode(pageToken, Base64.URL_SAFE), UTF_8));
+            if (offset < 0) {
+                throw new IllegalArgumentException("Invalid page token " + pageToken);
+            }
+            return offset;
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid page token " + pageToken, e);
+        }
+    }
+
+    private String encodePageToken(QiscusComment qiscusComment) {
+        String keys = qiscusComment.getTimeMillis() + ":" + qiscusComment.getId() + ":"
+                + (qiscusComment.getUniqueId() == null ? "" : qiscusComment.getUniqueId());
+        return Base64.encodeToString(keys.getBytes(UTF_8), Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+    }
+
+    private String[] decodePageToken(String pageToken) {
+        try {
+            String[] keys = new String(Base64.decode(pageToken, Base64.URL_SAFE), UTF_8).split(":", 3);
+            Long.parseLong(keys[0]);
+            Integer.parseInt(keys[1]);
+            return new String[]{keys[0], keys[1], keys[2]};
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid page token " + pageToken, e);
+        }
+    }
+
     @Override
     public List<QiscusComment> getCommentsAfter(QiscusComment qiscusComment, int topicId) {
         String query = "SELECT * FROM "
@@ -623,16 +1239,12 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
                 + "ORDER BY " + QiscusDb.CommentTable.COLUMN_TIME + " DESC ";
         Cursor cursor = sqLiteDatabase.rawQuery(query, null);
         List<QiscusComment> qiscusComments = new ArrayList<>();
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
         while (cursor.moveToNext()) {
-            QiscusComment comment = QiscusDb.CommentTable.parseCursor(cursor);
-            QiscusRoomMember qiscusRoomMember = getMember(comment.getSenderEmail());
-            if (qiscusRoomMember != null) {
-                comment.setSender(qiscusRoomMember.getUsername());
-                comment.setSenderAvatar(qiscusRoomMember.getAvatar());
-            }
-            qiscusComments.add(comment);
+            qiscusComments.add(rowMapper.map(cursor));
         }
         cursor.close();
+        fillSenders(qiscusComments);
         return qiscusComments;
     }
 
@@ -733,19 +1345,152 @@ public class QiscusDataBaseHelper implements QiscusDataStore {
     }
 
     @Override
-    public void clear() {
-        sqLiteDatabase.beginTransaction();
+    public void addOutboxEntry(QiscusOutboxEntry entry) {
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                //Deleted first so a replaced entry get a new sequence, INSERT OR REPLACE would do the same implicitly
+                sqLiteDatabase.delete(QiscusDb.OutboxTable.TABLE_NAME, QiscusDb.OutboxTable.WHERE_UNIQUE_ID,
+                        new String[]{entry.getUniqueId()});
+                sqLiteDatabase.insert(QiscusDb.OutboxTable.TABLE_NAME, null,
+                        QiscusDb.OutboxTable.toContentValues(entry));
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
+    }
+
+    @Override
+    public void updateOutboxEntry(QiscusOutboxEntry entry) {
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.update(QiscusDb.OutboxTable.TABLE_NAME, QiscusDb.OutboxTable.toAttemptContentValues(entry),
+                        QiscusDb.OutboxTable.WHERE_UNIQUE_ID, new String[]{entry.getUniqueId()});
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
+    }
+
+    @Override
+    public void deleteOutboxEntry(String uniqueId) {
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.delete(QiscusDb.OutboxTable.TABLE_NAME, QiscusDb.OutboxTable.WHERE_UNIQUE_ID,
+                        new String[]{uniqueId});
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
+    }
+
+    @Override
+    public List<QiscusOutboxEntry> getOutboxEntries() {
+        List<QiscusOutboxEntry> entries = new ArrayList<>();
+        Cursor cursor = query(QiscusDb.OutboxTable.SELECT_ALL);
         try {
-            sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, null, null);
-            sqLiteDatabase.delete(QiscusDb.MemberTable.TABLE_NAME, null, null);
-            sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, null, null);
-            sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, null, null);
-            sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, null, null);
-            sqLiteDatabase.setTransactionSuccessful();
+            while (cursor.moveToNext()) {
+                entries.add(QiscusDb.OutboxTable.parseCursor(cursor));
+            }
+        } finally {
+            cursor.close();
+        }
+        return entries;
+    }
+
+    @Override
+    public void addOrUpdateLinkPreview(String url, PreviewData previewData, long fetchTime) {
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.replace(QiscusDb.LinkPreviewTable.TABLE_NAME, null,
+                        QiscusDb.LinkPreviewTable.toContentValues(url, previewData, fetchTime));
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
+    }
+
+    @Override
+    public PreviewData getLinkPreview(String url, long minFetchTime) {
+        Cursor cursor = query(QiscusDb.LinkPreviewTable.SELECT_BY_URL, url, String.valueOf(minFetchTime));
+        try {
+            return cursor.moveToFirst() ? QiscusDb.LinkPreviewTable.parseCursor(cursor) : null;
         } catch (Exception e) {
+            //A row that can not be parsed anymore is just fetched again
             e.printStackTrace();
+            return null;
         } finally {
-            sqLiteDatabase.endTransaction();
+            cursor.close();
         }
     }
+
+    @Override
+    public void trimLinkPreviews(long minFetchTime, int maxCount) {
+        writer.execute(() -> {
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.delete(QiscusDb.LinkPreviewTable.TABLE_NAME, QiscusDb.LinkPreviewTable.WHERE_EXPIRED,
+                        new String[]{String.valueOf(minFetchTime)});
+                sqLiteDatabase.delete(QiscusDb.LinkPreviewTable.TABLE_NAME, QiscusDb.LinkPreviewTable.WHERE_NOT_NEWEST,
+                        new String[]{String.valueOf(maxCount)});
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
+    }
+
+    @Override
+    public void clear() {
+        writer.execute(() -> {
+            writer.afterCommit(() -> {
+                synchronized (memberCache) {
+                    memberGeneration.incrementAndGet();
+                    memberCache.evictAll();
+                }
+            });
+            sqLiteDatabase.beginTransaction();
+            try {
+                sqLiteDatabase.delete(QiscusDb.RoomTable.TABLE_NAME, null, null);
+                sqLiteDatabase.delete(QiscusDb.MemberTable.TABLE_NAME, null, null);
+                sqLiteDatabase.delete(QiscusDb.RoomMemberTable.TABLE_NAME, null, null);
+                sqLiteDatabase.delete(QiscusDb.FilesTable.TABLE_NAME, null, null);
+                sqLiteDatabase.delete(QiscusDb.CommentTable.TABLE_NAME, null, null);
+                sqLiteDatabase.delete(QiscusDb.OutboxTable.TABLE_NAME, null, null);
+                sqLiteDatabase.delete(QiscusDb.LinkPreviewTable.TABLE_NAME, null, null);
+                sqLiteDatabase.setTransactionSuccessful();
+            } catch (Exception e) {
+                writer.onWriteFailed();
+                e.printStackTrace();
+            } finally {
+                sqLiteDatabase.endTransaction();
+            }
+        });
+    }
+
+    public interface StatementTimingListener {
+        void onStatementExecuted(String sql, long durationNanos);
+    }
 }
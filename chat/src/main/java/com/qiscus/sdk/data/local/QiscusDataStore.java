@@ -22,6 +22,7 @@ package com.qiscus.sdk.data.local;
  * Name       : Zetra
  * GitHub     : https://github.com/zetbaitsu
  */
-public interface QiscusDataStore extends QiscusChatRoomStore, QiscusRoomMemberStore, QiscusCommentStore, QiscusFileStore {
+public interface QiscusDataStore extends QiscusChatRoomStore, QiscusRoomMemberStore, QiscusCommentStore, QiscusFileStore,
+        QiscusOutboxStore, QiscusLinkPreviewStore {
     void clear();
 }
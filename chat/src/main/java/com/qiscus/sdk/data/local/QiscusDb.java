@@ -18,16 +18,66 @@ package com.qiscus.sdk.data.local;
 
 import android.content.ContentValues;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteStatement;
 
+import com.google.gson.Gson;
 import com.qiscus.sdk.data.model.QiscusChatRoom;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.data.model.QiscusRoomMember;
-
-import java.util.Date;
+import com.schinizer.rxunfurl.model.PreviewData;
 
 final class QiscusDb {
     static final String DATABASE_NAME = "qiscus.db";
-    static final int DATABASE_VERSION = 7;
+    static final int DATABASE_VERSION = 15;
+
+    interface RowMapper<T> {
+        T map(Cursor cursor);
+    }
+
+    static String insertOrReplace(String tableName, String... columns) {
+        return insert("INSERT OR REPLACE INTO ", tableName, columns);
+    }
+
+    static String insert(String tableName, String... columns) {
+        return insert("INSERT INTO ", tableName, columns);
+    }
+
+    private static String insert(String verb, String tableName, String... columns) {
+        StringBuilder query = new StringBuilder(verb)
+                .append(tableName).append(" (");
+        StringBuilder values = new StringBuilder();
+        for (int i = 0; i < columns.length; i++) {
+            query.append(i == 0 ? "" : ", ").append(columns[i]);
+            values.append(i == 0 ? "?" : ", ?");
+        }
+        return query.append(") VALUES (").append(values).append(")").toString();
+    }
+
+    /**
+     * Columns are bound from 1 in the given order, the arguments of the where clause after them.
+     */
+    static String update(String tableName, String where, String... columns) {
+        StringBuilder query = new StringBuilder("UPDATE ").append(tableName).append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            query.append(i == 0 ? "" : ", ").append(columns[i]).append(" = ?");
+        }
+        return query.append(" WHERE ").append(where).toString();
+    }
+
+    static String deleteDuplicates(String tableName, String column) {
+        return "DELETE FROM " + tableName + " WHERE " + column + " IS NOT NULL AND rowid NOT IN (" +
+                "SELECT MAX(rowid) FROM " + tableName + " WHERE " + column + " IS NOT NULL " +
+                "GROUP BY " + column + "); ";
+    }
+
+    static void bindString(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
 
     abstract static class RoomTable {
         static final String TABLE_NAME = "rooms";
@@ -52,6 +102,15 @@ final class QiscusDb {
                         COLUMN_AVATAR_URL + " TEXT" +
                         " ); ";
 
+        static final String CREATE_INDEX_ID =
+                "CREATE UNIQUE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_id ON " + TABLE_NAME + " (" +
+                        COLUMN_ID + "); ";
+
+        static final String DELETE_DUPLICATE_ID = deleteDuplicates(TABLE_NAME, COLUMN_ID);
+
+        static final String INSERT_OR_REPLACE = insertOrReplace(TABLE_NAME, COLUMN_ID, COLUMN_TOPIC_ID,
+                COLUMN_DISTINCT_ID, COLUMN_NAME, COLUMN_SUBTITLE, COLUMN_IS_GROUP, COLUMN_OPTIONS, COLUMN_AVATAR_URL);
+
         static ContentValues toContentValues(QiscusChatRoom qiscusChatRoom) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_ID, qiscusChatRoom.getId());
@@ -65,17 +124,44 @@ final class QiscusDb {
             return values;
         }
 
+        static void bindStatement(SQLiteStatement statement, QiscusChatRoom qiscusChatRoom) {
+            statement.clearBindings();
+            statement.bindLong(1, qiscusChatRoom.getId());
+            statement.bindLong(2, qiscusChatRoom.getLastTopicId());
+            bindString(statement, 3, qiscusChatRoom.getDistinctId());
+            bindString(statement, 4, qiscusChatRoom.getName());
+            bindString(statement, 5, qiscusChatRoom.getSubtitle());
+            statement.bindLong(6, qiscusChatRoom.isGroup() ? 1 : 0);
+            bindString(statement, 7, qiscusChatRoom.getOptions());
+            bindString(statement, 8, qiscusChatRoom.getAvatarUrl());
+        }
+
         static QiscusChatRoom parseCursor(Cursor cursor) {
-            QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
-            qiscusChatRoom.setId(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-            qiscusChatRoom.setLastTopicId(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_TOPIC_ID)));
-            qiscusChatRoom.setDistinctId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DISTINCT_ID)));
-            qiscusChatRoom.setName(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_NAME)));
-            qiscusChatRoom.setSubtitle(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SUBTITLE)));
-            qiscusChatRoom.setGroup(cursor.getShort(cursor.getColumnIndexOrThrow(COLUMN_IS_GROUP)) == 1);
-            qiscusChatRoom.setOptions(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_OPTIONS)));
-            qiscusChatRoom.setAvatarUrl(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_AVATAR_URL)));
-            return qiscusChatRoom;
+            return rowMapper(cursor).map(cursor);
+        }
+
+        static RowMapper<QiscusChatRoom> rowMapper(Cursor cursor) {
+            final int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+            final int topicIdIndex = cursor.getColumnIndexOrThrow(COLUMN_TOPIC_ID);
+            final int distinctIdIndex = cursor.getColumnIndexOrThrow(COLUMN_DISTINCT_ID);
+            final int nameIndex = cursor.getColumnIndexOrThrow(COLUMN_NAME);
+            final int subtitleIndex = cursor.getColumnIndexOrThrow(COLUMN_SUBTITLE);
+            final int isGroupIndex = cursor.getColumnIndexOrThrow(COLUMN_IS_GROUP);
+            final int optionsIndex = cursor.getColumnIndexOrThrow(COLUMN_OPTIONS);
+            final int avatarUrlIndex = cursor.getColumnIndexOrThrow(COLUMN_AVATAR_URL);
+
+            return row -> {
+                QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
+                qiscusChatRoom.setId(row.getInt(idIndex));
+                qiscusChatRoom.setLastTopicId(row.getInt(topicIdIndex));
+                qiscusChatRoom.setDistinctId(row.getString(distinctIdIndex));
+                qiscusChatRoom.setName(row.getString(nameIndex));
+                qiscusChatRoom.setSubtitle(row.getString(subtitleIndex));
+                qiscusChatRoom.setGroup(row.getShort(isGroupIndex) == 1);
+                qiscusChatRoom.setOptions(row.getString(optionsIndex));
+                qiscusChatRoom.setAvatarUrl(row.getString(avatarUrlIndex));
+                return qiscusChatRoom;
+            };
         }
     }
 
@@ -92,6 +178,15 @@ final class QiscusDb {
                         COLUMN_USER_AVATAR + " TEXT" +
                         " ); ";
 
+        static final String CREATE_INDEX_USER_EMAIL =
+                "CREATE UNIQUE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_user_email ON " + TABLE_NAME + " (" +
+                        COLUMN_USER_EMAIL + "); ";
+
+        static final String DELETE_DUPLICATE_USER_EMAIL = deleteDuplicates(TABLE_NAME, COLUMN_USER_EMAIL);
+
+        static final String INSERT_OR_REPLACE = insertOrReplace(TABLE_NAME, COLUMN_USER_EMAIL, COLUMN_USER_NAME,
+                COLUMN_USER_AVATAR);
+
         static ContentValues toContentValues(QiscusRoomMember qiscusRoomMember) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_USER_EMAIL, qiscusRoomMember.getEmail());
@@ -100,12 +195,29 @@ final class QiscusDb {
             return values;
         }
 
+        static void bindStatement(SQLiteStatement statement, QiscusRoomMember qiscusRoomMember) {
+            statement.clearBindings();
+            bindString(statement, 1, qiscusRoomMember.getEmail());
+            bindString(statement, 2, qiscusRoomMember.getUsername());
+            bindString(statement, 3, qiscusRoomMember.getAvatar());
+        }
+
         static QiscusRoomMember getMember(Cursor cursor) {
-            QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
-            qiscusRoomMember.setEmail(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_EMAIL)));
-            qiscusRoomMember.setUsername(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_NAME)));
-            qiscusRoomMember.setAvatar(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_USER_AVATAR)));
-            return qiscusRoomMember;
+            return rowMapper(cursor).map(cursor);
+        }
+
+        static RowMapper<QiscusRoomMember> rowMapper(Cursor cursor) {
+            final int emailIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_EMAIL);
+            final int nameIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_NAME);
+            final int avatarIndex = cursor.getColumnIndexOrThrow(COLUMN_USER_AVATAR);
+
+            return row -> {
+                QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
+                qiscusRoomMember.setEmail(row.getString(emailIndex));
+                qiscusRoomMember.setUsername(row.getString(nameIndex));
+                qiscusRoomMember.setAvatar(row.getString(avatarIndex));
+                return qiscusRoomMember;
+            };
         }
     }
 
@@ -122,6 +234,11 @@ final class QiscusDb {
                         COLUMN_DISTINCT_ID + " TEXT DEFAULT 'default'" +
                         " ); ";
 
+        static final String INSERT = "INSERT INTO " + TABLE_NAME + " (" +
+                COLUMN_ROOM_ID + ", " + COLUMN_USER_EMAIL + ", " + COLUMN_DISTINCT_ID + ") VALUES (?, ?, ?)";
+
+        static final String DELETE_BY_ROOM = "DELETE FROM " + TABLE_NAME + " WHERE " + COLUMN_ROOM_ID + " = ?";
+
         static ContentValues toContentValues(int roomId, String userEmail) {
             return toContentValues(roomId, userEmail, "default");
         }
@@ -176,6 +293,48 @@ final class QiscusDb {
                         COLUMN_PAYLOAD + " TEXT" +
                         " ); ";
 
+        static final String INDEX_TOPIC_TIME = "idx_" + TABLE_NAME + "_topic_time";
+
+        static final String DROP_INDEX_TOPIC_TIME = "DROP INDEX IF EXISTS " + INDEX_TOPIC_TIME + "; ";
+
+        //Also serve (topic_id, time) lookups, that is why it replaces INDEX_TOPIC_TIME
+        static final String CREATE_INDEX_TOPIC_KEYSET =
+                "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_topic_keyset ON " + TABLE_NAME + " (" +
+                        COLUMN_TOPIC_ID + ", " + COLUMN_TIME + ", " + COLUMN_ID + ", " + COLUMN_UNIQUE_ID + "); ";
+
+        static final String CREATE_INDEX_TOPIC_ID =
+                "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_topic_id ON " + TABLE_NAME + " (" +
+                        COLUMN_TOPIC_ID + ", " + COLUMN_ID + "); ";
+
+        //Let the latest comment lookup of sync seek instead of sorting the whole table
+        static final String CREATE_INDEX_ID =
+                "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_id ON " + TABLE_NAME + " (" + COLUMN_ID + "); ";
+
+        static final String CREATE_INDEX_ROOM_TIME =
+                "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_room_time ON " + TABLE_NAME + " (" +
+                        COLUMN_ROOM_ID + ", " + COLUMN_TIME + "); ";
+
+        static final String CREATE_INDEX_UNIQUE_ID =
+                "CREATE UNIQUE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_unique_id ON " + TABLE_NAME + " (" +
+                        COLUMN_UNIQUE_ID + "); ";
+
+        static final String DELETE_DUPLICATE_UNIQUE_ID = deleteDuplicates(TABLE_NAME, COLUMN_UNIQUE_ID);
+
+        //Same order as bindStatement()
+        private static final String[] COLUMNS = {COLUMN_ID, COLUMN_ROOM_ID, COLUMN_TOPIC_ID, COLUMN_UNIQUE_ID,
+                COLUMN_COMMENT_BEFORE_ID, COLUMN_MESSAGE, COLUMN_SENDER, COLUMN_SENDER_EMAIL, COLUMN_SENDER_AVATAR,
+                COLUMN_TIME, COLUMN_STATE, COLUMN_TYPE, COLUMN_PAYLOAD};
+
+        static final int COLUMN_COUNT = COLUMNS.length;
+
+        static final String INSERT = insert(TABLE_NAME, COLUMNS);
+
+        //Upsert run this then INSERT when nothing was updated, INSERT OR REPLACE would not find a comment by id,
+        //never conflict on a NULL unique_id, and give the row a new rowid which reindex it for search.
+        //After the columns bind the id, or NULL for a pending comment, then the unique id.
+        static final String UPDATE_BY_ID_OR_UNIQUE_ID = update(TABLE_NAME,
+                COLUMN_ID + " = ? OR " + COLUMN_UNIQUE_ID + " = ?", COLUMNS);
+
         static ContentValues toContentValues(QiscusComment qiscusComment) {
             ContentValues values = new ContentValues();
             values.put(COLUMN_ID, qiscusComment.getId());
@@ -187,29 +346,251 @@ final class QiscusDb {
             values.put(COLUMN_SENDER, qiscusComment.getSender());
             values.put(COLUMN_SENDER_EMAIL, qiscusComment.getSenderEmail());
             values.put(COLUMN_SENDER_AVATAR, qiscusComment.getSenderAvatar());
-            values.put(COLUMN_TIME, qiscusComment.getTime().getTime());
+            values.put(COLUMN_TIME, qiscusComment.getTimeMillis());
             values.put(COLUMN_STATE, qiscusComment.getState());
             values.put(COLUMN_TYPE, qiscusComment.getRawType());
             values.put(COLUMN_PAYLOAD, qiscusComment.getExtraPayload());
             return values;
         }
 
+        static void bindStatement(SQLiteStatement statement, QiscusComment qiscusComment) {
+            statement.clearBindings();
+            statement.bindLong(1, qiscusComment.getId());
+            statement.bindLong(2, qiscusComment.getRoomId());
+            statement.bindLong(3, qiscusComment.getTopicId());
+            bindString(statement, 4, qiscusComment.getUniqueId());
+            statement.bindLong(5, qiscusComment.getCommentBeforeId());
+            bindString(statement, 6, qiscusComment.getMessage());
+            bindString(statement, 7, qiscusComment.getSender());
+            bindString(statement, 8, qiscusComment.getSenderEmail());
+            bindString(statement, 9, qiscusComment.getSenderAvatar());
+            statement.bindLong(10, qiscusComment.getTimeMillis());
+            statement.bindLong(11, qiscusComment.getState());
+            bindString(statement, 12, qiscusComment.getRawType());
+            bindString(statement, 13, qiscusComment.getExtraPayload());
+        }
+
         static QiscusComment parseCursor(Cursor cursor) {
-            QiscusComment qiscusComment = new QiscusComment();
-            qiscusComment.setId(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ID)));
-            qiscusComment.setRoomId(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ROOM_ID)));
-            qiscusComment.setTopicId(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_TOPIC_ID)));
-            qiscusComment.setUniqueId(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_UNIQUE_ID)));
-            qiscusComment.setCommentBeforeId(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_COMMENT_BEFORE_ID)));
-            qiscusComment.setMessage(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_MESSAGE)));
-            qiscusComment.setSender(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER)));
-            qiscusComment.setSenderEmail(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER_EMAIL)));
-            qiscusComment.setSenderAvatar(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_SENDER_AVATAR)));
-            qiscusComment.setTime(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_TIME))));
-            qiscusComment.setState(cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_STATE)));
-            qiscusComment.setRawType(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_TYPE)));
-            qiscusComment.setExtraPayload(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD)));
-            return qiscusComment;
+            return rowMapper(cursor).map(cursor);
+        }
+
+        static RowMapper<QiscusComment> rowMapper(Cursor cursor) {
+            final int idIndex = cursor.getColumnIndexOrThrow(COLUMN_ID);
+            final int roomIdIndex = cursor.getColumnIndexOrThrow(COLUMN_ROOM_ID);
+            final int topicIdIndex = cursor.getColumnIndexOrThrow(COLUMN_TOPIC_ID);
+            final int uniqueIdIndex = cursor.getColumnIndexOrThrow(COLUMN_UNIQUE_ID);
+            final int commentBeforeIdIndex = cursor.getColumnIndexOrThrow(COLUMN_COMMENT_BEFORE_ID);
+            final int messageIndex = cursor.getColumnIndexOrThrow(COLUMN_MESSAGE);
+            final int senderIndex = cursor.getColumnIndexOrThrow(COLUMN_SENDER);
+            final int senderEmailIndex = cursor.getColumnIndexOrThrow(COLUMN_SENDER_EMAIL);
+            final int senderAvatarIndex = cursor.getColumnIndexOrThrow(COLUMN_SENDER_AVATAR);
+            final int timeIndex = cursor.getColumnIndexOrThrow(COLUMN_TIME);
+            final int stateIndex = cursor.getColumnIndexOrThrow(COLUMN_STATE);
+            final int typeIndex = cursor.getColumnIndexOrThrow(COLUMN_TYPE);
+            final int payloadIndex = cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD);
+
+            return row -> {
+                QiscusComment qiscusComment = new QiscusComment();
+                qiscusComment.setId(row.getInt(idIndex));
+                qiscusComment.setRoomId(row.getInt(roomIdIndex));
+                qiscusComment.setTopicId(row.getInt(topicIdIndex));
+                qiscusComment.setUniqueId(row.getString(uniqueIdIndex));
+                qiscusComment.setCommentBeforeId(row.getInt(commentBeforeIdIndex));
+                qiscusComment.setMessage(row.getString(messageIndex));
+                qiscusComment.setSender(row.getString(senderIndex));
+                qiscusComment.setSenderEmail(row.getString(senderEmailIndex));
+                qiscusComment.setSenderAvatar(row.getString(senderAvatarIndex));
+                qiscusComment.setTimeMillis(row.getLong(timeIndex));
+                qiscusComment.setState(row.getInt(stateIndex));
+                qiscusComment.setRawType(row.getString(typeIndex));
+                qiscusComment.setExtraPayload(row.getString(payloadIndex));
+                return qiscusComment;
+            };
+        }
+    }
+
+    /**
+     * FTS4 index of comment messages, the docid is the rowid of the comment. It stores its own copy of the message
+     * so deleting a docid that has not been indexed yet is a no-op, which let the backfill run while triggers index
+     * new writes. FTS5 and the unicode61 tokenizer are not available on every supported API level.
+     */
+    abstract static class CommentSearchTable {
+        static final String TABLE_NAME = "comments_fts";
+        static final String BACKFILL_TABLE_NAME = "comments_fts_backfill";
+        static final String COLUMN_MESSAGE = "message";
+        static final String COLUMN_LAST_ROWID = "last_rowid";
+        static final String COLUMN_SNIPPET = "search_snippet";
+        static final String COLUMN_HITS = "search_hits";
+
+        static final String CREATE =
+                "CREATE VIRTUAL TABLE IF NOT EXISTS " + TABLE_NAME + " USING fts4(" + COLUMN_MESSAGE + "); ";
+
+        static final String CREATE_TRIGGER_INSERT =
+                "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_ai AFTER INSERT ON " + CommentTable.TABLE_NAME +
+                        " BEGIN " +
+                        "DELETE FROM " + TABLE_NAME + " WHERE docid = new.rowid; " +
+                        "INSERT INTO " + TABLE_NAME + " (docid, " + COLUMN_MESSAGE + ") VALUES (new.rowid, new." +
+                        CommentTable.COLUMN_MESSAGE + "); " +
+                        "END; ";
+
+        //INSERT OR REPLACE deletes the replaced row without firing the delete trigger, recursive_triggers is off
+        static final String CREATE_TRIGGER_BEFORE_INSERT =
+                "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_bi BEFORE INSERT ON " + CommentTable.TABLE_NAME +
+                        " BEGIN " +
+                        "DELETE FROM " + TABLE_NAME + " WHERE docid IN (SELECT rowid FROM " + CommentTable.TABLE_NAME +
+                        " WHERE " + CommentTable.COLUMN_UNIQUE_ID + " = new." + CommentTable.COLUMN_UNIQUE_ID + "); " +
+                        "END; ";
+
+        static final String CREATE_TRIGGER_UPDATE =
+                "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_au AFTER UPDATE OF " + CommentTable.COLUMN_MESSAGE +
+                        " ON " + CommentTable.TABLE_NAME +
+                        " BEGIN " +
+                        "DELETE FROM " + TABLE_NAME + " WHERE docid = old.rowid; " +
+                        "INSERT INTO " + TABLE_NAME + " (docid, " + COLUMN_MESSAGE + ") VALUES (new.rowid, new." +
+                        CommentTable.COLUMN_MESSAGE + "); " +
+                        "END; ";
+
+        static final String CREATE_TRIGGER_DELETE =
+                "CREATE TRIGGER IF NOT EXISTS " + TABLE_NAME + "_ad AFTER DELETE ON " + CommentTable.TABLE_NAME +
+                        " BEGIN " +
+                        "DELETE FROM " + TABLE_NAME + " WHERE docid = old.rowid; " +
+                        "END; ";
+
+        //Documents left by the replaced rows before the before insert trigger existed
+        static final String DELETE_ORPHANS =
+                "DELETE FROM " + TABLE_NAME + " WHERE docid NOT IN (SELECT rowid FROM " + CommentTable.TABLE_NAME +
+                        "); ";
+
+        static final String CREATE_BACKFILL =
+                "CREATE TABLE IF NOT EXISTS " + BACKFILL_TABLE_NAME + " (" +
+                        COLUMN_LAST_ROWID + " INTEGER NOT NULL" +
+                        " ); ";
+
+        //Rows written from now on are indexed by the triggers, only rows up to the current max rowid need backfill
+        static final String START_BACKFILL =
+                "INSERT INTO " + BACKFILL_TABLE_NAME + " (" + COLUMN_LAST_ROWID + ") " +
+                        "SELECT IFNULL(MAX(rowid), 0) FROM " + CommentTable.TABLE_NAME + "; ";
+
+        static final String SELECT_BACKFILL =
+                "SELECT " + COLUMN_LAST_ROWID + " FROM " + BACKFILL_TABLE_NAME + " LIMIT 1";
+
+        static final String SELECT_BACKFILL_LOWER_BOUND =
+                "SELECT MIN(rowid) FROM (SELECT rowid FROM " + CommentTable.TABLE_NAME +
+                        " WHERE rowid <= ? ORDER BY rowid DESC LIMIT ?)";
+
+        static final String BACKFILL =
+                "INSERT INTO " + TABLE_NAME + " (docid, " + COLUMN_MESSAGE + ") " +
+                        "SELECT rowid, " + CommentTable.COLUMN_MESSAGE + " FROM " + CommentTable.TABLE_NAME +
+                        " WHERE rowid BETWEEN ?1 AND ?2 AND rowid NOT IN " +
+                        "(SELECT docid FROM " + TABLE_NAME + " WHERE docid BETWEEN ?1 AND ?2)";
+
+        static final String UPDATE_BACKFILL =
+                "UPDATE " + BACKFILL_TABLE_NAME + " SET " + COLUMN_LAST_ROWID + " = ?";
+
+        static final String DROP_BACKFILL = "DROP TABLE IF EXISTS " + BACKFILL_TABLE_NAME + "; ";
+
+        static final String HAS_BACKFILL = "SELECT COUNT(*) FROM sqlite_master WHERE type = 'table' AND name = '" +
+                BACKFILL_TABLE_NAME + "'";
+
+        //offsets() returns four numbers for every matching term, so this is the count of hits in the message
+        private static final String HITS = "((LENGTH(offsets(" + TABLE_NAME + ")) - LENGTH(REPLACE(offsets(" +
+                TABLE_NAME + "), ' ', '')) + 1) / 4)";
+
+        static String search(String startMatch, String endMatch, String ellipsis, boolean filterRoom) {
+            return "SELECT c.*, snippet(" + TABLE_NAME + ", " + DatabaseUtils.sqlEscapeString(startMatch) + ", " +
+                    DatabaseUtils.sqlEscapeString(endMatch) + ", " + DatabaseUtils.sqlEscapeString(ellipsis) +
+                    ", -1, 12) AS " + COLUMN_SNIPPET + ", " + HITS + " AS " + COLUMN_HITS +
+                    " FROM " + TABLE_NAME + " JOIN " + CommentTable.TABLE_NAME + " c ON c.rowid = " + TABLE_NAME +
+                    ".docid WHERE " + TABLE_NAME + " MATCH ?" +
+                    (filterRoom ? " AND c." + CommentTable.COLUMN_ROOM_ID + " = ?" : "") +
+                    " ORDER BY " + COLUMN_HITS + " DESC, c." + CommentTable.COLUMN_TIME + " DESC, c.rowid DESC";
+        }
+
+        /**
+         * Turn free text into a MATCH expression: every word is quoted so FTS operators typed by the user are not
+         * parsed, and the last word is matched as a prefix for search as you type.
+         */
+        static String toMatchQuery(String query) {
+            StringBuilder matchQuery = new StringBuilder();
+            String[] terms = query.trim().split("\\s+");
+            for (int i = 0; i < terms.length; i++) {
+                if (terms[i].isEmpty()) {
+                    continue;
+                }
+                if (matchQuery.length() > 0) {
+                    matchQuery.append(' ');
+                }
+                matchQuery.append('"').append(terms[i].replace("\"", "\"\""));
+                if (i == terms.length - 1) {
+                    //FTS4 only match a prefix when the star is inside the quotes, "term"* match nothing
+                    matchQuery.append('*');
+                }
+                matchQuery.append('"');
+            }
+            return matchQuery.toString();
+        }
+    }
+
+    abstract static class OutboxTable {
+        static final String TABLE_NAME = "outbox";
+        static final String COLUMN_SEQUENCE = "sequence";
+        static final String COLUMN_UNIQUE_ID = "unique_id";
+        static final String COLUMN_ROOM_ID = "room_id";
+        static final String COLUMN_TOPIC_ID = "topic_id";
+        static final String COLUMN_KIND = "kind";
+        static final String COLUMN_PAYLOAD = "payload";
+        static final String COLUMN_FILE_PATH = "file_path";
+        static final String COLUMN_ATTEMPT = "attempt";
+        static final String COLUMN_NEXT_ATTEMPT_TIME = "next_attempt_time";
+
+        static final String CREATE =
+                "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                        COLUMN_SEQUENCE + " INTEGER PRIMARY KEY AUTOINCREMENT," +
+                        COLUMN_UNIQUE_ID + " TEXT NOT NULL UNIQUE," +
+                        COLUMN_ROOM_ID + " INTEGER NOT NULL," +
+                        COLUMN_TOPIC_ID + " INTEGER NOT NULL," +
+                        COLUMN_KIND + " INTEGER NOT NULL," +
+                        COLUMN_PAYLOAD + " TEXT," +
+                        COLUMN_FILE_PATH + " TEXT," +
+                        COLUMN_ATTEMPT + " INTEGER NOT NULL DEFAULT 0," +
+                        COLUMN_NEXT_ATTEMPT_TIME + " INTEGER NOT NULL DEFAULT 0" +
+                        " ); ";
+
+        static final String SELECT_ALL = "SELECT * FROM " + TABLE_NAME + " ORDER BY " + COLUMN_SEQUENCE;
+
+        static final String WHERE_UNIQUE_ID = COLUMN_UNIQUE_ID + " = ?";
+
+        static ContentValues toContentValues(QiscusOutboxEntry entry) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_UNIQUE_ID, entry.getUniqueId());
+            values.put(COLUMN_ROOM_ID, entry.getRoomId());
+            values.put(COLUMN_TOPIC_ID, entry.getTopicId());
+            values.put(COLUMN_KIND, entry.getKind());
+            values.put(COLUMN_PAYLOAD, entry.getPayload());
+            values.put(COLUMN_FILE_PATH, entry.getFilePath());
+            values.put(COLUMN_ATTEMPT, entry.getAttempt());
+            values.put(COLUMN_NEXT_ATTEMPT_TIME, entry.getNextAttemptTime());
+            return values;
+        }
+
+        static ContentValues toAttemptContentValues(QiscusOutboxEntry entry) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_FILE_PATH, entry.getFilePath());
+            values.put(COLUMN_ATTEMPT, entry.getAttempt());
+            values.put(COLUMN_NEXT_ATTEMPT_TIME, entry.getNextAttemptTime());
+            return values;
+        }
+
+        static QiscusOutboxEntry parseCursor(Cursor cursor) {
+            return new QiscusOutboxEntry(
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_UNIQUE_ID)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ROOM_ID)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_TOPIC_ID)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_KIND)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_PAYLOAD)),
+                    cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_FILE_PATH)),
+                    cursor.getInt(cursor.getColumnIndexOrThrow(COLUMN_ATTEMPT)),
+                    cursor.getLong(cursor.getColumnIndexOrThrow(COLUMN_NEXT_ATTEMPT_TIME)));
         }
     }
 
@@ -238,4 +619,45 @@ final class QiscusDb {
             return cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_LOCAL_PATH));
         }
     }
+
+    abstract static class LinkPreviewTable {
+        static final String TABLE_NAME = "link_previews";
+        static final String COLUMN_URL = "url";
+        static final String COLUMN_DATA = "data";
+        static final String COLUMN_FETCH_TIME = "fetch_time";
+
+        private static final Gson GSON = new Gson();
+
+        static final String CREATE =
+                "CREATE TABLE IF NOT EXISTS " + TABLE_NAME + " (" +
+                        COLUMN_URL + " TEXT PRIMARY KEY," +
+                        COLUMN_DATA + " TEXT NOT NULL," +
+                        COLUMN_FETCH_TIME + " INTEGER NOT NULL" +
+                        " ); ";
+
+        static final String CREATE_INDEX_FETCH_TIME =
+                "CREATE INDEX IF NOT EXISTS idx_" + TABLE_NAME + "_fetch_time ON " + TABLE_NAME + " (" +
+                        COLUMN_FETCH_TIME + "); ";
+
+        static final String SELECT_BY_URL = "SELECT * FROM " + TABLE_NAME + " WHERE " + COLUMN_URL + " = ? AND " +
+                COLUMN_FETCH_TIME + " >= ?";
+
+        static final String WHERE_EXPIRED = COLUMN_FETCH_TIME + " < ?";
+
+        //Keep the newest rows, the bound argument is the number of rows to keep
+        static final String WHERE_NOT_NEWEST = COLUMN_URL + " NOT IN (SELECT " + COLUMN_URL + " FROM " + TABLE_NAME +
+                " ORDER BY " + COLUMN_FETCH_TIME + " DESC LIMIT ?)";
+
+        static ContentValues toContentValues(String url, PreviewData previewData, long fetchTime) {
+            ContentValues values = new ContentValues();
+            values.put(COLUMN_URL, url);
+            values.put(COLUMN_DATA, GSON.toJson(previewData));
+            values.put(COLUMN_FETCH_TIME, fetchTime);
+            return values;
+        }
+
+        static PreviewData parseCursor(Cursor cursor) {
+            return GSON.fromJson(cursor.getString(cursor.getColumnIndexOrThrow(COLUMN_DATA)), PreviewData.class);
+        }
+    }
 }
@@ -24,6 +24,8 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
 
     QiscusDbOpenHelper(Context context) {
         super(context, QiscusDb.DATABASE_NAME, null, QiscusDb.DATABASE_VERSION);
+        //Let readers run while the writer thread commits
+        setWriteAheadLoggingEnabled(true);
     }
 
     @Override
@@ -35,6 +37,11 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
             db.execSQL(QiscusDb.RoomMemberTable.CREATE);
             db.execSQL(QiscusDb.CommentTable.CREATE);
             db.execSQL(QiscusDb.FilesTable.CREATE);
+            db.execSQL(QiscusDb.OutboxTable.CREATE);
+            createLinkPreviews(db);
+            createCommentIndexes(db);
+            createRoomAndMemberIndexes(db);
+            createCommentSearch(db);
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
@@ -43,8 +50,109 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        clearOldData(db);
-        onCreate(db);
+        if (oldVersion < 7) {
+            clearOldData(db);
+            onCreate(db);
+            return;
+        }
+
+        db.beginTransaction();
+        try {
+            if (oldVersion < 8) {
+                migrateToVersion8(db);
+            }
+            if (oldVersion < 9) {
+                migrateToVersion9(db);
+            }
+            if (oldVersion < 10) {
+                migrateToVersion10(db);
+            }
+            if (oldVersion < 11) {
+                migrateToVersion11(db);
+            }
+            if (oldVersion < 12) {
+                migrateToVersion12(db);
+            }
+            if (oldVersion < 13) {
+                migrateToVersion13(db);
+            }
+            if (oldVersion < 14) {
+                migrateToVersion14(db);
+            }
+            if (oldVersion < 15) {
+                migrateToVersion15(db);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void migrateToVersion8(SQLiteDatabase db) {
+        //Older versions could store the same comment twice, drop them before adding the unique index
+        db.execSQL(QiscusDb.CommentTable.DELETE_DUPLICATE_UNIQUE_ID);
+        createCommentIndexes(db);
+    }
+
+    private void migrateToVersion9(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.RoomTable.DELETE_DUPLICATE_ID);
+        db.execSQL(QiscusDb.MemberTable.DELETE_DUPLICATE_USER_EMAIL);
+        createRoomAndMemberIndexes(db);
+    }
+
+    private void migrateToVersion10(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.CommentTable.DROP_INDEX_TOPIC_TIME);
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_TOPIC_KEYSET);
+    }
+
+    private void migrateToVersion11(SQLiteDatabase db) {
+        //Indexing the existing comments here would block the first open, the store backfill them in background
+        createCommentSearch(db);
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE_BACKFILL);
+        db.execSQL(QiscusDb.CommentSearchTable.START_BACKFILL);
+    }
+
+    private void migrateToVersion12(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.OutboxTable.CREATE);
+    }
+
+    private void migrateToVersion13(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_ID);
+    }
+
+    private void migrateToVersion14(SQLiteDatabase db) {
+        createLinkPreviews(db);
+    }
+
+    private void migrateToVersion15(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE_TRIGGER_BEFORE_INSERT);
+        db.execSQL(QiscusDb.CommentSearchTable.DELETE_ORPHANS);
+    }
+
+    private void createCommentIndexes(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_TOPIC_KEYSET);
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_TOPIC_ID);
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_ROOM_TIME);
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_UNIQUE_ID);
+        db.execSQL(QiscusDb.CommentTable.CREATE_INDEX_ID);
+    }
+
+    private void createRoomAndMemberIndexes(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.RoomTable.CREATE_INDEX_ID);
+        db.execSQL(QiscusDb.MemberTable.CREATE_INDEX_USER_EMAIL);
+    }
+
+    private void createCommentSearch(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE);
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE_TRIGGER_BEFORE_INSERT);
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE_TRIGGER_INSERT);
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE_TRIGGER_UPDATE);
+        db.execSQL(QiscusDb.CommentSearchTable.CREATE_TRIGGER_DELETE);
+    }
+
+    private void createLinkPreviews(SQLiteDatabase db) {
+        db.execSQL(QiscusDb.LinkPreviewTable.CREATE);
+        db.execSQL(QiscusDb.LinkPreviewTable.CREATE_INDEX_FETCH_TIME);
     }
 
     private void clearOldData(SQLiteDatabase db) {
@@ -53,5 +161,9 @@ class QiscusDbOpenHelper extends SQLiteOpenHelper {
         db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.RoomMemberTable.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.CommentTable.TABLE_NAME);
         db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.FilesTable.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.OutboxTable.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.CommentSearchTable.TABLE_NAME);
+        db.execSQL("DROP TABLE IF EXISTS " + QiscusDb.LinkPreviewTable.TABLE_NAME);
+        db.execSQL(QiscusDb.CommentSearchTable.DROP_BACKFILL);
     }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs every write of the store on one thread. Writes queued while the previous commit is running are grouped
+ * into one transaction, so SQLite only sync the journal once for the whole group.
+ */
+final class QiscusDbWriter {
+    private static final int MAX_GROUP_SIZE = 64;
+
+    private final SQLiteDatabase sqLiteDatabase;
+    private final BlockingQueue<WriteTask> pendingWrites;
+    private final Thread writerThread;
+    private boolean groupFailed;
+    private WriteTask runningTask;
+
+    QiscusDbWriter(SQLiteDatabase sqLiteDatabase) {
+        this.sqLiteDatabase = sqLiteDatabase;
+        pendingWrites = new LinkedBlockingQueue<>();
+        writerThread = new Thread(this::processWrites, "qiscus-db-writer");
+        writerThread.setDaemon(true);
+        writerThread.start();
+    }
+
+    /**
+     * Run the write on the writer thread and wait until it is committed.
+     */
+    void execute(Runnable write) {
+        if (Thread.currentThread() == writerThread) {
+            write.run();
+            return;
+        }
+
+        WriteTask writeTask = new WriteTask(write, true);
+        pendingWrites.add(writeTask);
+        writeTask.await();
+    }
+
+    /**
+     * Queue the write without waiting for it.
+     */
+    void enqueue(Runnable write) {
+        pendingWrites.add(new WriteTask(write, false));
+    }
+
+    /**
+     * Run the action once the running write is committed, or now when it is not called by a write. Everything a
+     * write tells the others must go through here: a group replayed after a failure would run it twice, and
+     * readers on another connection could still read the data from before the commit.
+     */
+    void afterCommit(Runnable action) {
+        if (Thread.currentThread() == writerThread && runningTask != null) {
+            runningTask.afterCommitActions.add(action);
+        } else {
+            action.run();
+        }
+    }
+
+    /**
+     * Must be called by a write that end its own transaction without marking it successful, nested transaction
+     * failure make SQLite rollback the whole group silently.
+     */
+    void onWriteFailed() {
+        if (Thread.currentThread() == writerThread) {
+            groupFailed = true;
+        }
+    }
+
+    private void processWrites() {
+        List<WriteTask> group = new ArrayList<>();
+        while (true) {
+            try {
+                group.add(pendingWrites.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            pendingWrites.drainTo(group, MAX_GROUP_SIZE - 1);
+
+            commit(group);
+            for (WriteTask writeTask : group) {
+                writeTask.runAfterCommitActions();
+                writeTask.done();
+            }
+            group.clear();
+        }
+    }
+
+    private void commit(List<WriteTask> group) {
+        if (group.size() == 1) {
+            group.get(0).run();
+            return;
+        }
+
+        groupFailed = false;
+        sqLiteDatabase.beginTransactionNonExclusive();
+        try {
+            for (WriteTask writeTask : group) {
+                writeTask.run();
+            }
+            if (!groupFailed) {
+                sqLiteDatabase.setTransactionSuccessful();
+            }
+        } finally {
+            sqLiteDatabase.endTransaction();
+        }
+
+        if (groupFailed) {
+            //The group has been rolled back, run every write in its own transaction instead
+            for (WriteTask writeTask : group) {
+                writeTask.run();
+            }
+        }
+    }
+
+    private final class WriteTask {
+        private final Runnable write;
+        private final boolean awaited;
+        private final CountDownLatch latch;
+        private final List<Runnable> afterCommitActions;
+        private RuntimeException error;
+
+        private WriteTask(Runnable write, boolean awaited) {
+            this.write = write;
+            this.awaited = awaited;
+            latch = new CountDownLatch(1);
+            afterCommitActions = new ArrayList<>();
+        }
+
+        private void run() {
+            //A replayed write collect its actions again
+            afterCommitActions.clear();
+            runningTask = this;
+            try {
+                write.run();
+                error = null;
+            } catch (RuntimeException e) {
+                error = e;
+                groupFailed = true;
+            } finally {
+                runningTask = null;
+            }
+        }
+
+        private void runAfterCommitActions() {
+            for (Runnable action : afterCommitActions) {
+                try {
+                    action.run();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
+                }
+            }
+            afterCommitActions.clear();
+        }
+
+        private void done() {
+            if (error != null && !awaited) {
+                error.printStackTrace();
+            }
+            latch.countDown();
+        }
+
+        private void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    latch.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (error != null) {
+                throw error;
+            }
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import com.schinizer.rxunfurl.model.PreviewData;
+
+public interface QiscusLinkPreviewStore {
+    void addOrUpdateLinkPreview(String url, PreviewData previewData, long fetchTime);
+
+    /**
+     * @return null if the url has no preview, or its preview was fetched before minFetchTime
+     */
+    PreviewData getLinkPreview(String url, long minFetchTime);
+
+    /**
+     * Delete previews fetched before minFetchTime, and the oldest ones until at most maxCount are left.
+     */
+    void trimLinkPreviews(long minFetchTime, int maxCount);
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.local;
+
+/**
+ * Outgoing comment waiting in the outbox to be posted. The comment itself is kept in the comments table, this only
+ * hold what is needed to post it again after the process died.
+ */
+public class QiscusOutboxEntry {
+    public static final int KIND_TEXT = 0;
+    public static final int KIND_REPLY = 1;
+    public static final int KIND_POSTBACK = 2;
+    public static final int KIND_FILE = 3;
+
+    private final String uniqueId;
+    private final int roomId;
+    private final int topicId;
+    private final int kind;
+    private final String payload;
+    private String filePath;
+    private int attempt;
+    private long nextAttemptTime;
+
+    public QiscusOutboxEntry(String uniqueId, int roomId, int topicId, int kind, String payload, String filePath) {
+        this(uniqueId, roomId, topicId, kind, payload, filePath, 0, 0);
+    }
+
+    QiscusOutboxEntry(String uniqueId, int roomId, int topicId, int kind, String payload, String filePath,
+                      int attempt, long nextAttemptTime) {
+        this.uniqueId = uniqueId;
+        this.roomId = roomId;
+        this.topicId = topicId;
+        this.kind = kind;
+        this.payload = payload;
+        this.filePath = filePath;
+        this.attempt = attempt;
+        this.nextAttemptTime = nextAttemptTime;
+    }
+
+    public String getUniqueId() {
+        return uniqueId;
+    }
+
+    public int getRoomId() {
+        return roomId;
+    }
+
+    public int getTopicId() {
+        return topicId;
+    }
+
+    public int getKind() {
+        return kind;
+    }
+
+    /**
+     * @return postback payload, or local path of the attachment for {@link #KIND_FILE}
+     */
+    public String getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return file still to be uploaded, null once it has been uploaded
+     */
+    public String getFilePath() {
+        return filePath;
+    }
+
+    public void setFilePath(String filePath) {
+        this.filePath = filePath;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    public long getNextAttemptTime() {
+        return nextAttemptTime;
+    }
+
+    public void setNextAttemptTime(long nextAttemptTime) {
+        this.nextAttemptTime = nextAttemptTime;
+    }
+
+    @Override
+    public String toString() {
+        return "QiscusOutboxEntry{" +
+                "uniqueId='" + uniqueId + '\'' +
+                ", roomId=" + roomId +
+                ", topicId=" + topicId +
+                ", kind=" + kind +
+                ", attempt=" + attempt +
+                ", nextAttemptTime=" + nextAttemptTime +
+                '}';
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.local;
+
+import java.util.List;
+
+public interface QiscusOutboxStore {
+    /**
+     * Add the entry at the end of the outbox, an entry with the same unique id is replaced and moved to the end.
+     */
+    void addOutboxEntry(QiscusOutboxEntry entry);
+
+    /**
+     * Save the attempt, next attempt time and file path of the entry.
+     */
+    void updateOutboxEntry(QiscusOutboxEntry entry);
+
+    void deleteOutboxEntry(String uniqueId);
+
+    /**
+     * @return every entry, in the order they have been added
+     */
+    List<QiscusOutboxEntry> getOutboxEntries();
+}
@@ -18,6 +18,8 @@ package com.qiscus.sdk.data.local;
 
 import com.qiscus.sdk.data.model.QiscusRoomMember;
 
+import java.util.List;
+
 public interface QiscusRoomMemberStore {
 
     void add(QiscusRoomMember qiscusRoomMember);
@@ -28,5 +30,7 @@ public interface QiscusRoomMemberStore {
 
     void addOrUpdate(QiscusRoomMember qiscusRoomMember);
 
+    void addOrUpdateMembers(List<QiscusRoomMember> qiscusRoomMembers);
+
     QiscusRoomMember getMember(String email);
 }
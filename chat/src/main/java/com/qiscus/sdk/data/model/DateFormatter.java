@@ -25,5 +25,8 @@ import java.util.Date;
  * GitHub     : https://github.com/zetbaitsu
  */
 public interface DateFormatter {
+    /**
+     * Always called on the main thread, so the formatter does not need to be thread safe.
+     */
     String format(Date date);
 }
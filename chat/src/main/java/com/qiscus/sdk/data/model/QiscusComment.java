@@ -25,7 +25,7 @@ import android.text.TextUtils;
 import android.webkit.MimeTypeMap;
 
 import com.qiscus.sdk.Qiscus;
-import com.qiscus.sdk.data.remote.QiscusUrlScraper;
+import com.qiscus.sdk.data.remote.QiscusLinkPreviewLoader;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
 import com.qiscus.sdk.util.QiscusFileUtil;
 import com.qiscus.sdk.util.QiscusRawDataExtractor;
@@ -42,8 +42,8 @@ import java.util.Date;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 /**
  * Created on : August 18, 2016
@@ -58,6 +58,8 @@ public class QiscusComment implements Parcelable {
     public static final int STATE_DELIVERED = 3;
     public static final int STATE_READ = 4;
 
+    private static final long NO_TIME = Long.MIN_VALUE;
+
     protected int id;
     protected int roomId;
     protected int topicId;
@@ -67,7 +69,14 @@ public class QiscusComment implements Parcelable {
     protected String sender;
     protected String senderEmail;
     protected String senderAvatar;
+    /**
+     * Only created from timeMillis when asked, it may be null while the comment still has a time.
+     *
+     * @deprecated use {@link #getTime()} and {@link #setTime(Date)} instead, this field will be private
+     */
+    @Deprecated
     protected Date time;
+    private long timeMillis = NO_TIME;
     protected int state;
     protected String roomName;
     protected String roomAvatar;
@@ -78,7 +87,9 @@ public class QiscusComment implements Parcelable {
     protected int progress;
 
     private List<String> urls;
+    private volatile Type type;
     private PreviewData previewData;
+    private Subscription linkPreviewSubscription;
 
     private String rawType;
     private String extraPayload;
@@ -93,6 +104,8 @@ public class QiscusComment implements Parcelable {
 
     private QiscusComment replyTo;
 
+    private volatile QiscusCommentRenderModel renderModel;
+
     public static QiscusComment generateMessage(String content, int roomId, int topicId) {
         QiscusAccount qiscusAccount = Qiscus.getQiscusAccount();
         QiscusComment qiscusComment = new QiscusComment();
@@ -146,7 +159,7 @@ public class QiscusComment implements Parcelable {
         sender = in.readString();
         senderEmail = in.readString();
         senderAvatar = in.readString();
-        time = new Date(in.readLong());
+        timeMillis = in.readLong();
         state = in.readInt();
         selected = in.readByte() != 0;
         rawType = in.readString();
@@ -212,6 +225,9 @@ public class QiscusComment implements Parcelable {
 
     public void setMessage(String message) {
         this.message = message;
+        urls = null;
+        type = null;
+        renderModel = null;
     }
 
     public String getSender() {
@@ -239,11 +255,34 @@ public class QiscusComment implements Parcelable {
     }
 
     public Date getTime() {
+        if (time == null && timeMillis != NO_TIME) {
+            time = new Date(timeMillis);
+        }
         return time;
     }
 
     public void setTime(Date time) {
         this.time = time;
+        timeMillis = time != null ? time.getTime() : NO_TIME;
+        renderModel = null;
+    }
+
+    /**
+     * Same as getTime().getTime() but without creating the Date object when the comment came from local db.
+     *
+     * @return the comment time in epoch millis, or 0 when the comment has no time
+     */
+    public long getTimeMillis() {
+        if (time != null) {
+            return time.getTime();
+        }
+        return timeMillis != NO_TIME ? timeMillis : 0;
+    }
+
+    public void setTimeMillis(long timeMillis) {
+        this.time = null;
+        this.timeMillis = timeMillis;
+        renderModel = null;
     }
 
     public int getState() {
@@ -288,6 +327,8 @@ public class QiscusComment implements Parcelable {
 
     public void setRawType(String rawType) {
         this.rawType = rawType;
+        type = null;
+        renderModel = null;
     }
 
     public String getRawType() {
@@ -300,6 +341,19 @@ public class QiscusComment implements Parcelable {
 
     public void setExtraPayload(String extraPayload) {
         this.extraPayload = extraPayload;
+        renderModel = null;
+    }
+
+    /**
+     * @return the render model prepared by {@link com.qiscus.sdk.util.QiscusCommentRenderer}, null if not prepared
+     * yet or the comment has been changed since
+     */
+    public QiscusCommentRenderModel getRenderModel() {
+        return renderModel;
+    }
+
+    public void setRenderModel(QiscusCommentRenderModel renderModel) {
+        this.renderModel = renderModel;
     }
 
     public QiscusComment getReplyTo() {
@@ -414,27 +468,60 @@ public class QiscusComment implements Parcelable {
         return urls;
     }
 
+    /**
+     * Load the preview of the first url, the listener is called on the main thread when it is ready.
+     * A load still running is cancelled.
+     */
     public void loadLinkPreviewData() {
-        if (getType() == Type.LINK) {
-            if (previewData != null) {
+        cancelLinkPreviewData();
+        if (getType() != Type.LINK) {
+            return;
+        }
+
+        String url = getUrls().get(0);
+        if (previewData == null || !url.equals(previewData.getUrl())) {
+            previewData = QiscusLinkPreviewLoader.getInstance().getCachedPreview(url);
+        }
+        if (previewData != null) {
+            if (linkPreviewListener != null) {
                 linkPreviewListener.onLinkPreviewReady(this, previewData);
-            } else {
-                QiscusUrlScraper.getInstance()
-                        .generatePreviewData(urls.get(0))
-                        .doOnNext(previewData -> previewData.setUrl(urls.get(0)))
-                        .subscribeOn(Schedulers.io())
-                        .observeOn(AndroidSchedulers.mainThread())
-                        .subscribe(previewData -> {
-                            this.previewData = previewData;
-                            if (linkPreviewListener != null) {
-                                linkPreviewListener.onLinkPreviewReady(this, previewData);
-                            }
-                        }, Throwable::printStackTrace);
             }
+        } else {
+            linkPreviewSubscription = QiscusLinkPreviewLoader.getInstance()
+                    .load(url)
+                    .observeOn(AndroidSchedulers.mainThread())
+                    .subscribe(previewData -> {
+                        this.previewData = previewData;
+                        if (linkPreviewListener != null) {
+                            linkPreviewListener.onLinkPreviewReady(this, previewData);
+                        }
+                    }, Throwable::printStackTrace);
         }
     }
 
+    /**
+     * Stop waiting for the preview, e.g. when the bubble is not visible anymore.
+     */
+    public void cancelLinkPreviewData() {
+        if (linkPreviewSubscription != null) {
+            linkPreviewSubscription.unsubscribe();
+            linkPreviewSubscription = null;
+        }
+    }
+
+    /**
+     * The type is only resolved once, until the message or the raw type is changed.
+     */
     public Type getType() {
+        Type type = this.type;
+        if (type == null) {
+            type = resolveType();
+            this.type = type;
+        }
+        return type;
+    }
+
+    private Type resolveType() {
         if (!TextUtils.isEmpty(rawType) && rawType.equals("account_linking")) {
             return Type.ACCOUNT_LINKING;
         } else if (!TextUtils.isEmpty(rawType) && rawType.equals("buttons")) {
@@ -604,7 +691,8 @@ public class QiscusComment implements Parcelable {
         result = 31 * result + (sender != null ? sender.hashCode() : 0);
         result = 31 * result + (senderEmail != null ? senderEmail.hashCode() : 0);
         result = 31 * result + (senderAvatar != null ? senderAvatar.hashCode() : 0);
-        result = 31 * result + (time != null ? time.hashCode() : 0);
+        long timeMillis = getTimeMillis();
+        result = 31 * result + (int) (timeMillis ^ (timeMillis >>> 32));
         result = 31 * result + state;
         result = 31 * result + (roomName != null ? roomName.hashCode() : 0);
         result = 31 * result + (groupMessage ? 1 : 0);
@@ -647,7 +735,7 @@ public class QiscusComment implements Parcelable {
                 ", sender='" + sender + '\'' +
                 ", senderEmail='" + senderEmail + '\'' +
                 ", senderAvatar='" + senderAvatar + '\'' +
-                ", time=" + time +
+                ", timeMillis=" + getTimeMillis() +
                 ", state=" + state +
                 '}';
     }
@@ -668,10 +756,10 @@ public class QiscusComment implements Parcelable {
         dest.writeString(sender);
         dest.writeString(senderEmail);
         dest.writeString(senderAvatar);
-        if (time == null) {
-            time = new Date();
+        if (getTime() == null) {
+            setTime(new Date());
         }
-        dest.writeLong(time.getTime());
+        dest.writeLong(getTimeMillis());
         dest.writeInt(state);
         dest.writeByte((byte) (selected ? 1 : 0));
         dest.writeString(rawType);
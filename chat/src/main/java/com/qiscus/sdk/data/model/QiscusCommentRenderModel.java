@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.model;
+
+import com.qiscus.sdk.Qiscus;
+
+import java.util.Date;
+
+/**
+ * Everything the chat bubble needs from a comment which is costly to compute, prepared off the main thread by
+ * {@link com.qiscus.sdk.util.QiscusCommentRenderer} so binding only apply it. The time and the date are formatted
+ * on first use instead, the formatters of the chat config are only called on the main thread.
+ */
+public final class QiscusCommentRenderModel {
+    private final QiscusComment.Type type;
+    private final long day;
+    private final long renderedDay;
+    private final long timeMillis;
+    private final CharSequence message;
+    private String formattedTime;
+    private String formattedDate;
+
+    public QiscusCommentRenderModel(QiscusComment.Type type, long day, long renderedDay, long timeMillis,
+                                    CharSequence message) {
+        this.type = type;
+        this.day = day;
+        this.renderedDay = renderedDay;
+        this.timeMillis = timeMillis;
+        this.message = message;
+    }
+
+    public QiscusComment.Type getType() {
+        return type;
+    }
+
+    /**
+     * @return number of days since epoch in the local time zone, comments of the same date have the same day
+     */
+    public long getDay() {
+        return day;
+    }
+
+    /**
+     * @return the day when it was rendered, the formatted date may say "Today" which is wrong the day after
+     */
+    public long getRenderedDay() {
+        return renderedDay;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public String getFormattedTime() {
+        if (formattedTime == null) {
+            formattedTime = Qiscus.getChatConfig().getTimeFormat().format(new Date(timeMillis));
+        }
+        return formattedTime;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    public String getFormattedDate() {
+        if (formattedDate == null) {
+            formattedDate = Qiscus.getChatConfig().getDateFormat().format(new Date(timeMillis));
+        }
+        return formattedDate;
+    }
+
+    /**
+     * @return the message with the links made clickable
+     */
+    public CharSequence getMessage() {
+        return message;
+    }
+}
@@ -22,12 +22,9 @@ import android.support.v4.util.Pair;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.qiscus.sdk.Qiscus;
-import com.qiscus.sdk.R;
 import com.qiscus.sdk.data.model.QiscusAccount;
 import com.qiscus.sdk.data.model.QiscusChatRoom;
 import com.qiscus.sdk.data.model.QiscusComment;
-import com.qiscus.sdk.util.QiscusAndroidUtil;
-import com.qiscus.sdk.util.QiscusDateUtil;
 import com.qiscus.sdk.util.QiscusFileUtil;
 
 import org.json.JSONException;
@@ -60,6 +57,7 @@ import retrofit2.http.FormUrlEncoded;
 import retrofit2.http.GET;
 import retrofit2.http.POST;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 import rx.Emitter;
 import rx.Observable;
 import rx.exceptions.OnErrorThrowable;
@@ -130,9 +128,7 @@ public enum QiscusApi {
 
     public Observable<QiscusComment> getComments(int roomId, int topicId, int lastCommentId) {
         return api.getComments(Qiscus.getToken(), topicId, lastCommentId)
-                .flatMap(jsonElement -> Observable.from(jsonElement.getAsJsonObject().get("results")
-                        .getAsJsonObject().get("comments").getAsJsonArray()))
-                .map(jsonElement -> QiscusApiParser.parseQiscusComment(jsonElement, roomId, topicId));
+                .flatMap(responseBody -> QiscusApiParser.parseQiscusComments(responseBody, roomId, topicId));
     }
 
     public Observable<QiscusComment> postComment(QiscusComment qiscusComment) {
@@ -173,25 +169,24 @@ public enum QiscusApi {
 
     public Observable<QiscusComment> sync() {
         QiscusComment latestComment = Qiscus.getDataStore().getLatestComment();
-        if (latestComment == null || !QiscusAndroidUtil.getString(R.string.qiscus_today)
-                .equals(QiscusDateUtil.toTodayOrDate(latestComment.getTime()))) {
+        if (latestComment == null) {
             return Observable.empty();
         }
-        return api.sync(Qiscus.getToken(), latestComment.getId())
-                .onErrorReturn(throwable -> {
+        return sync(latestComment.getId())
+                .onErrorResumeNext(throwable -> {
                     throwable.printStackTrace();
-                    return null;
-                })
-                .filter(jsonElement -> jsonElement != null)
-                .flatMap(jsonElement -> Observable.from(jsonElement.getAsJsonObject().get("results")
-                        .getAsJsonObject().get("comments").getAsJsonArray()))
-                .map(jsonElement -> {
-                    JsonObject jsonComment = jsonElement.getAsJsonObject();
-                    return QiscusApiParser.parseQiscusComment(jsonElement,
-                            jsonComment.get("room_id").getAsInt(), jsonComment.get("topic_id").getAsInt());
+                    return Observable.empty();
                 });
     }
 
+    /**
+     * Get every comment newer than the given comment from all rooms, errors are propagated.
+     */
+    public Observable<QiscusComment> sync(int lastCommentId) {
+        return api.sync(Qiscus.getToken(), lastCommentId)
+                .flatMap(responseBody -> QiscusApiParser.parseQiscusComments(responseBody, 0, 0));
+    }
+
     public Observable<Uri> uploadFile(File file, ProgressListener progressListener) {
         return Observable.create(subscriber -> {
             long fileLength = file.length();
@@ -302,35 +297,37 @@ public enum QiscusApi {
 
         @FormUrlEncoded
         @POST("/api/v2/mobile/get_or_create_room_with_target")
-        Observable<JsonElement> createOrGetChatRoom(@Field("token") String token,
-                                                    @Field("emails[]") List<String> emails,
-                                                    @Field("distinct_id") String distinctId,
-                                                    @Field("options") String options);
+        Observable<ResponseBody> createOrGetChatRoom(@Field("token") String token,
+                                                     @Field("emails[]") List<String> emails,
+                                                     @Field("distinct_id") String distinctId,
+                                                     @Field("options") String options);
 
         @FormUrlEncoded
         @POST("/api/v2/mobile/create_room")
-        Observable<JsonElement> createGroupChatRoom(@Field("token") String token,
-                                                    @Field("name") String name,
-                                                    @Field("participants[]") List<String> emails,
-                                                    @Field("avatar_url") String avatarUrl,
-                                                    @Field("options") String options);
+        Observable<ResponseBody> createGroupChatRoom(@Field("token") String token,
+                                                     @Field("name") String name,
+                                                     @Field("participants[]") List<String> emails,
+                                                     @Field("avatar_url") String avatarUrl,
+                                                     @Field("options") String options);
 
         @FormUrlEncoded
         @POST("/api/v2/mobile/get_or_create_room_with_unique_id")
-        Observable<JsonElement> createOrGetGroupChatRoom(@Field("token") String token,
-                                                         @Field("unique_id") String uniqueId,
-                                                         @Field("name") String name,
-                                                         @Field("avatar_url") String avatarUrl,
-                                                         @Field("options") String options);
+        Observable<ResponseBody> createOrGetGroupChatRoom(@Field("token") String token,
+                                                          @Field("unique_id") String uniqueId,
+                                                          @Field("name") String name,
+                                                          @Field("avatar_url") String avatarUrl,
+                                                          @Field("options") String options);
 
+        @Streaming
         @GET("/api/v2/mobile/get_room_by_id")
-        Observable<JsonElement> getChatRoom(@Query("token") String token,
-                                            @Query("id") int roomId);
+        Observable<ResponseBody> getChatRoom(@Query("token") String token,
+                                             @Query("id") int roomId);
 
+        @Streaming
         @GET("/api/v2/mobile/load_comments")
-        Observable<JsonElement> getComments(@Query("token") String token,
-                                            @Query("topic_id") int topicId,
-                                            @Query("last_comment_id") int lastCommentId);
+        Observable<ResponseBody> getComments(@Query("token") String token,
+                                             @Query("topic_id") int topicId,
+                                             @Query("last_comment_id") int lastCommentId);
 
         @FormUrlEncoded
         @POST("/api/v2/mobile/post_comment")
@@ -341,17 +338,18 @@ public enum QiscusApi {
                                             @Field("type") String type,
                                             @Field("payload") String payload);
 
+        @Streaming
         @GET("/api/v2/mobile/sync")
-        Observable<JsonElement> sync(@Query("token") String token,
-                                     @Query("last_received_comment_id") int lastCommentId);
+        Observable<ResponseBody> sync(@Query("token") String token,
+                                      @Query("last_received_comment_id") int lastCommentId);
 
         @FormUrlEncoded
         @POST("/api/v2/mobile/update_room")
-        Observable<JsonElement> updateChatRoom(@Field("token") String token,
-                                               @Field("id") int id,
-                                               @Field("room_name") String name,
-                                               @Field("avatar_url") String avatarUrl,
-                                               @Field("options") String options);
+        Observable<ResponseBody> updateChatRoom(@Field("token") String token,
+                                                @Field("id") int id,
+                                                @Field("room_name") String name,
+                                                @Field("avatar_url") String avatarUrl,
+                                                @Field("options") String options);
 
         @FormUrlEncoded
         @POST("/api/v2/mobile/update_comment_status")
@@ -18,21 +18,27 @@ package com.qiscus.sdk.data.remote;
 
 import android.support.v4.util.Pair;
 
-import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 import com.qiscus.sdk.data.model.QiscusAccount;
 import com.qiscus.sdk.data.model.QiscusChatRoom;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.data.model.QiscusRoomMember;
+import com.qiscus.sdk.util.QiscusIso8601Util;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
+
+import okhttp3.ResponseBody;
+import rx.Emitter;
+import rx.Observable;
+import rx.exceptions.OnErrorThrowable;
 
 /**
  * Created on : February 02, 2017
@@ -41,13 +47,6 @@ import java.util.TimeZone;
  * GitHub     : https://github.com/zetbaitsu
  */
 final class QiscusApiParser {
-    private static DateFormat dateFormat;
-
-    static {
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-    }
-
     static QiscusAccount parseQiscusAccount(JsonElement jsonElement) {
         JsonObject jsonAccount = jsonElement.getAsJsonObject().get("results").getAsJsonObject().get("user").getAsJsonObject();
         QiscusAccount qiscusAccount = new QiscusAccount();
@@ -60,114 +59,418 @@ final class QiscusApiParser {
         return qiscusAccount;
     }
 
-    static QiscusChatRoom parseQiscusChatRoom(JsonElement jsonElement) {
-        if (jsonElement != null) {
-            JsonObject jsonChatRoom = jsonElement.getAsJsonObject().get("results").getAsJsonObject().get("room").getAsJsonObject();
-            QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
-            qiscusChatRoom.setId(jsonChatRoom.get("id").getAsInt());
-            //TODO minta server ngasih tau distinctId biar bisa disimpen
-            //qiscusChatRoom.setDistinctId("default");
-            qiscusChatRoom.setGroup(!"single".equals(jsonChatRoom.get("chat_type").getAsString()));
-            if (qiscusChatRoom.isGroup()) {
-                qiscusChatRoom.setName(jsonChatRoom.get("room_name").getAsString());
-                qiscusChatRoom.setDistinctId(qiscusChatRoom.getId() + "");
+    static QiscusChatRoom parseQiscusChatRoom(ResponseBody responseBody) {
+        return parseQiscusChatRoom(responseBody, false).first;
+    }
+
+    static Pair<QiscusChatRoom, List<QiscusComment>> parseQiscusChatRoomWithComments(ResponseBody responseBody) {
+        return parseQiscusChatRoom(responseBody, true);
+    }
+
+    /**
+     * Read the room and its comments straight from the response body, comments are only kept when asked,
+     * otherwise only the first one is read to get the last comment info of the room.
+     */
+    private static Pair<QiscusChatRoom, List<QiscusComment>> parseQiscusChatRoom(ResponseBody responseBody,
+                                                                               boolean withComments) {
+        JsonReader reader = new JsonReader(responseBody.charStream());
+        try {
+            QiscusChatRoom qiscusChatRoom = null;
+            List<QiscusComment> qiscusComments = new ArrayList<>();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                if (!"results".equals(reader.nextName())) {
+                    reader.skipValue();
+                    continue;
+                }
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String name = reader.nextName();
+                    if ("room".equals(name)) {
+                        qiscusChatRoom = readChatRoom(reader);
+                    } else if ("comments".equals(name)) {
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            if (withComments || qiscusComments.isEmpty()) {
+                                qiscusComments.add(readComment(reader, 0, 0, false));
+                            } else {
+                                reader.skipValue();
+                            }
+                        }
+                        reader.endArray();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            }
+            reader.endObject();
+
+            if (qiscusChatRoom == null) {
+                throw new IOException("Response doesn't contain any room");
             }
-            qiscusChatRoom.setLastCommentId(jsonChatRoom.get("last_comment_id").getAsInt());
-            qiscusChatRoom.setLastCommentMessage(jsonChatRoom.get("last_comment_message").getAsString());
-            qiscusChatRoom.setLastTopicId(jsonChatRoom.get("last_topic_id").getAsInt());
-            qiscusChatRoom.setOptions(jsonChatRoom.get("options").isJsonNull() ? null : jsonChatRoom.get("options").getAsString());
-            qiscusChatRoom.setAvatarUrl(jsonChatRoom.get("avatar_url").getAsString());
-
-            JsonArray jsonMembers = jsonElement.getAsJsonObject().get("results")
-                    .getAsJsonObject().get("room").getAsJsonObject().get("participants").getAsJsonArray();
-            List<QiscusRoomMember> members = new ArrayList<>();
-            for (JsonElement jsonMember : jsonMembers) {
-                QiscusRoomMember member = new QiscusRoomMember();
-                member.setEmail(jsonMember.getAsJsonObject().get("email").getAsString());
-                member.setAvatar(jsonMember.getAsJsonObject().get("avatar_url").getAsString());
-                member.setUsername(jsonMember.getAsJsonObject().get("username").getAsString());
-                members.add(member);
+
+            //Comments may come before the room, so they only know their room after the whole response has been read
+            for (QiscusComment qiscusComment : qiscusComments) {
+                qiscusComment.setRoomId(qiscusChatRoom.getId());
+                qiscusComment.setTopicId(qiscusChatRoom.getLastTopicId());
             }
-            qiscusChatRoom.setMember(members);
-
-            JsonArray comments = jsonElement.getAsJsonObject().get("results")
-                    .getAsJsonObject().get("comments").getAsJsonArray();
-
-            if (comments.size() > 0) {
-                JsonObject lastComment = comments.get(0).getAsJsonObject();
-                qiscusChatRoom.setLastCommentSender(lastComment.get("username").getAsString());
-                qiscusChatRoom.setLastCommentSenderEmail(lastComment.get("email").getAsString());
-                try {
-                    qiscusChatRoom.setLastCommentTime(dateFormat.parse(lastComment.get("timestamp").getAsString()));
-                } catch (ParseException e) {
-                    e.printStackTrace();
+            if (!qiscusComments.isEmpty()) {
+                QiscusComment lastComment = qiscusComments.get(0);
+                qiscusChatRoom.setLastCommentSender(lastComment.getSender());
+                qiscusChatRoom.setLastCommentSenderEmail(lastComment.getSenderEmail());
+                if (lastComment.getTime() != null) {
+                    qiscusChatRoom.setLastCommentTime(lastComment.getTime());
                 }
             }
-            return qiscusChatRoom;
+            return Pair.create(qiscusChatRoom, withComments ? qiscusComments : null);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw OnErrorThrowable.from(e);
+        } finally {
+            closeQuietly(reader);
         }
+    }
 
-        return null;
+    /**
+     * Emit every comment of results.comments while the response body is still being read.
+     *
+     * @param roomId  room of the comments, or 0 to read it from the comment
+     * @param topicId topic of the comments, or 0 to read it from the comment
+     */
+    static Observable<QiscusComment> parseQiscusComments(ResponseBody responseBody, int roomId, int topicId) {
+        return Observable.create(subscriber -> {
+            JsonReader reader = new JsonReader(responseBody.charStream());
+            try {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    if (!"results".equals(reader.nextName())) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        if (!"comments".equals(reader.nextName())) {
+                            reader.skipValue();
+                            continue;
+                        }
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            subscriber.onNext(readComment(reader, roomId, topicId, false));
+                        }
+                        reader.endArray();
+                    }
+                    reader.endObject();
+                }
+                reader.endObject();
+                subscriber.onCompleted();
+            } catch (IOException | IllegalStateException | NumberFormatException e) {
+                subscriber.onError(e);
+            } finally {
+                closeQuietly(reader);
+            }
+        }, Emitter.BackpressureMode.BUFFER);
     }
 
-    static Pair<QiscusChatRoom, List<QiscusComment>> parseQiscusChatRoomWithComments(JsonElement jsonElement) {
-        if (jsonElement != null) {
-            QiscusChatRoom qiscusChatRoom = parseQiscusChatRoom(jsonElement);
+    /**
+     * Parse comment sent through MQTT or FCM.
+     */
+    static QiscusComment parsePushedComment(String json) {
+        JsonReader reader = new JsonReader(new StringReader(json));
+        try {
+            return readComment(reader, 0, 0, true);
+        } catch (IOException | IllegalStateException | NumberFormatException e) {
+            throw OnErrorThrowable.from(e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
 
-            JsonArray comments = jsonElement.getAsJsonObject().get("results").getAsJsonObject().get("comments").getAsJsonArray();
-            List<QiscusComment> qiscusComments = new ArrayList<>();
-            for (JsonElement jsonComment : comments) {
-                qiscusComments.add(parseQiscusComment(jsonComment, qiscusChatRoom.getId(), qiscusChatRoom.getLastTopicId()));
+    private static QiscusChatRoom readChatRoom(JsonReader reader) throws IOException {
+        QiscusChatRoom qiscusChatRoom = new QiscusChatRoom();
+        String roomName = null;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    qiscusChatRoom.setId(nextInt(reader));
+                    break;
+                case "chat_type":
+                    qiscusChatRoom.setGroup(!"single".equals(nextString(reader)));
+                    break;
+                case "room_name":
+                    roomName = nextString(reader);
+                    break;
+                case "last_comment_id":
+                    qiscusChatRoom.setLastCommentId(nextInt(reader));
+                    break;
+                case "last_comment_message":
+                    qiscusChatRoom.setLastCommentMessage(nextString(reader));
+                    break;
+                case "last_topic_id":
+                    qiscusChatRoom.setLastTopicId(nextInt(reader));
+                    break;
+                case "options":
+                    qiscusChatRoom.setOptions(nextString(reader));
+                    break;
+                case "avatar_url":
+                    qiscusChatRoom.setAvatarUrl(nextString(reader));
+                    break;
+                case "participants":
+                    qiscusChatRoom.setMember(readMembers(reader));
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
             }
+        }
+        reader.endObject();
 
-            return Pair.create(qiscusChatRoom, qiscusComments);
+        //TODO minta server ngasih tau distinctId biar bisa disimpen
+        //qiscusChatRoom.setDistinctId("default");
+        if (qiscusChatRoom.isGroup()) {
+            qiscusChatRoom.setName(roomName);
+            qiscusChatRoom.setDistinctId(qiscusChatRoom.getId() + "");
+        }
+        if (qiscusChatRoom.getMember() == null) {
+            qiscusChatRoom.setMember(new ArrayList<>());
         }
+        return qiscusChatRoom;
+    }
 
-        return null;
+    private static List<QiscusRoomMember> readMembers(JsonReader reader) throws IOException {
+        List<QiscusRoomMember> members = new ArrayList<>();
+        reader.beginArray();
+        while (reader.hasNext()) {
+            QiscusRoomMember member = new QiscusRoomMember();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "email":
+                        member.setEmail(nextString(reader));
+                        break;
+                    case "avatar_url":
+                        member.setAvatar(nextString(reader));
+                        break;
+                    case "username":
+                        member.setUsername(nextString(reader));
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+            members.add(member);
+        }
+        reader.endArray();
+        return members;
     }
 
-    static QiscusComment parseQiscusComment(JsonElement jsonElement, int roomId, int topicId) {
+    /**
+     * Read one comment object, API comments and pushed comments only differ by a few field names.
+     *
+     * @param roomId  room of the comment, used when the comment doesn't have room_id
+     * @param topicId topic of the comment, used when the comment doesn't have topic_id
+     * @param pushed  true if the comment come from MQTT or FCM, those use unique_temp_id and carry room info
+     */
+    private static QiscusComment readComment(JsonReader reader, int roomId, int topicId, boolean pushed)
+            throws IOException {
         QiscusComment qiscusComment = new QiscusComment();
-        JsonObject jsonComment = jsonElement.getAsJsonObject();
-        qiscusComment.setTopicId(topicId);
         qiscusComment.setRoomId(roomId);
-        qiscusComment.setId(jsonComment.get("id").getAsInt());
-        qiscusComment.setCommentBeforeId(jsonComment.get("comment_before_id").getAsInt());
-        qiscusComment.setMessage(jsonComment.get("message").getAsString());
-        qiscusComment.setSender(jsonComment.get("username").getAsString());
-        qiscusComment.setSenderEmail(jsonComment.get("email").getAsString());
-        qiscusComment.setSenderAvatar(jsonComment.get("user_avatar_url").getAsString());
+        qiscusComment.setTopicId(topicId);
         qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
+        String uniqueId = null;
+        String uniqueTempId = null;
+        String roomName = null;
+        String payloadText = null;
 
-        try {
-            qiscusComment.setTime(dateFormat.parse(jsonComment.get("timestamp").getAsString()));
-        } catch (ParseException e) {
-            e.printStackTrace();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "id":
+                    qiscusComment.setId(nextInt(reader));
+                    break;
+                case "room_id":
+                    qiscusComment.setRoomId(nextInt(reader));
+                    break;
+                case "topic_id":
+                    qiscusComment.setTopicId(nextInt(reader));
+                    break;
+                case "unique_id":
+                    uniqueId = nextString(reader);
+                    break;
+                case "unique_temp_id":
+                    uniqueTempId = nextString(reader);
+                    break;
+                case "comment_before_id":
+                    qiscusComment.setCommentBeforeId(nextInt(reader));
+                    break;
+                case "message":
+                    qiscusComment.setMessage(nextString(reader));
+                    break;
+                case "username":
+                    qiscusComment.setSender(nextString(reader));
+                    break;
+                case "email":
+                    qiscusComment.setSenderEmail(nextString(reader));
+                    break;
+                case "user_avatar_url":
+                case "user_avatar":
+                    qiscusComment.setSenderAvatar(nextString(reader));
+                    break;
+                case "timestamp":
+                    String timestamp = nextString(reader);
+                    if (timestamp != null) {
+                        try {
+                            qiscusComment.setTimeMillis(QiscusIso8601Util.parse(timestamp));
+                        } catch (IllegalArgumentException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                    break;
+                case "room_name":
+                    roomName = nextString(reader);
+                    break;
+                case "room_avatar":
+                    qiscusComment.setRoomAvatar(nextString(reader));
+                    break;
+                case "chat_type":
+                    qiscusComment.setGroupMessage(!"single".equals(nextString(reader)));
+                    break;
+                case "type":
+                    qiscusComment.setRawType(nextString(reader));
+                    break;
+                case "payload":
+                    StringWriter payload = new StringWriter();
+                    payloadText = copyPayload(reader, new JsonWriter(payload));
+                    qiscusComment.setExtraPayload(payload.toString());
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
         }
+        reader.endObject();
 
-        if (jsonComment.has("unique_id")) {
-            qiscusComment.setUniqueId(jsonComment.get("unique_id").getAsString());
-        } else if (jsonComment.has("unique_temp_id")) {
-            qiscusComment.setUniqueId(jsonComment.get("unique_temp_id").getAsString());
+        if (pushed) {
+            qiscusComment.setUniqueId(uniqueTempId != null ? uniqueTempId : String.valueOf(qiscusComment.getId()));
+            qiscusComment.setRoomName(roomName == null ? qiscusComment.getSender() : roomName);
+        } else if (uniqueId != null) {
+            qiscusComment.setUniqueId(uniqueId);
+        } else if (uniqueTempId != null) {
+            qiscusComment.setUniqueId(uniqueTempId);
         } else {
             qiscusComment.setUniqueId(String.valueOf(qiscusComment.getId()));
         }
 
-        if (jsonComment.has("type")) {
-            qiscusComment.setRawType(jsonComment.get("type").getAsString());
-            qiscusComment.setExtraPayload(jsonComment.get("payload").toString());
+        if (qiscusComment.getRawType() != null) {
             if (qiscusComment.getType() == QiscusComment.Type.BUTTONS
                     || qiscusComment.getType() == QiscusComment.Type.REPLY
                     || qiscusComment.getType() == QiscusComment.Type.CARD) {
-                JsonObject payload = jsonComment.get("payload").getAsJsonObject();
-                if (payload.has("text")) {
-                    String text = payload.get("text").getAsString();
-                    if (text != null && !text.trim().isEmpty()) {
-                        qiscusComment.setMessage(text.trim());
-                    }
+                if (payloadText != null && !payloadText.trim().isEmpty()) {
+                    qiscusComment.setMessage(payloadText.trim());
                 }
             }
+        } else {
+            qiscusComment.setExtraPayload(null);
         }
 
         return qiscusComment;
     }
+
+    /**
+     * Copy the payload as raw JSON and pick its text field on the way, so the payload is never parsed twice.
+     *
+     * @return the top level text field of the payload, if any
+     */
+    private static String copyPayload(JsonReader reader, JsonWriter writer) throws IOException {
+        if (reader.peek() != JsonToken.BEGIN_OBJECT) {
+            copyValue(reader, writer);
+            return null;
+        }
+
+        String text = null;
+        reader.beginObject();
+        writer.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            writer.name(name);
+            if ("text".equals(name) && reader.peek() == JsonToken.STRING) {
+                text = reader.nextString();
+                writer.value(text);
+            } else {
+                copyValue(reader, writer);
+            }
+        }
+        reader.endObject();
+        writer.endObject();
+        writer.flush();
+        return text;
+    }
+
+    private static void copyValue(JsonReader reader, JsonWriter writer) throws IOException {
+        switch (reader.peek()) {
+            case BEGIN_ARRAY:
+                reader.beginArray();
+                writer.beginArray();
+                while (reader.hasNext()) {
+                    copyValue(reader, writer);
+                }
+                reader.endArray();
+                writer.endArray();
+                break;
+            case BEGIN_OBJECT:
+                reader.beginObject();
+                writer.beginObject();
+                while (reader.hasNext()) {
+                    writer.name(reader.nextName());
+                    copyValue(reader, writer);
+                }
+                reader.endObject();
+                writer.endObject();
+                break;
+            case STRING:
+                writer.value(reader.nextString());
+                break;
+            case NUMBER:
+                //Keep the number exactly as it was written
+                writer.jsonValue(reader.nextString());
+                break;
+            case BOOLEAN:
+                writer.value(reader.nextBoolean());
+                break;
+            case NULL:
+                reader.nextNull();
+                writer.nullValue();
+                break;
+            default:
+                reader.skipValue();
+                break;
+        }
+        writer.flush();
+    }
+
+    private static String nextString(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    private static int nextInt(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return 0;
+        }
+        return reader.nextInt();
+    }
+
+    private static void closeQuietly(JsonReader reader) {
+        try {
+            reader.close();
+        } catch (IOException ignored) {
+            //Do nothing
+        }
+    }
 }
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.remote;
+
+import com.qiscus.sdk.event.QiscusConnectionStateEvent;
+import com.qiscus.sdk.event.QiscusConnectionStateEvent.State;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decide when the MQTT client should connect. Failed attempts are retried with capped exponential backoff and full
+ * jitter, so clients losing the connection at the same time do not reconnect at the same time. While there is no
+ * network the connection is suspended instead of retried, and resumed when the network come back.
+ */
+final class QiscusConnectionStateMachine {
+    static final long BASE_DELAY = 1000;
+    static final long MAX_DELAY = 64000;
+    private static final int MAX_SHIFT = 16;
+
+    private final ScheduledExecutorService executor;
+    private final Connector connector;
+    private final Listener listener;
+    private final Random random;
+    private final Queue<Runnable> pendingEffects;
+    private State state;
+    private long stateTime;
+    private int attempt;
+    private ScheduledFuture<?> scheduledRetry;
+    private int retryGeneration;
+    private boolean runningEffects;
+
+    QiscusConnectionStateMachine(ScheduledExecutorService executor, Connector connector, Listener listener) {
+        this(executor, connector, listener, new Random());
+    }
+
+    QiscusConnectionStateMachine(ScheduledExecutorService executor, Connector connector, Listener listener, Random random) {
+        this.executor = executor;
+        this.connector = connector;
+        this.listener = listener;
+        this.random = random;
+        state = State.DISCONNECTED;
+        stateTime = System.currentTimeMillis();
+        pendingEffects = new ArrayDeque<>();
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Connect unless already connected, connecting, or waiting for the next attempt.
+     */
+    void connect(boolean networkAvailable) {
+        synchronized (this) {
+            if (state == State.DISCONNECTED || state == State.SUSPENDED) {
+                attempt = 0;
+                startConnecting(networkAvailable);
+            }
+        }
+        runEffects();
+    }
+
+    /**
+     * Connect again right now whatever the current state is, the caller must have closed the previous client.
+     */
+    void reconnect(boolean networkAvailable) {
+        synchronized (this) {
+            cancelRetry();
+            startConnecting(networkAvailable);
+        }
+        runEffects();
+    }
+
+    /**
+     * @return false when the connection is not wanted anymore and should be closed
+     */
+    boolean onConnected() {
+        synchronized (this) {
+            if (state != State.CONNECTING) {
+                return false;
+            }
+            attempt = 0;
+            moveTo(State.CONNECTED, 0);
+        }
+        runEffects();
+        return true;
+    }
+
+    void onConnectionLost(boolean networkAvailable) {
+        synchronized (this) {
+            if (state == State.DISCONNECTED) {
+                return;
+            }
+            if (!networkAvailable) {
+                cancelRetry();
+                moveTo(State.SUSPENDED, 0);
+            } else {
+                attempt++;
+                scheduleRetry();
+            }
+        }
+        runEffects();
+    }
+
+    void onNetworkChanged(boolean networkAvailable) {
+        synchronized (this) {
+            if (networkAvailable && state == State.SUSPENDED) {
+                //Every client get the network back at the same time, so do not connect right away either
+                attempt = 0;
+                scheduleRetry();
+            } else if (!networkAvailable && (state == State.CONNECTING || state == State.BACKOFF)) {
+                cancelRetry();
+                moveTo(State.SUSPENDED, 0);
+            }
+        }
+        runEffects();
+    }
+
+    void disconnect() {
+        synchronized (this) {
+            cancelRetry();
+            attempt = 0;
+            moveTo(State.DISCONNECTED, 0);
+        }
+        runEffects();
+    }
+
+    long getBackoffDelay(int attempt) {
+        long cap = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt, MAX_SHIFT));
+        return (long) (random.nextDouble() * cap);
+    }
+
+    //Must hold the lock
+    private void startConnecting(boolean networkAvailable) {
+        if (!networkAvailable) {
+            moveTo(State.SUSPENDED, 0);
+            return;
+        }
+        moveTo(State.CONNECTING, 0);
+        pendingEffects.add(connector::connect);
+    }
+
+    //Must hold the lock
+    private void scheduleRetry() {
+        cancelRetry();
+        long delay = getBackoffDelay(attempt);
+        moveTo(State.BACKOFF, delay);
+        int generation = ++retryGeneration;
+        scheduledRetry = executor.schedule(() -> {
+            synchronized (QiscusConnectionStateMachine.this) {
+                if (state == State.BACKOFF && generation == retryGeneration) {
+                    scheduledRetry = null;
+                    startConnecting(true);
+                }
+            }
+            runEffects();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    //Must hold the lock
+    private void cancelRetry() {
+        retryGeneration++;
+        if (scheduledRetry != null) {
+            scheduledRetry.cancel(false);
+            scheduledRetry = null;
+        }
+    }
+
+    //Must hold the lock, the listener is called later by runEffects in the order of the transitions
+    private void moveTo(State newState, long reconnectDelay) {
+        if (state == newState && newState != State.BACKOFF) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        QiscusConnectionStateEvent event = new QiscusConnectionStateEvent(state, newState, now - stateTime,
+                attempt, reconnectDelay);
+        state = newState;
+        stateTime = now;
+        pendingEffects.add(() -> listener.onStateChanged(event));
+    }
+
+    /**
+     * Connect and notify outside the lock, the listener post to subscribers which must not run under it.
+     * Only one thread run the effects at a time so they keep the order of the transitions, effects recorded by a
+     * listener calling back into the state machine are run by the same loop instead of recursively.
+     */
+    private void runEffects() {
+        synchronized (this) {
+            if (runningEffects) {
+                return;
+            }
+            runningEffects = true;
+        }
+        while (true) {
+            Runnable effect;
+            synchronized (this) {
+                effect = pendingEffects.poll();
+                if (effect == null) {
+                    runningEffects = false;
+                    return;
+                }
+            }
+            try {
+                effect.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    interface Connector {
+        void connect();
+    }
+
+    interface Listener {
+        void onStateChanged(QiscusConnectionStateEvent event);
+    }
+}
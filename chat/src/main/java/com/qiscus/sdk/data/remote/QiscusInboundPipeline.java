@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.remote;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.util.QiscusLatencyHistogram;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process comments received from MQTT away from the MQTT callback thread. Payloads are queued without parsing,
+ * then go through parse, persist, notify and dispatch stages each running on its own executor. Comments of the
+ * same room keep their arrival order in every stage, while different rooms are processed in parallel.
+ * The number of comments in the pipeline is bounded, the overflow policy decide what happen when it is full.
+ */
+public final class QiscusInboundPipeline {
+    static final int DEFAULT_CAPACITY = 1000;
+    //Tasks of one room run before the lane give its thread to the other rooms
+    private static final int LANE_BATCH_SIZE = 16;
+
+    private final Handler handler;
+    private final Queue<Message> queue;
+    private final Semaphore capacity;
+    private final int maxSize;
+    private final AtomicBoolean draining;
+    private final Executor parseExecutor;
+    private final LaneExecutor persistExecutor;
+    private final LaneExecutor notifyExecutor;
+    private final LaneExecutor dispatchExecutor;
+    private final QiscusLatencyHistogram[] histograms;
+    private final AtomicLong receivedCount;
+    private final AtomicLong droppedCount;
+    private final AtomicLong processedCount;
+    private final AtomicLong failedCount;
+    private final AtomicInteger inFlightCount;
+    private volatile OverflowPolicy overflowPolicy;
+
+    QiscusInboundPipeline(Handler handler) {
+        this(handler, DEFAULT_CAPACITY, newExecutor("parse", 1), newExecutor("persist", 2),
+                newExecutor("notify", 1), newExecutor("dispatch", 2));
+    }
+
+    QiscusInboundPipeline(Handler handler, int maxSize, Executor parseExecutor, Executor persistExecutor,
+                          Executor notifyExecutor, Executor dispatchExecutor) {
+        this.handler = handler;
+        this.maxSize = maxSize;
+        this.parseExecutor = parseExecutor;
+        this.persistExecutor = new LaneExecutor(persistExecutor);
+        this.notifyExecutor = new LaneExecutor(notifyExecutor);
+        this.dispatchExecutor = new LaneExecutor(dispatchExecutor);
+        queue = new ConcurrentLinkedQueue<>();
+        capacity = new Semaphore(maxSize);
+        draining = new AtomicBoolean();
+        histograms = new QiscusLatencyHistogram[Stage.values().length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new QiscusLatencyHistogram();
+        }
+        receivedCount = new AtomicLong();
+        droppedCount = new AtomicLong();
+        processedCount = new AtomicLong();
+        failedCount = new AtomicLong();
+        inFlightCount = new AtomicInteger();
+        overflowPolicy = OverflowPolicy.BLOCK;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * Queue the raw payload, it only block when the pipeline is full and the policy is {@link OverflowPolicy#BLOCK}.
+     *
+     * @return false if the payload has been dropped
+     */
+    boolean offer(byte[] payload) {
+        receivedCount.incrementAndGet();
+        if (!acquire()) {
+            drop(payload);
+            return false;
+        }
+        inFlightCount.incrementAndGet();
+        queue.add(new Message(payload));
+        scheduleDrain();
+        return true;
+    }
+
+    private boolean acquire() {
+        switch (overflowPolicy) {
+            case DROP_NEWEST:
+                return capacity.tryAcquire();
+            case DROP_OLDEST:
+                while (!capacity.tryAcquire()) {
+                    //Only messages still waiting to be parsed can be dropped, the rest already reached a room lane
+                    Message oldest = queue.poll();
+                    if (oldest == null) {
+                        return false;
+                    }
+                    drop(oldest.payload);
+                    release();
+                }
+                return true;
+            default:
+                capacity.acquireUninterruptibly();
+                return true;
+        }
+    }
+
+    private void drop(byte[] payload) {
+        droppedCount.incrementAndGet();
+        try {
+            handler.onDropped(payload);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private void release() {
+        inFlightCount.decrementAndGet();
+        capacity.release();
+    }
+
+    private void scheduleDrain() {
+        if (draining.compareAndSet(false, true)) {
+            parseExecutor.execute(this::drain);
+        }
+    }
+
+    //Single consumer, so the parse order is the arrival order
+    private void drain() {
+        try {
+            Message message;
+            while ((message = queue.poll()) != null) {
+                parse(message);
+            }
+        } finally {
+            draining.set(false);
+        }
+        if (!queue.isEmpty()) {
+            scheduleDrain();
+        }
+    }
+
+    private void parse(Message message) {
+        long start = System.nanoTime();
+        record(Stage.QUEUE, start - message.receivedTime);
+        try {
+            message.comment = handler.parse(message.payload);
+        } catch (Exception e) {
+            e.printStackTrace();
+            fail(message);
+            return;
+        } finally {
+            record(Stage.PARSE, System.nanoTime() - start);
+        }
+        persistExecutor.execute(message.comment.getRoomId(), () -> persist(message));
+    }
+
+    private void persist(Message message) {
+        long start = System.nanoTime();
+        try {
+            handler.persist(message.comment);
+        } catch (RuntimeException e) {
+            //Still notify and dispatch it, the screens are able to save it themselves
+            e.printStackTrace();
+        } finally {
+            record(Stage.PERSIST, System.nanoTime() - start);
+        }
+        notifyExecutor.execute(message.comment.getRoomId(), () -> notify(message));
+    }
+
+    private void notify(Message message) {
+        long start = System.nanoTime();
+        try {
+            handler.notify(message.comment);
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        } finally {
+            record(Stage.NOTIFY, System.nanoTime() - start);
+        }
+        dispatchExecutor.execute(message.comment.getRoomId(), () -> dispatch(message));
+    }
+
+    private void dispatch(Message message) {
+        long start = System.nanoTime();
+        try {
+            handler.dispatch(message.comment);
+            processedCount.incrementAndGet();
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            failedCount.incrementAndGet();
+        } finally {
+            long end = System.nanoTime();
+            record(Stage.DISPATCH, end - start);
+            record(Stage.TOTAL, end - message.receivedTime);
+            release();
+        }
+    }
+
+    private void fail(Message message) {
+        failedCount.incrementAndGet();
+        record(Stage.TOTAL, System.nanoTime() - message.receivedTime);
+        release();
+    }
+
+    private void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public Stats getStats() {
+        return new Stats(receivedCount.get(), droppedCount.get(), processedCount.get(), failedCount.get(),
+                inFlightCount.get(), maxSize, histograms);
+    }
+
+    private static ExecutorService newExecutor(String stage, int threads) {
+        ThreadFactory threadFactory = new ThreadFactory() {
+            private final AtomicInteger threadCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "qiscus-inbound-" + stage + "-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        return Executors.newFixedThreadPool(threads, threadFactory);
+    }
+
+    public enum OverflowPolicy {
+        /**
+         * Block the MQTT thread until there is room, the broker then stop sending until it is unblocked.
+         */
+        BLOCK,
+        /**
+         * Drop the received payload, the handler is told about it so the comment can be fetched again.
+         */
+        DROP_NEWEST,
+        /**
+         * Drop the oldest payload not parsed yet, the handler is told about it so the comment can be fetched again.
+         */
+        DROP_OLDEST
+    }
+
+    public enum Stage {
+        QUEUE, PARSE, PERSIST, NOTIFY, DISPATCH, TOTAL
+    }
+
+    interface Handler {
+        QiscusComment parse(byte[] payload) throws Exception;
+
+        void persist(QiscusComment comment);
+
+        void notify(QiscusComment comment);
+
+        void dispatch(QiscusComment comment);
+
+        /**
+         * Called on the receiving thread for every payload dropped by the overflow policy.
+         */
+        void onDropped(byte[] payload);
+    }
+
+    public static class Stats {
+        private final long receivedMessages;
+        private final long droppedMessages;
+        private final long processedMessages;
+        private final long failedMessages;
+        private final int inFlightMessages;
+        private final int maxSize;
+        private final QiscusLatencyHistogram[] histograms;
+
+        private Stats(long receivedMessages, long droppedMessages, long processedMessages, long failedMessages,
+                      int inFlightMessages, int maxSize, QiscusLatencyHistogram[] histograms) {
+            this.receivedMessages = receivedMessages;
+            this.droppedMessages = droppedMessages;
+            this.processedMessages = processedMessages;
+            this.failedMessages = failedMessages;
+            this.inFlightMessages = inFlightMessages;
+            this.maxSize = maxSize;
+            this.histograms = histograms;
+        }
+
+        public long getReceivedMessages() {
+            return receivedMessages;
+        }
+
+        public long getDroppedMessages() {
+            return droppedMessages;
+        }
+
+        public long getProcessedMessages() {
+            return processedMessages;
+        }
+
+        public long getFailedMessages() {
+            return failedMessages;
+        }
+
+        public int getInFlightMessages() {
+            return inFlightMessages;
+        }
+
+        public int getMaxSize() {
+            return maxSize;
+        }
+
+        /**
+         * @return live histogram of the time spent in the stage, TOTAL is from arrival until dispatched
+         */
+        public QiscusLatencyHistogram getLatency(Stage stage) {
+            return histograms[stage.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder()
+                    .append("Stats{receivedMessages=").append(receivedMessages)
+                    .append(", droppedMessages=").append(droppedMessages)
+                    .append(", processedMessages=").append(processedMessages)
+                    .append(", failedMessages=").append(failedMessages)
+                    .append(", inFlightMessages=").append(inFlightMessages)
+                    .append('/').append(maxSize);
+            for (Stage stage : Stage.values()) {
+                builder.append(", ").append(stage).append("={").append(getLatency(stage)).append('}');
+            }
+            return builder.append('}').toString();
+        }
+    }
+
+    private static class Message {
+        private final byte[] payload;
+        private final long receivedTime;
+        private QiscusComment comment;
+
+        private Message(byte[] payload) {
+            this.payload = payload;
+            receivedTime = System.nanoTime();
+        }
+    }
+
+    /**
+     * Run the tasks of a room one by one in submission order, tasks of different rooms run in parallel.
+     */
+    private static final class LaneExecutor {
+        private final Executor executor;
+        private final Map<Integer, Lane> lanes;
+
+        private LaneExecutor(Executor executor) {
+            this.executor = executor;
+            lanes = new HashMap<>();
+        }
+
+        private void execute(int roomId, Runnable task) {
+            synchronized (lanes) {
+                Lane lane = lanes.get(roomId);
+                if (lane == null) {
+                    lane = new Lane(roomId);
+                    lanes.put(roomId, lane);
+                }
+                lane.tasks.add(task);
+                if (!lane.running) {
+                    lane.running = true;
+                    executor.execute(lane);
+                }
+            }
+        }
+
+        private final class Lane implements Runnable {
+            private final int roomId;
+            private final Queue<Runnable> tasks;
+            private boolean running;
+
+            private Lane(int roomId) {
+                this.roomId = roomId;
+                tasks = new ArrayDeque<>();
+            }
+
+            @Override
+            public void run() {
+                for (int i = 0; i < LANE_BATCH_SIZE; i++) {
+                    Runnable task;
+                    synchronized (lanes) {
+                        task = tasks.poll();
+                        if (task == null) {
+                            running = false;
+                            lanes.remove(roomId);
+                            return;
+                        }
+                    }
+                    task.run();
+                }
+                executor.execute(this);
+            }
+        }
+    }
+}
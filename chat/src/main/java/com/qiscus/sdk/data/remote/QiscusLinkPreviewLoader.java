@@ -0,0 +1,317 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import android.support.v4.util.LruCache;
+
+import com.qiscus.sdk.Qiscus;
+import com.qiscus.sdk.event.QiscusUserEvent;
+import com.qiscus.sdk.util.QiscusLatencyHistogram;
+import com.schinizer.rxunfurl.model.PreviewData;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import rx.Observable;
+import rx.Scheduler;
+import rx.schedulers.Schedulers;
+
+/**
+ * Link previews cached in memory and in the database in front of {@link QiscusUrlScraper}. Concurrent loads of the
+ * same url share one request, at most {@link #MAX_CONCURRENT_FETCHES} pages are fetched at the same time, and a
+ * request is cancelled once every subscriber of it unsubscribed, so previews of bubbles scrolled away do not wait
+ * in the queue.
+ */
+public enum QiscusLinkPreviewLoader {
+    INSTANCE;
+    static final int MAX_CONCURRENT_FETCHES = 3;
+    static final int MEMORY_CACHE_SIZE = 64;
+    static final int DISK_CACHE_SIZE = 500;
+    static final long TTL = 7 * 24 * 60 * 60 * 1000L;
+
+    private final LruCache<String, CachedPreview> memoryCache;
+    private final Map<String, Request> requests;
+    private final Scheduler fetchScheduler;
+    private final QiscusLatencyHistogram fetchLatencies;
+    private final AtomicLong memoryHits;
+    private final AtomicLong diskHits;
+    private final AtomicLong fetches;
+    private final AtomicLong failedFetches;
+    private final AtomicLong sharedRequests;
+    private final AtomicLong cancelledRequests;
+
+    QiscusLinkPreviewLoader() {
+        memoryCache = new LruCache<>(MEMORY_CACHE_SIZE);
+        requests = new HashMap<>();
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_FETCHES, runnable -> {
+            Thread thread = new Thread(runnable, "qiscus-link-preview-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        fetchScheduler = Schedulers.from(executor);
+        executor.execute(() ->
+                Qiscus.getDataStore().trimLinkPreviews(System.currentTimeMillis() - TTL, DISK_CACHE_SIZE));
+        fetchLatencies = new QiscusLatencyHistogram();
+        memoryHits = new AtomicLong();
+        diskHits = new AtomicLong();
+        fetches = new AtomicLong();
+        failedFetches = new AtomicLong();
+        sharedRequests = new AtomicLong();
+        cancelledRequests = new AtomicLong();
+
+        if (!EventBus.getDefault().isRegistered(this)) {
+            EventBus.getDefault().register(this);
+        }
+    }
+
+    public static QiscusLinkPreviewLoader getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return the preview if it is in the memory cache, without touching the database or the network
+     */
+    public PreviewData getCachedPreview(String url) {
+        CachedPreview cachedPreview = memoryCache.get(url);
+        if (cachedPreview == null) {
+            return null;
+        }
+        if (cachedPreview.isExpired()) {
+            memoryCache.remove(url);
+            return null;
+        }
+        memoryHits.incrementAndGet();
+        return cachedPreview.previewData;
+    }
+
+    /**
+     * Emit the preview of the url, from the caches if it is there, or fetch it. Unsubscribe to cancel the request,
+     * the request is only cancelled when every subscriber of the url unsubscribed.
+     */
+    public Observable<PreviewData> load(String url) {
+        PreviewData previewData = getCachedPreview(url);
+        if (previewData != null) {
+            return Observable.just(previewData);
+        }
+
+        synchronized (requests) {
+            Request request = requests.get(url);
+            if (request == null) {
+                request = new Request(url);
+                requests.put(url, request);
+            } else {
+                sharedRequests.incrementAndGet();
+            }
+            return request.observable;
+        }
+    }
+
+    public void evictAll() {
+        memoryCache.evictAll();
+    }
+
+    @Subscribe
+    public void onUserEvent(QiscusUserEvent userEvent) {
+        switch (userEvent) {
+            case LOGOUT:
+                //The database is cleared by logout, so are the previews of the links shared with this user
+                evictAll();
+                break;
+        }
+    }
+
+    private PreviewData getFromDataStore(String url) {
+        //Another request of the url could have finished before this one started
+        CachedPreview cachedPreview = memoryCache.get(url);
+        if (cachedPreview != null && !cachedPreview.isExpired()) {
+            return cachedPreview.previewData;
+        }
+
+        PreviewData previewData = Qiscus.getDataStore().getLinkPreview(url, System.currentTimeMillis() - TTL);
+        if (previewData != null) {
+            diskHits.incrementAndGet();
+            memoryCache.put(url, new CachedPreview(previewData, System.currentTimeMillis()));
+        }
+        return previewData;
+    }
+
+    private PreviewData fetch(String url) {
+        fetches.incrementAndGet();
+        long startTime = System.nanoTime();
+        try {
+            PreviewData previewData = QiscusUrlScraper.getInstance()
+                    .generatePreviewData(url)
+                    .toBlocking()
+                    .first();
+            previewData.setUrl(url);
+            long fetchTime = System.currentTimeMillis();
+            memoryCache.put(url, new CachedPreview(previewData, fetchTime));
+            Qiscus.getDataStore().addOrUpdateLinkPreview(url, previewData, fetchTime);
+            return previewData;
+        } catch (RuntimeException e) {
+            failedFetches.incrementAndGet();
+            throw e;
+        } finally {
+            fetchLatencies.record(System.nanoTime() - startTime);
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(memoryHits.get(), diskHits.get(), fetches.get(), failedFetches.get(), sharedRequests.get(),
+                cancelledRequests.get(), fetchLatencies);
+    }
+
+    private final class Request {
+        private final String url;
+        private final Observable<PreviewData> observable;
+        private boolean done;
+
+        private Request(String url) {
+            this.url = url;
+            observable = Observable.fromCallable(() -> getFromDataStore(url))
+                    .subscribeOn(Schedulers.io())
+                    .flatMap(previewData -> previewData != null ? Observable.just(previewData) :
+                            Observable.fromCallable(() -> fetch(url)).subscribeOn(fetchScheduler))
+                    .doOnTerminate(() -> finish(false))
+                    .doOnUnsubscribe(() -> finish(true))
+                    .replay(1)
+                    .refCount();
+        }
+
+        //The next load of the url start a new request, the failed or cancelled one is not retried
+        private void finish(boolean cancelled) {
+            synchronized (requests) {
+                if (done) {
+                    return;
+                }
+                done = true;
+                if (requests.get(url) == this) {
+                    requests.remove(url);
+                }
+            }
+            if (cancelled) {
+                cancelledRequests.incrementAndGet();
+            }
+        }
+    }
+
+    private static class CachedPreview {
+        private final PreviewData previewData;
+        private final long fetchTime;
+
+        private CachedPreview(PreviewData previewData, long fetchTime) {
+            this.previewData = previewData;
+            this.fetchTime = fetchTime;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - fetchTime > TTL;
+        }
+    }
+
+    public static class Stats {
+        private final long memoryHits;
+        private final long diskHits;
+        private final long fetches;
+        private final long failedFetches;
+        private final long sharedRequests;
+        private final long cancelledRequests;
+        private final QiscusLatencyHistogram fetchLatencies;
+
+        private Stats(long memoryHits, long diskHits, long fetches, long failedFetches, long sharedRequests,
+                      long cancelledRequests, QiscusLatencyHistogram fetchLatencies) {
+            this.memoryHits = memoryHits;
+            this.diskHits = diskHits;
+            this.fetches = fetches;
+            this.failedFetches = failedFetches;
+            this.sharedRequests = sharedRequests;
+            this.cancelledRequests = cancelledRequests;
+            this.fetchLatencies = fetchLatencies;
+        }
+
+        public long getMemoryHits() {
+            return memoryHits;
+        }
+
+        public long getDiskHits() {
+            return diskHits;
+        }
+
+        /**
+         * @return number of pages fetched from the network, failed ones included
+         */
+        public long getFetches() {
+            return fetches;
+        }
+
+        public long getFailedFetches() {
+            return failedFetches;
+        }
+
+        /**
+         * @return number of loads that joined a request of the same url which was already running
+         */
+        public long getSharedRequests() {
+            return sharedRequests;
+        }
+
+        /**
+         * @return number of requests stopped because every subscriber unsubscribed before the preview was ready
+         */
+        public long getCancelledRequests() {
+            return cancelledRequests;
+        }
+
+        /**
+         * @return ratio of the previews found in memory or in the database, from 0 to 1
+         */
+        public double getHitRatio() {
+            long hits = memoryHits + diskHits;
+            long total = hits + fetches;
+            return total == 0 ? 0 : (double) hits / total;
+        }
+
+        /**
+         * @return live histogram of the duration of every fetch
+         */
+        public QiscusLatencyHistogram getFetchLatencies() {
+            return fetchLatencies;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "memoryHits=" + memoryHits +
+                    ", diskHits=" + diskHits +
+                    ", fetches=" + fetches +
+                    ", failedFetches=" + failedFetches +
+                    ", sharedRequests=" + sharedRequests +
+                    ", cancelledRequests=" + cancelledRequests +
+                    ", hitRatio=" + getHitRatio() +
+                    ", fetchLatencies={" + fetchLatencies + '}' +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,426 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.remote;
+
+import android.util.Log;
+
+import com.qiscus.sdk.Qiscus;
+import com.qiscus.sdk.data.local.QiscusOutboxEntry;
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.event.QiscusConnectionStateEvent;
+import com.qiscus.sdk.event.QiscusUserEvent;
+import com.qiscus.sdk.util.QiscusAndroidUtil;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import retrofit2.HttpException;
+import rx.Observable;
+import rx.schedulers.Schedulers;
+import rx.subjects.AsyncSubject;
+
+/**
+ * Persistent queue of outgoing comments. Comments are saved with their outbox entry before being posted, so they
+ * are still posted after the process died. Failed posts are retried with backoff, and right away when the
+ * connection come back. Only the oldest comment of a room is posted at a time to keep the room order, while a few
+ * rooms are posted in parallel over the pooled connections of the api client.
+ */
+public enum QiscusOutbox {
+    INSTANCE;
+    private static final String TAG = QiscusOutbox.class.getSimpleName();
+    static final int MAX_SENDING_ROOMS = 4;
+    static final int MAX_ATTEMPTS = 10;
+    static final long BASE_DELAY = 2000;
+    static final long MAX_DELAY = 5 * 60 * 1000;
+    static final long OFFLINE_CHECK_DELAY = 30000;
+
+    //Every field below is only touched from this single thread
+    private final ScheduledExecutorService executor;
+    private final Map<String, Entry> entries;
+    private final Set<Integer> sendingRooms;
+    private final Random random;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final Set<String> pendingUniqueIds;
+    //Replaced on every login, the outbox of the new user is restored again
+    private volatile CountDownLatch restored;
+
+    QiscusOutbox() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "qiscus-outbox");
+            thread.setDaemon(true);
+            return thread;
+        });
+        entries = new LinkedHashMap<>();
+        sendingRooms = new HashSet<>();
+        random = new Random();
+        pendingUniqueIds = Collections.synchronizedSet(new HashSet<>());
+
+        if (!EventBus.getDefault().isRegistered(this)) {
+            EventBus.getDefault().register(this);
+        }
+        scheduleRestore();
+    }
+
+    public static QiscusOutbox getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Each send method save the comment with sending state and queue it. The returned observable emit the posted
+     * comment, or an error once the outbox gave up and marked it as failed, it does not need to be subscribed for
+     * the comment to be posted.
+     */
+    public Observable<QiscusComment> sendComment(QiscusComment qiscusComment) {
+        return send(qiscusComment, QiscusOutboxEntry.KIND_TEXT, null, null);
+    }
+
+    public Observable<QiscusComment> sendReplyComment(QiscusComment qiscusComment) {
+        return send(qiscusComment, QiscusOutboxEntry.KIND_REPLY, null, null);
+    }
+
+    public Observable<QiscusComment> sendCommentPostBack(QiscusComment qiscusComment, String payload) {
+        return send(qiscusComment, QiscusOutboxEntry.KIND_POSTBACK, payload, null);
+    }
+
+    /**
+     * @param file local file of the attachment, uploaded before posting the comment when it exists
+     */
+    public Observable<QiscusComment> sendFile(QiscusComment qiscusComment, File file) {
+        return send(qiscusComment, QiscusOutboxEntry.KIND_FILE, file.getAbsolutePath(),
+                file.exists() ? file.getAbsolutePath() : null);
+    }
+
+    /**
+     * Whether the comment is still waiting to be posted, it block until the outbox has been restored so do not call
+     * it from main thread.
+     */
+    public boolean isPending(String uniqueId) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                restored.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        return pendingUniqueIds.contains(uniqueId);
+    }
+
+    /**
+     * Post every waiting comment now instead of waiting for their backoff.
+     */
+    public void retryNow() {
+        executor.execute(() -> {
+            for (Entry entry : entries.values()) {
+                entry.data.setNextAttemptTime(0);
+            }
+            flush();
+        });
+    }
+
+    public void clear() {
+        pendingUniqueIds.clear();
+        executor.execute(() -> {
+            entries.clear();
+            sendingRooms.clear();
+            cancelFlush();
+        });
+    }
+
+    @Subscribe
+    public void onConnectionStateEvent(QiscusConnectionStateEvent event) {
+        if (event.getState() == QiscusConnectionStateEvent.State.CONNECTED) {
+            retryNow();
+        }
+    }
+
+    @Subscribe
+    public void onUserEvent(QiscusUserEvent userEvent) {
+        switch (userEvent) {
+            case LOGIN:
+                scheduleRestore();
+                break;
+            case LOGOUT:
+                clear();
+                break;
+        }
+    }
+
+    private Observable<QiscusComment> send(QiscusComment qiscusComment, int kind, String payload, String filePath) {
+        qiscusComment.setState(QiscusComment.STATE_SENDING);
+        Entry entry = new Entry(new QiscusOutboxEntry(qiscusComment.getUniqueId(), qiscusComment.getRoomId(),
+                qiscusComment.getTopicId(), kind, payload, filePath), qiscusComment);
+        pendingUniqueIds.add(qiscusComment.getUniqueId());
+        executor.execute(() -> enqueue(entry));
+        return entry.result.asObservable();
+    }
+
+    private void scheduleRestore() {
+        CountDownLatch restored = new CountDownLatch(1);
+        this.restored = restored;
+        executor.execute(() -> restore(restored));
+    }
+
+    private void restore(CountDownLatch restored) {
+        try {
+            if (Qiscus.hasSetupUser()) {
+                for (QiscusOutboxEntry data : Qiscus.getDataStore().getOutboxEntries()) {
+                    if (entries.containsKey(data.getUniqueId())) {
+                        //Already queued by a send made before this restore
+                        continue;
+                    }
+                    QiscusComment qiscusComment = Qiscus.getDataStore().getComment(-1, data.getUniqueId());
+                    if (qiscusComment == null) {
+                        //The process died before the comment was saved
+                        Qiscus.getDataStore().deleteOutboxEntry(data.getUniqueId());
+                        continue;
+                    }
+                    entries.put(data.getUniqueId(), new Entry(data, qiscusComment));
+                    pendingUniqueIds.add(data.getUniqueId());
+                }
+                Log.i(TAG, "Restored " + entries.size() + " outgoing comments");
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            restored.countDown();
+        }
+        flush();
+    }
+
+    private void enqueue(Entry entry) {
+        String uniqueId = entry.data.getUniqueId();
+        Entry current = entries.get(uniqueId);
+        if (current != null) {
+            //Resent while still queued, the new entry replace it and the old subscribers follow the new one
+            entry.result.subscribe(current.result);
+            if (current.sending) {
+                current.replaced = true;
+            }
+            entries.remove(uniqueId);
+        }
+        Qiscus.getDataStore().addOrUpdate(entry.comment);
+        Qiscus.getDataStore().addOutboxEntry(entry.data);
+        entries.put(uniqueId, entry);
+        flush();
+    }
+
+    private void flush() {
+        cancelFlush();
+        if (entries.isEmpty()) {
+            return;
+        }
+        if (!QiscusAndroidUtil.isNetworkAvailable()) {
+            //retryNow() is called once connected, this is only a safety net
+            scheduledFlush = executor.schedule(this::flush, OFFLINE_CHECK_DELAY, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        long nextFlushTime = Long.MAX_VALUE;
+        Set<Integer> seenRooms = new HashSet<>();
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            int roomId = entry.data.getRoomId();
+            //Only the oldest entry of a room can be posted
+            if (!seenRooms.add(roomId) || sendingRooms.contains(roomId)) {
+                continue;
+            }
+            if (entry.data.getNextAttemptTime() > now) {
+                nextFlushTime = Math.min(nextFlushTime, entry.data.getNextAttemptTime());
+                continue;
+            }
+            if (sendingRooms.size() >= MAX_SENDING_ROOMS) {
+                break;
+            }
+            post(entry);
+        }
+
+        if (nextFlushTime != Long.MAX_VALUE) {
+            scheduledFlush = executor.schedule(this::flush, nextFlushTime - now, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void cancelFlush() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    private void post(Entry entry) {
+        entry.sending = true;
+        sendingRooms.add(entry.data.getRoomId());
+        getPostObservable(entry)
+                .subscribeOn(Schedulers.io())
+                .subscribe(commentSend -> executor.execute(() -> onSent(entry, commentSend)),
+                        throwable -> executor.execute(() -> onFailed(entry, throwable)));
+    }
+
+    private Observable<QiscusComment> getPostObservable(Entry entry) {
+        QiscusComment qiscusComment = entry.comment;
+        switch (entry.data.getKind()) {
+            case QiscusOutboxEntry.KIND_REPLY:
+                return QiscusApi.getInstance().postReplyComment(qiscusComment);
+            case QiscusOutboxEntry.KIND_POSTBACK:
+                return QiscusApi.getInstance().postCommentPostBack(qiscusComment, entry.data.getPayload());
+            case QiscusOutboxEntry.KIND_FILE:
+                qiscusComment.setDownloading(true);
+                if (entry.data.getFilePath() == null) {
+                    qiscusComment.setProgress(100);
+                    return QiscusApi.getInstance().postComment(qiscusComment);
+                }
+                qiscusComment.setProgress(0);
+                return QiscusApi.getInstance().uploadFile(new File(entry.data.getFilePath()),
+                        percentage -> qiscusComment.setProgress((int) percentage))
+                        .flatMap(uri -> {
+                            //Saved so a retry post the uploaded file instead of uploading it again
+                            qiscusComment.setMessage(String.format("[file] %s [/file]", uri.toString()));
+                            Qiscus.getDataStore().addOrUpdate(qiscusComment);
+                            entry.data.setFilePath(null);
+                            Qiscus.getDataStore().updateOutboxEntry(entry.data);
+                            return QiscusApi.getInstance().postComment(qiscusComment);
+                        });
+            default:
+                return QiscusApi.getInstance().postComment(qiscusComment);
+        }
+    }
+
+    private void onSent(Entry entry, QiscusComment commentSend) {
+        sendingRooms.remove(entry.data.getRoomId());
+        entry.sending = false;
+        entry.comment.setDownloading(false);
+        Entry current = entries.get(entry.data.getUniqueId());
+        if (current != entry) {
+            if (current == null || !entry.replaced) {
+                //Cleared by logout
+                return;
+            }
+            //Resent while it was being posted, the resent one is done too
+            entry = current;
+        }
+
+        entries.remove(entry.data.getUniqueId());
+        pendingUniqueIds.remove(entry.data.getUniqueId());
+        Qiscus.getDataStore().deleteOutboxEntry(entry.data.getUniqueId());
+        if (entry.data.getKind() == QiscusOutboxEntry.KIND_FILE) {
+            Qiscus.getDataStore().addOrUpdateLocalPath(commentSend.getTopicId(), commentSend.getId(),
+                    entry.data.getPayload());
+        }
+        commentSend.setState(QiscusComment.STATE_ON_QISCUS);
+        QiscusComment savedQiscusComment = Qiscus.getDataStore().getComment(commentSend.getId(), commentSend.getUniqueId());
+        if (savedQiscusComment != null && savedQiscusComment.getState() > commentSend.getState()) {
+            commentSend.setState(savedQiscusComment.getState());
+        }
+        Qiscus.getDataStore().addOrUpdate(commentSend);
+
+        entry.result.onNext(commentSend);
+        entry.result.onCompleted();
+        flush();
+    }
+
+    private void onFailed(Entry entry, Throwable throwable) {
+        sendingRooms.remove(entry.data.getRoomId());
+        entry.sending = false;
+        if (entries.get(entry.data.getUniqueId()) != entry) {
+            entry.comment.setDownloading(false);
+            if (entry.replaced) {
+                flush();
+            }
+            return;
+        }
+
+        int attempt = entry.data.getAttempt() + 1;
+        entry.data.setAttempt(attempt);
+        if (isPermanentFailure(throwable, attempt)) {
+            Log.e(TAG, "Failure send comment " + entry.data.getUniqueId() + ", giving up: " + throwable);
+            entries.remove(entry.data.getUniqueId());
+            pendingUniqueIds.remove(entry.data.getUniqueId());
+            Qiscus.getDataStore().deleteOutboxEntry(entry.data.getUniqueId());
+            entry.comment.setDownloading(false);
+            markFailed(entry.comment);
+            entry.result.onError(throwable);
+        } else {
+            long delay = getBackoffDelay(attempt);
+            Log.e(TAG, "Failure send comment " + entry.data.getUniqueId() + ", try again in " + delay + " ms");
+            entry.data.setNextAttemptTime(System.currentTimeMillis() + delay);
+            Qiscus.getDataStore().updateOutboxEntry(entry.data);
+        }
+        flush();
+    }
+
+    private void markFailed(QiscusComment qiscusComment) {
+        QiscusComment savedQiscusComment = Qiscus.getDataStore().getComment(qiscusComment.getId(), qiscusComment.getUniqueId());
+        if (savedQiscusComment != null && savedQiscusComment.getState() > QiscusComment.STATE_FAILED) {
+            //Already received back from the server, e.g the response was lost
+            qiscusComment.setState(savedQiscusComment.getState());
+        } else {
+            qiscusComment.setState(QiscusComment.STATE_FAILED);
+            Qiscus.getDataStore().addOrUpdate(qiscusComment);
+        }
+    }
+
+    private static boolean isPermanentFailure(Throwable throwable, int attempt) {
+        if (attempt >= MAX_ATTEMPTS) {
+            return true;
+        }
+        if (throwable instanceof HttpException) {
+            int code = ((HttpException) throwable).code();
+            return code >= 400 && code < 500 && code != 408 && code != 429;
+        }
+        return false;
+    }
+
+    //Half fixed and half random, so retries are spread without being too early
+    private long getBackoffDelay(int attempt) {
+        long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 16));
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    private static class Entry {
+        private final QiscusOutboxEntry data;
+        private final QiscusComment comment;
+        private final AsyncSubject<QiscusComment> result;
+        private boolean sending;
+        private boolean replaced;
+
+        private Entry(QiscusOutboxEntry data, QiscusComment comment) {
+            this.data = data;
+            this.comment = comment;
+            result = AsyncSubject.create();
+        }
+    }
+}
@@ -16,11 +16,14 @@
 
 package com.qiscus.sdk.data.remote;
 
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
 import android.provider.Settings;
 import android.util.Log;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import com.qiscus.sdk.Qiscus;
 import com.qiscus.sdk.data.model.QiscusAccount;
@@ -28,9 +31,11 @@ import com.qiscus.sdk.data.model.QiscusChatRoom;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.event.QiscusChatRoomEvent;
 import com.qiscus.sdk.event.QiscusCommentReceivedEvent;
+import com.qiscus.sdk.event.QiscusConnectionStateEvent;
 import com.qiscus.sdk.event.QiscusUserEvent;
 import com.qiscus.sdk.event.QiscusUserStatusEvent;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 import com.qiscus.sdk.util.QiscusPushNotificationUtil;
 
 import org.eclipse.paho.android.service.MqttAndroidClient;
@@ -45,60 +50,37 @@ import org.eclipse.paho.client.mqttv3.MqttMessage;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
-import java.util.Calendar;
+import java.util.Date;
 import java.util.List;
-import java.util.Locale;
-import java.util.TimeZone;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
-import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
-
 public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
 
     INSTANCE;
     private static final String TAG = QiscusPusherApi.class.getSimpleName();
-    private static final long RETRY_PERIOD = 2000;
     private static final long FALLBACK_PERIOD = 5000;
     private static final int MAX_PENDING_MESSAGES = 10;
 
-    private static DateFormat dateFormat;
-    private static Gson gson;
-    private static long reconnectCounter;
-
-    static {
-        dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        gson = new GsonBuilder().setDateFormat("yyyy-MM-dd'T'HH:mm:ss").create();
-    }
-
     private String clientId;
     private String serverUri;
     private MqttAndroidClient mqttAndroidClient;
     private QiscusAccount qiscusAccount;
 
-    private Runnable fallbackConnect = this::connect;
-    private Runnable fallBackListenComment = this::listenComment;
-    private Runnable fallBackListenRoom;
-    private Runnable fallBackListenUserStatus;
-
-    private ScheduledFuture<?> scheduledConnect;
-    private ScheduledFuture<?> scheduledListenComment;
-    private ScheduledFuture<?> scheduledListenRoom;
-    private ScheduledFuture<?> scheduledListenUserStatus;
-
-    private boolean connecting;
-
     private ScheduledFuture<?> scheduledChecker;
     private ScheduledFuture<?> scheduledUserStatus;
     private List<IMqttDeliveryToken> pendingTokens;
 
     private int setOfflineCounter;
 
+    private final QiscusTopicRouter topicRouter;
+    private final QiscusTypingPublisher typingPublisher;
+    private final QiscusSubscriptionManager subscriptionManager;
+    private final QiscusConnectionStateMachine connectionState;
+    private final QiscusInboundPipeline inboundPipeline;
+    private String commentTopic;
+
     QiscusPusherApi() {
         Log.i("QiscusPusherApi", "Creating...");
         if (!EventBus.getDefault().isRegistered(this)) {
@@ -109,9 +91,16 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
         clientId += Settings.Secure.getString(Qiscus.getApps().getContentResolver(), Settings.Secure.ANDROID_ID);
         serverUri = "ssl://mqtt.qiscus.com:1885";
 
-        buildClient();
+        topicRouter = new QiscusTopicRouter();
+        registerTopicHandlers();
+        inboundPipeline = new QiscusInboundPipeline(new InboundCommentHandler());
+        typingPublisher = new QiscusTypingPublisher(Qiscus.getTaskExecutor(), this::publishTyping);
+        subscriptionManager = new QiscusSubscriptionManager(Qiscus.getTaskExecutor(), () -> mqttAndroidClient);
+        connectionState = new QiscusConnectionStateMachine(Qiscus.getTaskExecutor(), this::openConnection,
+                this::onConnectionStateChanged);
 
-        connecting = false;
+        buildClient();
+        registerConnectivityReceiver();
     }
 
     public static QiscusPusherApi getInstance() {
@@ -127,23 +116,33 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
     }
 
     public void connect() {
-        if (Qiscus.hasSetupUser() && !connecting && QiscusAndroidUtil.isNetworkAvailable()) {
-            Log.i(TAG, "Connecting...");
-            connecting = true;
-            qiscusAccount = Qiscus.getQiscusAccount();
-            MqttConnectOptions mqttConnectOptions = new MqttConnectOptions();
-            mqttConnectOptions.setAutomaticReconnect(false);
-            mqttConnectOptions.setCleanSession(false);
-            mqttConnectOptions.setWill("u/" + qiscusAccount.getEmail()
-                    + "/s", ("0:" + Calendar.getInstance(TimeZone.getTimeZone("UTC")).getTimeInMillis())
-                    .getBytes(), 2, true);
-            try {
-                mqttAndroidClient.connect(mqttConnectOptions, null, this);
-            } catch (MqttException e) {
-                //Do nothing
-            } catch (NullPointerException | IllegalArgumentException e) {
-                restartConnection();
-            }
+        if (Qiscus.hasSetupUser()) {
+            connectionState.connect(QiscusAndroidUtil.isNetworkAvailable());
+        }
+    }
+
+    //Called by the state machine when it decide to connect
+    private void openConnection() {
+        if (!Qiscus.hasSetupUser()) {
+            connectionState.disconnect();
+            return;
+        }
+
+        Log.i(TAG, "Connecting...");
+        qiscusAccount = Qiscus.getQiscusAccount();
+        MqttConnectOptions mqttConnectOptions = new MqttConnectOptions();
+        mqttConnectOptions.setAutomaticReconnect(false);
+        mqttConnectOptions.setCleanSession(false);
+        mqttConnectOptions.setWill("u/" + qiscusAccount.getEmail()
+                + "/s", ("0:" + System.currentTimeMillis())
+                .getBytes(), 2, true);
+        try {
+            mqttAndroidClient.connect(mqttConnectOptions, null, this);
+        } catch (MqttException e) {
+            connectionState.onConnectionLost(QiscusAndroidUtil.isNetworkAvailable());
+        } catch (NullPointerException | IllegalArgumentException e) {
+            buildClient();
+            connectionState.onConnectionLost(QiscusAndroidUtil.isNetworkAvailable());
         }
     }
 
@@ -151,6 +150,38 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
         return mqttAndroidClient != null && mqttAndroidClient.isConnected();
     }
 
+    public QiscusConnectionStateEvent.State getConnectionState() {
+        return connectionState.getState();
+    }
+
+    /**
+     * @return pipeline handling comments received from MQTT, to read its stats or change its overflow policy
+     */
+    public QiscusInboundPipeline getInboundPipeline() {
+        return inboundPipeline;
+    }
+
+    private void onConnectionStateChanged(QiscusConnectionStateEvent event) {
+        Log.i(TAG, "Connection state " + event);
+        if (event.getState() == QiscusConnectionStateEvent.State.CONNECTED) {
+            startFallbackChecker(FALLBACK_PERIOD);
+            scheduleUserStatus();
+        } else if (event.getPreviousState() == QiscusConnectionStateEvent.State.CONNECTED) {
+            stopFallbackChecker();
+            stopUserStatus();
+        }
+        EventBus.getDefault().post(event);
+    }
+
+    private void registerConnectivityReceiver() {
+        Qiscus.getApps().registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                connectionState.onNetworkChanged(QiscusAndroidUtil.isNetworkAvailable());
+            }
+        }, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
     private void startFallbackChecker(long period) {
         if (scheduledChecker != null) {
             stopFallbackChecker();
@@ -165,128 +196,105 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
 
     private void stopFallbackChecker() {
         if (scheduledChecker != null) {
-            scheduledChecker.cancel(true);
+            scheduledChecker.cancel(false);
+            scheduledChecker = null;
         }
     }
 
     public void restartConnection() {
         Log.i(TAG, "Restart connection...");
-        try {
-            connecting = false;
-            mqttAndroidClient.disconnect();
-            mqttAndroidClient.close();
-        } catch (MqttException | NullPointerException | IllegalArgumentException e) {
-            //Do nothing
-        }
-
-        clearTasks();
-
+        closeClient();
         buildClient();
-        connect();
-    }
-
-    private void clearTasks() {
-        if (scheduledConnect != null) {
-            scheduledConnect.cancel(true);
-            scheduledConnect = null;
-        }
-        if (scheduledListenComment != null) {
-            scheduledListenComment.cancel(true);
-            scheduledListenComment = null;
-        }
-        if (scheduledListenRoom != null) {
-            scheduledListenRoom.cancel(true);
-            scheduledListenRoom = null;
-        }
-        if (scheduledListenUserStatus != null) {
-            scheduledListenUserStatus.cancel(true);
+        if (Qiscus.hasSetupUser()) {
+            connectionState.reconnect(QiscusAndroidUtil.isNetworkAvailable());
+        } else {
+            connectionState.disconnect();
         }
     }
 
     public void disconnect() {
         Log.i(TAG, "Disconnecting...");
-        setUserStatus(false);
+        if (isConnected()) {
+            setUserStatus(false);
+        }
+        connectionState.disconnect();
+        closeClient();
+        typingPublisher.clear();
+    }
+
+    private void closeClient() {
         try {
-            connecting = false;
             mqttAndroidClient.disconnect();
             mqttAndroidClient.close();
         } catch (MqttException | NullPointerException | IllegalArgumentException e) {
             //Do nothing
         }
-        clearTasks();
-        stopFallbackChecker();
-        stopUserStatus();
     }
 
     private void listenComment() {
         Log.i(TAG, "Listening comment...");
-        try {
-            mqttAndroidClient.subscribe(qiscusAccount.getToken() + "/c", 2);
-        } catch (MqttException e) {
-            //Do nothing
-        } catch (NullPointerException | IllegalArgumentException e) {
-            Log.e(TAG, "Failure listen comment, try again in " + RETRY_PERIOD + " ms");
-            connect();
-            scheduledListenComment = QiscusAndroidUtil.runOnBackgroundThread(fallBackListenComment, RETRY_PERIOD);
+        String topic = qiscusAccount.getToken() + "/c";
+        if (!topic.equals(commentTopic)) {
+            if (commentTopic != null) {
+                subscriptionManager.release(commentTopic);
+            }
+            commentTopic = topic;
+            subscriptionManager.acquire(topic);
         }
     }
 
+    /**
+     * Listen typing, delivered and read events of the room. Every call must be balanced by
+     * {@link #unListenRoom(QiscusChatRoom)}, the topics stay subscribed while at least one listener remains.
+     */
     public void listenRoom(QiscusChatRoom qiscusChatRoom) {
         Log.i(TAG, "Listening room...");
-        fallBackListenRoom = () -> listenRoom(qiscusChatRoom);
-        try {
-            int roomId = qiscusChatRoom.getId();
-            mqttAndroidClient.subscribe("r/" + roomId + "/+/+/t", 2);
-            mqttAndroidClient.subscribe("r/" + roomId + "/+/+/d", 2);
-            mqttAndroidClient.subscribe("r/" + roomId + "/+/+/r", 2);
-        } catch (MqttException e) {
-            //Do nothing
-        } catch (NullPointerException | IllegalArgumentException e) {
-            Log.e(TAG, "Failure listen room, try again in " + RETRY_PERIOD + " ms");
-            connect();
-            scheduledListenRoom = QiscusAndroidUtil.runOnBackgroundThread(fallBackListenRoom, RETRY_PERIOD);
-        }
+        checkAndConnect();
+        subscriptionManager.acquire(getRoomTopics(qiscusChatRoom.getId()));
     }
 
     public void unListenRoom(QiscusChatRoom qiscusChatRoom) {
-        try {
-            int roomId = qiscusChatRoom.getId();
-            mqttAndroidClient.unsubscribe("r/" + roomId + "/+/+/t");
-            mqttAndroidClient.unsubscribe("r/" + roomId + "/+/+/d");
-            mqttAndroidClient.unsubscribe("r/" + roomId + "/+/+/r");
-        } catch (MqttException | NullPointerException | IllegalArgumentException e) {
-            //Do nothing
-        }
-        if (scheduledListenRoom != null) {
-            scheduledListenRoom.cancel(true);
-            scheduledListenRoom = null;
-        }
-        fallBackListenRoom = null;
+        subscriptionManager.release(getRoomTopics(qiscusChatRoom.getId()));
     }
 
+    /**
+     * Listen online status of the user. Every call must be balanced by {@link #unListenUserStatus(String)}.
+     */
     public void listenUserStatus(String user) {
-        fallBackListenUserStatus = () -> listenUserStatus(user);
-        try {
-            mqttAndroidClient.subscribe("u/" + user + "/s", 2);
-        } catch (MqttException e) {
-            //Do nothing
-        } catch (NullPointerException | IllegalArgumentException e) {
-            connect();
-            scheduledListenUserStatus = QiscusAndroidUtil.runOnBackgroundThread(fallBackListenUserStatus, RETRY_PERIOD);
-        }
+        checkAndConnect();
+        subscriptionManager.acquire(getUserStatusTopic(user));
+    }
+
+    /**
+     * Listen online status of many users at once, e.g contacts of an inbox, they are subscribed in one request.
+     */
+    public void listenUserStatus(List<String> users) {
+        checkAndConnect();
+        subscriptionManager.acquire(getUserStatusTopics(users));
     }
 
     public void unListenUserStatus(String user) {
-        try {
-            mqttAndroidClient.unsubscribe("u/" + user + "/s");
-        } catch (MqttException | NullPointerException | IllegalArgumentException e) {
-            //Do nothing
-        }
-        if (scheduledListenUserStatus != null) {
-            scheduledListenUserStatus.cancel(true);
-            scheduledListenUserStatus = null;
+        subscriptionManager.release(getUserStatusTopic(user));
+    }
+
+    public void unListenUserStatus(List<String> users) {
+        subscriptionManager.release(getUserStatusTopics(users));
+    }
+
+    private static String[] getRoomTopics(int roomId) {
+        return new String[]{"r/" + roomId + "/+/+/t", "r/" + roomId + "/+/+/d", "r/" + roomId + "/+/+/r"};
+    }
+
+    private static String getUserStatusTopic(String user) {
+        return "u/" + user + "/s";
+    }
+
+    private static String[] getUserStatusTopics(List<String> users) {
+        String[] topics = new String[users.size()];
+        for (int i = 0; i < topics.length; i++) {
+            topics[i] = getUserStatusTopic(users.get(i));
         }
-        fallBackListenUserStatus = null;
+        return topics;
     }
 
     private void setUserStatus(boolean online) {
@@ -302,32 +310,41 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
         }
     }
 
+    /**
+     * Set typing state of current user, call it on every keystroke. Repeated states are dropped, changes are
+     * published at most once per typing publish interval and typing stop by itself after the idle timeout.
+     */
     public void setUserTyping(int roomId, int topicId, boolean typing) {
+        typingPublisher.setTyping(roomId, topicId, typing);
+    }
+
+    public void setTypingPublishInterval(long publishInterval) {
+        typingPublisher.setPublishInterval(publishInterval);
+    }
+
+    public void setTypingIdleTimeout(long idleTimeout) {
+        typingPublisher.setIdleTimeout(idleTimeout);
+    }
+
+    //Typing is fire and forget, so QoS 0 and not tracked by pendingTokens that decide when to restart connection
+    private void publishTyping(int roomId, int topicId, boolean typing) {
         checkAndConnect();
         try {
             MqttMessage message = new MqttMessage();
             message.setPayload((typing ? "1" : "0").getBytes());
-            pendingTokens.add(mqttAndroidClient.publish("r/" + roomId + "/" + topicId + "/"
-                    + qiscusAccount.getEmail() + "/t", message));
+            message.setQos(0);
+            mqttAndroidClient.publish("r/" + roomId + "/" + topicId + "/" + qiscusAccount.getEmail() + "/t", message);
         } catch (MqttException | NullPointerException | IllegalArgumentException e) {
             //Do nothing
         }
     }
 
     public void setUserRead(int roomId, int topicId, int commentId, String commentUniqueId) {
-        QiscusApi.getInstance().updateCommentStatus(roomId, commentId, 0)
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(aVoid -> {
-                }, Throwable::printStackTrace);
+        QiscusReceiptAggregator.getInstance().markRead(roomId, commentId);
     }
 
     public void setUserDelivery(int roomId, int topicId, int commentId, String commentUniqueId) {
-        QiscusApi.getInstance().updateCommentStatus(roomId, 0, commentId)
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .subscribe(aVoid -> {
-                }, Throwable::printStackTrace);
+        QiscusReceiptAggregator.getInstance().markDelivered(roomId, commentId);
     }
 
     private void checkAndConnect() {
@@ -344,69 +361,91 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
 
     @Override
     public void connectionLost(Throwable cause) {
-        reconnectCounter++;
-        Log.e(TAG, "Lost connection, will try reconnect in " + RETRY_PERIOD * reconnectCounter + " ms");
-        connecting = false;
-        scheduledConnect = QiscusAndroidUtil.runOnBackgroundThread(fallbackConnect, RETRY_PERIOD * reconnectCounter);
+        Log.e(TAG, "Lost connection...");
+        connectionState.onConnectionLost(QiscusAndroidUtil.isNetworkAvailable());
     }
 
     @Override
     public void messageArrived(String topic, MqttMessage message) throws Exception {
-        if (topic.contains(qiscusAccount.getToken())) {
-            QiscusComment qiscusComment = jsonToComment(new String(message.getPayload()));
-            if (!qiscusComment.getSenderEmail().equals(qiscusAccount.getEmail())) {
-                setUserDelivery(qiscusComment.getRoomId(), qiscusComment.getTopicId(), qiscusComment.getId(), qiscusComment.getUniqueId());
-            }
-            QiscusPushNotificationUtil.handlePushNotification(Qiscus.getApps(), qiscusComment);
-            EventBus.getDefault().post(new QiscusCommentReceivedEvent(qiscusComment));
-        } else if (topic.startsWith("r/") && topic.endsWith("/t")) {
-            String[] data = topic.split("/");
-            if (!data[3].equals(qiscusAccount.getEmail())) {
-                QiscusChatRoomEvent event = new QiscusChatRoomEvent()
-                        .setRoomId(Integer.parseInt(data[1]))
-                        .setTopicId(Integer.parseInt(data[2]))
-                        .setUser(data[3])
-                        .setEvent(QiscusChatRoomEvent.Event.TYPING)
-                        .setTyping("1".equals(new String(message.getPayload())));
-                EventBus.getDefault().post(event);
-            }
-        } else if (topic.startsWith("r/") && topic.endsWith("/d")) {
-            String[] data = topic.split("/");
-            if (!data[3].equals(qiscusAccount.getEmail())) {
-                String[] payload = new String(message.getPayload()).split(":");
-                QiscusChatRoomEvent event = new QiscusChatRoomEvent()
-                        .setRoomId(Integer.parseInt(data[1]))
-                        .setTopicId(Integer.parseInt(data[2]))
-                        .setUser(data[3])
-                        .setEvent(QiscusChatRoomEvent.Event.DELIVERED)
-                        .setCommentId(Integer.parseInt(payload[0]))
-                        .setCommentUniqueId(payload[1]);
-                EventBus.getDefault().post(event);
-            }
-        } else if (topic.startsWith("r/") && topic.endsWith("/r")) {
-            String[] data = topic.split("/");
-            if (!data[3].equals(qiscusAccount.getEmail())) {
-                String[] payload = new String(message.getPayload()).split(":");
-                QiscusChatRoomEvent event = new QiscusChatRoomEvent()
-                        .setRoomId(Integer.parseInt(data[1]))
-                        .setTopicId(Integer.parseInt(data[2]))
-                        .setUser(data[3])
-                        .setEvent(QiscusChatRoomEvent.Event.READ)
-                        .setCommentId(Integer.parseInt(payload[0]))
-                        .setCommentUniqueId(payload[1]);
-                EventBus.getDefault().post(event);
-            }
-        } else if (topic.startsWith("u/") && topic.endsWith("/s")) {
-            String[] data = topic.split("/");
-            if (!data[1].equals(qiscusAccount.getEmail())) {
-                String[] status = new String(message.getPayload()).split(":");
-                Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
-                calendar.setTimeInMillis(Long.parseLong(status[1]));
-                QiscusUserStatusEvent event = new QiscusUserStatusEvent(data[1], "1".equals(status[0]),
-                        calendar.getTime());
-                EventBus.getDefault().post(event);
-            }
+        topicRouter.route(topic, message.getPayload());
+    }
+
+    /**
+     * Handle messages of custom topics, e.g topics published by your own backend. The topic filter is also
+     * subscribed, and it can use + and # wildcards. Built in topics are matched first when they are more specific.
+     *
+     * @param topicFilter MQTT topic filter
+     * @param handler     called from MQTT thread for every message of matching topics
+     */
+    public void addTopicHandler(String topicFilter, QiscusTopicRouter.Handler handler) {
+        topicRouter.register(topicFilter, handler);
+        checkAndConnect();
+        subscriptionManager.acquire(topicFilter);
+    }
+
+    public void removeTopicHandler(String topicFilter) {
+        topicRouter.unregister(topicFilter);
+        subscriptionManager.release(topicFilter);
+    }
+
+    private void registerTopicHandlers() {
+        topicRouter.register("+/c", this::onCommentMessage);
+        topicRouter.register("r/+/+/+/t", this::onTypingMessage);
+        topicRouter.register("r/+/+/+/d", (topic, payload) ->
+                onCommentStatusMessage(topic, payload, QiscusChatRoomEvent.Event.DELIVERED));
+        topicRouter.register("r/+/+/+/r", (topic, payload) ->
+                onCommentStatusMessage(topic, payload, QiscusChatRoomEvent.Event.READ));
+        topicRouter.register("u/+/s", this::onUserStatusMessage);
+    }
+
+    //Comments are heavy to handle, so only queued here and handled by the inbound pipeline
+    private void onCommentMessage(QiscusTopicRouter.Topic topic, byte[] payload) {
+        if (topic.isLevel(0, qiscusAccount.getToken())) {
+            inboundPipeline.offer(payload);
+        }
+    }
+
+    //r/{roomId}/{topicId}/{user}/t
+    private void onTypingMessage(QiscusTopicRouter.Topic topic, byte[] payload) {
+        if (topic.isLevel(3, qiscusAccount.getEmail())) {
+            return;
+        }
+        QiscusChatRoomEvent event = new QiscusChatRoomEvent()
+                .setRoomId(topic.getIntLevel(1))
+                .setTopicId(topic.getIntLevel(2))
+                .setUser(topic.getLevel(3))
+                .setEvent(QiscusChatRoomEvent.Event.TYPING)
+                .setTyping(payload.length == 1 && payload[0] == '1');
+        EventBus.getDefault().post(event);
+    }
+
+    //r/{roomId}/{topicId}/{user}/d or r, with {commentId}:{uniqueId} payload
+    private void onCommentStatusMessage(QiscusTopicRouter.Topic topic, byte[] payload, QiscusChatRoomEvent.Event status) {
+        if (topic.isLevel(3, qiscusAccount.getEmail())) {
+            return;
         }
+        int separator = QiscusTopicRouter.indexOf(payload, ':');
+        QiscusChatRoomEvent event = new QiscusChatRoomEvent()
+                .setRoomId(topic.getIntLevel(1))
+                .setTopicId(topic.getIntLevel(2))
+                .setUser(topic.getLevel(3))
+                .setEvent(status)
+                .setCommentId((int) QiscusTopicRouter.parseLong(payload, 0, separator < 0 ? payload.length : separator))
+                .setCommentUniqueId(separator < 0 ? null : QiscusTopicRouter.toString(payload, separator + 1, payload.length));
+        EventBus.getDefault().post(event);
+    }
+
+    //u/{user}/s, with {online}:{lastActive} payload
+    private void onUserStatusMessage(QiscusTopicRouter.Topic topic, byte[] payload) {
+        if (topic.isLevel(1, qiscusAccount.getEmail())) {
+            return;
+        }
+        int separator = QiscusTopicRouter.indexOf(payload, ':');
+        long lastActive = separator < 0 ? System.currentTimeMillis()
+                : QiscusTopicRouter.parseLong(payload, separator + 1, payload.length);
+        QiscusUserStatusEvent event = new QiscusUserStatusEvent(topic.getLevel(1),
+                payload.length > 0 && payload[0] == '1', new Date(lastActive));
+        EventBus.getDefault().post(event);
     }
 
     @Override
@@ -417,9 +456,11 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
     @Override
     public void onSuccess(IMqttToken asyncActionToken) {
         Log.i(TAG, "Connected...");
+        if (!connectionState.onConnected()) {
+            closeClient();
+            return;
+        }
         try {
-            connecting = false;
-            reconnectCounter = 0;
             DisconnectedBufferOptions disconnectedBufferOptions = new DisconnectedBufferOptions();
             disconnectedBufferOptions.setBufferEnabled(true);
             disconnectedBufferOptions.setBufferSize(100);
@@ -427,19 +468,8 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
             disconnectedBufferOptions.setDeleteOldestMessages(true);
             mqttAndroidClient.setBufferOpts(disconnectedBufferOptions);
             listenComment();
-            if (fallBackListenRoom != null) {
-                scheduledListenRoom = QiscusAndroidUtil.runOnBackgroundThread(fallBackListenRoom);
-            }
-            if (fallBackListenUserStatus != null) {
-                scheduledListenUserStatus = QiscusAndroidUtil.runOnBackgroundThread(fallBackListenUserStatus);
-            }
+            subscriptionManager.restore();
             pendingTokens.clear();
-            if (scheduledConnect != null) {
-                scheduledConnect.cancel(true);
-                scheduledConnect = null;
-            }
-            startFallbackChecker(FALLBACK_PERIOD);
-            scheduleUserStatus();
         } catch (NullPointerException | IllegalArgumentException ignored) {
             //Do nothing
         }
@@ -448,10 +478,8 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
 
     @Override
     public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
-        reconnectCounter++;
-        Log.e(TAG, "Failure to connect, try again in " + RETRY_PERIOD * reconnectCounter + " ms");
-        connecting = false;
-        scheduledConnect = QiscusAndroidUtil.runOnBackgroundThread(fallbackConnect, RETRY_PERIOD * reconnectCounter);
+        Log.e(TAG, "Failure to connect...");
+        connectionState.onConnectionLost(QiscusAndroidUtil.isNetworkAvailable());
     }
 
     @Subscribe
@@ -459,57 +487,74 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
         switch (userEvent) {
             case LOGOUT:
                 disconnect();
+                QiscusReceiptAggregator.getInstance().clear();
+                subscriptionManager.clear();
+                commentTopic = null;
                 break;
         }
     }
 
     public static QiscusComment jsonToComment(JsonObject jsonObject) {
+        return jsonToComment(jsonObject.toString());
+    }
+
+    public static QiscusComment jsonToComment(String json) {
         try {
-            QiscusComment qiscusComment = new QiscusComment();
-            qiscusComment.setId(jsonObject.get("id").getAsInt());
-            qiscusComment.setTopicId(jsonObject.get("topic_id").getAsInt());
-            qiscusComment.setRoomId(jsonObject.get("room_id").getAsInt());
-            qiscusComment.setUniqueId(jsonObject.get("unique_temp_id").getAsString());
-            qiscusComment.setCommentBeforeId(jsonObject.get("comment_before_id").getAsInt());
-            qiscusComment.setMessage(jsonObject.get("message").getAsString());
-            qiscusComment.setSender(jsonObject.get("username").isJsonNull() ? null : jsonObject.get("username").getAsString());
-            qiscusComment.setSenderEmail(jsonObject.get("email").getAsString());
-            qiscusComment.setSenderAvatar(jsonObject.get("user_avatar").getAsString());
-            qiscusComment.setTime(dateFormat.parse(jsonObject.get("timestamp").getAsString()));
-            qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
-            qiscusComment.setRoomName(jsonObject.get("room_name").isJsonNull() ?
-                    qiscusComment.getSender() : jsonObject.get("room_name").getAsString());
-            if (jsonObject.has("room_avatar")) {
-                qiscusComment.setRoomAvatar(jsonObject.get("room_avatar").getAsString());
-            }
-            qiscusComment.setGroupMessage(!"single".equals(jsonObject.get("chat_type").getAsString()));
-            if (jsonObject.has("type")) {
-                qiscusComment.setRawType(jsonObject.get("type").getAsString());
-                qiscusComment.setExtraPayload(jsonObject.get("payload").toString());
-                if (qiscusComment.getType() == QiscusComment.Type.BUTTONS
-                        || qiscusComment.getType() == QiscusComment.Type.REPLY
-                        || qiscusComment.getType() == QiscusComment.Type.CARD) {
-                    JsonObject payload = jsonObject.get("payload").getAsJsonObject();
-                    if (payload.has("text")) {
-                        String text = payload.get("text").getAsString();
-                        if (text != null && !text.trim().isEmpty()) {
-                            qiscusComment.setMessage(text.trim());
-                        }
-                    }
-                }
-            }
-            return qiscusComment;
+            return QiscusApiParser.parsePushedComment(json);
         } catch (Exception e) {
             e.printStackTrace();
         }
         throw new RuntimeException("Unable to parse the JSON QiscusComment");
     }
 
-    public static QiscusComment jsonToComment(String json) {
-        return jsonToComment(gson.fromJson(json, JsonObject.class));
+    private class InboundCommentHandler implements QiscusInboundPipeline.Handler {
+        @Override
+        public QiscusComment parse(byte[] payload) throws Exception {
+            return QiscusApiParser.parsePushedComment(new String(payload));
+        }
+
+        @Override
+        public void persist(QiscusComment qiscusComment) {
+            //Must be checked before saving, the comment itself would fill the gap otherwise
+            QiscusSyncEngine.getInstance().onCommentReceived(qiscusComment);
+            QiscusComment savedQiscusComment = Qiscus.getDataStore()
+                    .getComment(qiscusComment.getId(), qiscusComment.getUniqueId());
+            if (savedQiscusComment != null && savedQiscusComment.getState() > qiscusComment.getState()) {
+                qiscusComment.setState(savedQiscusComment.getState());
+            }
+            Qiscus.getDataStore().addOrUpdate(qiscusComment);
+            if (!qiscusComment.getSenderEmail().equals(qiscusAccount.getEmail())) {
+                setUserDelivery(qiscusComment.getRoomId(), qiscusComment.getTopicId(),
+                        qiscusComment.getId(), qiscusComment.getUniqueId());
+            }
+            //Still off the main thread, so the bubble is ready when the comment reach the chat room
+            QiscusCommentRenderer.render(qiscusComment);
+        }
+
+        @Override
+        public void notify(QiscusComment qiscusComment) {
+            QiscusPushNotificationUtil.handlePushNotificationNow(Qiscus.getApps(), qiscusComment);
+        }
+
+        @Override
+        public void dispatch(QiscusComment qiscusComment) {
+            EventBus.getDefault().post(new QiscusCommentReceivedEvent(qiscusComment));
+        }
+
+        @Override
+        public void onDropped(byte[] payload) {
+            long commentId = 0;
+            try {
+                commentId = QiscusApiParser.parsePushedComment(new String(payload)).getId();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+            QiscusSyncEngine.getInstance().requestSyncFrom(commentId);
+        }
     }
 
     private void scheduleUserStatus() {
+        stopUserStatus();
         scheduledUserStatus = Qiscus.getTaskExecutor()
                 .scheduleWithFixedDelay(() -> {
                     if (Qiscus.hasSetupUser()) {
@@ -529,6 +574,7 @@ public enum QiscusPusherApi implements MqttCallback, IMqttActionListener {
     private void stopUserStatus() {
         if (scheduledUserStatus != null) {
             scheduledUserStatus.cancel(true);
+            scheduledUserStatus = null;
         }
     }
 }
@@ -0,0 +1,359 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.qiscus.sdk.Qiscus;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import retrofit2.HttpException;
+import rx.schedulers.Schedulers;
+
+/**
+ * Collect read and delivered receipts and only send the highest comment id of every room. Receipts are sent
+ * in one request per room after a short window, or right away when many rooms are waiting. Receipts that are
+ * not sent yet are saved as soon as they are received, so they are still sent after the process is killed.
+ * Failed requests are retried with backoff, and given up when the server rejects them.
+ */
+public enum QiscusReceiptAggregator {
+    INSTANCE;
+    private static final String TAG = QiscusReceiptAggregator.class.getSimpleName();
+    private static final long FLUSH_DELAY = 1000;
+    private static final int MAX_PENDING_ROOMS = 20;
+    static final int MAX_ATTEMPTS = 10;
+    static final long BASE_DELAY = 2000;
+    static final long MAX_DELAY = 5 * 60 * 1000;
+
+    private final SharedPreferences sharedPreferences;
+    private final Map<Integer, Watermark> watermarks;
+    private final AtomicLong receivedCount;
+    private final AtomicLong sentCount;
+    private final AtomicLong failedCount;
+    private final Random random;
+    private ScheduledFuture<?> scheduledFlush;
+
+    QiscusReceiptAggregator() {
+        sharedPreferences = Qiscus.getApps().getSharedPreferences("qiscus.receipts", Context.MODE_PRIVATE);
+        watermarks = new HashMap<>();
+        receivedCount = new AtomicLong();
+        sentCount = new AtomicLong();
+        failedCount = new AtomicLong();
+        random = new Random();
+        restore();
+    }
+
+    public static QiscusReceiptAggregator getInstance() {
+        return INSTANCE;
+    }
+
+    public void markRead(int roomId, int commentId) {
+        mark(roomId, commentId, 0);
+    }
+
+    public void markDelivered(int roomId, int commentId) {
+        mark(roomId, 0, commentId);
+    }
+
+    private void mark(int roomId, int readId, int deliveredId) {
+        receivedCount.incrementAndGet();
+        synchronized (this) {
+            Watermark watermark = watermarks.get(roomId);
+            if (watermark == null) {
+                watermark = new Watermark();
+                watermarks.put(roomId, watermark);
+            }
+            if (readId <= watermark.read && deliveredId <= watermark.delivered) {
+                return;
+            }
+            watermark.read = Math.max(watermark.read, readId);
+            watermark.delivered = Math.max(watermark.delivered, deliveredId);
+            if (watermark.isPending()) {
+                persist(roomId, watermark);
+                if (watermark.nextAttemptTime == 0) {
+                    scheduleFlush(countPendingRooms() >= MAX_PENDING_ROOMS ? 0 : FLUSH_DELAY);
+                }
+            }
+        }
+    }
+
+    /**
+     * Send every pending receipt now.
+     */
+    public void flush() {
+        List<Integer> roomIds = new ArrayList<>();
+        List<Watermark> snapshots = new ArrayList<>();
+        synchronized (this) {
+            scheduledFlush = null;
+            long now = System.currentTimeMillis();
+            long nextAttemptTime = Long.MAX_VALUE;
+            for (Map.Entry<Integer, Watermark> entry : watermarks.entrySet()) {
+                Watermark watermark = entry.getValue();
+                //Rooms with a request in flight are sent again once it is done
+                if (!watermark.isPending() || watermark.sending) {
+                    continue;
+                }
+                if (watermark.nextAttemptTime > now) {
+                    nextAttemptTime = Math.min(nextAttemptTime, watermark.nextAttemptTime);
+                    continue;
+                }
+                watermark.sending = true;
+                roomIds.add(entry.getKey());
+                snapshots.add(watermark.copy());
+            }
+            if (nextAttemptTime != Long.MAX_VALUE) {
+                scheduleFlush(nextAttemptTime - now);
+            }
+        }
+
+        for (int i = 0; i < roomIds.size(); i++) {
+            int roomId = roomIds.get(i);
+            Watermark snapshot = snapshots.get(i);
+            sentCount.incrementAndGet();
+            QiscusApi.getInstance().updateCommentStatus(roomId, snapshot.readToSend(), snapshot.deliveredToSend())
+                    .subscribeOn(Schedulers.io())
+                    .subscribe(aVoid -> onSent(roomId, snapshot), throwable -> {
+                        throwable.printStackTrace();
+                        failedCount.incrementAndGet();
+                        onFailed(roomId, snapshot, throwable);
+                    });
+        }
+    }
+
+    private synchronized void onSent(int roomId, Watermark snapshot) {
+        Watermark watermark = watermarks.get(roomId);
+        if (watermark == null) {
+            return;
+        }
+        watermark.sending = false;
+        watermark.attempt = 0;
+        watermark.nextAttemptTime = 0;
+        onDone(roomId, watermark, snapshot);
+    }
+
+    private synchronized void onFailed(int roomId, Watermark snapshot, Throwable throwable) {
+        Watermark watermark = watermarks.get(roomId);
+        if (watermark == null) {
+            return;
+        }
+        watermark.sending = false;
+        watermark.attempt++;
+        if (isPermanentFailure(throwable, watermark.attempt)) {
+            Log.e(TAG, "Failure update receipts of room " + roomId + ", giving up: " + throwable);
+            watermark.attempt = 0;
+            watermark.nextAttemptTime = 0;
+            //Newer receipts received meanwhile are still sent
+            onDone(roomId, watermark, snapshot);
+        } else {
+            long delay = getBackoffDelay(watermark.attempt);
+            Log.e(TAG, "Failure update receipts of room " + roomId + ", try again in " + delay + " ms");
+            watermark.nextAttemptTime = System.currentTimeMillis() + delay;
+            scheduleFlush(delay);
+        }
+    }
+
+    //Must hold the lock
+    private void onDone(int roomId, Watermark watermark, Watermark snapshot) {
+        watermark.sentRead = Math.max(watermark.sentRead, snapshot.read);
+        watermark.sentDelivered = Math.max(watermark.sentDelivered, snapshot.delivered);
+        if (watermark.isPending()) {
+            scheduleFlush(FLUSH_DELAY);
+        } else {
+            sharedPreferences.edit().remove(key(roomId)).apply();
+        }
+    }
+
+    private static boolean isPermanentFailure(Throwable throwable, int attempt) {
+        if (attempt >= MAX_ATTEMPTS) {
+            return true;
+        }
+        if (throwable instanceof HttpException) {
+            int code = ((HttpException) throwable).code();
+            return code >= 400 && code < 500 && code != 408 && code != 429;
+        }
+        return false;
+    }
+
+    //Half fixed and half random, so retries are spread without being too early
+    private long getBackoffDelay(int attempt) {
+        long delay = Math.min(MAX_DELAY, BASE_DELAY << Math.min(attempt - 1, 16));
+        return delay / 2 + (long) (random.nextDouble() * delay / 2);
+    }
+
+    public void clear() {
+        synchronized (this) {
+            if (scheduledFlush != null) {
+                scheduledFlush.cancel(false);
+                scheduledFlush = null;
+            }
+            watermarks.clear();
+        }
+        sharedPreferences.edit().clear().apply();
+    }
+
+    public Stats getStats() {
+        int pendingRooms;
+        synchronized (this) {
+            pendingRooms = countPendingRooms();
+        }
+        long received = receivedCount.get();
+        long sent = sentCount.get();
+        return new Stats(received, Math.max(0, received - sent), sent, failedCount.get(), pendingRooms);
+    }
+
+    //Must hold the lock, a flush is only moved earlier, never postponed
+    private void scheduleFlush(long delay) {
+        if (scheduledFlush != null) {
+            if (scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = Qiscus.getTaskExecutor().schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    //Must hold the lock
+    private int countPendingRooms() {
+        int count = 0;
+        for (Watermark watermark : watermarks.values()) {
+            if (watermark.isPending()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    //Must hold the lock, so an older watermark can not be written after a newer one
+    private void persist(int roomId, Watermark watermark) {
+        sharedPreferences.edit().putString(key(roomId), watermark.read + ":" + watermark.delivered).apply();
+    }
+
+    private void restore() {
+        for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+            try {
+                int roomId = Integer.parseInt(entry.getKey().substring(entry.getKey().indexOf('_') + 1));
+                String[] ids = String.valueOf(entry.getValue()).split(":");
+                Watermark watermark = new Watermark();
+                watermark.read = Integer.parseInt(ids[0]);
+                watermark.delivered = Integer.parseInt(ids[1]);
+                watermarks.put(roomId, watermark);
+            } catch (NumberFormatException | IndexOutOfBoundsException e) {
+                e.printStackTrace();
+            }
+        }
+        if (!watermarks.isEmpty()) {
+            scheduleFlush(FLUSH_DELAY);
+        }
+    }
+
+    private static String key(int roomId) {
+        return "room_" + roomId;
+    }
+
+    private static class Watermark {
+        private int read;
+        private int delivered;
+        private int sentRead;
+        private int sentDelivered;
+        private boolean sending;
+        private int attempt;
+        private long nextAttemptTime;
+
+        private boolean isPending() {
+            return read > sentRead || delivered > sentDelivered;
+        }
+
+        //0 let the server keep the current value
+        private int readToSend() {
+            return read > sentRead ? read : 0;
+        }
+
+        private int deliveredToSend() {
+            return delivered > sentDelivered ? delivered : 0;
+        }
+
+        private Watermark copy() {
+            Watermark copy = new Watermark();
+            copy.read = read;
+            copy.delivered = delivered;
+            copy.sentRead = sentRead;
+            copy.sentDelivered = sentDelivered;
+            return copy;
+        }
+    }
+
+    public static class Stats {
+        private final long receivedReceipts;
+        private final long coalescedReceipts;
+        private final long sentRequests;
+        private final long failedRequests;
+        private final int pendingRooms;
+
+        private Stats(long receivedReceipts, long coalescedReceipts, long sentRequests, long failedRequests,
+                      int pendingRooms) {
+            this.receivedReceipts = receivedReceipts;
+            this.coalescedReceipts = coalescedReceipts;
+            this.sentRequests = sentRequests;
+            this.failedRequests = failedRequests;
+            this.pendingRooms = pendingRooms;
+        }
+
+        public long getReceivedReceipts() {
+            return receivedReceipts;
+        }
+
+        /**
+         * @return receipts that did not need a request of their own
+         */
+        public long getCoalescedReceipts() {
+            return coalescedReceipts;
+        }
+
+        public long getSentRequests() {
+            return sentRequests;
+        }
+
+        public long getFailedRequests() {
+            return failedRequests;
+        }
+
+        public int getPendingRooms() {
+            return pendingRooms;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "receivedReceipts=" + receivedReceipts +
+                    ", coalescedReceipts=" + coalescedReceipts +
+                    ", sentRequests=" + sentRequests +
+                    ", failedRequests=" + failedRequests +
+                    ", pendingRooms=" + pendingRooms +
+                    '}';
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.remote;
+
+import android.util.Log;
+
+import org.eclipse.paho.android.service.MqttAndroidClient;
+import org.eclipse.paho.client.mqttv3.IMqttActionListener;
+import org.eclipse.paho.client.mqttv3.IMqttToken;
+import org.eclipse.paho.client.mqttv3.MqttException;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference count every subscribed topic, so a topic needed by several screens is only subscribed once and only
+ * unsubscribed when the last screen release it. Changes made close together are sent as one subscribe and one
+ * unsubscribe request, and the whole set is subscribed again in one request after reconnect.
+ */
+final class QiscusSubscriptionManager {
+    private static final String TAG = QiscusSubscriptionManager.class.getSimpleName();
+    static final long FLUSH_DELAY = 50;
+    static final long RETRY_DELAY = 2000;
+    static final int QOS = 2;
+
+    private final ScheduledExecutorService executor;
+    private final ClientProvider clientProvider;
+    private final Map<String, Integer> topics;
+    private final Set<String> pendingSubscribes;
+    private final Set<String> pendingUnsubscribes;
+    private ScheduledFuture<?> scheduledFlush;
+
+    QiscusSubscriptionManager(ScheduledExecutorService executor, ClientProvider clientProvider) {
+        this.executor = executor;
+        this.clientProvider = clientProvider;
+        topics = new HashMap<>();
+        pendingSubscribes = new LinkedHashSet<>();
+        pendingUnsubscribes = new LinkedHashSet<>();
+    }
+
+    synchronized void acquire(String... topicFilters) {
+        for (String topicFilter : topicFilters) {
+            Integer count = topics.get(topicFilter);
+            topics.put(topicFilter, count == null ? 1 : count + 1);
+            if (count == null && !pendingUnsubscribes.remove(topicFilter)) {
+                pendingSubscribes.add(topicFilter);
+            }
+        }
+        scheduleFlush(FLUSH_DELAY);
+    }
+
+    synchronized void release(String... topicFilters) {
+        for (String topicFilter : topicFilters) {
+            Integer count = topics.get(topicFilter);
+            if (count == null) {
+                continue;
+            }
+            if (count > 1) {
+                topics.put(topicFilter, count - 1);
+                continue;
+            }
+            topics.remove(topicFilter);
+            if (!pendingSubscribes.remove(topicFilter)) {
+                pendingUnsubscribes.add(topicFilter);
+            }
+        }
+        scheduleFlush(FLUSH_DELAY);
+    }
+
+    /**
+     * Subscribe every acquired topic again, call it when the client is connected.
+     */
+    synchronized void restore() {
+        pendingSubscribes.addAll(topics.keySet());
+        scheduleFlush(0);
+    }
+
+    /**
+     * Forget every topic without unsubscribing them, e.g when the user logout.
+     */
+    synchronized void clear() {
+        topics.clear();
+        pendingSubscribes.clear();
+        pendingUnsubscribes.clear();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+
+    synchronized boolean isSubscribed(String topicFilter) {
+        return topics.containsKey(topicFilter);
+    }
+
+    synchronized int getTopicCount() {
+        return topics.size();
+    }
+
+    //Must hold the lock
+    private void scheduleFlush(long delay) {
+        if (pendingSubscribes.isEmpty() && pendingUnsubscribes.isEmpty()) {
+            return;
+        }
+        if (scheduledFlush != null) {
+            if (scheduledFlush.getDelay(TimeUnit.MILLISECONDS) <= delay) {
+                return;
+            }
+            scheduledFlush.cancel(false);
+        }
+        scheduledFlush = executor.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        String[] subscribes;
+        String[] unsubscribes;
+        MqttAndroidClient client = clientProvider.getClient();
+        synchronized (this) {
+            scheduledFlush = null;
+            if (client == null || !isConnected(client)) {
+                //Kept pending, restore() will send them once connected
+                return;
+            }
+            subscribes = pendingSubscribes.toArray(new String[pendingSubscribes.size()]);
+            unsubscribes = pendingUnsubscribes.toArray(new String[pendingUnsubscribes.size()]);
+            pendingSubscribes.clear();
+            pendingUnsubscribes.clear();
+        }
+
+        if (subscribes.length > 0) {
+            Log.i(TAG, "Subscribing " + subscribes.length + " topics...");
+            int[] qos = new int[subscribes.length];
+            Arrays.fill(qos, QOS);
+            try {
+                client.subscribe(subscribes, qos, null, new BatchListener(subscribes, true));
+            } catch (MqttException | NullPointerException | IllegalArgumentException e) {
+                onBatchFailed(subscribes, true);
+            }
+        }
+        if (unsubscribes.length > 0) {
+            Log.i(TAG, "Unsubscribing " + unsubscribes.length + " topics...");
+            try {
+                client.unsubscribe(unsubscribes, null, new BatchListener(unsubscribes, false));
+            } catch (MqttException | NullPointerException | IllegalArgumentException e) {
+                onBatchFailed(unsubscribes, false);
+            }
+        }
+    }
+
+    private synchronized void onBatchFailed(String[] topicFilters, boolean subscribe) {
+        Log.e(TAG, "Failure " + (subscribe ? "subscribe" : "unsubscribe") + " topics, try again in "
+                + RETRY_DELAY + " ms");
+        //Only retry topics whose state has not been changed again since the batch was sent
+        List<String> retries = new ArrayList<>();
+        for (String topicFilter : topicFilters) {
+            if (topics.containsKey(topicFilter) == subscribe && !pendingSubscribes.contains(topicFilter)
+                    && !pendingUnsubscribes.contains(topicFilter)) {
+                retries.add(topicFilter);
+            }
+        }
+        (subscribe ? pendingSubscribes : pendingUnsubscribes).addAll(retries);
+        scheduleFlush(RETRY_DELAY);
+    }
+
+    private static boolean isConnected(MqttAndroidClient client) {
+        try {
+            return client.isConnected();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    interface ClientProvider {
+        MqttAndroidClient getClient();
+    }
+
+    private class BatchListener implements IMqttActionListener {
+        private final String[] topicFilters;
+        private final boolean subscribe;
+
+        private BatchListener(String[] topicFilters, boolean subscribe) {
+            this.topicFilters = topicFilters;
+            this.subscribe = subscribe;
+        }
+
+        @Override
+        public void onSuccess(IMqttToken asyncActionToken) {
+            //Do nothing
+        }
+
+        @Override
+        public void onFailure(IMqttToken asyncActionToken, Throwable exception) {
+            onBatchFailed(topicFilters, subscribe);
+        }
+    }
+}
@@ -0,0 +1,388 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.data.remote;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.qiscus.sdk.Qiscus;
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.event.QiscusCommentReceivedEvent;
+import com.qiscus.sdk.event.QiscusConnectionStateEvent;
+import com.qiscus.sdk.event.QiscusUserEvent;
+import com.qiscus.sdk.util.QiscusAndroidUtil;
+import com.qiscus.sdk.util.QiscusLatencyHistogram;
+import com.qiscus.sdk.util.QiscusPushNotificationUtil;
+
+import org.greenrobot.eventbus.EventBus;
+import org.greenrobot.eventbus.Subscribe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fetch comments missed by MQTT. The id of the last synced comment is persisted as cursor, and every run page from
+ * it until the server has nothing newer, each page being saved in one transaction before the cursor move. The cursor
+ * is only moved by a run, comments received from MQTT do not move it because it is shared by every room.
+ * It only runs while MQTT is not connected, once after MQTT connect again, and when a received comment point to a
+ * previous comment newer than the cursor that is not stored, which means MQTT missed it.
+ */
+public enum QiscusSyncEngine {
+    INSTANCE;
+    private static final String TAG = QiscusSyncEngine.class.getSimpleName();
+    static final int MAX_PAGES_PER_RUN = 50;
+    static final long GAP_SYNC_DELAY = 2000;
+    private static final String KEY_LAST_COMMENT_ID = "last_comment_id";
+
+    private final ScheduledExecutorService executor;
+    private final SharedPreferences sharedPreferences;
+    private final QiscusLatencyHistogram runDurations;
+    private final AtomicLong runCount;
+    private final AtomicLong failedRunCount;
+    private final AtomicLong pageCount;
+    private final AtomicLong rowCount;
+    private final AtomicLong gapCount;
+    private volatile long lastSyncTime;
+    private ScheduledFuture<?> scheduledSync;
+    private ScheduledFuture<?> periodicSync;
+
+    QiscusSyncEngine() {
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "qiscus-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sharedPreferences = Qiscus.getApps().getSharedPreferences("qiscus.sync", Context.MODE_PRIVATE);
+        runDurations = new QiscusLatencyHistogram();
+        runCount = new AtomicLong();
+        failedRunCount = new AtomicLong();
+        pageCount = new AtomicLong();
+        rowCount = new AtomicLong();
+        gapCount = new AtomicLong();
+
+        if (!EventBus.getDefault().isRegistered(this)) {
+            EventBus.getDefault().register(this);
+        }
+    }
+
+    public static QiscusSyncEngine getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Sync as soon as possible, requests made while a sync is waiting to run are merged into it.
+     */
+    public void requestSync() {
+        requestSync(0);
+    }
+
+    /**
+     * Sync from before the comment, for a comment received but not saved, e.g. dropped by the inbound pipeline.
+     *
+     * @param commentId id of the comment, or 0 if it is not known
+     */
+    public void requestSyncFrom(long commentId) {
+        if (commentId > 0) {
+            rewindLastCommentId(commentId - 1);
+        }
+        requestSync();
+    }
+
+    private synchronized void requestSync(long delay) {
+        if (scheduledSync == null) {
+            scheduledSync = executor.schedule(this::sync, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Call it for every comment received from MQTT before it is saved, to detect comments missed by MQTT.
+     * It never moves the cursor, the cursor is shared by every room, so only a sync may move it past the comments
+     * it has saved.
+     */
+    public void onCommentReceived(QiscusComment qiscusComment) {
+        long lastCommentId = getLastCommentId();
+        if (lastCommentId <= 0) {
+            return;
+        }
+        int commentBeforeId = qiscusComment.getCommentBeforeId();
+        if (commentBeforeId > lastCommentId && Qiscus.getDataStore().getComment(commentBeforeId, null) == null) {
+            Log.i(TAG, "Comment " + commentBeforeId + " has been missed, syncing...");
+            gapCount.incrementAndGet();
+            requestSync(GAP_SYNC_DELAY);
+        }
+    }
+
+    public long getLastCommentId() {
+        return sharedPreferences.getLong(KEY_LAST_COMMENT_ID, 0);
+    }
+
+    public synchronized void clear() {
+        if (scheduledSync != null) {
+            scheduledSync.cancel(false);
+            scheduledSync = null;
+        }
+        stopPeriodicSync();
+        sharedPreferences.edit().clear().apply();
+    }
+
+    @Subscribe
+    public void onConnectionStateEvent(QiscusConnectionStateEvent event) {
+        switch (event.getState()) {
+            case CONNECTED:
+                //Catch up what has been sent while MQTT was down, then MQTT is enough
+                stopPeriodicSync();
+                requestSync();
+                break;
+            case CONNECTING:
+            case BACKOFF:
+                startPeriodicSync();
+                break;
+            default:
+                //No network or no user, nothing to sync
+                stopPeriodicSync();
+                break;
+        }
+    }
+
+    @Subscribe
+    public void onUserEvent(QiscusUserEvent userEvent) {
+        switch (userEvent) {
+            case LOGOUT:
+                clear();
+                break;
+        }
+    }
+
+    private synchronized void startPeriodicSync() {
+        if (periodicSync == null) {
+            long period = Qiscus.getHeartBeat();
+            periodicSync = executor.scheduleWithFixedDelay(() -> {
+                if (Qiscus.isOnForeground()) {
+                    sync();
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void stopPeriodicSync() {
+        if (periodicSync != null) {
+            periodicSync.cancel(false);
+            periodicSync = null;
+        }
+    }
+
+    //Always run on the single executor thread, so runs never overlap
+    private void sync() {
+        synchronized (this) {
+            scheduledSync = null;
+        }
+        if (!Qiscus.hasSetupUser()) {
+            return;
+        }
+
+        long startTime = System.nanoTime();
+        int pages = 0;
+        int rows = 0;
+        try {
+            long lastCommentId = getLastCommentId();
+            if (lastCommentId <= 0) {
+                QiscusComment latestComment = Qiscus.getDataStore().getLatestComment();
+                if (latestComment == null) {
+                    //Nothing stored yet, rooms load their own comments when opened
+                    return;
+                }
+                lastCommentId = latestComment.getId();
+                advanceLastCommentId(lastCommentId);
+            }
+
+            while (pages < MAX_PAGES_PER_RUN) {
+                List<QiscusComment> comments = QiscusApi.getInstance().sync((int) lastCommentId)
+                        .toList()
+                        .toBlocking()
+                        .single();
+                pages++;
+                if (comments.isEmpty()) {
+                    break;
+                }
+                long pageLastCommentId = savePage(comments);
+                rows += comments.size();
+                dispatch(comments);
+                if (pageLastCommentId <= lastCommentId) {
+                    break;
+                }
+                //Moved after the page is committed, so a crash in between only fetch the page again
+                lastCommentId = pageLastCommentId;
+                advanceLastCommentId(lastCommentId);
+            }
+
+            if (pages == MAX_PAGES_PER_RUN) {
+                //Let the other tasks run before the rest of a big backlog
+                requestSync();
+            }
+            runCount.incrementAndGet();
+        } catch (Exception e) {
+            failedRunCount.incrementAndGet();
+            e.printStackTrace();
+        } finally {
+            long duration = System.nanoTime() - startTime;
+            runDurations.record(duration);
+            pageCount.addAndGet(pages);
+            rowCount.addAndGet(rows);
+            lastSyncTime = System.currentTimeMillis();
+            if (rows > 0) {
+                Log.i(TAG, "Synced " + rows + " comments in " + pages + " pages, " + duration / 1000000 + " ms");
+            }
+        }
+    }
+
+    private long savePage(List<QiscusComment> comments) {
+        String email = Qiscus.getQiscusAccount().getEmail();
+        //Synced comments have their id, a row only matching by unique id is pending and has a lower state anyway
+        List<Integer> ids = new ArrayList<>(comments.size());
+        for (QiscusComment qiscusComment : comments) {
+            ids.add(qiscusComment.getId());
+        }
+        Map<Integer, Integer> savedStates = Qiscus.getDataStore().getCommentStates(ids);
+
+        long lastCommentId = 0;
+        for (QiscusComment qiscusComment : comments) {
+            if (!qiscusComment.getSenderEmail().equals(email)) {
+                QiscusPusherApi.getInstance().setUserDelivery(qiscusComment.getRoomId(), qiscusComment.getTopicId(),
+                        qiscusComment.getId(), qiscusComment.getUniqueId());
+            }
+            Integer savedState = savedStates.get(qiscusComment.getId());
+            if (savedState != null && savedState > qiscusComment.getState()) {
+                qiscusComment.setState(savedState);
+            }
+            qiscusComment.setRoomName("sync");
+            lastCommentId = Math.max(lastCommentId, qiscusComment.getId());
+        }
+        Qiscus.getDataStore().addOrUpdateComments(comments);
+        return lastCommentId;
+    }
+
+    private void dispatch(List<QiscusComment> comments) {
+        QiscusAndroidUtil.runOnUIThread(() -> {
+            for (QiscusComment qiscusComment : comments) {
+                QiscusPushNotificationUtil.handlePushNotification(Qiscus.getApps(), qiscusComment);
+                EventBus.getDefault().post(new QiscusCommentReceivedEvent(qiscusComment));
+            }
+        });
+    }
+
+    private synchronized void advanceLastCommentId(long lastCommentId) {
+        if (lastCommentId > getLastCommentId()) {
+            sharedPreferences.edit().putLong(KEY_LAST_COMMENT_ID, lastCommentId).apply();
+        }
+    }
+
+    //A run moving it forward again while rewound has saved the comment, its pages have no hole
+    private synchronized void rewindLastCommentId(long lastCommentId) {
+        long currentLastCommentId = getLastCommentId();
+        if (currentLastCommentId <= 0 || lastCommentId < currentLastCommentId) {
+            sharedPreferences.edit().putLong(KEY_LAST_COMMENT_ID, lastCommentId).apply();
+        }
+    }
+
+    public Stats getStats() {
+        return new Stats(runCount.get(), failedRunCount.get(), pageCount.get(), rowCount.get(), gapCount.get(),
+                getLastCommentId(), lastSyncTime, runDurations);
+    }
+
+    public static class Stats {
+        private final long runs;
+        private final long failedRuns;
+        private final long pages;
+        private final long rows;
+        private final long detectedGaps;
+        private final long lastCommentId;
+        private final long lastSyncTime;
+        private final QiscusLatencyHistogram runDurations;
+
+        private Stats(long runs, long failedRuns, long pages, long rows, long detectedGaps, long lastCommentId,
+                      long lastSyncTime, QiscusLatencyHistogram runDurations) {
+            this.runs = runs;
+            this.failedRuns = failedRuns;
+            this.pages = pages;
+            this.rows = rows;
+            this.detectedGaps = detectedGaps;
+            this.lastCommentId = lastCommentId;
+            this.lastSyncTime = lastSyncTime;
+            this.runDurations = runDurations;
+        }
+
+        public long getRuns() {
+            return runs;
+        }
+
+        public long getFailedRuns() {
+            return failedRuns;
+        }
+
+        public long getPages() {
+            return pages;
+        }
+
+        /**
+         * @return number of comments fetched by every run
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        public long getDetectedGaps() {
+            return detectedGaps;
+        }
+
+        public long getLastCommentId() {
+            return lastCommentId;
+        }
+
+        public long getLastSyncTime() {
+            return lastSyncTime;
+        }
+
+        /**
+         * @return live histogram of the duration of every run
+         */
+        public QiscusLatencyHistogram getRunDurations() {
+            return runDurations;
+        }
+
+        @Override
+        public String toString() {
+            return "Stats{" +
+                    "runs=" + runs +
+                    ", failedRuns=" + failedRuns +
+                    ", pages=" + pages +
+                    ", rows=" + rows +
+                    ", detectedGaps=" + detectedGaps +
+                    ", lastCommentId=" + lastCommentId +
+                    ", lastSyncTime=" + lastSyncTime +
+                    ", runDurations={" + runDurations + '}' +
+                    '}';
+        }
+    }
+}
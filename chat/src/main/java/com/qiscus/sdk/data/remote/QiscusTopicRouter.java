@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Dispatch MQTT messages to handlers by topic. Topic filters use MQTT syntax, "+" match exactly one level and
+ * "#" match the rest of the topic, and are stored in a trie of topic levels so a message is routed by walking
+ * its topic once, without splitting it into strings. When more than one filter match, exact levels win over "+"
+ * and "+" win over "#".
+ */
+public final class QiscusTopicRouter {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String SINGLE_LEVEL = "+";
+    private static final String MULTI_LEVEL = "#";
+    private static final int MAX_LEVELS = 16;
+
+    private final Node root;
+
+    public QiscusTopicRouter() {
+        root = new Node(null);
+    }
+
+    /**
+     * Route messages of topics matching the filter to the handler, replacing the previous handler of the filter.
+     *
+     * @param topicFilter e.g "r/+/+/+/t"
+     * @param handler     the handler
+     */
+    public void register(String topicFilter, Handler handler) {
+        Node node = root;
+        int start = 0;
+        while (true) {
+            int end = topicFilter.indexOf('/', start);
+            if (end < 0) {
+                end = topicFilter.length();
+            }
+            String level = topicFilter.substring(start, end);
+            if (MULTI_LEVEL.equals(level) && end != topicFilter.length()) {
+                throw new IllegalArgumentException("# must be the last level of " + topicFilter);
+            }
+            node = node.getOrCreateChild(level);
+            if (end == topicFilter.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        node.handler = handler;
+    }
+
+    public void unregister(String topicFilter) {
+        Node node = root;
+        int start = 0;
+        while (node != null) {
+            int end = topicFilter.indexOf('/', start);
+            if (end < 0) {
+                end = topicFilter.length();
+            }
+            node = node.findChild(topicFilter, start, end);
+            if (end == topicFilter.length()) {
+                break;
+            }
+            start = end + 1;
+        }
+        if (node != null) {
+            node.handler = null;
+        }
+    }
+
+    /**
+     * @return true if a handler has been found for the topic
+     */
+    public boolean route(String topic, byte[] payload) throws Exception {
+        Topic parsedTopic = new Topic(topic);
+        Handler handler = find(root, parsedTopic, 0);
+        if (handler == null) {
+            return false;
+        }
+        handler.onMessage(parsedTopic, payload);
+        return true;
+    }
+
+    private Handler find(Node node, Topic topic, int level) {
+        if (level == topic.levelCount) {
+            return node.handler;
+        }
+
+        int start = topic.starts[level];
+        int end = topic.ends[level];
+        Node[] children = node.children;
+        for (Node child : children) {
+            if (!child.wildcard && child.matches(topic.value, start, end)) {
+                Handler handler = find(child, topic, level + 1);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+        }
+        for (Node child : children) {
+            if (SINGLE_LEVEL.equals(child.level)) {
+                Handler handler = find(child, topic, level + 1);
+                if (handler != null) {
+                    return handler;
+                }
+            }
+        }
+        for (Node child : children) {
+            if (MULTI_LEVEL.equals(child.level) && child.handler != null) {
+                return child.handler;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Parse decimal number from the payload, e.g the comment id of "id:uniqueId" receipt payload.
+     */
+    static long parseLong(byte[] payload, int start, int end) {
+        if (start >= end) {
+            throw new NumberFormatException("Empty number in payload");
+        }
+        boolean negative = payload[start] == '-';
+        if (negative && start + 1 == end) {
+            throw new NumberFormatException("Invalid number in payload");
+        }
+        //Accumulated negatively so Long.MIN_VALUE can be parsed too
+        long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+        long result = 0;
+        for (int i = negative ? start + 1 : start; i < end; i++) {
+            int digit = payload[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid number in payload");
+            }
+            if (result < (limit + digit) / 10) {
+                throw new NumberFormatException("Number in payload is too big");
+            }
+            result = result * 10 - digit;
+        }
+        return negative ? result : -result;
+    }
+
+    static int indexOf(byte[] payload, char c) {
+        for (int i = 0; i < payload.length; i++) {
+            if (payload[i] == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    static String toString(byte[] payload, int start, int end) {
+        return new String(payload, start, end - start, UTF_8);
+    }
+
+    public interface Handler {
+        void onMessage(Topic topic, byte[] payload) throws Exception;
+    }
+
+    /**
+     * Topic of the routed message, levels are only turned into strings when asked.
+     */
+    public static final class Topic {
+        private final String value;
+        private final int[] starts;
+        private final int[] ends;
+        private int levelCount;
+
+        private Topic(String value) {
+            this.value = value;
+            int maxLevels = 1;
+            for (int i = 0; i < value.length() && maxLevels < MAX_LEVELS; i++) {
+                if (value.charAt(i) == '/') {
+                    maxLevels++;
+                }
+            }
+            starts = new int[maxLevels];
+            ends = new int[maxLevels];
+            int start = 0;
+            while (levelCount < maxLevels) {
+                int end = value.indexOf('/', start);
+                starts[levelCount] = start;
+                if (end < 0 || levelCount == maxLevels - 1) {
+                    ends[levelCount++] = value.length();
+                    break;
+                }
+                ends[levelCount++] = end;
+                start = end + 1;
+            }
+        }
+
+        public String getValue() {
+            return value;
+        }
+
+        public int getLevelCount() {
+            return levelCount;
+        }
+
+        public String getLevel(int level) {
+            return value.substring(starts[level], ends[level]);
+        }
+
+        public boolean isLevel(int level, String expected) {
+            int length = ends[level] - starts[level];
+            return expected != null && expected.length() == length
+                    && value.regionMatches(starts[level], expected, 0, length);
+        }
+
+        /**
+         * Same as Integer.parseInt(getLevel(level)) for non negative numbers, without creating the string.
+         *
+         * @throws NumberFormatException if the level is empty, not a number, or bigger than Integer.MAX_VALUE
+         */
+        public int getIntLevel(int level) {
+            if (starts[level] == ends[level]) {
+                throw new NumberFormatException("Level " + level + " of " + value + " is empty");
+            }
+            int result = 0;
+            for (int i = starts[level]; i < ends[level]; i++) {
+                int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new NumberFormatException("Level " + level + " of " + value + " is not a number");
+                }
+                if (result > (Integer.MAX_VALUE - digit) / 10) {
+                    throw new NumberFormatException("Level " + level + " of " + value + " is too big");
+                }
+                result = result * 10 + digit;
+            }
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return value;
+        }
+    }
+
+    private static final class Node {
+        private final String level;
+        private final boolean wildcard;
+        //Copied on write, so messages are routed without lock or iterator
+        private volatile Node[] children;
+        private volatile Handler handler;
+
+        private Node(String level) {
+            this.level = level;
+            wildcard = SINGLE_LEVEL.equals(level) || MULTI_LEVEL.equals(level);
+            children = new Node[0];
+        }
+
+        private synchronized Node getOrCreateChild(String level) {
+            for (Node child : children) {
+                if (child.level.equals(level)) {
+                    return child;
+                }
+            }
+            Node child = new Node(level);
+            Node[] newChildren = Arrays.copyOf(children, children.length + 1);
+            newChildren[children.length] = child;
+            children = newChildren;
+            return child;
+        }
+
+        private Node findChild(String topic, int start, int end) {
+            for (Node child : children) {
+                if (child.matches(topic, start, end)) {
+                    return child;
+                }
+            }
+            return null;
+        }
+
+        private boolean matches(String topic, int start, int end) {
+            return level.length() == end - start && topic.regionMatches(start, level, 0, level.length());
+        }
+    }
+}
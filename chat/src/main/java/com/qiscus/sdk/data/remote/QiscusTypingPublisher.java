@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keep the typing state of every room and only publish when it changes. Changes are published at most once per
+ * publish interval, the latest state wins, and typing is stopped automatically when no keystroke has been seen
+ * for the idle timeout.
+ */
+final class QiscusTypingPublisher {
+    static final long DEFAULT_PUBLISH_INTERVAL = 1000;
+    static final long DEFAULT_IDLE_TIMEOUT = 5000;
+
+    private final ScheduledExecutorService executor;
+    private final Publisher publisher;
+    //Rooms are kept after typing stopped so the publish interval also holds for the next keystroke
+    private final Map<Long, RoomTyping> rooms;
+    private long publishInterval;
+    private long idleTimeout;
+
+    QiscusTypingPublisher(ScheduledExecutorService executor, Publisher publisher) {
+        this.executor = executor;
+        this.publisher = publisher;
+        rooms = new HashMap<>();
+        publishInterval = DEFAULT_PUBLISH_INTERVAL;
+        idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    }
+
+    synchronized void setPublishInterval(long publishInterval) {
+        this.publishInterval = publishInterval;
+    }
+
+    synchronized void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Call it for every keystroke with true, and with false when the user stop typing.
+     */
+    synchronized void setTyping(int roomId, int topicId, boolean typing) {
+        long key = ((long) roomId << 32) | (topicId & 0xFFFFFFFFL);
+        RoomTyping roomTyping = rooms.get(key);
+        if (roomTyping == null) {
+            if (!typing) {
+                return;
+            }
+            roomTyping = new RoomTyping(roomId, topicId);
+            rooms.put(key, roomTyping);
+        }
+
+        roomTyping.typing = typing;
+        cancel(roomTyping.scheduledIdle);
+        roomTyping.scheduledIdle = typing ? executor.schedule(() -> setTyping(roomId, topicId, false),
+                idleTimeout, TimeUnit.MILLISECONDS) : null;
+        publishIfNeeded(key, roomTyping);
+    }
+
+    synchronized void clear() {
+        for (RoomTyping roomTyping : rooms.values()) {
+            cancel(roomTyping.scheduledIdle);
+            cancel(roomTyping.scheduledPublish);
+        }
+        rooms.clear();
+    }
+
+    //Must hold the lock
+    private void publishIfNeeded(long key, RoomTyping roomTyping) {
+        if (roomTyping.typing == roomTyping.published || roomTyping.scheduledPublish != null) {
+            return;
+        }
+
+        long wait = roomTyping.lastPublishTime + publishInterval - System.currentTimeMillis();
+        if (roomTyping.lastPublishTime == 0 || wait <= 0) {
+            roomTyping.published = roomTyping.typing;
+            roomTyping.lastPublishTime = System.currentTimeMillis();
+            publisher.publish(roomTyping.roomId, roomTyping.topicId, roomTyping.typing);
+        } else {
+            roomTyping.scheduledPublish = executor.schedule(() -> {
+                synchronized (QiscusTypingPublisher.this) {
+                    roomTyping.scheduledPublish = null;
+                    if (rooms.get(key) == roomTyping) {
+                        publishIfNeeded(key, roomTyping);
+                    }
+                }
+            }, wait, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void cancel(ScheduledFuture<?> future) {
+        if (future != null) {
+            future.cancel(false);
+        }
+    }
+
+    interface Publisher {
+        void publish(int roomId, int topicId, boolean typing);
+    }
+
+    private static class RoomTyping {
+        private final int roomId;
+        private final int topicId;
+        private boolean typing;
+        private boolean published;
+        private long lastPublishTime;
+        private ScheduledFuture<?> scheduledIdle;
+        private ScheduledFuture<?> scheduledPublish;
+
+        private RoomTyping(int roomId, int topicId) {
+            this.roomId = roomId;
+            this.topicId = topicId;
+        }
+    }
+}
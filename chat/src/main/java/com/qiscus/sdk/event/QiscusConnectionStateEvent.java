@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.event;
+
+/**
+ * Posted every time the MQTT connection move to another state.
+ */
+public class QiscusConnectionStateEvent {
+    private State previousState;
+    private State state;
+    private long duration;
+    private int attempt;
+    private long reconnectDelay;
+
+    public QiscusConnectionStateEvent(State previousState, State state, long duration, int attempt, long reconnectDelay) {
+        this.previousState = previousState;
+        this.state = state;
+        this.duration = duration;
+        this.attempt = attempt;
+        this.reconnectDelay = reconnectDelay;
+    }
+
+    public State getPreviousState() {
+        return previousState;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return how long the connection stayed in the previous state, in milliseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @return number of failed connection attempts since the last successful connection
+     */
+    public int getAttempt() {
+        return attempt;
+    }
+
+    /**
+     * @return delay before the next connection attempt in milliseconds, only set for BACKOFF
+     */
+    public long getReconnectDelay() {
+        return reconnectDelay;
+    }
+
+    @Override
+    public String toString() {
+        return previousState + " -> " + state + " after " + duration + " ms, attempt " + attempt
+                + (state == State.BACKOFF ? ", retry in " + reconnectDelay + " ms" : "");
+    }
+
+    public enum State {
+        DISCONNECTED, CONNECTING, CONNECTED, BACKOFF, SUSPENDED
+    }
+}
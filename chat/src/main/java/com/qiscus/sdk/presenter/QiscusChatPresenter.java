@@ -27,10 +27,12 @@ import com.qiscus.sdk.data.model.QiscusAccount;
 import com.qiscus.sdk.data.model.QiscusChatRoom;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.data.remote.QiscusApi;
+import com.qiscus.sdk.data.remote.QiscusOutbox;
 import com.qiscus.sdk.data.remote.QiscusPusherApi;
 import com.qiscus.sdk.event.QiscusChatRoomEvent;
 import com.qiscus.sdk.event.QiscusCommentReceivedEvent;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 import com.qiscus.sdk.util.QiscusFileUtil;
 import com.qiscus.sdk.util.QiscusImageUtil;
 
@@ -60,6 +62,7 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
     private Func2<QiscusComment, QiscusComment, Integer> commentComparator = (lhs, rhs) -> lhs.getId() != -1 && rhs.getId() != -1 ?
             QiscusAndroidUtil.compare(rhs.getId(), lhs.getId()) : rhs.getTime().compareTo(lhs.getTime());
     private Runnable listenRoomTask;
+    private boolean listeningRoom;
 
     public QiscusChatPresenter(View view, QiscusChatRoom room) {
         super(view);
@@ -104,31 +107,14 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
         Qiscus.getDataStore().addOrUpdate(qiscusComment);
     }
 
-    private void commentFail(QiscusComment qiscusComment) {
-        qiscusComment.setState(QiscusComment.STATE_FAILED);
-        QiscusComment savedQiscusComment = Qiscus.getDataStore().getComment(qiscusComment.getId(), qiscusComment.getUniqueId());
-        if (savedQiscusComment != null) {
-            if (savedQiscusComment.getState() < qiscusComment.getState()) {
-                qiscusComment.setState(QiscusComment.STATE_FAILED);
-                Qiscus.getDataStore().addOrUpdate(qiscusComment);
-            } else {
-                qiscusComment.setState(savedQiscusComment.getState());
-            }
-        } else {
-            qiscusComment.setState(QiscusComment.STATE_FAILED);
-            Qiscus.getDataStore().addOrUpdate(qiscusComment);
-        }
-    }
-
     public void sendComment(String content) {
         QiscusComment qiscusComment = QiscusComment.generateMessage(content, room.getId(), currentTopicId);
         view.onSendingComment(qiscusComment);
-        QiscusApi.getInstance().postComment(qiscusComment)
-                .doOnSubscribe(() -> Qiscus.getDataStore().add(qiscusComment))
-                .doOnNext(this::commentSuccess)
-                .doOnError(throwable -> commentFail(qiscusComment))
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
+        observeSending(qiscusComment, QiscusOutbox.getInstance().sendComment(qiscusComment));
+    }
+
+    private void observeSending(QiscusComment qiscusComment, Observable<QiscusComment> sending) {
+        sending.observeOn(AndroidSchedulers.mainThread())
                 .compose(bindToLifecycle())
                 .subscribe(commentSend -> {
                     if (commentSend.getTopicId() == currentTopicId) {
@@ -163,132 +149,30 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
         qiscusComment.setDownloading(true);
         view.onSendingComment(qiscusComment);
 
-        File finalCompressedFile = compressedFile;
-        QiscusApi.getInstance().uploadFile(compressedFile, percentage -> qiscusComment.setProgress((int) percentage))
-                .doOnSubscribe(() -> Qiscus.getDataStore().add(qiscusComment))
-                .flatMap(uri -> {
-                    qiscusComment.setMessage(String.format("[file] %s [/file]", uri.toString()));
-                    return QiscusApi.getInstance().postComment(qiscusComment);
-                })
-                .doOnNext(commentSend -> {
-                    Qiscus.getDataStore()
-                            .addOrUpdateLocalPath(commentSend.getTopicId(), commentSend.getId(), finalCompressedFile.getAbsolutePath());
-                    qiscusComment.setDownloading(false);
-                    commentSuccess(commentSend);
-                })
-                .doOnError(throwable -> {
-                    qiscusComment.setDownloading(false);
-                    commentFail(qiscusComment);
-                })
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .compose(bindToLifecycle())
-                .subscribe(commentSend -> {
-                    if (commentSend.getTopicId() == currentTopicId) {
-                        view.onSuccessSendComment(commentSend);
-                    }
-                }, throwable -> {
-                    throwable.printStackTrace();
-                    if (qiscusComment.getTopicId() == currentTopicId) {
-                        view.onFailedSendComment(qiscusComment);
-                    }
-                });
+        observeSending(qiscusComment, QiscusOutbox.getInstance().sendFile(qiscusComment, compressedFile));
     }
 
     public void resendComment(QiscusComment qiscusComment) {
+        qiscusComment.setState(QiscusComment.STATE_SENDING);
+        qiscusComment.setTime(new Date());
         if (qiscusComment.isAttachment()) {
             resendFile(qiscusComment);
         } else if (qiscusComment.getType() == QiscusComment.Type.REPLY) {
-            resendReplyComment(qiscusComment);
+            view.onNewComment(qiscusComment);
+            observeSending(qiscusComment, QiscusOutbox.getInstance().sendReplyComment(qiscusComment));
         } else {
-            qiscusComment.setState(QiscusComment.STATE_SENDING);
-            qiscusComment.setTime(new Date());
             view.onNewComment(qiscusComment);
-            QiscusApi.getInstance().postComment(qiscusComment)
-                    .doOnSubscribe(() -> Qiscus.getDataStore().addOrUpdate(qiscusComment))
-                    .doOnNext(this::commentSuccess)
-                    .doOnError(throwable -> commentFail(qiscusComment))
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .compose(bindToLifecycle())
-                    .subscribe(commentSend -> {
-                        if (commentSend.getTopicId() == currentTopicId) {
-                            view.onSuccessSendComment(commentSend);
-                        }
-                    }, throwable -> {
-                        throwable.printStackTrace();
-                        if (qiscusComment.getTopicId() == currentTopicId) {
-                            view.onFailedSendComment(qiscusComment);
-                        }
-                    });
+            observeSending(qiscusComment, QiscusOutbox.getInstance().sendComment(qiscusComment));
         }
     }
 
     private void resendFile(QiscusComment qiscusComment) {
+        //Not exist when the uri is not local, then the outbox only post the comment again
         File file = new File(qiscusComment.getAttachmentUri().toString());
         qiscusComment.setDownloading(true);
-        qiscusComment.setState(QiscusComment.STATE_SENDING);
-        qiscusComment.setTime(new Date());
+        qiscusComment.setProgress(file.exists() ? 0 : 100);
         view.onNewComment(qiscusComment);
-        if (!file.exists()) { //Not exist because the uri is not local
-            qiscusComment.setProgress(100);
-            QiscusApi.getInstance().postComment(qiscusComment)
-                    .doOnSubscribe(() -> Qiscus.getDataStore().addOrUpdate(qiscusComment))
-                    .doOnNext(commentSend -> {
-                        Qiscus.getDataStore()
-                                .addOrUpdateLocalPath(commentSend.getTopicId(), commentSend.getId(), file.getAbsolutePath());
-                        qiscusComment.setDownloading(false);
-                        commentSuccess(commentSend);
-                    })
-                    .doOnError(throwable -> {
-                        qiscusComment.setDownloading(false);
-                        commentFail(qiscusComment);
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .compose(bindToLifecycle())
-                    .subscribe(commentSend -> {
-                        if (commentSend.getTopicId() == currentTopicId) {
-                            view.onSuccessSendComment(commentSend);
-                        }
-                    }, throwable -> {
-                        throwable.printStackTrace();
-                        if (qiscusComment.getTopicId() == currentTopicId) {
-                            view.onFailedSendComment(qiscusComment);
-                        }
-                    });
-        } else {
-            qiscusComment.setProgress(0);
-            QiscusApi.getInstance().uploadFile(file, percentage -> qiscusComment.setProgress((int) percentage))
-                    .doOnSubscribe(() -> Qiscus.getDataStore().addOrUpdate(qiscusComment))
-                    .flatMap(uri -> {
-                        qiscusComment.setMessage(String.format("[file] %s [/file]", uri.toString()));
-                        return QiscusApi.getInstance().postComment(qiscusComment);
-                    })
-                    .doOnNext(commentSend -> {
-                        Qiscus.getDataStore()
-                                .addOrUpdateLocalPath(commentSend.getTopicId(), commentSend.getId(), file.getAbsolutePath());
-                        qiscusComment.setDownloading(false);
-                        commentSuccess(commentSend);
-                    })
-                    .doOnError(throwable -> {
-                        qiscusComment.setDownloading(false);
-                        commentFail(qiscusComment);
-                    })
-                    .subscribeOn(Schedulers.io())
-                    .observeOn(AndroidSchedulers.mainThread())
-                    .compose(bindToLifecycle())
-                    .subscribe(commentSend -> {
-                        if (commentSend.getTopicId() == currentTopicId) {
-                            view.onSuccessSendComment(commentSend);
-                        }
-                    }, throwable -> {
-                        throwable.printStackTrace();
-                        if (qiscusComment.getTopicId() == currentTopicId) {
-                            view.onFailedSendComment(qiscusComment);
-                        }
-                    });
-        }
+        observeSending(qiscusComment, QiscusOutbox.getInstance().sendFile(qiscusComment, file));
     }
 
     public void deleteComment(QiscusComment qiscusComment) {
@@ -322,8 +206,8 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                         } else {
                             qiscusComment.setState(QiscusComment.STATE_READ);
                         }
-                        Qiscus.getDataStore().addOrUpdate(qiscusComment);
                     }
+                    Qiscus.getDataStore().addOrUpdateComments(roomData.second);
                     Collections.sort(roomData.second, (lhs, rhs) -> lhs.getId() != -1 && rhs.getId() != -1 ?
                             QiscusAndroidUtil.compare(rhs.getId(), lhs.getId()) : rhs.getTime().compareTo(lhs.getTime()));
 
@@ -362,9 +246,9 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                     } else {
                         qiscusComment.setState(QiscusComment.STATE_READ);
                     }
-                    Qiscus.getDataStore().addOrUpdate(qiscusComment);
                 })
                 .toSortedList(commentComparator)
+                .doOnNext(comments -> Qiscus.getDataStore().addOrUpdateComments(comments))
                 .doOnNext(this::checkForLastRead)
                 .subscribeOn(Schedulers.io());
     }
@@ -381,29 +265,39 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                 })
                 .doOnNext(comments -> {
                     checkForLastRead(comments);
-                    for (QiscusComment qiscusComment : comments) {
-                        if (qiscusComment.getState() == QiscusComment.STATE_SENDING) {
-                            qiscusComment.setState(QiscusComment.STATE_FAILED);
-                            Qiscus.getDataStore().addOrUpdate(qiscusComment);
-                        } else if (qiscusComment.getState() != QiscusComment.STATE_FAILED
-                                && qiscusComment.getState() != QiscusComment.STATE_READ) {
-                            if (qiscusComment.getId() > lastDeliveredCommentId.get()) {
-                                qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
-                            } else if (qiscusComment.getId() > lastReadCommentId.get()) {
-                                qiscusComment.setState(QiscusComment.STATE_DELIVERED);
-                            } else {
-                                qiscusComment.setState(QiscusComment.STATE_READ);
-                            }
-                            Qiscus.getDataStore().addOrUpdate(qiscusComment);
-                        }
-                    }
+                    updateLocalCommentsState(comments);
                 })
                 .subscribeOn(Schedulers.io());
     }
 
+    private void updateLocalCommentsState(List<QiscusComment> comments) {
+        List<QiscusComment> updatedComments = new ArrayList<>();
+        for (QiscusComment comment : comments) {
+            if (comment.getState() == QiscusComment.STATE_SENDING) {
+                //Comments still in the outbox are going to be sent, the others were lost with the process
+                if (!QiscusOutbox.getInstance().isPending(comment.getUniqueId())) {
+                    comment.setState(QiscusComment.STATE_FAILED);
+                    updatedComments.add(comment);
+                }
+            } else if (comment.getState() != QiscusComment.STATE_FAILED
+                    && comment.getState() != QiscusComment.STATE_READ) {
+                if (comment.getId() > lastDeliveredCommentId.get()) {
+                    comment.setState(QiscusComment.STATE_ON_QISCUS);
+                } else if (comment.getId() > lastReadCommentId.get()) {
+                    comment.setState(QiscusComment.STATE_DELIVERED);
+                } else {
+                    comment.setState(QiscusComment.STATE_READ);
+                }
+                updatedComments.add(comment);
+            }
+        }
+        Qiscus.getDataStore().addOrUpdateComments(updatedComments);
+    }
+
     public void loadComments(int count) {
         Observable.merge(getInitRoomData(), getLocalComments(count).map(comments -> Pair.create(room, comments)))
                 .filter(qiscusChatRoomListPair -> qiscusChatRoomListPair != null)
+                .doOnNext(roomData -> QiscusCommentRenderer.prepare(roomData.second))
                 .subscribeOn(Schedulers.newThread())
                 .observeOn(AndroidSchedulers.mainThread())
                 .compose(bindToLifecycle())
@@ -479,22 +373,7 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                 })
                 .doOnNext(comments -> {
                     checkForLastRead(comments);
-                    for (QiscusComment comment : comments) {
-                        if (comment.getState() == QiscusComment.STATE_SENDING) {
-                            comment.setState(QiscusComment.STATE_FAILED);
-                            Qiscus.getDataStore().addOrUpdate(qiscusComment);
-                        } else if (comment.getState() != QiscusComment.STATE_FAILED
-                                && comment.getState() != QiscusComment.STATE_READ) {
-                            if (comment.getId() > lastDeliveredCommentId.get()) {
-                                comment.setState(QiscusComment.STATE_ON_QISCUS);
-                            } else if (comment.getId() > lastReadCommentId.get()) {
-                                comment.setState(QiscusComment.STATE_DELIVERED);
-                            } else {
-                                comment.setState(QiscusComment.STATE_READ);
-                            }
-                            Qiscus.getDataStore().addOrUpdate(comment);
-                        }
-                    }
+                    updateLocalCommentsState(comments);
                 })
                 .flatMap(comments -> isValidOlderComments(comments, qiscusComment) ?
                         Observable.from(comments).toSortedList(commentComparator) :
@@ -506,6 +385,7 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                             }
                             return comments1;
                         }))
+                .doOnNext(QiscusCommentRenderer::prepare)
                 .subscribeOn(Schedulers.newThread())
                 .observeOn(AndroidSchedulers.mainThread())
                 .compose(bindToLifecycle())
@@ -524,6 +404,7 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
     }
 
     private void listenRoomEvent() {
+        listeningRoom = true;
         QiscusPusherApi.getInstance().listenRoom(room);
     }
 
@@ -711,68 +592,13 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
     public void sendCommentPostBack(String content, String payload) {
         QiscusComment qiscusComment = QiscusComment.generateMessage(content, room.getId(), currentTopicId);
         view.onSendingComment(qiscusComment);
-        QiscusApi.getInstance().postCommentPostBack(qiscusComment, payload)
-                .doOnSubscribe(() -> Qiscus.getDataStore().add(qiscusComment))
-                .doOnNext(this::commentSuccess)
-                .doOnError(throwable -> commentFail(qiscusComment))
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .compose(bindToLifecycle())
-                .subscribe(commentSend -> {
-                    if (commentSend.getTopicId() == currentTopicId) {
-                        view.onSuccessSendComment(commentSend);
-                    }
-                }, throwable -> {
-                    throwable.printStackTrace();
-                    if (qiscusComment.getTopicId() == currentTopicId) {
-                        view.onFailedSendComment(qiscusComment);
-                    }
-                });
+        observeSending(qiscusComment, QiscusOutbox.getInstance().sendCommentPostBack(qiscusComment, payload));
     }
 
     public void sendReplyComment(String content, QiscusComment originComment) {
         QiscusComment qiscusComment = QiscusComment.generateReplyMessage(content, room.getId(), currentTopicId, originComment);
         view.onSendingComment(qiscusComment);
-        QiscusApi.getInstance().postReplyComment(qiscusComment)
-                .doOnSubscribe(() -> Qiscus.getDataStore().add(qiscusComment))
-                .doOnNext(this::commentSuccess)
-                .doOnError(throwable -> commentFail(qiscusComment))
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .compose(bindToLifecycle())
-                .subscribe(commentSend -> {
-                    if (commentSend.getTopicId() == currentTopicId) {
-                        view.onSuccessSendComment(commentSend);
-                    }
-                }, throwable -> {
-                    throwable.printStackTrace();
-                    if (qiscusComment.getTopicId() == currentTopicId) {
-                        view.onFailedSendComment(qiscusComment);
-                    }
-                });
-    }
-
-    private void resendReplyComment(QiscusComment qiscusComment) {
-        qiscusComment.setState(QiscusComment.STATE_SENDING);
-        qiscusComment.setTime(new Date());
-        view.onNewComment(qiscusComment);
-        QiscusApi.getInstance().postReplyComment(qiscusComment)
-                .doOnSubscribe(() -> Qiscus.getDataStore().addOrUpdate(qiscusComment))
-                .doOnNext(this::commentSuccess)
-                .doOnError(throwable -> commentFail(qiscusComment))
-                .subscribeOn(Schedulers.io())
-                .observeOn(AndroidSchedulers.mainThread())
-                .compose(bindToLifecycle())
-                .subscribe(commentSend -> {
-                    if (commentSend.getTopicId() == currentTopicId) {
-                        view.onSuccessSendComment(commentSend);
-                    }
-                }, throwable -> {
-                    throwable.printStackTrace();
-                    if (qiscusComment.getTopicId() == currentTopicId) {
-                        view.onFailedSendComment(qiscusComment);
-                    }
-                });
+        observeSending(qiscusComment, QiscusOutbox.getInstance().sendReplyComment(qiscusComment));
     }
 
     public void loadUntilComment(QiscusComment qiscusComment) {
@@ -782,26 +608,12 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
                 .toSortedList(commentComparator)
                 .doOnNext(comments -> {
                     checkForLastRead(comments);
-                    for (QiscusComment comment : comments) {
-                        if (comment.getState() == QiscusComment.STATE_SENDING) {
-                            comment.setState(QiscusComment.STATE_FAILED);
-                            Qiscus.getDataStore().addOrUpdate(comment);
-                        } else if (comment.getState() != QiscusComment.STATE_FAILED
-                                && comment.getState() != QiscusComment.STATE_READ) {
-                            if (comment.getId() > lastDeliveredCommentId.get()) {
-                                comment.setState(QiscusComment.STATE_ON_QISCUS);
-                            } else if (comment.getId() > lastReadCommentId.get()) {
-                                comment.setState(QiscusComment.STATE_DELIVERED);
-                            } else {
-                                comment.setState(QiscusComment.STATE_READ);
-                            }
-                            Qiscus.getDataStore().addOrUpdate(comment);
-                        }
-                    }
+                    updateLocalCommentsState(comments);
                 })
                 .flatMap(comments -> isValidChainingComments(comments) ?
                         Observable.from(comments).toSortedList(commentComparator) :
                         Observable.just(new ArrayList<QiscusComment>()))
+                .doOnNext(QiscusCommentRenderer::prepare)
                 .subscribeOn(Schedulers.newThread())
                 .observeOn(AndroidSchedulers.mainThread())
                 .compose(bindToLifecycle())
@@ -816,7 +628,10 @@ public class QiscusChatPresenter extends QiscusPresenter<QiscusChatPresenter.Vie
     public void detachView() {
         super.detachView();
         QiscusAndroidUtil.cancelRunOnUIThread(listenRoomTask);
-        QiscusPusherApi.getInstance().unListenRoom(room);
+        if (listeningRoom) {
+            listeningRoom = false;
+            QiscusPusherApi.getInstance().unListenRoom(room);
+        }
         room = null;
         EventBus.getDefault().unregister(this);
     }
@@ -22,6 +22,7 @@ import com.qiscus.sdk.event.QiscusUserStatusEvent;
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashSet;
 import java.util.Set;
@@ -44,8 +45,9 @@ public class QiscusUserStatusPresenter extends QiscusPresenter<QiscusUserStatusP
     }
 
     public void listenUser(String user) {
-        users.add(user);
-        QiscusPusherApi.getInstance().listenUserStatus(user);
+        if (users.add(user)) {
+            QiscusPusherApi.getInstance().listenUserStatus(user);
+        }
     }
 
     @Subscribe
@@ -58,9 +60,8 @@ public class QiscusUserStatusPresenter extends QiscusPresenter<QiscusUserStatusP
     @Override
     public void detachView() {
         super.detachView();
-        for (String user : users) {
-            QiscusPusherApi.getInstance().unListenUserStatus(user);
-        }
+        QiscusPusherApi.getInstance().unListenUserStatus(new ArrayList<>(users));
+        users.clear();
         EventBus.getDefault().unregister(this);
     }
 
@@ -23,24 +23,15 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.qiscus.sdk.Qiscus;
-import com.qiscus.sdk.data.model.QiscusAccount;
-import com.qiscus.sdk.data.model.QiscusComment;
-import com.qiscus.sdk.data.remote.QiscusApi;
+import com.qiscus.sdk.data.remote.QiscusOutbox;
 import com.qiscus.sdk.data.remote.QiscusPusherApi;
-import com.qiscus.sdk.event.QiscusCommentReceivedEvent;
+import com.qiscus.sdk.data.remote.QiscusSyncEngine;
 import com.qiscus.sdk.event.QiscusUserEvent;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
-import com.qiscus.sdk.util.QiscusPushNotificationUtil;
 
 import org.greenrobot.eventbus.EventBus;
 import org.greenrobot.eventbus.Subscribe;
 
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.TimeUnit;
-
-import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
-
 /**
  * Created on : June 29, 2016
  * Author     : zetbaitsu
@@ -50,9 +41,6 @@ import rx.schedulers.Schedulers;
 public class QiscusPusherService extends Service {
     private static final String TAG = QiscusPusherService.class.getSimpleName();
 
-    private QiscusAccount qiscusAccount;
-    private ScheduledFuture<?> scheduledSync;
-
     @Override
     public void onCreate() {
         super.onCreate();
@@ -63,7 +51,9 @@ public class QiscusPusherService extends Service {
 
         if (Qiscus.hasSetupUser()) {
             QiscusAndroidUtil.runOnUIThread(() -> QiscusPusherApi.getInstance().restartConnection());
-            scheduleSync(Qiscus.getHeartBeat());
+            QiscusSyncEngine.getInstance().requestSync();
+            //Resume comments left in the outbox when the process died
+            QiscusOutbox.getInstance().retryNow();
         }
     }
 
@@ -78,54 +68,12 @@ public class QiscusPusherService extends Service {
         return START_STICKY;
     }
 
-    private void scheduleSync(long period) {
-        qiscusAccount = Qiscus.getQiscusAccount();
-        stopSync();
-
-        scheduledSync = Qiscus.getTaskExecutor()
-                .scheduleWithFixedDelay(() -> {
-                    if (Qiscus.isOnForeground()) {
-                        QiscusApi.getInstance().sync()
-                                .doOnNext(qiscusComment -> {
-                                    if (!qiscusComment.getSenderEmail().equals(qiscusAccount.getEmail())) {
-                                        QiscusPusherApi.getInstance()
-                                                .setUserDelivery(qiscusComment.getRoomId(), qiscusComment.getTopicId(),
-                                                        qiscusComment.getId(), qiscusComment.getUniqueId());
-                                    }
-                                    QiscusComment savedQiscusComment = Qiscus.getDataStore()
-                                            .getComment(qiscusComment.getId(), qiscusComment.getUniqueId());
-                                    if (savedQiscusComment != null && savedQiscusComment.getState() > qiscusComment.getState()) {
-                                        qiscusComment.setState(savedQiscusComment.getState());
-                                    }
-                                    Qiscus.getDataStore().addOrUpdate(qiscusComment);
-                                    qiscusComment.setRoomName("sync");
-                                })
-                                .subscribeOn(Schedulers.io())
-                                .observeOn(AndroidSchedulers.mainThread())
-                                .subscribe(qiscusComment -> {
-                                    QiscusPushNotificationUtil.handlePushNotification(Qiscus.getApps(), qiscusComment);
-                                    EventBus.getDefault().post(new QiscusCommentReceivedEvent(qiscusComment));
-
-                                }, Throwable::printStackTrace);
-                    }
-                }, 0, period, TimeUnit.MILLISECONDS);
-    }
-
-    private void stopSync() {
-        if (scheduledSync != null) {
-            scheduledSync.cancel(true);
-        }
-    }
-
     @Subscribe
     public void onUserEvent(QiscusUserEvent userEvent) {
         switch (userEvent) {
             case LOGIN:
                 QiscusAndroidUtil.runOnUIThread(() -> QiscusPusherApi.getInstance().restartConnection());
-                scheduleSync(Qiscus.getHeartBeat());
-                break;
-            case LOGOUT:
-                stopSync();
+                QiscusSyncEngine.getInstance().requestSync();
                 break;
         }
     }
@@ -135,7 +83,6 @@ public class QiscusPusherService extends Service {
         Log.i(TAG, "Destroying...");
         EventBus.getDefault().unregister(this);
         sendBroadcast(new Intent("com.qiscus.START_SERVICE"));
-        stopSync();
         super.onDestroy();
     }
 }
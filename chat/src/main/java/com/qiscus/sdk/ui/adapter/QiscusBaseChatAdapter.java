@@ -17,6 +17,7 @@
 package com.qiscus.sdk.ui.adapter;
 
 import android.content.Context;
+import android.support.annotation.Nullable;
 import android.support.v7.util.SortedList;
 import android.support.v7.widget.RecyclerView;
 import android.view.LayoutInflater;
@@ -26,13 +27,16 @@ import android.view.ViewGroup;
 import com.qiscus.sdk.Qiscus;
 import com.qiscus.sdk.data.model.QiscusAccount;
 import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.data.model.QiscusCommentRenderModel;
 import com.qiscus.sdk.ui.adapter.viewholder.QiscusBaseMessageViewHolder;
 import com.qiscus.sdk.ui.view.QiscusChatButtonView;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
-import com.qiscus.sdk.util.QiscusDateUtil;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * Created on : September 27, 2016
@@ -54,43 +58,20 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
     protected int lastReadCommentId;
     protected boolean groupChat;
 
+    private final QiscusCommentPositionIndex<E> positionIndex;
+    private final SortedList.Callback<E> notifyCallback;
+    private final SortedList.BatchedCallback<E> batchedCallback;
+    private int batchDepth;
+    private QiscusCommentPayload changePayload;
+
     public QiscusBaseChatAdapter(Context context, boolean groupChat) {
         this.context = context;
         this.groupChat = groupChat;
-        data = new SortedList<>(getItemClass(), new SortedList.Callback<E>() {
-            @Override
-            public int compare(E lhs, E rhs) {
-                return QiscusBaseChatAdapter.this.compare(lhs, rhs);
-            }
-
-            @Override
-            public void onInserted(int position, int count) {
-            }
-
-            @Override
-            public void onRemoved(int position, int count) {
-            }
-
-            @Override
-            public void onMoved(int fromPosition, int toPosition) {
-                notifyItemMoved(fromPosition, toPosition);
-                notifyItemChanged(toPosition);
-            }
-
-            @Override
-            public void onChanged(int position, int count) {
-            }
-
-            @Override
-            public boolean areContentsTheSame(E oldE, E newE) {
-                return oldE.equals(newE);
-            }
-
-            @Override
-            public boolean areItemsTheSame(E oldE, E newE) {
-                return oldE.equals(newE);
-            }
-        });
+        notifyCallback = new NotifyCallback();
+        batchedCallback = new SortedList.BatchedCallback<>(notifyCallback);
+        positionIndex = new QiscusCommentPositionIndex<>(new DataCallback());
+        data = new SortedList<>(getItemClass(), positionIndex);
+        positionIndex.setData(data);
         qiscusAccount = Qiscus.getQiscusAccount();
     }
 
@@ -129,6 +110,53 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
                 QiscusAndroidUtil.compare(rhs.getId(), lhs.getId()) : rhs.getTime().compareTo(lhs.getTime());
     }
 
+    /**
+     * Used to skip rebinding when a comment is replaced by an equal one, include every field shown in the bubble.
+     */
+    protected boolean areContentsTheSame(E oldE, E newE) {
+        return oldE.getId() == newE.getId()
+                && oldE.getState() == newE.getState()
+                && oldE.isSelected() == newE.isSelected()
+                && oldE.isDownloading() == newE.isDownloading()
+                && oldE.getProgress() == newE.getProgress()
+                && isEqual(oldE.getMessage(), newE.getMessage())
+                && isEqual(oldE.getSender(), newE.getSender())
+                && isEqual(oldE.getSenderAvatar(), newE.getSenderAvatar())
+                && isEqual(oldE.getTime(), newE.getTime())
+                && isEqual(oldE.getExtraPayload(), newE.getExtraPayload());
+    }
+
+    /**
+     * @return the only part which differ between the comments, or null if the whole bubble need to be rebound
+     */
+    @Nullable
+    protected QiscusCommentPayload getChangePayload(E oldE, E newE) {
+        if (oldE == newE || !isEqual(oldE.getMessage(), newE.getMessage())
+                || !isEqual(oldE.getSender(), newE.getSender())
+                || !isEqual(oldE.getSenderAvatar(), newE.getSenderAvatar())
+                || !isEqual(oldE.getExtraPayload(), newE.getExtraPayload())) {
+            return null;
+        }
+
+        boolean stateChanged = oldE.getState() != newE.getState() || oldE.getId() != newE.getId()
+                || !isEqual(oldE.getTime(), newE.getTime());
+        boolean progressChanged = oldE.getProgress() != newE.getProgress()
+                || oldE.isDownloading() != newE.isDownloading();
+        boolean selectionChanged = oldE.isSelected() != newE.isSelected();
+        if (stateChanged && !progressChanged && !selectionChanged) {
+            return QiscusCommentPayload.STATE;
+        } else if (progressChanged && !stateChanged && !selectionChanged) {
+            return QiscusCommentPayload.PROGRESS;
+        } else if (selectionChanged && !stateChanged && !progressChanged) {
+            return QiscusCommentPayload.SELECTION;
+        }
+        return null;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
     protected View getView(ViewGroup parent, int viewType) {
         return LayoutInflater.from(context).inflate(getItemResourceLayout(viewType), parent, false);
     }
@@ -142,27 +170,39 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
     public void onBindViewHolder(H h, int position) {
         h.setGroupChat(groupChat);
 
-        if (position == getItemCount() - 1) {
+        E qiscusComment = data.get(position);
+        QiscusCommentRenderModel renderModel = QiscusCommentRenderer.render(qiscusComment);
+        E olderComment = position == getItemCount() - 1 ? null : data.get(position + 1);
+        if (olderComment == null) {
             h.setNeedToShowDate(true);
         } else {
-            h.setNeedToShowDate(!QiscusDateUtil.isDateEqualIgnoreTime(data.get(position).getTime(), data.get(position + 1).getTime()));
+            h.setNeedToShowDate(renderModel.getDay() != QiscusCommentRenderer.render(olderComment).getDay());
         }
 
-        if (!qiscusAccount.getEmail().equals(data.get(position).getSenderEmail())) {
-            h.setMessageFromMe(false);
-        } else {
-            h.setMessageFromMe(true);
-        }
+        h.setMessageFromMe(qiscusAccount.getEmail().equals(qiscusComment.getSenderEmail()));
 
         if (h.isNeedToShowDate()) {
             h.setNeedToShowFirstMessageBubbleIndicator(true);
-        } else if (data.get(position).getSenderEmail().equals(data.get(position + 1).getSenderEmail())) {
-            h.setNeedToShowFirstMessageBubbleIndicator(false);
         } else {
-            h.setNeedToShowFirstMessageBubbleIndicator(true);
+            h.setNeedToShowFirstMessageBubbleIndicator(!qiscusComment.getSenderEmail().equals(olderComment.getSenderEmail()));
         }
 
-        h.bind(data.get(position));
+        h.bind(qiscusComment);
+    }
+
+    @Override
+    public void onBindViewHolder(H h, int position, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            onBindViewHolder(h, position);
+        } else {
+            h.bind(data.get(position), payloads);
+        }
+    }
+
+    @Override
+    public void onViewRecycled(H h) {
+        super.onViewRecycled(h);
+        h.onRecycled();
     }
 
     @Override
@@ -204,48 +244,109 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
     }
 
     public int add(E e) {
-        int i = data.add(e);
-        notifyItemInserted(i);
-        return i;
+        return data.add(e);
     }
 
     public void add(final List<E> es) {
-        data.addAll(es);
-        notifyDataSetChanged();
+        beginBatchedUpdates();
+        try {
+            data.addAll(es);
+        } finally {
+            endBatchedUpdates();
+        }
     }
 
     public void addOrUpdate(E e) {
         int i = findPosition(e);
         if (i >= 0) {
-            data.updateItemAt(i, e);
-            notifyItemChanged(i);
+            if (batchDepth == 0) {
+                changePayload = getChangePayload(data.get(i), e);
+            }
+            try {
+                data.updateItemAt(i, e);
+            } finally {
+                changePayload = null;
+            }
         } else {
             add(e);
         }
     }
 
+    /**
+     * Rebind only the part of the comment bubble affected by the payload.
+     */
+    public void notifyCommentChanged(E e, QiscusCommentPayload payload) {
+        int i = findPosition(e);
+        if (i >= 0) {
+            notifyItemChanged(i, payload);
+        }
+    }
+
     public void addOrUpdate(final List<E> es) {
+        beginBatchedUpdates();
+        try {
+            merge(es);
+        } finally {
+            endBatchedUpdates();
+        }
+    }
+
+    public void refreshWithData(List<E> es) {
+        Set<Integer> ids = new HashSet<>();
+        Set<String> uniqueIds = new HashSet<>();
+        for (E e : es) {
+            ids.add(e.getId());
+            uniqueIds.add(e.getUniqueId());
+        }
+
+        beginBatchedUpdates();
+        try {
+            //Walk backward so removing does not shift the positions still to be checked
+            for (int i = data.size() - 1; i >= 0; i--) {
+                E e = data.get(i);
+                if ((e.getId() == -1 || !ids.contains(e.getId())) && !uniqueIds.contains(e.getUniqueId())) {
+                    data.removeItemAt(i);
+                }
+            }
+            merge(es);
+        } finally {
+            endBatchedUpdates();
+        }
+    }
+
+    //Update the existing comments in place, then insert the new ones in a single merge
+    private void merge(List<E> es) {
+        List<E> newEs = new ArrayList<>();
         for (E e : es) {
             int i = findPosition(e);
             if (i >= 0) {
                 data.updateItemAt(i, e);
             } else {
-                data.add(e);
+                newEs.add(e);
             }
         }
-        notifyDataSetChanged();
+        if (!newEs.isEmpty()) {
+            data.addAll(newEs);
+        }
     }
 
-    public void refreshWithData(List<E> es) {
-        data.clear();
-        data.addAll(es);
-        notifyDataSetChanged();
+    /**
+     * Coalesce the adapter notifications of every change made until {@link #endBatchedUpdates()} into ranges.
+     * Calls can be nested.
+     */
+    public void beginBatchedUpdates() {
+        batchDepth++;
+    }
+
+    public void endBatchedUpdates() {
+        if (batchDepth > 0 && --batchDepth == 0) {
+            batchedCallback.dispatchLastEvent();
+        }
     }
 
     public void remove(int position) {
         if (position >= 0 && position < data.size()) {
             data.removeItemAt(position);
-            notifyItemRemoved(position);
         }
     }
 
@@ -263,23 +364,21 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
             return -1;
         }
 
-        int size = data.size();
-        for (int i = 0; i < size; i++) {
-            if (data.get(i).equals(e)) {
-                return i;
-            }
-        }
+        return positionIndex.find(e);
+    }
 
-        return -1;
+    private SortedList.Callback<E> getNotifyCallback() {
+        return batchDepth > 0 ? batchedCallback : notifyCallback;
     }
 
     public void updateLastDeliveredComment(int lastDeliveredCommentId) {
         this.lastDeliveredCommentId = lastDeliveredCommentId;
         updateCommentState();
-        notifyDataSetChanged();
     }
 
     private void updateCommentState() {
+        int firstChanged = -1;
+        int lastChanged = -1;
         int size = data.size();
         for (int i = 0; i < size; i++) {
             if (data.get(i).getState() > QiscusComment.STATE_SENDING) {
@@ -293,16 +392,25 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
                         break;
                     }
                     data.get(i).setState(QiscusComment.STATE_DELIVERED);
+                } else {
+                    continue;
                 }
+                if (firstChanged < 0) {
+                    firstChanged = i;
+                }
+                lastChanged = i;
             }
         }
+
+        if (firstChanged >= 0) {
+            notifyItemRangeChanged(firstChanged, lastChanged - firstChanged + 1, QiscusCommentPayload.STATE);
+        }
     }
 
     public void updateLastReadComment(int lastReadCommentId) {
         this.lastReadCommentId = lastReadCommentId;
         this.lastDeliveredCommentId = lastReadCommentId;
         updateCommentState();
-        notifyDataSetChanged();
     }
 
     public List<E> getSelectedComments() {
@@ -321,9 +429,9 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
         for (int i = size - 1; i >= 0; i--) {
             if (data.get(i).isSelected()) {
                 data.get(i).setSelected(false);
+                notifyItemChanged(i, QiscusCommentPayload.SELECTION);
             }
         }
-        notifyDataSetChanged();
     }
 
     public void detachView() {
@@ -332,4 +440,86 @@ public abstract class QiscusBaseChatAdapter<E extends QiscusComment, H extends Q
             data.get(i).destroy();
         }
     }
+
+    private class DataCallback extends SortedList.Callback<E> {
+        @Override
+        public int compare(E lhs, E rhs) {
+            return QiscusBaseChatAdapter.this.compare(lhs, rhs);
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            getNotifyCallback().onInserted(position, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            getNotifyCallback().onRemoved(position, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            getNotifyCallback().onMoved(fromPosition, toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            getNotifyCallback().onChanged(position, count);
+        }
+
+        @Override
+        public boolean areContentsTheSame(E oldE, E newE) {
+            return QiscusBaseChatAdapter.this.areContentsTheSame(oldE, newE);
+        }
+
+        @Override
+        public boolean areItemsTheSame(E oldE, E newE) {
+            return oldE.equals(newE);
+        }
+    }
+
+    private class NotifyCallback extends SortedList.Callback<E> {
+        @Override
+        public int compare(E lhs, E rhs) {
+            return QiscusBaseChatAdapter.this.compare(lhs, rhs);
+        }
+
+        //The bubble above an inserted or removed range shows the date and first bubble indicator by its neighbour
+        @Override
+        public void onInserted(int position, int count) {
+            notifyItemRangeInserted(position, count);
+            if (position > 0) {
+                notifyItemChanged(position - 1);
+            }
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            notifyItemRangeRemoved(position, count);
+            if (position > 0) {
+                notifyItemChanged(position - 1);
+            }
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            notifyItemMoved(fromPosition, toPosition);
+            notifyItemChanged(toPosition);
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+            notifyItemRangeChanged(position, count, changePayload);
+        }
+
+        @Override
+        public boolean areContentsTheSame(E oldE, E newE) {
+            return QiscusBaseChatAdapter.this.areContentsTheSame(oldE, newE);
+        }
+
+        @Override
+        public boolean areItemsTheSame(E oldE, E newE) {
+            return oldE.equals(newE);
+        }
+    }
 }
@@ -33,6 +33,7 @@ import com.qiscus.sdk.ui.adapter.viewholder.QiscusReplyViewHolder;
 import com.qiscus.sdk.ui.adapter.viewholder.QiscusSystemMessageViewHolder;
 import com.qiscus.sdk.ui.adapter.viewholder.QiscusTextViewHolder;
 import com.qiscus.sdk.ui.adapter.viewholder.QiscusVideoViewHolder;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 
 /**
  * Created on : May 30, 2016
@@ -77,7 +78,7 @@ public class QiscusChatAdapter extends QiscusBaseChatAdapter<QiscusComment, Qisc
 
     @Override
     protected int getItemViewTypeMyMessage(QiscusComment qiscusComment, int position) {
-        switch (qiscusComment.getType()) {
+        switch (QiscusCommentRenderer.render(qiscusComment).getType()) {
             case TEXT:
                 return qiscusComment.getMessage().contains(System.getProperty("line.separator"))
                         ? TYPE_MESSAGE_MULTI_LINE_ME : TYPE_MESSAGE_ME;
@@ -108,7 +109,7 @@ public class QiscusChatAdapter extends QiscusBaseChatAdapter<QiscusComment, Qisc
 
     @Override
     protected int getItemViewTypeOthersMessage(QiscusComment qiscusComment, int position) {
-        switch (qiscusComment.getType()) {
+        switch (QiscusCommentRenderer.render(qiscusComment).getType()) {
             case TEXT:
                 return qiscusComment.getMessage().contains(System.getProperty("line.separator"))
                         ? TYPE_MESSAGE_MULTI_LINE_OTHER : TYPE_MESSAGE_OTHER;
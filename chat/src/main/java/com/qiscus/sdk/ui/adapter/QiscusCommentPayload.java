@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.ui.adapter;
+
+/**
+ * Payload passed to the adapter item change notifications, so the view holder only rebind the affected views.
+ */
+public enum QiscusCommentPayload {
+    /**
+     * Sending, delivered or read state, and the time which show the failure.
+     */
+    STATE,
+    /**
+     * Upload or download progress.
+     */
+    PROGRESS,
+    SELECTION
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.ui.adapter;
+
+import android.support.v7.util.SortedList;
+import android.util.SparseIntArray;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Positions of the comments of a SortedList by id and by unique id. It is the callback of the list, so the
+ * positions after every insert, remove or move are known to be stale, and forward every call to the wrapped
+ * callback. Stale positions are indexed again on the next lookup missing the index. Do not use
+ * SortedList.beginBatchedUpdates(), which delay the callback, batch the adapter notifications instead.
+ */
+final class QiscusCommentPositionIndex<E extends QiscusComment> extends SortedList.Callback<E> {
+    private final SortedList.Callback<E> callback;
+    //Positions from indexedCount are not known yet
+    private final SparseIntArray idPositions;
+    private final Map<String, Integer> uniqueIdPositions;
+    private SortedList<E> data;
+    private int indexedCount;
+
+    QiscusCommentPositionIndex(SortedList.Callback<E> callback) {
+        this.callback = callback;
+        idPositions = new SparseIntArray();
+        uniqueIdPositions = new HashMap<>();
+    }
+
+    void setData(SortedList<E> data) {
+        this.data = data;
+        indexedCount = 0;
+    }
+
+    /**
+     * @return position of the comment with the same id or unique id, or -1
+     */
+    int find(E e) {
+        int position = findIndexedPosition(e);
+        if (position < 0 && indexedCount < data.size()) {
+            updateIndex();
+            position = findIndexedPosition(e);
+        }
+        return position;
+    }
+
+    private int findIndexedPosition(E e) {
+        if (e.getId() != -1) {
+            int position = idPositions.get(e.getId(), -1);
+            if (isIndexedAt(position, e)) {
+                return position;
+            }
+        }
+        Integer position = uniqueIdPositions.get(e.getUniqueId());
+        if (position != null && isIndexedAt(position, e)) {
+            return position;
+        }
+        return -1;
+    }
+
+    //Removed comments are not dropped from the index, so check it is still the same comment
+    private boolean isIndexedAt(int position, E e) {
+        return position >= 0 && position < indexedCount && data.get(position).equals(e);
+    }
+
+    private void updateIndex() {
+        if (indexedCount == 0) {
+            idPositions.clear();
+            uniqueIdPositions.clear();
+        }
+        int size = data.size();
+        for (int i = indexedCount; i < size; i++) {
+            index(i);
+        }
+        indexedCount = size;
+    }
+
+    private void index(int position) {
+        E e = data.get(position);
+        if (e.getId() != -1) {
+            idPositions.put(e.getId(), position);
+        }
+        uniqueIdPositions.put(e.getUniqueId(), position);
+    }
+
+    private void invalidate(int position) {
+        indexedCount = Math.min(indexedCount, position);
+    }
+
+    @Override
+    public int compare(E lhs, E rhs) {
+        return callback.compare(lhs, rhs);
+    }
+
+    @Override
+    public void onInserted(int position, int count) {
+        invalidate(position);
+        callback.onInserted(position, count);
+    }
+
+    @Override
+    public void onRemoved(int position, int count) {
+        invalidate(position);
+        callback.onRemoved(position, count);
+    }
+
+    @Override
+    public void onMoved(int fromPosition, int toPosition) {
+        invalidate(Math.min(fromPosition, toPosition));
+        callback.onMoved(fromPosition, toPosition);
+    }
+
+    @Override
+    public void onChanged(int position, int count) {
+        //The id may have been set after the comment was sent
+        int end = Math.min(position + count, indexedCount);
+        for (int i = position; i < end; i++) {
+            index(i);
+        }
+        callback.onChanged(position, count);
+    }
+
+    @Override
+    public boolean areContentsTheSame(E oldE, E newE) {
+        return callback.areContentsTheSame(oldE, newE);
+    }
+
+    @Override
+    public boolean areItemsTheSame(E oldE, E newE) {
+        return callback.areItemsTheSame(oldE, newE);
+    }
+}
@@ -28,6 +28,7 @@ import com.qiscus.sdk.Qiscus;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.ui.adapter.OnItemClickListener;
 import com.qiscus.sdk.ui.adapter.OnLongItemClickListener;
+import com.qiscus.sdk.ui.adapter.QiscusCommentPayload;
 import com.qiscus.sdk.ui.view.QiscusProgressView;
 
 /**
@@ -81,12 +82,32 @@ public abstract class QiscusBaseAudioMessageViewHolder extends QiscusBaseMessage
     @Override
     public void bind(QiscusComment qiscusComment) {
         super.bind(qiscusComment);
+        listen(qiscusComment);
+        setUpPlayButton(qiscusComment);
+        showProgressOrNot(qiscusComment);
+    }
+
+    @Override
+    protected boolean bindPayload(QiscusComment qiscusComment, QiscusCommentPayload payload) {
+        switch (payload) {
+            case STATE:
+                listen(qiscusComment);
+                return super.bindPayload(qiscusComment, payload);
+            case PROGRESS:
+                listen(qiscusComment);
+                showProgressOrNot(qiscusComment);
+                return true;
+            default:
+                return super.bindPayload(qiscusComment, payload);
+        }
+    }
+
+    //The comment may have been replaced by the one returned from server
+    private void listen(QiscusComment qiscusComment) {
         this.qiscusComment = qiscusComment;
         qiscusComment.setProgressListener(this);
         qiscusComment.setDownloadingListener(this);
         qiscusComment.setPlayingAudioListener(this);
-        setUpPlayButton(qiscusComment);
-        showProgressOrNot(qiscusComment);
     }
 
     protected void setUpPlayButton(QiscusComment qiscusComment) {
@@ -112,6 +133,10 @@ public abstract class QiscusBaseAudioMessageViewHolder extends QiscusBaseMessage
     @Override
     protected void showMessage(QiscusComment qiscusComment) {
         playButton.setOnClickListener(v -> playAudio(qiscusComment));
+        showAudioPosition(qiscusComment);
+    }
+
+    protected void showAudioPosition(QiscusComment qiscusComment) {
         seekBar.setMax(qiscusComment.getAudioDuration());
         seekBar.setProgress(qiscusComment.isPlayingAudio() ? qiscusComment.getCurrentAudioPosition() : 0);
         setTimeRemaining(qiscusComment.isPlayingAudio() ?
@@ -28,6 +28,7 @@ import com.qiscus.sdk.R;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.ui.adapter.OnItemClickListener;
 import com.qiscus.sdk.ui.adapter.OnLongItemClickListener;
+import com.qiscus.sdk.ui.adapter.QiscusCommentPayload;
 import com.qiscus.sdk.ui.view.QiscusProgressView;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
 
@@ -87,6 +88,25 @@ public abstract class QiscusBaseFileMessageViewHolder extends QiscusBaseMessageV
         showProgressOrNot(qiscusComment);
     }
 
+    @Override
+    protected boolean bindPayload(QiscusComment qiscusComment, QiscusCommentPayload payload) {
+        switch (payload) {
+            case STATE:
+                //The comment may have been replaced by the one returned from server
+                qiscusComment.setProgressListener(this);
+                qiscusComment.setDownloadingListener(this);
+                setUpDownloadIcon(qiscusComment);
+                return super.bindPayload(qiscusComment, payload);
+            case PROGRESS:
+                qiscusComment.setProgressListener(this);
+                qiscusComment.setDownloadingListener(this);
+                showProgressOrNot(qiscusComment);
+                return true;
+            default:
+                return super.bindPayload(qiscusComment, payload);
+        }
+    }
+
     protected void setUpDownloadIcon(QiscusComment qiscusComment) {
         if (downloadIconView != null) {
             if (qiscusComment.getState() == QiscusComment.STATE_FAILED || qiscusComment.getState() == QiscusComment.STATE_SENDING) {
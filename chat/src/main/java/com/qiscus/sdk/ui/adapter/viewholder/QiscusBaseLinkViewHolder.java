@@ -16,28 +16,19 @@
 
 package com.qiscus.sdk.ui.adapter.viewholder;
 
-import android.net.Uri;
 import android.support.annotation.NonNull;
-import android.support.customtabs.CustomTabsIntent;
-import android.support.v4.content.ContextCompat;
-import android.text.Spannable;
-import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.method.LinkMovementMethod;
 import android.text.method.MovementMethod;
-import android.text.style.ClickableSpan;
 import android.view.View;
 
-import com.qiscus.sdk.Qiscus;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.ui.adapter.OnItemClickListener;
 import com.qiscus.sdk.ui.adapter.OnLongItemClickListener;
 import com.qiscus.sdk.ui.view.QiscusLinkPreviewView;
-import com.qiscus.sdk.util.QiscusPatterns;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 import com.schinizer.rxunfurl.model.PreviewData;
 
-import java.util.regex.Matcher;
-
 /**
  * Created on : December 09, 2016
  * Author     : zetbaitsu
@@ -62,40 +53,38 @@ public abstract class QiscusBaseLinkViewHolder extends QiscusBaseTextMessageView
     @Override
     public void bind(QiscusComment qiscusComment) {
         super.bind(qiscusComment);
+        if (this.qiscusComment != null && this.qiscusComment != qiscusComment) {
+            this.qiscusComment.cancelLinkPreviewData();
+        }
         this.qiscusComment = qiscusComment;
         linkPreviewView.clearView();
         qiscusComment.setLinkPreviewListener(this);
         qiscusComment.loadLinkPreviewData();
     }
 
+    @Override
+    public void onRecycled() {
+        super.onRecycled();
+        if (qiscusComment != null) {
+            qiscusComment.cancelLinkPreviewData();
+            qiscusComment = null;
+        }
+    }
+
     @Override
     protected void showMessage(QiscusComment qiscusComment) {
         super.showMessage(qiscusComment);
         setUpLinks(qiscusComment);
     }
 
+    //The link spans are prepared by the render model
     private void setUpLinks(QiscusComment qiscusComment) {
-        String message = qiscusComment.getMessage();
-        Matcher matcher = QiscusPatterns.AUTOLINK_WEB_URL.matcher(message);
-        while (matcher.find()) {
-            int start = matcher.start();
-            if (start > 0 && message.charAt(start - 1) == '@') {
-                continue;
-            }
-            int end = matcher.end();
-            clickify(start, end, () -> {
-                String url = message.substring(start, end);
-                if (!url.startsWith("http")) {
-                    url = "http://" + url;
-                }
-                new CustomTabsIntent.Builder()
-                        .setToolbarColor(ContextCompat.getColor(Qiscus.getApps(), Qiscus.getChatConfig().getAppBarColor()))
-                        .setShowTitle(true)
-                        .addDefaultShareMenuItem()
-                        .enableUrlBarHiding()
-                        .build()
-                        .launchUrl(messageTextView.getContext(), Uri.parse(url));
-            });
+        if (!(QiscusCommentRenderer.render(qiscusComment).getMessage() instanceof Spanned)) {
+            return;
+        }
+        MovementMethod m = messageTextView.getMovementMethod();
+        if (m == null || !(m instanceof LinkMovementMethod)) {
+            messageTextView.setMovementMethod(LinkMovementMethod.getInstance());
         }
     }
 
@@ -112,45 +101,4 @@ public abstract class QiscusBaseLinkViewHolder extends QiscusBaseTextMessageView
             linkPreviewView.bind(previewData);
         }
     }
-
-    private static class ClickSpan extends ClickableSpan {
-        private OnClickListener listener;
-
-        public ClickSpan(OnClickListener listener) {
-            this.listener = listener;
-        }
-
-        @Override
-        public void onClick(View widget) {
-            if (listener != null) {
-                listener.onClick();
-            }
-        }
-
-        public interface OnClickListener {
-            void onClick();
-        }
-    }
-
-    private void clickify(int start, int end, ClickSpan.OnClickListener listener) {
-        CharSequence text = messageTextView.getText();
-        ClickSpan span = new ClickSpan(listener);
-
-        if (start == -1) {
-            return;
-        }
-
-        if (text instanceof Spannable) {
-            ((Spannable) text).setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        } else {
-            SpannableString s = SpannableString.valueOf(text);
-            s.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            messageTextView.setText(s);
-        }
-
-        MovementMethod m = messageTextView.getMovementMethod();
-        if (m == null || !(m instanceof LinkMovementMethod)) {
-            messageTextView.setMovementMethod(LinkMovementMethod.getInstance());
-        }
-    }
 }
@@ -33,6 +33,10 @@ import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.data.remote.QiscusGlide;
 import com.qiscus.sdk.ui.adapter.OnItemClickListener;
 import com.qiscus.sdk.ui.adapter.OnLongItemClickListener;
+import com.qiscus.sdk.ui.adapter.QiscusCommentPayload;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
+
+import java.util.List;
 
 /**
  * Created on : August 18, 2016
@@ -176,6 +180,40 @@ public abstract class QiscusBaseMessageViewHolder<E extends QiscusComment> exten
         onCommentSelected(qiscusComment);
     }
 
+    /**
+     * Rebind only the views affected by the payloads, any payload which can not be handled cause a full bind.
+     */
+    public void bind(E qiscusComment, List<Object> payloads) {
+        if (payloads.isEmpty()) {
+            bind(qiscusComment);
+            return;
+        }
+
+        for (Object payload : payloads) {
+            if (!(payload instanceof QiscusCommentPayload) || !bindPayload(qiscusComment, (QiscusCommentPayload) payload)) {
+                bind(qiscusComment);
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return false if the payload is not supported by this view holder
+     */
+    protected boolean bindPayload(E qiscusComment, QiscusCommentPayload payload) {
+        switch (payload) {
+            case STATE:
+                showTime(qiscusComment);
+                showIconReadOrNot(qiscusComment);
+                return true;
+            case SELECTION:
+                onCommentSelected(qiscusComment);
+                return true;
+            default:
+                return false;
+        }
+    }
+
     private void showSenderName(E qiscusComment) {
         if (senderNameView != null && !messageFromMe && groupChat) {
             if (needToShowFirstMessageBubbleIndicator) {
@@ -233,7 +271,7 @@ public abstract class QiscusBaseMessageViewHolder<E extends QiscusComment> exten
                 timeView.setText(R.string.qiscus_sending_failed);
                 timeView.setTextColor(failedToSendMessageColor);
             } else {
-                timeView.setText(Qiscus.getChatConfig().getTimeFormat().format(qiscusComment.getTime()));
+                timeView.setText(QiscusCommentRenderer.render(qiscusComment).getFormattedTime());
                 timeView.setTextColor(messageFromMe ? rightBubbleTimeColor : leftBubbleTimeColor);
             }
         }
@@ -269,7 +307,7 @@ public abstract class QiscusBaseMessageViewHolder<E extends QiscusComment> exten
     protected void showDateOrNot(QiscusComment qiscusComment) {
         if (dateView != null) {
             if (needToShowDate) {
-                dateView.setText(Qiscus.getChatConfig().getDateFormat().format(qiscusComment.getTime()));
+                dateView.setText(QiscusCommentRenderer.render(qiscusComment).getFormattedDate());
                 dateView.setVisibility(View.VISIBLE);
             } else {
                 dateView.setVisibility(View.GONE);
@@ -277,6 +315,13 @@ public abstract class QiscusBaseMessageViewHolder<E extends QiscusComment> exten
         }
     }
 
+    /**
+     * Called when the view is recycled, release here what was started by bind.
+     */
+    public void onRecycled() {
+
+    }
+
     protected void onCommentSelected(E qiscusComment) {
         itemView.setBackground(qiscusComment.isSelected() ? selectionBackground : null);
     }
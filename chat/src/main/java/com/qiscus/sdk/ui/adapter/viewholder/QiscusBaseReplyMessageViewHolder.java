@@ -16,17 +16,12 @@
 
 package com.qiscus.sdk.ui.adapter.viewholder;
 
-import android.net.Uri;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
-import android.support.customtabs.CustomTabsIntent;
 import android.support.v4.content.ContextCompat;
-import android.text.Spannable;
-import android.text.SpannableString;
 import android.text.Spanned;
 import android.text.method.LinkMovementMethod;
 import android.text.method.MovementMethod;
-import android.text.style.ClickableSpan;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.ImageView;
@@ -41,11 +36,10 @@ import com.qiscus.sdk.ui.adapter.OnItemClickListener;
 import com.qiscus.sdk.ui.adapter.OnLongItemClickListener;
 import com.qiscus.sdk.ui.adapter.ReplyItemClickListener;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 import com.qiscus.sdk.util.QiscusImageUtil;
-import com.qiscus.sdk.util.QiscusPatterns;
 
 import java.io.File;
-import java.util.regex.Matcher;
 
 
 /**
@@ -210,66 +204,11 @@ public abstract class QiscusBaseReplyMessageViewHolder extends QiscusBaseTextMes
         }
     }
 
+    //The link spans are prepared by the render model
     private void setUpLinks(QiscusComment qiscusComment) {
-        String message = qiscusComment.getMessage();
-        Matcher matcher = QiscusPatterns.AUTOLINK_WEB_URL.matcher(message);
-        while (matcher.find()) {
-            int start = matcher.start();
-            if (start > 0 && message.charAt(start - 1) == '@') {
-                continue;
-            }
-            int end = matcher.end();
-            clickify(start, end, () -> {
-                String url = message.substring(start, end);
-                if (!url.startsWith("http")) {
-                    url = "http://" + url;
-                }
-                new CustomTabsIntent.Builder()
-                        .setToolbarColor(ContextCompat.getColor(Qiscus.getApps(), Qiscus.getChatConfig().getAppBarColor()))
-                        .setShowTitle(true)
-                        .addDefaultShareMenuItem()
-                        .enableUrlBarHiding()
-                        .build()
-                        .launchUrl(messageTextView.getContext(), Uri.parse(url));
-            });
-        }
-    }
-
-    private static class ClickSpan extends ClickableSpan {
-        private ClickSpan.OnClickListener listener;
-
-        public ClickSpan(ClickSpan.OnClickListener listener) {
-            this.listener = listener;
-        }
-
-        @Override
-        public void onClick(View widget) {
-            if (listener != null) {
-                listener.onClick();
-            }
-        }
-
-        public interface OnClickListener {
-            void onClick();
-        }
-    }
-
-    private void clickify(int start, int end, ClickSpan.OnClickListener listener) {
-        CharSequence text = messageTextView.getText();
-        ClickSpan span = new ClickSpan(listener);
-
-        if (start == -1) {
+        if (!(QiscusCommentRenderer.render(qiscusComment).getMessage() instanceof Spanned)) {
             return;
         }
-
-        if (text instanceof Spannable) {
-            ((Spannable) text).setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-        } else {
-            SpannableString s = SpannableString.valueOf(text);
-            s.setSpan(span, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            messageTextView.setText(s);
-        }
-
         MovementMethod m = messageTextView.getMovementMethod();
         if (m == null || !(m instanceof LinkMovementMethod)) {
             messageTextView.setMovementMethod(LinkMovementMethod.getInstance());
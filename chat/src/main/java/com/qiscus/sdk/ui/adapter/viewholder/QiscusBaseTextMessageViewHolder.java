@@ -23,6 +23,7 @@ import android.widget.TextView;
 import com.qiscus.sdk.data.model.QiscusComment;
 import com.qiscus.sdk.ui.adapter.OnItemClickListener;
 import com.qiscus.sdk.ui.adapter.OnLongItemClickListener;
+import com.qiscus.sdk.util.QiscusCommentRenderer;
 
 /**
  * Created on : September 27, 2016
@@ -52,6 +53,6 @@ public abstract class QiscusBaseTextMessageViewHolder extends QiscusBaseMessageV
 
     @Override
     protected void showMessage(QiscusComment qiscusComment) {
-        messageTextView.setText(qiscusComment.getMessage());
+        messageTextView.setText(QiscusCommentRenderer.render(qiscusComment).getMessage());
     }
 }
@@ -62,6 +62,7 @@ import com.qiscus.sdk.ui.QiscusAccountLinkingActivity;
 import com.qiscus.sdk.ui.QiscusPhotoViewerActivity;
 import com.qiscus.sdk.ui.QiscusSendPhotoConfirmationActivity;
 import com.qiscus.sdk.ui.adapter.QiscusBaseChatAdapter;
+import com.qiscus.sdk.ui.adapter.QiscusCommentPayload;
 import com.qiscus.sdk.ui.view.QiscusAudioRecorderView;
 import com.qiscus.sdk.ui.view.QiscusChatButtonView;
 import com.qiscus.sdk.ui.view.QiscusChatScrollListener;
@@ -747,7 +748,7 @@ public abstract class QiscusBaseChatFragment<T extends QiscusBaseChatAdapter> ex
 
     protected void toggleSelectComment(QiscusComment qiscusComment) {
         qiscusComment.setSelected(!qiscusComment.isSelected());
-        refreshComment(qiscusComment);
+        chatAdapter.notifyCommentChanged(qiscusComment, QiscusCommentPayload.SELECTION);
         if (commentSelectedListener != null) {
             commentSelectedListener.onCommentSelected(chatAdapter.getSelectedComments());
         }
@@ -774,8 +775,9 @@ public abstract class QiscusBaseChatFragment<T extends QiscusBaseChatAdapter> ex
                 fieldMessageEmpty = false;
                 sendButton.startAnimation(animation);
                 sendButton.setImageResource(chatConfig.getSendButtonIcon());
-                QiscusPusherApi.getInstance().setUserTyping(qiscusChatRoom.getId(), qiscusChatRoom.getLastTopicId(), true);
             }
+            //Every keystroke keep the typing state alive, the pusher drop the repeated states
+            QiscusPusherApi.getInstance().setUserTyping(qiscusChatRoom.getId(), qiscusChatRoom.getLastTopicId(), true);
         }
     }
 
@@ -1011,7 +1013,7 @@ public abstract class QiscusBaseChatFragment<T extends QiscusBaseChatAdapter> ex
     }
 
     protected void scrollToComment(QiscusComment comment) {
-        int position = chatAdapter.getData().indexOf(comment);
+        int position = chatAdapter.findPosition(comment);
         if (position >= 0) {
             messageRecyclerView.scrollToPosition(position);
         } else {
@@ -30,12 +30,12 @@ import android.widget.TextView;
 import com.qiscus.sdk.Qiscus;
 import com.qiscus.sdk.R;
 import com.qiscus.sdk.data.remote.QiscusGlide;
-import com.qiscus.sdk.data.remote.QiscusUrlScraper;
+import com.qiscus.sdk.data.remote.QiscusLinkPreviewLoader;
 import com.qiscus.sdk.util.QiscusAndroidUtil;
 import com.schinizer.rxunfurl.model.PreviewData;
 
+import rx.Subscription;
 import rx.android.schedulers.AndroidSchedulers;
-import rx.schedulers.Schedulers;
 
 /**
  * Created on : December 09, 2016
@@ -49,6 +49,7 @@ public class QiscusLinkPreviewView extends LinearLayout {
     private TextView title;
     private TextView description;
     private PreviewData previewData;
+    private Subscription subscription;
 
     public QiscusLinkPreviewView(Context context) {
         super(context);
@@ -132,10 +133,10 @@ public class QiscusLinkPreviewView extends LinearLayout {
 
     public void load(String url) {
         setVisibility(GONE);
+        cancelLoad();
         if (previewData == null || !previewData.getUrl().equals(url)) {
-            QiscusUrlScraper.getInstance()
-                    .generatePreviewData(url)
-                    .subscribeOn(Schedulers.io())
+            subscription = QiscusLinkPreviewLoader.getInstance()
+                    .load(url)
                     .observeOn(AndroidSchedulers.mainThread())
                     .subscribe(previewData -> {
                         this.previewData = previewData;
@@ -146,7 +147,15 @@ public class QiscusLinkPreviewView extends LinearLayout {
         }
     }
 
+    private void cancelLoad() {
+        if (subscription != null) {
+            subscription.unsubscribe();
+            subscription = null;
+        }
+    }
+
     public void clearView() {
+        cancelLoad();
         previewData = null;
         bind(previewData);
     }
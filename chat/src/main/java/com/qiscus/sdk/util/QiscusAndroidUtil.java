@@ -28,11 +28,9 @@ import android.view.inputmethod.InputMethodManager;
 
 import com.qiscus.sdk.Qiscus;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.concurrent.ScheduledFuture;
-import java.util.regex.Matcher;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
@@ -92,25 +90,7 @@ public final class QiscusAndroidUtil {
     }
 
     public static List<String> extractUrl(String text) {
-        List<String> urls = new ArrayList<>();
-        Matcher matcher = QiscusPatterns.AUTOLINK_WEB_URL.matcher(text);
-        while (matcher.find()) {
-            int start = matcher.start();
-            if (start > 0 && text.charAt(start - 1) == '@') {
-                continue;
-            }
-            int end = matcher.end();
-            if (end < text.length() && text.charAt(end) == '@') {
-                continue;
-            }
-
-            String url = matcher.group();
-            if (!url.startsWith("http")) {
-                url = "http://" + url;
-            }
-            urls.add(url);
-        }
-        return urls;
+        return QiscusLinkScanner.extractUrls(text);
     }
 
     public static int getRandomColor() {
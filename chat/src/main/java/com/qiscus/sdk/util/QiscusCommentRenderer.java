@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.util;
+
+import android.net.Uri;
+import android.support.customtabs.CustomTabsIntent;
+import android.support.v4.content.ContextCompat;
+import android.text.SpannableString;
+import android.text.Spanned;
+import android.text.style.ClickableSpan;
+import android.view.View;
+
+import com.qiscus.sdk.Qiscus;
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.data.model.QiscusCommentRenderModel;
+
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Build the {@link QiscusCommentRenderModel} of comments. Call {@link #prepare(List)} off the main thread when
+ * comments are loaded, the model of a comment which has not been prepared is built when it is first bound.
+ */
+public final class QiscusCommentRenderer {
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000L;
+    private static final long TODAY_MAX_AGE = 60 * 1000L;
+
+    private static volatile Today cachedToday;
+
+    private QiscusCommentRenderer() {
+
+    }
+
+    public static void prepare(List<? extends QiscusComment> qiscusComments) {
+        for (QiscusComment qiscusComment : qiscusComments) {
+            render(qiscusComment);
+        }
+    }
+
+    public static QiscusCommentRenderModel render(QiscusComment qiscusComment) {
+        QiscusCommentRenderModel renderModel = qiscusComment.getRenderModel();
+        long today = today();
+        if (renderModel == null || renderModel.getRenderedDay() != today) {
+            renderModel = create(qiscusComment, today);
+            qiscusComment.setRenderModel(renderModel);
+        }
+        return renderModel;
+    }
+
+    /**
+     * @return number of days since epoch in the local time zone
+     */
+    public static long toDay(long timeMillis) {
+        return toDay(timeMillis, TimeZone.getDefault());
+    }
+
+    private static long toDay(long timeMillis, TimeZone timeZone) {
+        return (timeMillis + timeZone.getOffset(timeMillis)) / DAY_MILLIS;
+    }
+
+    //TimeZone.getDefault() returns a clone, so today is kept until midnight, a time zone change is seen within a minute
+    private static long today() {
+        long now = System.currentTimeMillis();
+        Today today = cachedToday;
+        if (today == null || now < today.startMillis || now >= today.endMillis) {
+            TimeZone timeZone = TimeZone.getDefault();
+            long day = toDay(now, timeZone);
+            long midnight = (day + 1) * DAY_MILLIS - timeZone.getOffset(now);
+            today = new Today(day, now, Math.min(midnight, now + TODAY_MAX_AGE));
+            cachedToday = today;
+        }
+        return today.day;
+    }
+
+    private static QiscusCommentRenderModel create(QiscusComment qiscusComment, long today) {
+        QiscusComment.Type type = qiscusComment.getType();
+        String message = qiscusComment.getMessage();
+        long timeMillis = qiscusComment.getTimeMillis();
+        return new QiscusCommentRenderModel(type, toDay(timeMillis), today, timeMillis,
+                type == QiscusComment.Type.LINK || type == QiscusComment.Type.REPLY ? linkify(message) : message);
+    }
+
+    private static CharSequence linkify(String message) {
+        SpannableString spannable = new SpannableString(message);
+        QiscusLinkScanner.findUrls(message, (start, end) -> {
+            if (start > 0 && message.charAt(start - 1) == '@') {
+                return;
+            }
+            spannable.setSpan(new UrlSpan(message.substring(start, end)), start, end,
+                    Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
+        });
+        return spannable.getSpans(0, spannable.length(), UrlSpan.class).length > 0 ? spannable : message;
+    }
+
+    private static class UrlSpan extends ClickableSpan {
+        private final String url;
+
+        private UrlSpan(String url) {
+            this.url = url.startsWith("http") ? url : "http://" + url;
+        }
+
+        @Override
+        public void onClick(View widget) {
+            new CustomTabsIntent.Builder()
+                    .setToolbarColor(ContextCompat.getColor(Qiscus.getApps(), Qiscus.getChatConfig().getAppBarColor()))
+                    .setShowTitle(true)
+                    .addDefaultShareMenuItem()
+                    .enableUrlBarHiding()
+                    .build()
+                    .launchUrl(widget.getContext(), Uri.parse(url));
+        }
+    }
+
+    private static class Today {
+        private final long day;
+        private final long startMillis;
+        private final long endMillis;
+
+        private Today(long day, long startMillis, long endMillis) {
+            this.day = day;
+            this.startMillis = startMillis;
+            this.endMillis = endMillis;
+        }
+    }
+}
@@ -39,13 +39,14 @@ public final class QiscusDateUtil {
 
     }
 
-    public static String toTodayOrDate(Date date) {
+    //Synchronized, the formats are shared and comments are rendered off the main thread too
+    public static synchronized String toTodayOrDate(Date date) {
         String currentDateInString = fullDateFormat.format(new Date());
         String dateInString = fullDateFormat.format(date);
         return currentDateInString.equals(dateInString) ? QiscusAndroidUtil.getString(R.string.qiscus_today) : dateInString;
     }
 
-    public static String toHour(Date date) {
+    public static synchronized String toHour(Date date) {
         return hourDateFormat.format(date);
     }
 
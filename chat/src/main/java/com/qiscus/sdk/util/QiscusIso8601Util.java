@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.util;
+
+/**
+ * Parse and format the UTC timestamps used by qiscus API and realtime payloads, e.g 2017-02-02T10:15:30Z.
+ * Unlike SimpleDateFormat it is safe to be used from any thread and does not create Calendar or Date objects.
+ */
+public final class QiscusIso8601Util {
+    private static final long MILLIS_PER_SECOND = 1000L;
+    private static final long MILLIS_PER_MINUTE = 60 * MILLIS_PER_SECOND;
+    private static final long MILLIS_PER_HOUR = 60 * MILLIS_PER_MINUTE;
+    private static final long MILLIS_PER_DAY = 24 * MILLIS_PER_HOUR;
+
+    private QiscusIso8601Util() {
+
+    }
+
+    /**
+     * Parse yyyy-MM-ddTHH:mm:ss with optional fraction of second and Z, +hh:mm or -hh:mm offset, without offset the
+     * time is read as UTC.
+     *
+     * @param timestamp the timestamp
+     * @return epoch millis of the timestamp
+     * @throws IllegalArgumentException if the timestamp is not valid
+     */
+    public static long parse(String timestamp) {
+        if (timestamp == null || timestamp.length() < 19) {
+            throw invalid(timestamp);
+        }
+
+        int year = parseInt(timestamp, 0, 4);
+        expect(timestamp, 4, '-');
+        int month = parseInt(timestamp, 5, 7);
+        expect(timestamp, 7, '-');
+        int day = parseInt(timestamp, 8, 10);
+        char separator = timestamp.charAt(10);
+        if (separator != 'T' && separator != 't' && separator != ' ') {
+            throw invalid(timestamp);
+        }
+        int hour = parseInt(timestamp, 11, 13);
+        expect(timestamp, 13, ':');
+        int minute = parseInt(timestamp, 14, 16);
+        expect(timestamp, 16, ':');
+        int second = parseInt(timestamp, 17, 19);
+
+        if (month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            throw invalid(timestamp);
+        }
+
+        int position = 19;
+        int millis = 0;
+        if (position < timestamp.length() && timestamp.charAt(position) == '.') {
+            position++;
+            int start = position;
+            int scale = 100;
+            while (position < timestamp.length() && isDigit(timestamp.charAt(position))) {
+                millis += (timestamp.charAt(position) - '0') * scale;
+                scale /= 10;
+                position++;
+            }
+            if (position == start) {
+                throw invalid(timestamp);
+            }
+        }
+
+        long offset = 0;
+        if (position < timestamp.length()) {
+            char sign = timestamp.charAt(position);
+            if ((sign == 'Z' || sign == 'z') && position + 1 == timestamp.length()) {
+                offset = 0;
+            } else if (sign == '+' || sign == '-') {
+                int offsetHour = parseInt(timestamp, position + 1, position + 3);
+                position += 3;
+                if (position < timestamp.length() && timestamp.charAt(position) == ':') {
+                    position++;
+                }
+                int offsetMinute = parseInt(timestamp, position, position + 2);
+                if (position + 2 != timestamp.length()) {
+                    throw invalid(timestamp);
+                }
+                offset = offsetHour * MILLIS_PER_HOUR + offsetMinute * MILLIS_PER_MINUTE;
+                if (sign == '-') {
+                    offset = -offset;
+                }
+            } else {
+                throw invalid(timestamp);
+            }
+        }
+
+        return daysFromEpoch(year, month, day) * MILLIS_PER_DAY + hour * MILLIS_PER_HOUR
+                + minute * MILLIS_PER_MINUTE + second * MILLIS_PER_SECOND + millis - offset;
+    }
+
+    /**
+     * Format epoch millis as yyyy-MM-ddTHH:mm:ssZ in UTC, the format sent by qiscus server.
+     */
+    public static String format(long epochMillis) {
+        long days = floorDiv(epochMillis, MILLIS_PER_DAY);
+        long millisOfDay = epochMillis - days * MILLIS_PER_DAY;
+
+        //Civil from days, see http://howardhinnant.github.io/date_algorithms.html
+        long z = days + 719468;
+        long era = floorDiv(z, 146097);
+        long dayOfEra = z - era * 146097;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long monthIndex = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * monthIndex + 2) / 5 + 1);
+        int month = (int) (monthIndex < 10 ? monthIndex + 3 : monthIndex - 9);
+        int year = (int) (yearOfEra + era * 400 + (month <= 2 ? 1 : 0));
+
+        char[] chars = new char[20];
+        write(chars, 0, year, 4);
+        chars[4] = '-';
+        write(chars, 5, month, 2);
+        chars[7] = '-';
+        write(chars, 8, day, 2);
+        chars[10] = 'T';
+        write(chars, 11, (int) (millisOfDay / MILLIS_PER_HOUR), 2);
+        chars[13] = ':';
+        write(chars, 14, (int) (millisOfDay / MILLIS_PER_MINUTE % 60), 2);
+        chars[16] = ':';
+        write(chars, 17, (int) (millisOfDay / MILLIS_PER_SECOND % 60), 2);
+        chars[19] = 'Z';
+        return new String(chars);
+    }
+
+    //Days from civil, see http://howardhinnant.github.io/date_algorithms.html
+    private static long daysFromEpoch(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = floorDiv(y, 400);
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    //Math.floorDiv() is not available before API 24
+    private static long floorDiv(long x, long y) {
+        long result = x / y;
+        if ((x % y != 0) && ((x < 0) != (y < 0))) {
+            result--;
+        }
+        return result;
+    }
+
+    private static int daysInMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return (year % 4 == 0 && year % 100 != 0) || year % 400 == 0 ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    private static int parseInt(String value, int start, int end) {
+        if (end > value.length()) {
+            throw invalid(value);
+        }
+        int result = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (!isDigit(c)) {
+                throw invalid(value);
+            }
+            result = result * 10 + (c - '0');
+        }
+        return result;
+    }
+
+    private static void expect(String value, int position, char expected) {
+        if (value.charAt(position) != expected) {
+            throw invalid(value);
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static void write(char[] chars, int start, int value, int digits) {
+        for (int i = start + digits - 1; i >= start; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    private static IllegalArgumentException invalid(String timestamp) {
+        return new IllegalArgumentException("Invalid ISO 8601 timestamp " + timestamp);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.qiscus.sdk.util;
+
+import android.support.annotation.RestrictTo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Find the matches of {@link QiscusPatterns#AUTOLINK_WEB_URL} and {@link QiscusPatterns#AUTOLINK_EMAIL_ADDRESS}
+ * without running those big patterns over the whole text.
+ * <p>
+ * A match never contain a whitespace, so the text is split into whitespace separated tokens in one pass, and the
+ * pattern only run on the tokens having what every match need: "://" or a dot followed by a TLD or IP address
+ * character for urls, an @ for emails. The matcher use transparent bounds, so word boundaries and look arounds
+ * still see the whole text and the matches are the same as matching the whole text.
+ */
+@RestrictTo(RestrictTo.Scope.LIBRARY)
+public final class QiscusLinkScanner {
+
+    private QiscusLinkScanner() {
+
+    }
+
+    public static void findUrls(String text, MatchListener listener) {
+        find(text, QiscusPatterns.AUTOLINK_WEB_URL, true, listener);
+    }
+
+    public static void findEmails(String text, MatchListener listener) {
+        find(text, QiscusPatterns.AUTOLINK_EMAIL_ADDRESS, false, listener);
+    }
+
+    /**
+     * Same as {@link QiscusAndroidUtil#extractUrl(String)}.
+     */
+    public static List<String> extractUrls(String text) {
+        List<String> urls = new ArrayList<>();
+        findUrls(text, (start, end) -> {
+            if (start > 0 && text.charAt(start - 1) == '@') {
+                return;
+            }
+            if (end < text.length() && text.charAt(end) == '@') {
+                return;
+            }
+
+            String url = text.substring(start, end);
+            if (!url.startsWith("http")) {
+                url = "http://" + url;
+            }
+            urls.add(url);
+        });
+        return urls;
+    }
+
+    private static void find(String text, Pattern pattern, boolean url, MatchListener listener) {
+        Matcher matcher = null;
+        int length = text.length();
+        int start = 0;
+        while (start < length) {
+            while (start < length && isSeparator(text, start, url)) {
+                start++;
+            }
+
+            int end = start;
+            boolean candidate = false;
+            while (end < length && !isSeparator(text, end, url)) {
+                if (!candidate) {
+                    candidate = url ? isUrlCandidate(text, end) : text.charAt(end) == '@';
+                }
+                end++;
+            }
+
+            if (candidate) {
+                if (matcher == null) {
+                    matcher = pattern.matcher(text)
+                            .useTransparentBounds(true)
+                            .useAnchoringBounds(false);
+                }
+                matcher.region(start, end);
+                while (matcher.find()) {
+                    listener.onMatch(matcher.start(), matcher.end());
+                }
+            }
+            start = end;
+        }
+    }
+
+    private static boolean isSeparator(String text, int index, boolean url) {
+        char c = text.charAt(index);
+        if (c > ' ') {
+            return false;
+        }
+        //The "co.id" TLD of the url pattern has an unescaped dot, so "co id" is matched too
+        return !url || c == '\n' || c == '\r' || !text.startsWith("co", index - 2) || !text.startsWith("id", index + 1);
+    }
+
+    private static boolean isUrlCandidate(String text, int index) {
+        char c = text.charAt(index);
+        if (c == '.') {
+            if (index + 1 < text.length()) {
+                char next = text.charAt(index + 1);
+                return (next >= 'a' && next <= 'z') || (next >= '0' && next <= '9');
+            }
+        } else if (c == ':') {
+            return text.startsWith("//", index + 1);
+        }
+        return false;
+    }
+
+    public interface MatchListener {
+        void onMatch(int start, int end);
+    }
+}
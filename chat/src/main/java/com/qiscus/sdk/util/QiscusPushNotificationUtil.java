@@ -65,6 +65,14 @@ public final class QiscusPushNotificationUtil {
         QiscusAndroidUtil.runOnBackgroundThread(() -> handlePN(context, qiscusComment));
     }
 
+    /**
+     * Same as {@link #handlePushNotification(Context, QiscusComment)} but run on the calling thread, which must not
+     * be the main thread.
+     */
+    public static void handlePushNotificationNow(Context context, QiscusComment qiscusComment) {
+        handlePN(context, qiscusComment);
+    }
+
     private static void handlePN(Context context, QiscusComment qiscusComment) {
         if ("sync".equals(qiscusComment.getRoomName())) {
             QiscusChatRoom chatRoom = Qiscus.getDataStore().getChatRoom(qiscusComment.getRoomId());
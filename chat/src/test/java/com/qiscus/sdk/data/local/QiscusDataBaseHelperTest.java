@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteStatement;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.data.model.QiscusRoomMember;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QiscusDataBaseHelperTest {
+    private QiscusDataBaseHelper helper;
+
+    @Before
+    public void setUp() {
+        helper = new QiscusDataBaseHelper(RuntimeEnvironment.application);
+    }
+
+    @Test
+    public void upsertPendingThenSent() {
+        QiscusComment pendingComment = createComment(-1, "unique-1", "hello");
+        pendingComment.setState(QiscusComment.STATE_SENDING);
+        helper.addOrUpdateComments(Collections.singletonList(pendingComment));
+        long rowId = getRowId("unique-1");
+
+        QiscusComment sentComment = createComment(5, "unique-1", "hello");
+        sentComment.setState(QiscusComment.STATE_ON_QISCUS);
+        helper.addOrUpdateComments(Collections.singletonList(sentComment));
+
+        assertEquals(1, countComments());
+        assertEquals(rowId, getRowId("unique-1"));
+        assertEquals(QiscusComment.STATE_ON_QISCUS, helper.getComment(5, "unique-1").getState());
+    }
+
+    @Test
+    public void upsertMatchById() {
+        helper.addOrUpdateComments(Collections.singletonList(createComment(7, "unique-7", "hello")));
+
+        //Same comment pushed again without its temporary unique id
+        helper.addOrUpdateComments(Collections.singletonList(createComment(7, "7", "edited")));
+
+        assertEquals(1, countComments());
+        assertEquals("edited", helper.getComment(7, "7").getMessage());
+    }
+
+    @Test
+    public void upsertNullUniqueId() {
+        helper.addOrUpdateComments(Collections.singletonList(createComment(9, null, "hello")));
+        helper.addOrUpdateComments(Collections.singletonList(createComment(9, null, "hello")));
+        assertEquals(1, countComments());
+
+        //Nothing could find a pending comment without unique id again, it is not stored
+        helper.addOrUpdateComments(Collections.singletonList(createComment(-1, null, "hello")));
+        assertEquals(1, countComments());
+    }
+
+    @Test
+    public void upsertKeepPendingCommentsApart() {
+        helper.addOrUpdateComments(Arrays.asList(createComment(-1, "unique-1", "first"),
+                createComment(-1, "unique-2", "second")));
+        helper.addOrUpdateComments(Arrays.asList(createComment(-1, "unique-1", "first"),
+                createComment(-1, "unique-2", "second")));
+
+        assertEquals(2, countComments());
+    }
+
+    @Test
+    public void upsertKeepRowIdAndSearchIndex() {
+        helper.addOrUpdateComments(Arrays.asList(createComment(1, "unique-1", "hello"),
+                createComment(2, "unique-2", "world")));
+        long rowId = getRowId("unique-1");
+
+        //A synced page is saved again and again, it must not churn the rowid nor the search index
+        for (int i = 0; i < 3; i++) {
+            helper.addOrUpdateComments(Arrays.asList(createComment(1, "unique-1", "hello"),
+                    createComment(2, "unique-2", "world")));
+        }
+
+        assertEquals(rowId, getRowId("unique-1"));
+        assertEquals(2, countComments());
+        assertEquals(2, DatabaseUtils.queryNumEntries(helper.sqLiteDatabase, QiscusDb.CommentSearchTable.TABLE_NAME));
+        assertEquals(1, DatabaseUtils.longForQuery(helper.sqLiteDatabase, "SELECT COUNT(*) FROM "
+                + QiscusDb.CommentSearchTable.TABLE_NAME + " WHERE "
+                + QiscusDb.CommentSearchTable.TABLE_NAME + " MATCH 'world'", null));
+    }
+
+    @Test
+    public void getCommentStates() {
+        QiscusComment readComment = createComment(1, "unique-1", "hello");
+        readComment.setState(QiscusComment.STATE_READ);
+        helper.addOrUpdateComments(Arrays.asList(readComment, createComment(2, "unique-2", "world")));
+
+        Map<Integer, Integer> states = helper.getCommentStates(Arrays.asList(1, 2, 3));
+
+        assertEquals(2, states.size());
+        assertEquals(QiscusComment.STATE_READ, (int) states.get(1));
+        assertEquals(QiscusComment.STATE_ON_QISCUS, (int) states.get(2));
+    }
+
+    @Test
+    public void countQueriesPerPage() {
+        List<QiscusRoomMember> members = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            QiscusRoomMember qiscusRoomMember = new QiscusRoomMember();
+            qiscusRoomMember.setEmail("sender" + i + "@qiscus.com");
+            qiscusRoomMember.setUsername("Sender " + i);
+            qiscusRoomMember.setAvatar("https://qiscus.com/avatar/" + i);
+            members.add(qiscusRoomMember);
+        }
+        helper.addOrUpdateMembers(members);
+        List<QiscusComment> comments = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            QiscusComment qiscusComment = createComment(i + 1, "unique-" + i, "message " + i);
+            qiscusComment.setSenderEmail("sender" + i % 10 + "@qiscus.com");
+            comments.add(qiscusComment);
+        }
+        helper.addOrUpdateComments(comments);
+
+        CountingDataStore countingDataStore = new CountingDataStore(helper);
+        QiscusCommentPage page = countingDataStore.getDataStore().getCommentPage(1, null, 40);
+        assertEquals(40, page.getComments().size());
+        assertEquals("Sender 3", page.getComments().get(6).getSender());
+        assertEquals(1, countingDataStore.getCallCount());
+        //The page and one lookup of its 10 senders, not one per comment
+        assertEquals(2, countingDataStore.getStatementCount());
+
+        countingDataStore.getDataStore().getCommentPage(1, page.getNextPageToken(), 40);
+        countingDataStore.getDataStore().getCommentPage(1, null, 40);
+        //The senders are now read from the member cache
+        assertEquals(3, countingDataStore.getCallCount());
+        assertEquals(4, countingDataStore.getStatementCount());
+    }
+
+    @Test
+    public void benchmarkCommentIndexes() {
+        QiscusComment olderThan = createComment(0, "older-than", "hello");
+        QiscusComment missingComment = createComment(-1, "missing", "hello");
+        int topicId = 50;
+        int rows = 0;
+        for (int size : new int[]{10000, 100000, 1000000}) {
+            dropCommentIndexes();
+            insertComments(rows, size);
+            rows = size;
+            olderThan.setTimeMillis(1000L + rows / 2);
+
+            long[] before = new long[4];
+            long[] after = new long[4];
+            for (int round = 0; round < 2; round++) {
+                long[] times = round == 0 ? before : after;
+                if (round == 1) {
+                    createCommentIndexes();
+                }
+                for (int i = 0; i < 3; i++) {
+                    //Only keep the last, the first ones warm up the page cache
+                    long start = System.nanoTime();
+                    helper.getComments(topicId, 20);
+                    times[0] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    helper.getOlderCommentsThan(olderThan, topicId, 20);
+                    times[1] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    helper.isContains(missingComment);
+                    times[2] = System.nanoTime() - start;
+
+                    start = System.nanoTime();
+                    helper.getLatestDeliveredComment(topicId);
+                    times[3] = System.nanoTime() - start;
+                }
+            }
+
+            System.out.println(rows + " comments, before / after indexes (us): getComments "
+                    + before[0] / 1000 + " / " + after[0] / 1000 + ", getOlderCommentsThan "
+                    + before[1] / 1000 + " / " + after[1] / 1000 + ", isContains "
+                    + before[2] / 1000 + " / " + after[2] / 1000 + ", getLatestDeliveredComment "
+                    + before[3] / 1000 + " / " + after[3] / 1000);
+        }
+    }
+
+    //Rows are written straight to the table, the upsert of addOrUpdateComments is not what is measured
+    private void insertComments(int from, int to) {
+        SQLiteStatement statement = helper.sqLiteDatabase.compileStatement(QiscusDb.CommentTable.INSERT);
+        helper.sqLiteDatabase.beginTransaction();
+        try {
+            for (int i = from; i < to; i++) {
+                QiscusComment qiscusComment = createComment(i + 1, "unique-" + i, "message " + i);
+                qiscusComment.setTopicId(i % 100);
+                qiscusComment.setRoomId(i % 100);
+                QiscusDb.CommentTable.bindStatement(statement, qiscusComment);
+                statement.executeInsert();
+            }
+            helper.sqLiteDatabase.setTransactionSuccessful();
+        } finally {
+            helper.sqLiteDatabase.endTransaction();
+            statement.close();
+        }
+    }
+
+    private void dropCommentIndexes() {
+        Cursor cursor = helper.sqLiteDatabase.rawQuery("SELECT name FROM sqlite_master WHERE type = 'index' "
+                + "AND tbl_name = ? AND sql IS NOT NULL", new String[]{QiscusDb.CommentTable.TABLE_NAME});
+        List<String> indexes = new ArrayList<>();
+        while (cursor.moveToNext()) {
+            indexes.add(cursor.getString(0));
+        }
+        cursor.close();
+        for (String index : indexes) {
+            helper.sqLiteDatabase.execSQL("DROP INDEX " + index);
+        }
+    }
+
+    private void createCommentIndexes() {
+        helper.sqLiteDatabase.execSQL(QiscusDb.CommentTable.CREATE_INDEX_TOPIC_KEYSET);
+        helper.sqLiteDatabase.execSQL(QiscusDb.CommentTable.CREATE_INDEX_TOPIC_ID);
+        helper.sqLiteDatabase.execSQL(QiscusDb.CommentTable.CREATE_INDEX_ID);
+        helper.sqLiteDatabase.execSQL(QiscusDb.CommentTable.CREATE_INDEX_ROOM_TIME);
+        helper.sqLiteDatabase.execSQL(QiscusDb.CommentTable.CREATE_INDEX_UNIQUE_ID);
+    }
+
+    /**
+     * Data store decorator counting the calls made through it, and the statements the helper run for them.
+     */
+    private static class CountingDataStore implements InvocationHandler {
+        private final QiscusDataStore dataStore;
+        private final QiscusDataStore proxy;
+        private final Thread callerThread;
+        private int callCount;
+        private int statementCount;
+
+        private CountingDataStore(QiscusDataBaseHelper helper) {
+            dataStore = helper;
+            proxy = (QiscusDataStore) Proxy.newProxyInstance(QiscusDataStore.class.getClassLoader(),
+                    new Class[]{QiscusDataStore.class}, this);
+            callerThread = Thread.currentThread();
+            //Only the reads, writes and the search backfill run on the writer thread
+            helper.setStatementTimingListener((sql, durationNanos) -> {
+                if (Thread.currentThread() == callerThread) {
+                    statementCount++;
+                }
+            });
+        }
+
+        private QiscusDataStore getDataStore() {
+            return proxy;
+        }
+
+        private int getCallCount() {
+            return callCount;
+        }
+
+        private int getStatementCount() {
+            return statementCount;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            callCount++;
+            try {
+                return method.invoke(dataStore, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private long countComments() {
+        return DatabaseUtils.queryNumEntries(helper.sqLiteDatabase, QiscusDb.CommentTable.TABLE_NAME);
+    }
+
+    private long getRowId(String uniqueId) {
+        return DatabaseUtils.longForQuery(helper.sqLiteDatabase, "SELECT rowid FROM "
+                + QiscusDb.CommentTable.TABLE_NAME + " WHERE "
+                + QiscusDb.CommentTable.COLUMN_UNIQUE_ID + " = ?", new String[]{uniqueId});
+    }
+
+    private static QiscusComment createComment(int id, String uniqueId, String message) {
+        QiscusComment qiscusComment = new QiscusComment();
+        qiscusComment.setId(id);
+        qiscusComment.setRoomId(1);
+        qiscusComment.setTopicId(1);
+        qiscusComment.setUniqueId(uniqueId);
+        qiscusComment.setMessage(message);
+        qiscusComment.setSender("Sender");
+        qiscusComment.setSenderEmail("sender@qiscus.com");
+        qiscusComment.setTimeMillis(1000L + id);
+        qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
+        return qiscusComment;
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QiscusDbTest {
+    private static final String[] COMMENT_COLUMNS = {
+            QiscusDb.CommentTable.COLUMN_ID, QiscusDb.CommentTable.COLUMN_ROOM_ID,
+            QiscusDb.CommentTable.COLUMN_TOPIC_ID, QiscusDb.CommentTable.COLUMN_UNIQUE_ID,
+            QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID, QiscusDb.CommentTable.COLUMN_MESSAGE,
+            QiscusDb.CommentTable.COLUMN_SENDER, QiscusDb.CommentTable.COLUMN_SENDER_EMAIL,
+            QiscusDb.CommentTable.COLUMN_SENDER_AVATAR, QiscusDb.CommentTable.COLUMN_TIME,
+            QiscusDb.CommentTable.COLUMN_STATE, QiscusDb.CommentTable.COLUMN_TYPE,
+            QiscusDb.CommentTable.COLUMN_PAYLOAD
+    };
+
+    @Test
+    public void mapCommentRow() {
+        Cursor cursor = createCommentCursor(3);
+        QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
+        while (cursor.moveToNext()) {
+            QiscusComment expected = parseByColumnName(cursor);
+            QiscusComment actual = rowMapper.map(cursor);
+            assertEquals(expected.getId(), actual.getId());
+            assertEquals(expected.getRoomId(), actual.getRoomId());
+            assertEquals(expected.getTopicId(), actual.getTopicId());
+            assertEquals(expected.getUniqueId(), actual.getUniqueId());
+            assertEquals(expected.getCommentBeforeId(), actual.getCommentBeforeId());
+            assertEquals(expected.getMessage(), actual.getMessage());
+            assertEquals(expected.getSender(), actual.getSender());
+            assertEquals(expected.getSenderEmail(), actual.getSenderEmail());
+            assertEquals(expected.getSenderAvatar(), actual.getSenderAvatar());
+            assertEquals(expected.getTime(), actual.getTime());
+            assertEquals(expected.getState(), actual.getState());
+            assertEquals(expected.getRawType(), actual.getRawType());
+            assertEquals(expected.getExtraPayload(), actual.getExtraPayload());
+        }
+        cursor.close();
+    }
+
+    @Test
+    public void benchmark() {
+        int rows = 10000;
+        Cursor cursor = createCommentCursor(rows);
+        long checksum = 0;
+        for (int round = 0; round < 10; round++) {
+            //The previous parser, looking up every column by name on every row
+            long start = System.nanoTime();
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                checksum += parseByColumnName(cursor).getTime().getTime();
+            }
+            long columnNameTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            cursor.moveToPosition(-1);
+            QiscusDb.RowMapper<QiscusComment> rowMapper = QiscusDb.CommentTable.rowMapper(cursor);
+            while (cursor.moveToNext()) {
+                checksum += rowMapper.map(cursor).getTimeMillis();
+            }
+            long rowMapperTime = System.nanoTime() - start;
+
+            //The first rounds are only a warm up
+            if (round >= 7) {
+                System.out.println("Parse " + rows + " comments, getColumnIndexOrThrow per row: "
+                        + rows * 1000000000L / columnNameTime + " comments/s, RowMapper: "
+                        + rows * 1000000000L / rowMapperTime + " comments/s (" + checksum % 10 + ")");
+            }
+        }
+        cursor.close();
+    }
+
+    //Same as CommentTable.parseCursor() before it used a RowMapper
+    private static QiscusComment parseByColumnName(Cursor cursor) {
+        QiscusComment qiscusComment = new QiscusComment();
+        qiscusComment.setId(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_ID)));
+        qiscusComment.setRoomId(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_ROOM_ID)));
+        qiscusComment.setTopicId(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_TOPIC_ID)));
+        qiscusComment.setUniqueId(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_UNIQUE_ID)));
+        qiscusComment.setCommentBeforeId(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_COMMENT_BEFORE_ID)));
+        qiscusComment.setMessage(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_MESSAGE)));
+        qiscusComment.setSender(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_SENDER)));
+        qiscusComment.setSenderEmail(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_SENDER_EMAIL)));
+        qiscusComment.setSenderAvatar(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_SENDER_AVATAR)));
+        qiscusComment.setTime(new Date(cursor.getLong(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_TIME))));
+        qiscusComment.setState(cursor.getInt(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_STATE)));
+        qiscusComment.setRawType(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_TYPE)));
+        qiscusComment.setExtraPayload(cursor.getString(cursor.getColumnIndexOrThrow(QiscusDb.CommentTable.COLUMN_PAYLOAD)));
+        return qiscusComment;
+    }
+
+    //In memory rows, so only the mapping is measured and not the database
+    private static Cursor createCommentCursor(int rows) {
+        MatrixCursor cursor = new MatrixCursor(COMMENT_COLUMNS, rows);
+        for (int i = 0; i < rows; i++) {
+            cursor.addRow(new Object[]{i + 1, i % 100, i % 100, "unique-" + i, i, "message " + i, "Sender " + i % 10,
+                    "sender" + i % 10 + "@qiscus.com", "https://qiscus.com/avatar/" + i % 10, 1500000000000L + i,
+                    QiscusComment.STATE_ON_QISCUS, "text", null});
+        }
+        return cursor;
+    }
+}
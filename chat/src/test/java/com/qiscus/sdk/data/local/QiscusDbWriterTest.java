@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.local;
+
+import android.database.DatabaseUtils;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+import com.qiscus.sdk.util.QiscusLatencyHistogram;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QiscusDbWriterTest {
+    private static final int WRITER_THREADS = 4;
+    private static final int READER_THREADS = 2;
+    //A read slower than a frame is a visible stall while scrolling
+    private static final long STALL_NANOS = TimeUnit.MILLISECONDS.toNanos(16);
+
+    private QiscusDataBaseHelper helper;
+    private AtomicInteger lastId;
+
+    @Before
+    public void setUp() {
+        helper = new QiscusDataBaseHelper(RuntimeEnvironment.application);
+        lastId = new AtomicInteger();
+    }
+
+    @Test
+    public void concurrentWrites() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(WRITER_THREADS);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < WRITER_THREADS; i++) {
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < 50; j++) {
+                    helper.add(createComment(1));
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertEquals(WRITER_THREADS * 50,
+                DatabaseUtils.queryNumEntries(helper.sqLiteDatabase, QiscusDb.CommentTable.TABLE_NAME));
+    }
+
+    @Test
+    public void stress() throws Exception {
+        for (int round = 0; round < 2; round++) {
+            //Incoming messages written from their own threads like before the writer, then through the writer
+            Stress direct = runStress(1, this::addDirectly);
+            Stress writer = runStress(2, helper::addOrUpdate);
+            if (round == 1) {
+                System.out.println("Caller thread writes: " + direct);
+                System.out.println("Single writer: " + writer);
+            }
+        }
+    }
+
+    private Stress runStress(int topicId, CommentWriter commentWriter) throws Exception {
+        List<QiscusComment> history = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            history.add(createComment(topicId));
+        }
+        helper.addOrUpdateComments(history);
+
+        Stress stress = new Stress();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(WRITER_THREADS + READER_THREADS);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < READER_THREADS; i++) {
+            //Scroll the room up page by page, and start again from the bottom once at the top
+            readers.add(executor.submit(() -> {
+                String pageToken = null;
+                while (writing.get()) {
+                    long start = System.nanoTime();
+                    QiscusCommentPage page = helper.getCommentPage(topicId, pageToken, 40);
+                    long duration = System.nanoTime() - start;
+                    stress.readLatency.record(duration);
+                    if (duration > STALL_NANOS) {
+                        stress.readerStalls.incrementAndGet();
+                    }
+                    pageToken = page.hasMore() ? page.getNextPageToken() : null;
+                }
+            }));
+        }
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int i = 0; i < WRITER_THREADS; i++) {
+            writers.add(executor.submit(() -> {
+                for (int j = 0; j < 250; j++) {
+                    QiscusComment qiscusComment = createComment(topicId);
+                    long start = System.nanoTime();
+                    commentWriter.write(qiscusComment);
+                    stress.writeLatency.record(System.nanoTime() - start);
+                }
+            }));
+        }
+        for (Future<?> future : writers) {
+            future.get();
+        }
+        writing.set(false);
+        for (Future<?> future : readers) {
+            future.get();
+        }
+        executor.shutdown();
+        return stress;
+    }
+
+    //What add() did before the writer, a transaction per comment on the calling thread
+    private void addDirectly(QiscusComment qiscusComment) {
+        if (!helper.isContains(qiscusComment)) {
+            helper.sqLiteDatabase.beginTransaction();
+            try {
+                helper.sqLiteDatabase.insert(QiscusDb.CommentTable.TABLE_NAME, null,
+                        QiscusDb.CommentTable.toContentValues(qiscusComment));
+                helper.sqLiteDatabase.setTransactionSuccessful();
+            } finally {
+                helper.sqLiteDatabase.endTransaction();
+            }
+        }
+    }
+
+    private QiscusComment createComment(int topicId) {
+        int id = lastId.incrementAndGet();
+        QiscusComment qiscusComment = new QiscusComment();
+        qiscusComment.setId(id);
+        qiscusComment.setRoomId(topicId);
+        qiscusComment.setTopicId(topicId);
+        qiscusComment.setUniqueId("unique-" + id);
+        qiscusComment.setMessage("message " + id);
+        qiscusComment.setSender("Sender");
+        qiscusComment.setSenderEmail("sender@qiscus.com");
+        qiscusComment.setTimeMillis(1500000000000L + id);
+        qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
+        return qiscusComment;
+    }
+
+    private interface CommentWriter {
+        void write(QiscusComment qiscusComment);
+    }
+
+    private static class Stress {
+        private final QiscusLatencyHistogram writeLatency = new QiscusLatencyHistogram();
+        private final QiscusLatencyHistogram readLatency = new QiscusLatencyHistogram();
+        private final AtomicLong readerStalls = new AtomicLong();
+
+        @Override
+        public String toString() {
+            return writeLatency.getCount() + " writes, p50 " + writeLatency.getPercentileMillis(50)
+                    + " ms, p99 " + writeLatency.getPercentileMillis(99) + " ms; "
+                    + readLatency.getCount() + " page reads, p50 " + readLatency.getPercentileMillis(50)
+                    + " ms, p99 " + readLatency.getPercentileMillis(99) + " ms, "
+                    + readerStalls.get() + " stalls over 16 ms";
+        }
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import android.support.v4.util.Pair;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.qiscus.sdk.data.model.QiscusChatRoom;
+import com.qiscus.sdk.data.model.QiscusComment;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QiscusApiParserTest {
+    private static final MediaType JSON = MediaType.parse("application/json");
+
+    @Test
+    public void parseChatRoomWithComments() {
+        String json = createResponse(20);
+        Pair<QiscusChatRoom, List<QiscusComment>> streamed =
+                QiscusApiParser.parseQiscusChatRoomWithComments(ResponseBody.create(JSON, json));
+        List<QiscusComment> expected = parseByTree(new JsonParser().parse(json));
+
+        assertEquals(12, streamed.first.getId());
+        assertEquals(3, streamed.first.getMember().size());
+        assertEquals(expected.size(), streamed.second.size());
+        for (int i = 0; i < expected.size(); i++) {
+            QiscusComment expectedComment = expected.get(i);
+            QiscusComment actualComment = streamed.second.get(i);
+            assertEquals(expectedComment.getId(), actualComment.getId());
+            assertEquals(expectedComment.getRoomId(), actualComment.getRoomId());
+            assertEquals(expectedComment.getTopicId(), actualComment.getTopicId());
+            assertEquals(expectedComment.getUniqueId(), actualComment.getUniqueId());
+            assertEquals(expectedComment.getCommentBeforeId(), actualComment.getCommentBeforeId());
+            assertEquals(expectedComment.getMessage(), actualComment.getMessage());
+            assertEquals(expectedComment.getSender(), actualComment.getSender());
+            assertEquals(expectedComment.getSenderEmail(), actualComment.getSenderEmail());
+            assertEquals(expectedComment.getSenderAvatar(), actualComment.getSenderAvatar());
+            assertEquals(expectedComment.getTimeMillis(), actualComment.getTimeMillis());
+        }
+    }
+
+    @Test
+    public void benchmark() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        //Allocation is only known on HotSpot, it is printed as -1 elsewhere
+        com.sun.management.ThreadMXBean allocationBean = threadBean instanceof com.sun.management.ThreadMXBean
+                ? (com.sun.management.ThreadMXBean) threadBean : null;
+        long threadId = Thread.currentThread().getId();
+
+        for (int count : new int[]{20, 200, 2000}) {
+            String json = createResponse(count);
+            int iterations = 200000 / count;
+            long checksum = 0;
+            for (int round = 0; round < 5; round++) {
+                //The previous path, the whole body parsed into a Gson tree then mapped
+                long bytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    checksum += parseByTree(new JsonParser().parse(ResponseBody.create(JSON, json).charStream())).size();
+                }
+                long treeTime = System.nanoTime() - start;
+                long treeBytes = allocationBean != null
+                        ? allocationBean.getThreadAllocatedBytes(threadId) - bytes : -1;
+
+                bytes = allocationBean != null ? allocationBean.getThreadAllocatedBytes(threadId) : 0;
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    checksum += QiscusApiParser.parseQiscusChatRoomWithComments(ResponseBody.create(JSON, json))
+                            .second.size();
+                }
+                long streamTime = System.nanoTime() - start;
+                long streamBytes = allocationBean != null
+                        ? allocationBean.getThreadAllocatedBytes(threadId) - bytes : -1;
+
+                //The first rounds are only a warm up
+                if (round == 4) {
+                    long comments = (long) iterations * count;
+                    System.out.println(count + " comments per response, Gson tree: "
+                            + comments * 1000000000L / treeTime + " comments/s, "
+                            + (treeBytes < 0 ? -1 : treeBytes / comments) + " bytes/comment; JsonReader: "
+                            + comments * 1000000000L / streamTime + " comments/s, "
+                            + (streamBytes < 0 ? -1 : streamBytes / comments) + " bytes/comment ("
+                            + checksum % 10 + ")");
+                }
+            }
+        }
+    }
+
+    //Same as parseQiscusChatRoomWithComments(JsonElement) before the streaming parser, room fields left out
+    private static List<QiscusComment> parseByTree(JsonElement jsonElement) {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        JsonObject results = jsonElement.getAsJsonObject().get("results").getAsJsonObject();
+        JsonObject jsonChatRoom = results.get("room").getAsJsonObject();
+        int roomId = jsonChatRoom.get("id").getAsInt();
+        int topicId = jsonChatRoom.get("last_topic_id").getAsInt();
+
+        List<QiscusComment> qiscusComments = new ArrayList<>();
+        for (JsonElement element : results.get("comments").getAsJsonArray()) {
+            JsonObject jsonComment = element.getAsJsonObject();
+            QiscusComment qiscusComment = new QiscusComment();
+            qiscusComment.setTopicId(topicId);
+            qiscusComment.setRoomId(roomId);
+            qiscusComment.setId(jsonComment.get("id").getAsInt());
+            qiscusComment.setCommentBeforeId(jsonComment.get("comment_before_id").getAsInt());
+            qiscusComment.setMessage(jsonComment.get("message").getAsString());
+            qiscusComment.setSender(jsonComment.get("username").getAsString());
+            qiscusComment.setSenderEmail(jsonComment.get("email").getAsString());
+            qiscusComment.setSenderAvatar(jsonComment.get("user_avatar_url").getAsString());
+            qiscusComment.setState(QiscusComment.STATE_ON_QISCUS);
+            try {
+                qiscusComment.setTime(dateFormat.parse(jsonComment.get("timestamp").getAsString()));
+            } catch (ParseException e) {
+                e.printStackTrace();
+            }
+            if (jsonComment.has("unique_id")) {
+                qiscusComment.setUniqueId(jsonComment.get("unique_id").getAsString());
+            } else if (jsonComment.has("unique_temp_id")) {
+                qiscusComment.setUniqueId(jsonComment.get("unique_temp_id").getAsString());
+            } else {
+                qiscusComment.setUniqueId(String.valueOf(qiscusComment.getId()));
+            }
+            qiscusComments.add(qiscusComment);
+        }
+        return qiscusComments;
+    }
+
+    //Shaped like the load_comments response of a room
+    private static String createResponse(int count) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"status\":200,\"results\":{\"room\":{\"id\":12,\"chat_type\":\"group\",")
+                .append("\"room_name\":\"Room\",\"last_comment_id\":").append(count)
+                .append(",\"last_comment_message\":\"message\",\"last_topic_id\":34,\"options\":null,")
+                .append("\"avatar_url\":\"https://qiscus.com/room.png\",\"participants\":[");
+        for (int i = 0; i < 3; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"email\":\"sender").append(i)
+                    .append("@qiscus.com\",\"avatar_url\":\"https://qiscus.com/avatar/").append(i)
+                    .append(".png\",\"username\":\"Sender ").append(i).append("\"}");
+        }
+        json.append("]},\"comments\":[");
+        for (int i = count; i > 0; i--) {
+            json.append(i == count ? "" : ",").append("{\"id\":").append(i)
+                    .append(",\"comment_before_id\":").append(i - 1)
+                    .append(",\"message\":\"Lorem ipsum dolor sit amet, consectetur adipiscing elit ").append(i)
+                    .append("\",\"username\":\"Sender ").append(i % 3)
+                    .append("\",\"email\":\"sender").append(i % 3)
+                    .append("@qiscus.com\",\"user_avatar_url\":\"https://qiscus.com/avatar/").append(i % 3)
+                    .append(".png\",\"timestamp\":\"2017-05-0").append(1 + i % 9).append("T10:")
+                    .append(10 + i % 50).append(":00Z\",\"unique_temp_id\":\"android_").append(i)
+                    .append("\",\"type\":\"text\",\"payload\":null}");
+        }
+        json.append("]}}");
+        return json.toString();
+    }
+}
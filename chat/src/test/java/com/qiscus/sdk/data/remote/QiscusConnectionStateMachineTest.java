@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import com.qiscus.sdk.event.QiscusConnectionStateEvent;
+import com.qiscus.sdk.event.QiscusConnectionStateEvent.State;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QiscusConnectionStateMachineTest {
+    private FakeScheduledExecutor executor;
+    private FakeClient client;
+    private List<QiscusConnectionStateEvent> events;
+    private QiscusConnectionStateMachine stateMachine;
+
+    @Before
+    public void setUp() {
+        executor = new FakeScheduledExecutor();
+        client = new FakeClient();
+        events = new ArrayList<>();
+        stateMachine = new QiscusConnectionStateMachine(executor, client, event -> {
+            assertFalse("listener called under the lock", Thread.holdsLock(stateMachine));
+            events.add(event);
+        }, new Random(42));
+    }
+
+    @Test
+    public void backoffDelayIsWithinCap() {
+        for (int attempt = 0; attempt < 40; attempt++) {
+            long cap = Math.min(QiscusConnectionStateMachine.MAX_DELAY,
+                    QiscusConnectionStateMachine.BASE_DELAY << Math.min(attempt, 16));
+            long max = 0;
+            for (int i = 0; i < 1000; i++) {
+                long delay = stateMachine.getBackoffDelay(attempt);
+                assertTrue("attempt " + attempt + " delay " + delay, delay >= 0 && delay < cap);
+                max = Math.max(max, delay);
+            }
+            //Full jitter use the whole range
+            assertTrue("attempt " + attempt + " max " + max, max > cap * 9 / 10);
+        }
+    }
+
+    @Test
+    public void backoffDelayBounds() {
+        QiscusConnectionStateMachine lowest = createStateMachine(0);
+        QiscusConnectionStateMachine highest = createStateMachine(Math.nextDown(1.0));
+        for (int attempt = 0; attempt < 40; attempt++) {
+            assertEquals(0, lowest.getBackoffDelay(attempt));
+            assertTrue(highest.getBackoffDelay(attempt) < QiscusConnectionStateMachine.MAX_DELAY);
+        }
+        assertEquals(QiscusConnectionStateMachine.BASE_DELAY - 1, highest.getBackoffDelay(0));
+        assertEquals(QiscusConnectionStateMachine.MAX_DELAY - 1, highest.getBackoffDelay(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void connectAndConnected() {
+        stateMachine.connect(true);
+        assertEquals(State.CONNECTING, stateMachine.getState());
+        assertEquals(1, client.connectCount);
+
+        //Already connecting
+        stateMachine.connect(true);
+        assertEquals(1, client.connectCount);
+
+        assertTrue(stateMachine.onConnected());
+        assertEquals(State.CONNECTED, stateMachine.getState());
+        assertTransitions(State.DISCONNECTED, State.CONNECTING, State.CONNECTED);
+    }
+
+    @Test
+    public void connectWithoutNetworkIsSuspended() {
+        stateMachine.connect(false);
+        assertEquals(State.SUSPENDED, stateMachine.getState());
+        assertEquals(0, client.connectCount);
+        assertTrue(executor.getPendingTasks().isEmpty());
+    }
+
+    @Test
+    public void connectionLostIsRetriedWithBackoff() {
+        stateMachine.connect(true);
+        stateMachine.onConnected();
+
+        for (int attempt = 1; attempt <= 10; attempt++) {
+            stateMachine.onConnectionLost(true);
+            assertEquals(State.BACKOFF, stateMachine.getState());
+            List<FakeScheduledExecutor.Task> tasks = executor.getPendingTasks();
+            assertEquals(1, tasks.size());
+            QiscusConnectionStateEvent event = events.get(events.size() - 1);
+            assertEquals(attempt, event.getAttempt());
+            assertEquals(tasks.get(0).getDelay(), event.getReconnectDelay());
+            assertTrue(tasks.get(0).getDelay() < Math.min(QiscusConnectionStateMachine.MAX_DELAY,
+                    QiscusConnectionStateMachine.BASE_DELAY << attempt));
+
+            assertTrue(executor.runNext());
+            assertEquals(State.CONNECTING, stateMachine.getState());
+            assertEquals(attempt + 1, client.connectCount);
+        }
+
+        //A successful connection reset the attempts
+        assertTrue(stateMachine.onConnected());
+        stateMachine.onConnectionLost(true);
+        assertEquals(1, events.get(events.size() - 1).getAttempt());
+    }
+
+    @Test
+    public void suspendedWhileNetworkIsLostAndResumedWithBackoff() {
+        stateMachine.connect(true);
+        stateMachine.onConnected();
+
+        stateMachine.onConnectionLost(false);
+        assertEquals(State.SUSPENDED, stateMachine.getState());
+        assertTrue(executor.getPendingTasks().isEmpty());
+
+        stateMachine.onNetworkChanged(true);
+        assertEquals(State.BACKOFF, stateMachine.getState());
+        assertEquals(1, executor.getPendingTasks().size());
+        assertTrue(executor.getPendingTasks().get(0).getDelay() < QiscusConnectionStateMachine.BASE_DELAY);
+        assertEquals(1, client.connectCount);
+
+        assertTrue(executor.runNext());
+        assertEquals(State.CONNECTING, stateMachine.getState());
+        assertEquals(2, client.connectCount);
+        assertTrue(stateMachine.onConnected());
+        assertTransitions(State.DISCONNECTED, State.CONNECTING, State.CONNECTED, State.SUSPENDED, State.BACKOFF,
+                State.CONNECTING, State.CONNECTED);
+    }
+
+    @Test
+    public void networkLostDuringBackoffCancelRetry() {
+        stateMachine.connect(true);
+        stateMachine.onConnected();
+        stateMachine.onConnectionLost(true);
+        FakeScheduledExecutor.Task retry = executor.getPendingTasks().get(0);
+
+        stateMachine.onNetworkChanged(false);
+        assertEquals(State.SUSPENDED, stateMachine.getState());
+        assertTrue(retry.isCancelled());
+
+        //A retry which already started when it was cancelled must not connect
+        retry.run();
+        assertEquals(State.SUSPENDED, stateMachine.getState());
+        assertEquals(1, client.connectCount);
+    }
+
+    @Test
+    public void networkChangeWhileConnectedIsIgnored() {
+        stateMachine.connect(true);
+        stateMachine.onConnected();
+        stateMachine.onNetworkChanged(true);
+        stateMachine.onNetworkChanged(false);
+        assertEquals(State.CONNECTED, stateMachine.getState());
+    }
+
+    @Test
+    public void connectedAfterDisconnectIsRejected() {
+        stateMachine.connect(true);
+        stateMachine.disconnect();
+        assertEquals(State.DISCONNECTED, stateMachine.getState());
+        assertFalse(stateMachine.onConnected());
+        assertEquals(State.DISCONNECTED, stateMachine.getState());
+
+        stateMachine.onConnectionLost(true);
+        assertEquals(State.DISCONNECTED, stateMachine.getState());
+        assertTrue(executor.getPendingTasks().isEmpty());
+    }
+
+    @Test
+    public void listenerCallingBackKeepOrder() {
+        stateMachine = new QiscusConnectionStateMachine(executor, client, event -> {
+            events.add(event);
+            if (event.getState() == State.CONNECTED) {
+                stateMachine.disconnect();
+            }
+        });
+        stateMachine.connect(true);
+        stateMachine.onConnected();
+        assertTransitions(State.DISCONNECTED, State.CONNECTING, State.CONNECTED, State.DISCONNECTED);
+    }
+
+    private QiscusConnectionStateMachine createStateMachine(double randomValue) {
+        return new QiscusConnectionStateMachine(executor, client, events::add, new Random() {
+            @Override
+            public double nextDouble() {
+                return randomValue;
+            }
+        });
+    }
+
+    private void assertTransitions(State... states) {
+        assertEquals(states.length - 1, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(states[i], events.get(i).getPreviousState());
+            assertEquals(states[i + 1], events.get(i).getState());
+        }
+    }
+
+    private class FakeClient implements QiscusConnectionStateMachine.Connector {
+        private int connectCount;
+
+        @Override
+        public void connect() {
+            assertFalse("connect called under the lock", Thread.holdsLock(stateMachine));
+            connectCount++;
+        }
+    }
+}
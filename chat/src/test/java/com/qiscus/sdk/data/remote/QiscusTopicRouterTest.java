@@ -0,0 +1,210 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QiscusTopicRouterTest {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private QiscusTopicRouter router;
+    private String routedFilter;
+    private QiscusTopicRouter.Topic routedTopic;
+
+    @Before
+    public void setUp() {
+        router = new QiscusTopicRouter();
+    }
+
+    @Test
+    public void routeByFilter() throws Exception {
+        register("+/c");
+        register("r/+/+/+/t");
+        register("r/+/+/+/d");
+        register("u/+/s");
+
+        assertRouted("token/c", "+/c");
+        assertRouted("r/12/34/user@mail.com/t", "r/+/+/+/t");
+        assertRouted("r/12/34/user@mail.com/d", "r/+/+/+/d");
+        assertRouted("u/user@mail.com/s", "u/+/s");
+        assertNotRouted("r/12/34/t");
+        assertNotRouted("r/12/34/user@mail.com/x");
+        assertNotRouted("token/c/more");
+    }
+
+    @Test
+    public void exactLevelWinOverWildcards() throws Exception {
+        register("a/#");
+        register("a/+/c");
+        register("a/b/c");
+
+        assertRouted("a/b/c", "a/b/c");
+        assertRouted("a/x/c", "a/+/c");
+        assertRouted("a/x/y", "a/#");
+        assertRouted("a/b/c/d", "a/#");
+    }
+
+    @Test
+    public void unregister() throws Exception {
+        register("a/+");
+        router.unregister("a/+");
+        assertNotRouted("a/b");
+
+        //Unknown filters are ignored
+        router.unregister("x/y/z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void multiLevelMustBeLast() {
+        register("a/#/b");
+    }
+
+    @Test
+    public void topicLevels() throws Exception {
+        register("r/+/+/+/t");
+        router.route("r/12/34/user@mail.com/t", new byte[0]);
+
+        assertEquals(5, routedTopic.getLevelCount());
+        assertEquals(12, routedTopic.getIntLevel(1));
+        assertEquals(34, routedTopic.getIntLevel(2));
+        assertEquals("user@mail.com", routedTopic.getLevel(3));
+        assertTrue(routedTopic.isLevel(3, "user@mail.com"));
+        assertFalse(routedTopic.isLevel(3, "user@mail.co"));
+        assertFalse(routedTopic.isLevel(3, null));
+    }
+
+    @Test
+    public void intLevelBounds() throws Exception {
+        register("r/+");
+        router.route("r/2147483647", new byte[0]);
+        assertEquals(Integer.MAX_VALUE, routedTopic.getIntLevel(1));
+        router.route("r/0002147483647", new byte[0]);
+        assertEquals(Integer.MAX_VALUE, routedTopic.getIntLevel(1));
+
+        String[] invalidLevels = {"2147483648", "9999999999", "99999999999999999999", "", "-1", "12a"};
+        for (String level : invalidLevels) {
+            router.route("r/" + level, new byte[0]);
+            try {
+                routedTopic.getIntLevel(1);
+                throw new AssertionError("Level " + level + " must not be parsed");
+            } catch (NumberFormatException ignored) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void parseLong() {
+        String[] values = {"0", "7", "-7", "123456789012", "9223372036854775807", "-9223372036854775808"};
+        for (String value : values) {
+            byte[] payload = ("x" + value + ":").getBytes(UTF_8);
+            assertEquals(Long.parseLong(value), QiscusTopicRouter.parseLong(payload, 1, payload.length - 1));
+        }
+
+        String[] invalidValues = {"", "-", "9223372036854775808", "-9223372036854775809", "1-2", "1.5"};
+        for (String value : invalidValues) {
+            byte[] payload = value.getBytes(UTF_8);
+            try {
+                QiscusTopicRouter.parseLong(payload, 0, payload.length);
+                throw new AssertionError(value + " must not be parsed");
+            } catch (NumberFormatException ignored) {
+                //expected
+            }
+        }
+    }
+
+    @Test
+    public void benchmark() throws Exception {
+        String[] topics = {
+                "a1b2c3d4e5/c",
+                "r/1234/5678/user@mail.com/t",
+                "r/1234/5678/user@mail.com/d",
+                "r/1234/5678/user@mail.com/r",
+                "u/user@mail.com/s",
+        };
+        long[] sum = new long[1];
+        QiscusTopicRouter.Handler roomHandler = (topic, payload) ->
+                sum[0] += topic.getIntLevel(1) + topic.getIntLevel(2) + (topic.isLevel(3, "me@mail.com") ? 1 : 0);
+        router.register("+/c", (topic, payload) -> sum[0] += topic.isLevel(0, "a1b2c3d4e5") ? 1 : 0);
+        router.register("r/+/+/+/t", roomHandler);
+        router.register("r/+/+/+/d", roomHandler);
+        router.register("r/+/+/+/r", roomHandler);
+        router.register("u/+/s", (topic, payload) -> sum[0] += topic.isLevel(1, "me@mail.com") ? 1 : 0);
+
+        int count = 1000000;
+        for (int round = 0; round < 3; round++) {
+            //The previous dispatch, a chain of checks on the topic string split into levels
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sum[0] += routeBySplit(topics[i % topics.length]);
+            }
+            long splitTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                router.route(topics[i % topics.length], null);
+            }
+            long routerTime = System.nanoTime() - start;
+
+            if (round == 2) {
+                System.out.println("Dispatch " + count + " messages, split: " + splitTime / 1000000
+                        + " ms, QiscusTopicRouter: " + routerTime / 1000000 + " ms (" + sum[0] % 10 + ")");
+            }
+        }
+    }
+
+    private static long routeBySplit(String topic) {
+        if (topic.contains("a1b2c3d4e5")) {
+            return 1;
+        } else if (topic.startsWith("r/") && (topic.endsWith("/t") || topic.endsWith("/d") || topic.endsWith("/r"))) {
+            String[] data = topic.split("/");
+            return Integer.parseInt(data[1]) + Integer.parseInt(data[2]) + (data[3].equals("me@mail.com") ? 1 : 0);
+        } else if (topic.startsWith("u/") && topic.endsWith("/s")) {
+            String[] data = topic.split("/");
+            return data[1].equals("me@mail.com") ? 1 : 0;
+        }
+        return 0;
+    }
+
+    private void register(String topicFilter) {
+        router.register(topicFilter, (topic, payload) -> {
+            routedFilter = topicFilter;
+            routedTopic = topic;
+        });
+    }
+
+    private void assertRouted(String topic, String expectedFilter) throws Exception {
+        routedFilter = null;
+        assertTrue(topic, router.route(topic, new byte[0]));
+        assertEquals(topic, expectedFilter, routedFilter);
+        assertEquals(topic, routedTopic.getValue());
+    }
+
+    private void assertNotRouted(String topic) throws Exception {
+        routedFilter = null;
+        assertFalse(topic, router.route(topic, new byte[0]));
+        assertNull(routedFilter);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.data.remote;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class QiscusTypingPublisherTest {
+    private static final long PUBLISH_INTERVAL = 50;
+    private static final long IDLE_TIMEOUT = 200;
+
+    private ScheduledExecutorService executor;
+    private RecordingPublisher publisher;
+    private QiscusTypingPublisher typingPublisher;
+
+    @Before
+    public void setUp() {
+        executor = Executors.newSingleThreadScheduledExecutor();
+        publisher = new RecordingPublisher();
+        typingPublisher = new QiscusTypingPublisher(executor, publisher);
+        typingPublisher.setPublishInterval(PUBLISH_INTERVAL);
+        typingPublisher.setIdleTimeout(IDLE_TIMEOUT);
+    }
+
+    @After
+    public void tearDown() {
+        typingPublisher.clear();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void keystrokesPublishTypingOnceThenStopWhenIdle() throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            typingPublisher.setTyping(1, 2, true);
+            Thread.sleep(5);
+        }
+        assertEquals(1, publisher.size());
+        assertTrue(publisher.get(0).typing);
+
+        Thread.sleep(IDLE_TIMEOUT * 2);
+        assertEquals(2, publisher.size());
+        assertFalse(publisher.get(1).typing);
+    }
+
+    @Test
+    public void changesArePublishedAtMostOncePerInterval() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < 400; i++) {
+            typingPublisher.setTyping(1, 2, i % 3 != 2);
+            Thread.sleep(2);
+        }
+        typingPublisher.setTyping(1, 2, false);
+        long duration = System.currentTimeMillis() - start;
+        Thread.sleep(PUBLISH_INTERVAL * 3);
+
+        assertTrue("published " + publisher.size() + " in " + duration + " ms",
+                publisher.size() <= duration / PUBLISH_INTERVAL + 2);
+        for (int i = 1; i < publisher.size(); i++) {
+            //Scheduled publishes can run a little early by the clock granularity
+            long gap = publisher.get(i).time - publisher.get(i - 1).time;
+            assertTrue("gap " + gap + " ms", gap >= PUBLISH_INTERVAL - 5);
+            assertTrue(publisher.get(i).typing != publisher.get(i - 1).typing);
+        }
+        //The latest state wins
+        assertFalse(publisher.get(publisher.size() - 1).typing);
+    }
+
+    @Test
+    public void roomsAreIndependent() {
+        typingPublisher.setTyping(1, 2, true);
+        typingPublisher.setTyping(3, 4, true);
+        typingPublisher.setTyping(1, 2, false);
+
+        assertEquals(2, publisher.size());
+        assertEquals(1, publisher.get(0).roomId);
+        assertEquals(3, publisher.get(1).roomId);
+    }
+
+    @Test
+    public void stopWithoutTypingIsNotPublished() {
+        typingPublisher.setTyping(1, 2, false);
+        assertEquals(0, publisher.size());
+    }
+
+    private static class RecordingPublisher implements QiscusTypingPublisher.Publisher {
+        private final List<Event> events = new ArrayList<>();
+
+        @Override
+        public synchronized void publish(int roomId, int topicId, boolean typing) {
+            events.add(new Event(roomId, typing, System.currentTimeMillis()));
+        }
+
+        private synchronized int size() {
+            return events.size();
+        }
+
+        private synchronized Event get(int index) {
+            return events.get(index);
+        }
+    }
+
+    private static class Event {
+        private final int roomId;
+        private final boolean typing;
+        private final long time;
+
+        private Event(int roomId, boolean typing, long time) {
+            this.roomId = roomId;
+            this.typing = typing;
+            this.time = time;
+        }
+    }
+}
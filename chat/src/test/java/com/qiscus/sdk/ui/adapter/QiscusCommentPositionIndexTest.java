@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.ui.adapter;
+
+import android.support.v7.util.SortedList;
+
+import com.qiscus.sdk.data.model.QiscusComment;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(manifest = Config.NONE)
+public class QiscusCommentPositionIndexTest {
+    private SortedList<QiscusComment> data;
+    private QiscusCommentPositionIndex<QiscusComment> positionIndex;
+    private Random random;
+    private int lastId;
+    private int lastUniqueId;
+
+    @Before
+    public void setUp() {
+        positionIndex = new QiscusCommentPositionIndex<>(new Callback());
+        data = new SortedList<>(QiscusComment.class, positionIndex);
+        positionIndex.setData(data);
+        random = new Random(3);
+    }
+
+    @Test
+    public void findAfterAddAll() {
+        data.addAll(createComments(100));
+        assertConsistent();
+
+        //Older comments loaded at the end, newer at the start
+        data.addAll(createComments(50));
+        QiscusComment olderComment = createComment();
+        olderComment.setId(-5);
+        data.add(olderComment);
+        assertConsistent();
+    }
+
+    @Test
+    public void findAfterUpdateMove() {
+        data.addAll(createComments(100));
+        QiscusComment pendingComment = createPendingComment();
+        data.add(pendingComment);
+        assertConsistent();
+
+        //The comment get its id once sent, and move below the newer pending comments
+        data.add(createPendingComment());
+        QiscusComment sentComment = copy(pendingComment);
+        sentComment.setId(++lastId);
+        sentComment.setState(QiscusComment.STATE_ON_QISCUS);
+        data.updateItemAt(positionIndex.find(sentComment), sentComment);
+        assertEquals(1, positionIndex.find(sentComment));
+        assertConsistent();
+    }
+
+    @Test
+    public void findAfterRemove() {
+        List<QiscusComment> comments = createComments(100);
+        data.addAll(comments);
+        assertConsistent();
+
+        //Same as refreshWithData, walk backward removing the comments not in the new data
+        Set<String> keptUniqueIds = new HashSet<>();
+        for (int i = 0; i < comments.size(); i += 3) {
+            keptUniqueIds.add(comments.get(i).getUniqueId());
+        }
+        for (int i = data.size() - 1; i >= 0; i--) {
+            if (!keptUniqueIds.contains(data.get(i).getUniqueId())) {
+                data.removeItemAt(i);
+            }
+        }
+        assertConsistent();
+        for (QiscusComment comment : comments) {
+            if (!keptUniqueIds.contains(comment.getUniqueId())) {
+                assertEquals(-1, positionIndex.find(comment));
+            }
+        }
+    }
+
+    @Test
+    public void findAfterRandomChanges() {
+        for (int step = 0; step < 2000; step++) {
+            int operation = random.nextInt(4);
+            if (operation == 0 || data.size() == 0) {
+                List<QiscusComment> comments = createComments(1 + random.nextInt(10));
+                if (random.nextBoolean()) {
+                    comments.add(createPendingComment());
+                }
+                data.addAll(comments);
+            } else if (operation == 1) {
+                int position = random.nextInt(data.size());
+                data.removeItemAt(position);
+            } else {
+                QiscusComment comment = copy(data.get(random.nextInt(data.size())));
+                if (comment.getId() == -1 || random.nextBoolean()) {
+                    comment.setId(++lastId);
+                    comment.setState(QiscusComment.STATE_ON_QISCUS);
+                } else {
+                    comment.setMessage("Edited " + step);
+                }
+                data.updateItemAt(positionIndex.find(comment), comment);
+            }
+
+            //Lookups in between changes use the index before it is rebuilt
+            int position = random.nextInt(data.size());
+            assertEquals(position, positionIndex.find(copy(data.get(position))));
+            if (step % 100 == 0) {
+                assertConsistent();
+            }
+        }
+        assertConsistent();
+    }
+
+    @Test
+    public void benchmark() {
+        int count = 5000;
+        List<QiscusComment> comments = createComments(count);
+        List<QiscusComment> updates = new ArrayList<>();
+        for (QiscusComment comment : comments) {
+            QiscusComment update = copy(comment);
+            update.setState(QiscusComment.STATE_READ);
+            updates.add(update);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            data.clear();
+            data.addAll(comments);
+            //The previous lookup, compare every comment until found
+            long start = System.nanoTime();
+            for (QiscusComment update : updates) {
+                data.updateItemAt(findLinear(update), update);
+            }
+            long linearTime = System.nanoTime() - start;
+
+            data.clear();
+            data.addAll(comments);
+            start = System.nanoTime();
+            for (QiscusComment update : updates) {
+                data.updateItemAt(positionIndex.find(update), update);
+            }
+            long indexTime = System.nanoTime() - start;
+
+            if (round == 2) {
+                System.out.println("Merge " + count + " comments, linear lookup: " + linearTime / 1000000
+                        + " ms, QiscusCommentPositionIndex: " + indexTime / 1000000 + " ms");
+            }
+        }
+    }
+
+    private void assertConsistent() {
+        for (int i = 0; i < data.size(); i++) {
+            QiscusComment comment = data.get(i);
+            assertEquals(comment.toString(), i, positionIndex.find(copy(comment)));
+
+            //Found by unique id too, e.g a pending comment coming back from the server
+            QiscusComment sameUniqueId = new QiscusComment();
+            sameUniqueId.setId(-1);
+            sameUniqueId.setUniqueId(comment.getUniqueId());
+            assertEquals(comment.toString(), i, positionIndex.find(sameUniqueId));
+        }
+        QiscusComment unknownComment = new QiscusComment();
+        unknownComment.setId(Integer.MAX_VALUE);
+        unknownComment.setUniqueId("unknown");
+        assertEquals(-1, positionIndex.find(unknownComment));
+    }
+
+    private int findLinear(QiscusComment comment) {
+        for (int i = 0; i < data.size(); i++) {
+            if (data.get(i).equals(comment)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private List<QiscusComment> createComments(int count) {
+        List<QiscusComment> comments = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            QiscusComment comment = createComment();
+            comment.setId(++lastId);
+            comment.setState(QiscusComment.STATE_ON_QISCUS);
+            comments.add(comment);
+        }
+        return comments;
+    }
+
+    private QiscusComment createPendingComment() {
+        QiscusComment comment = createComment();
+        comment.setId(-1);
+        comment.setState(QiscusComment.STATE_SENDING);
+        return comment;
+    }
+
+    private QiscusComment createComment() {
+        QiscusComment comment = new QiscusComment();
+        comment.setUniqueId("unique_" + ++lastUniqueId);
+        comment.setMessage("Message " + lastUniqueId);
+        comment.setTime(new Date(1500000000000L + lastUniqueId * 1000L));
+        return comment;
+    }
+
+    private static QiscusComment copy(QiscusComment comment) {
+        QiscusComment copy = new QiscusComment();
+        copy.setId(comment.getId());
+        copy.setUniqueId(comment.getUniqueId());
+        copy.setMessage(comment.getMessage());
+        copy.setTime(comment.getTime());
+        copy.setState(comment.getState());
+        return copy;
+    }
+
+    //Same order as QiscusBaseChatAdapter, the newest comment first
+    private static class Callback extends SortedList.Callback<QiscusComment> {
+        @Override
+        public int compare(QiscusComment lhs, QiscusComment rhs) {
+            if (lhs.getState() != QiscusComment.STATE_SENDING && rhs.getState() == QiscusComment.STATE_SENDING) {
+                return 1;
+            }
+            return lhs.getId() != -1 && rhs.getId() != -1 ?
+                    Integer.compare(rhs.getId(), lhs.getId()) : rhs.getTime().compareTo(lhs.getTime());
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+
+        }
+
+        @Override
+        public void onChanged(int position, int count) {
+
+        }
+
+        @Override
+        public boolean areContentsTheSame(QiscusComment oldItem, QiscusComment newItem) {
+            return oldItem.getState() == newItem.getState() && oldItem.getMessage().equals(newItem.getMessage());
+        }
+
+        @Override
+        public boolean areItemsTheSame(QiscusComment item1, QiscusComment item2) {
+            return item1.equals(item2);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.util;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class QiscusIso8601UtilTest {
+    //From 1900-01-01 to 2100-01-01
+    private static final long MIN_TIME = -2208988800000L;
+    private static final long MAX_TIME = 4102444800000L;
+
+    @Test
+    public void parseMatchesSimpleDateFormat() throws ParseException {
+        SimpleDateFormat dateFormat = createDateFormat();
+        String[] timestamps = {
+                "1970-01-01T00:00:00Z",
+                "2017-02-02T10:15:30Z",
+                "2016-02-29T23:59:59Z",
+                "2000-02-29T12:00:00Z",
+                "1999-12-31T23:59:59Z",
+                "1969-12-31T23:59:59Z",
+                "2038-01-19T03:14:08Z",
+        };
+        for (String timestamp : timestamps) {
+            assertEquals(timestamp, dateFormat.parse(timestamp).getTime(), QiscusIso8601Util.parse(timestamp));
+        }
+    }
+
+    @Test
+    public void parseFractionAndOffset() {
+        long time = QiscusIso8601Util.parse("2017-02-02T10:15:30Z");
+        assertEquals(time + 123, QiscusIso8601Util.parse("2017-02-02T10:15:30.123Z"));
+        assertEquals(time + 500, QiscusIso8601Util.parse("2017-02-02T10:15:30.5Z"));
+        assertEquals(time + 123, QiscusIso8601Util.parse("2017-02-02T10:15:30.123456Z"));
+        assertEquals(time, QiscusIso8601Util.parse("2017-02-02T17:15:30+07:00"));
+        assertEquals(time, QiscusIso8601Util.parse("2017-02-02T17:15:30+0700"));
+        assertEquals(time, QiscusIso8601Util.parse("2017-02-02T05:45:30-04:30"));
+        assertEquals(time, QiscusIso8601Util.parse("2017-02-02T10:15:30"));
+        assertEquals(time, QiscusIso8601Util.parse("2017-02-02 10:15:30z"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseNull() {
+        QiscusIso8601Util.parse(null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseInvalidDay() {
+        QiscusIso8601Util.parse("2017-02-29T10:15:30Z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseInvalidSeparator() {
+        QiscusIso8601Util.parse("2017/02/02T10:15:30Z");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseTrailingCharacters() {
+        QiscusIso8601Util.parse("2017-02-02T10:15:30Zabc");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parseEmptyFraction() {
+        QiscusIso8601Util.parse("2017-02-02T10:15:30.Z");
+    }
+
+    @Test
+    public void formatMatchesSimpleDateFormat() {
+        SimpleDateFormat dateFormat = createDateFormat();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            long time = randomTime(random);
+            assertEquals(dateFormat.format(time), QiscusIso8601Util.format(time));
+        }
+    }
+
+    @Test
+    public void roundTrip() {
+        Random random = new Random(7);
+        for (int i = 0; i < 100000; i++) {
+            long time = randomTime(random) / 1000 * 1000;
+            assertEquals(time, QiscusIso8601Util.parse(QiscusIso8601Util.format(time)));
+        }
+    }
+
+    @Test
+    public void concurrentRoundTrip() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                final int seed = i;
+                futures.add(executor.submit((Callable<Integer>) () -> {
+                    SimpleDateFormat dateFormat = createDateFormat();
+                    Random random = new Random(seed);
+                    int mismatches = 0;
+                    for (int j = 0; j < 50000; j++) {
+                        long time = randomTime(random) / 1000 * 1000;
+                        String formatted = QiscusIso8601Util.format(time);
+                        if (!formatted.equals(dateFormat.format(time))
+                                || QiscusIso8601Util.parse(formatted) != time) {
+                            mismatches++;
+                        }
+                    }
+                    return mismatches;
+                }));
+            }
+            for (Future<Integer> future : futures) {
+                assertEquals(0, (int) future.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void benchmark() throws ParseException {
+        int count = 200000;
+        String[] timestamps = new String[1024];
+        Random random = new Random(1);
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = QiscusIso8601Util.format(randomTime(random));
+        }
+
+        SimpleDateFormat dateFormat = createDateFormat();
+        long sum = 0;
+        for (int round = 0; round < 2; round++) {
+            //The first round is warm up
+            long start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sum += dateFormat.parse(timestamps[i & 1023]).getTime();
+                sum += dateFormat.format(sum & 0xFFFFFFFFFFL).length();
+            }
+            long simpleDateFormatTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                sum += QiscusIso8601Util.parse(timestamps[i & 1023]);
+                sum += QiscusIso8601Util.format(sum & 0xFFFFFFFFFFL).length();
+            }
+            long iso8601Time = System.nanoTime() - start;
+
+            if (round == 1) {
+                System.out.println("Parse and format " + count + " timestamps, SimpleDateFormat: "
+                        + simpleDateFormatTime / 1000000 + " ms, QiscusIso8601Util: " + iso8601Time / 1000000
+                        + " ms (" + sum % 10 + ")");
+            }
+        }
+    }
+
+    private static SimpleDateFormat createDateFormat() {
+        SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+
+    private static long randomTime(Random random) {
+        return MIN_TIME + (long) (random.nextDouble() * (MAX_TIME - MIN_TIME));
+    }
+}
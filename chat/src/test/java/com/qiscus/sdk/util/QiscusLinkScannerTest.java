@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2016 Qiscus.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.qiscus.sdk.util;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+
+public class QiscusLinkScannerTest {
+    private static final String[] CORPUS = {
+            "",
+            "hello world",
+            "check google.com now",
+            "http://foo.bar/baz?x=1 and www.qiscus.com.",
+            "mail me at a.b@c.com",
+            "email: john.doe+x@mail.co.id ok",
+            "u:pass@host.com",
+            "@foo.com bar.com@",
+            "ip 192.168.1.1:8080/path",
+            "HTTPS://EXAMPLE",
+            "https://a",
+            "rtsp://stream.tv/live",
+            "https://sub.example.co.id/a/b",
+            "foo.sure",
+            "x.net,y.org;z.biz",
+            "a.id b.id.",
+            "://",
+            "...",
+            "end.",
+            "versi 1.2.3",
+            "tanya.com?a=b#c",
+            "(see qiscus.com)",
+            "na\u00efve.com \u00fcn\u00efcode.org",
+            "foo.com bar.com",
+            //The unescaped dot of the co.id TLD also match a space
+            "co id",
+            "example.co id rest",
+            "example.co  id",
+            "example.co\tid",
+            "example.co\nid",
+            "example.co\rid",
+            "x.coXid",
+            "mail@example.co id",
+            //No break and other spaces which are not whitespace for the tokenizer
+            "foo.com\u00a0bar.com",
+            "visit\u00a0qiscus.com\u00a0now",
+            "\u00a0http://qiscus.com\u00a0",
+            "a@b.com\u00a0c@d.com",
+            "\u3000foo.com\u3000",
+            "foo.com\u2028bar.com",
+            "foo.com\u200bbar.com",
+    };
+
+    @Test
+    public void corpusMatchesPatterns() {
+        for (String text : CORPUS) {
+            assertSameMatches(text);
+        }
+    }
+
+    @Test
+    public void randomTextsMatchPatterns() {
+        Random random = new Random(1);
+        String alphabet = "ab.co:/@ id\tnx1-9comorgnetbiz\u00e9\u00a0\n";
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                text.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertSameMatches(text.toString());
+        }
+    }
+
+    @Test
+    public void extractUrls() {
+        assertEquals(Arrays.asList("http://qiscus.com", "https://google.com/search?q=a"),
+                QiscusLinkScanner.extractUrls("see qiscus.com and https://google.com/search?q=a, or me@mail.com"));
+    }
+
+    @Test
+    public void benchmark() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            builder.append("lorem ipsum dolor sit amet. ");
+        }
+        builder.append("see qiscus.com");
+        String text = builder.toString();
+
+        for (int round = 0; round < 3; round++) {
+            long start = System.nanoTime();
+            List<String> expected = find(QiscusPatterns.AUTOLINK_WEB_URL, text);
+            long patternTime = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            List<String> actual = new ArrayList<>();
+            QiscusLinkScanner.findUrls(text, (matchStart, matchEnd) -> actual.add(matchStart + "-" + matchEnd));
+            long scannerTime = System.nanoTime() - start;
+
+            assertEquals(expected, actual);
+            if (round == 2) {
+                System.out.println("Find urls in " + text.length() + " chars, AUTOLINK_WEB_URL: "
+                        + patternTime / 1000000 + " ms, QiscusLinkScanner: " + scannerTime / 1000000 + " ms");
+            }
+        }
+    }
+
+    private static void assertSameMatches(String text) {
+        List<String> urls = new ArrayList<>();
+        QiscusLinkScanner.findUrls(text, (start, end) -> urls.add(start + "-" + end));
+        assertEquals(escape(text), find(QiscusPatterns.AUTOLINK_WEB_URL, text), urls);
+
+        List<String> emails = new ArrayList<>();
+        QiscusLinkScanner.findEmails(text, (start, end) -> emails.add(start + "-" + end));
+        assertEquals(escape(text), find(QiscusPatterns.AUTOLINK_EMAIL_ADDRESS, text), emails);
+    }
+
+    private static List<String> find(Pattern pattern, String text) {
+        List<String> matches = new ArrayList<>();
+        Matcher matcher = pattern.matcher(text);
+        while (matcher.find()) {
+            matches.add(matcher.start() + "-" + matcher.end());
+        }
+        return matches;
+    }
+
+    private static String escape(String text) {
+        return text.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t").replace("\u00a0", "\\u00a0");
+    }
+}